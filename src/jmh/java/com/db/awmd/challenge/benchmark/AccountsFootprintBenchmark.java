@@ -0,0 +1,80 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.function.LongFunction;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsRepositoryOffHeap;
+import com.db.awmd.challenge.service.EmailNotificationService;
+import com.db.awmd.challenge.service.NotificationService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Loads the given numbers of accounts into each repository engine and
+ *         prints the heap and direct memory retained per account. Run with
+ *         {@code gradle footprintBenchmark -Paccounts=1000000,10000000}; the
+ *         map based engine needs roughly 200 bytes of heap per account, so
+ *         size -Xmx accordingly for the 50M run.
+ *
+ */
+public class AccountsFootprintBenchmark {
+
+	private static final int SEGMENTS = 64;
+
+	private static final NotificationService NOTIFICATIONS = new EmailNotificationService();
+
+	public static void main(String[] args) {
+		String[] counts = args.length > 0 ? args : new String[] { "1000000", "10000000", "50000000" };
+
+		System.out.printf("%-10s %12s %14s %14s %12s%n", "engine", "accounts", "heap bytes", "direct bytes",
+				"bytes/acct");
+		for (String count : counts) {
+			long accounts = Long.parseLong(count.trim());
+			measure("map", accounts, n -> new AccountsRepositoryInMemory(NOTIFICATIONS));
+			measure("offheap", accounts, n -> new AccountsRepositoryOffHeap(NOTIFICATIONS, SEGMENTS,
+					(int) Math.min(1 << 30, n * 100 / 60 / SEGMENTS + 1)));
+		}
+	}
+
+	private static void measure(String engine, long accounts, LongFunction<AccountsRepository> factory) {
+		long heapBefore = usedHeap();
+		long directBefore = usedDirect();
+
+		AccountsRepository repository = factory.apply(accounts);
+		for (long i = 0; i < accounts; i++) {
+			repository.createAccount(new Account("ACC-" + i, BigDecimal.TEN));
+		}
+
+		long heap = usedHeap() - heapBefore;
+		long direct = usedDirect() - directBefore;
+		System.out.printf("%-10s %12d %14d %14d %12.1f%n", engine, accounts, heap, direct,
+				(heap + direct) / (double) accounts);
+
+		// keep the repository reachable until it has been measured
+		if (repository.getAccount("ACC-0") == null) {
+			throw new IllegalStateException("account ACC-0 was not stored");
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long usedDirect() {
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if ("direct".equals(pool.getName())) {
+				return pool.getMemoryUsed();
+			}
+		}
+		return 0;
+	}
+}
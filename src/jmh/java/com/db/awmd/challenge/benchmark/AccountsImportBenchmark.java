@@ -0,0 +1,78 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.config.ImportProperties;
+import com.db.awmd.challenge.domain.ImportResult;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsImporter;
+import com.db.awmd.challenge.service.AccountsImporter.Format;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Accounts per second imported into an empty in-memory repository from
+ *         a million row CSV or NDJSON input held in memory, so the figure
+ *         covers parsing and insertion but not I/O.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(AccountsImportBenchmark.ROWS)
+@Warmup(iterations = 3, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class AccountsImportBenchmark {
+
+	static final int ROWS = 1_000_000;
+
+	@Param({ "CSV", "NDJSON" })
+	Format format;
+
+	byte[] input;
+
+	AccountsImporter importer;
+
+	@Setup(Level.Trial)
+	public void buildInput() {
+		StringBuilder text = new StringBuilder(ROWS * 40);
+		for (int i = 0; i < ROWS; i++) {
+			if (format == Format.CSV) {
+				text.append("ACC-").append(i).append(',').append(i % 100_000).append(".25\n");
+			} else {
+				text.append("{\"accountId\":\"ACC-").append(i).append("\",\"balance\":").append(i % 100_000)
+						.append(".25}\n");
+			}
+		}
+		input = text.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Setup(Level.Invocation)
+	public void emptyRepository() {
+		importer = new AccountsImporter(new AccountsRepositoryInMemory((account, description) -> {
+		}), new ImportProperties());
+	}
+
+	@Benchmark
+	public ImportResult importAccounts() throws IOException {
+		return importer.importAccounts(new ByteArrayInputStream(input), format);
+	}
+}
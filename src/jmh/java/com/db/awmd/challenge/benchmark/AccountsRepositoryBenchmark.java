@@ -0,0 +1,301 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.config.HotAccountProperties;
+import com.db.awmd.challenge.config.JournalProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.DurabilityLevel;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsRepositoryOffHeap;
+import com.db.awmd.challenge.repository.AccountsRepositoryOptimistic;
+import com.db.awmd.challenge.repository.AccountsRepositorySharded;
+import com.db.awmd.challenge.repository.JournaledAccountsRepository;
+import com.db.awmd.challenge.service.NotificationService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         JMH benchmarks of createAccount, getAccount and transferMoney for
+ *         every repository engine and access pattern. Thread counts are set by
+ *         {@link RepositoryBenchmarkRunner}; run everything with
+ *         {@code gradle jmh}.
+ *
+ *         uniform picks accounts at random, zipfian favours a few hot accounts
+ *         and disjoint gives every thread its own pair of accounts.
+ *
+ *         locking-hot is the locking engine with the accounts zipfian favours
+ *         most split across slots; compare it with locking on zipfian.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountsRepositoryBenchmark {
+
+	private static final NotificationService NOTIFICATIONS = (account, description) -> {
+	};
+
+	private static final BigDecimal INITIAL_BALANCE = new BigDecimal(10_000_000_000L);
+
+	private static final int PREPARED = 1024;
+
+	/**
+	 * Accounts of the lowest zipfian ranks, together about a quarter of the
+	 * accounts picked
+	 */
+	private static final int HOT_ACCOUNTS = 16;
+
+	@State(Scope.Benchmark)
+	public static class Repository {
+
+		@Param({ "locking", "locking-hot", "optimistic", "offheap", "sharded", "journaled" })
+		public String engine;
+
+		@Param({ "uniform", "zipfian", "disjoint" })
+		public String pattern;
+
+		@Param({ "100000" })
+		public int accounts;
+
+		AccountsRepository repository;
+
+		AccessPattern access;
+
+		final AtomicInteger threads = new AtomicInteger();
+
+		private Path journal;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			repository = create();
+			for (int i = 0; i < accounts; i++) {
+				repository.createAccount(new Account(id(i), INITIAL_BALANCE));
+			}
+			access = AccessPattern.of(pattern, accounts);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			if (repository instanceof AccountsRepositorySharded) {
+				((AccountsRepositorySharded) repository).close();
+			}
+			if (repository instanceof JournaledAccountsRepository) {
+				((JournaledAccountsRepository) repository).close();
+				try (Stream<Path> files = Files.list(journal)) {
+					for (Path file : (Iterable<Path>) files::iterator) {
+						Files.delete(file);
+					}
+				}
+				Files.delete(journal);
+			}
+		}
+
+		private AccountsRepository create() throws IOException {
+			switch (engine) {
+			case "locking":
+				return new AccountsRepositoryInMemory(NOTIFICATIONS);
+			case "locking-hot":
+				HotAccountProperties hotAccounts = new HotAccountProperties();
+				List<String> hotIds = IntStream.range(0, HOT_ACCOUNTS).mapToObj(AccountsRepositoryBenchmark::id)
+						.collect(Collectors.toList());
+				hotAccounts.setAccountIds(hotIds);
+				hotAccounts.setSlots(Runtime.getRuntime().availableProcessors() * 2);
+				return new AccountsRepositoryInMemory(NOTIFICATIONS, 1024, hotAccounts);
+			case "optimistic":
+				return new AccountsRepositoryOptimistic(NOTIFICATIONS);
+			case "offheap":
+				return new AccountsRepositoryOffHeap(NOTIFICATIONS, 64, accounts / 32 + 1);
+			case "sharded":
+				return new AccountsRepositorySharded(NOTIFICATIONS, Runtime.getRuntime().availableProcessors(), 4096);
+			case "journaled":
+				journal = Files.createTempDirectory("jmh-journal");
+				JournalProperties properties = new JournalProperties();
+				properties.setDirectory(journal.toString());
+				properties.setDurability(DurabilityLevel.BUFFERED);
+				properties.setSnapshotIntervalMillis(0);
+				JournaledAccountsRepository journaled = new JournaledAccountsRepository(
+						new AccountsRepositoryInMemory(NOTIFICATIONS), properties);
+				journaled.recover();
+				return journaled;
+			default:
+				throw new IllegalArgumentException("Unknown engine " + engine);
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Caller {
+
+		String[] reads = new String[PREPARED];
+
+		TransferRequest[] transfers = new TransferRequest[PREPARED];
+
+		String createPrefix;
+
+		int next;
+
+		long created;
+
+		@Setup(Level.Trial)
+		public void setUp(Repository state) {
+			int thread = state.threads.getAndIncrement();
+			SplittableRandom random = new SplittableRandom(thread);
+			for (int i = 0; i < PREPARED; i++) {
+				int[] pair = state.access.pair(thread, i, random);
+				reads[i] = id(pair[0]);
+				transfers[i] = transferRequest(id(pair[0]), id(pair[1]));
+			}
+			createPrefix = "NEW-" + thread + "-";
+		}
+	}
+
+	@Benchmark
+	public void createAccount(Repository state, Caller caller) {
+		state.repository.createAccount(new Account(caller.createPrefix + caller.created++, BigDecimal.TEN));
+	}
+
+	@Benchmark
+	public Account getAccount(Repository state, Caller caller) {
+		return state.repository.getAccount(caller.reads[caller.next++ & (PREPARED - 1)]);
+	}
+
+	@Benchmark
+	public boolean transferMoney(Repository state, Caller caller) {
+		try {
+			state.repository.transferMoney(caller.transfers[caller.next++ & (PREPARED - 1)]);
+			return true;
+		} catch (ApplicationException e) {
+			return false;
+		}
+	}
+
+	private static String id(int index) {
+		return "ACC-" + index;
+	}
+
+	private static TransferRequest transferRequest(String from, String to) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(from);
+		transferRequest.setAccountTo(to);
+		transferRequest.setAmount(new BigDecimal("0.01"));
+		return transferRequest;
+	}
+
+	/**
+	 * Chooses the pair of accounts each prepared call uses
+	 */
+	private abstract static class AccessPattern {
+
+		final int accounts;
+
+		AccessPattern(int accounts) {
+			this.accounts = accounts;
+		}
+
+		abstract int[] pair(int thread, int call, SplittableRandom random);
+
+		static AccessPattern of(String pattern, int accounts) {
+			switch (pattern) {
+			case "uniform":
+				return new Uniform(accounts);
+			case "zipfian":
+				return new Zipfian(accounts, 0.99);
+			case "disjoint":
+				return new Disjoint(accounts);
+			default:
+				throw new IllegalArgumentException("Unknown pattern " + pattern);
+			}
+		}
+
+		int[] distinct(int from, int to) {
+			return new int[] { from, from == to ? (to + 1) % accounts : to };
+		}
+	}
+
+	private static final class Uniform extends AccessPattern {
+
+		Uniform(int accounts) {
+			super(accounts);
+		}
+
+		@Override
+		int[] pair(int thread, int call, SplittableRandom random) {
+			return distinct(random.nextInt(accounts), random.nextInt(accounts));
+		}
+	}
+
+	/**
+	 * Account of rank k is picked with probability proportional to 1 / k^s
+	 */
+	private static final class Zipfian extends AccessPattern {
+
+		private final double[] cumulative;
+
+		Zipfian(int accounts, double exponent) {
+			super(accounts);
+			cumulative = new double[accounts];
+			double sum = 0;
+			for (int k = 0; k < accounts; k++) {
+				sum += 1 / Math.pow(k + 1, exponent);
+				cumulative[k] = sum;
+			}
+			for (int k = 0; k < accounts; k++) {
+				cumulative[k] /= sum;
+			}
+		}
+
+		@Override
+		int[] pair(int thread, int call, SplittableRandom random) {
+			return distinct(sample(random), sample(random));
+		}
+
+		private int sample(SplittableRandom random) {
+			int index = Arrays.binarySearch(cumulative, random.nextDouble());
+			return Math.min(accounts - 1, index < 0 ? -index - 1 : index);
+		}
+	}
+
+	private static final class Disjoint extends AccessPattern {
+
+		Disjoint(int accounts) {
+			super(accounts);
+		}
+
+		@Override
+		int[] pair(int thread, int call, SplittableRandom random) {
+			int first = thread * 2 % accounts;
+			return call % 2 == 0 ? new int[] { first, first + 1 } : new int[] { first + 1, first };
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.db.awmd.challenge.DevChallengeApplication;
+import com.db.awmd.challenge.binary.BinaryProtocol;
+import com.db.awmd.challenge.binary.BinaryTransferServer;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Closed loop load test of the binary transfer port, the counterpart
+ *         of {@link WebLoadTest}: every connection keeps a fixed number of
+ *         transfers in flight, so connections times depth is the concurrency.
+ *         The application runs in the same JVM with the binary profile and the
+ *         client is a single selector thread that registers the accounts
+ *         first.
+ *
+ *         Arguments: connections (default 4), requests in flight per
+ *         connection (default 64), seconds (default 30), accounts (default
+ *         1000). Prints throughput, latency percentiles and rejected
+ *         transfers.
+ *
+ */
+public class BinaryLoadTest {
+
+	private static final int REQUEST_BYTES = 4 + 8 + 1 + 4 + 4 + 8;
+
+	public static void main(String[] args) throws Exception {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		int accounts = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+		ConfigurableApplicationContext context = SpringApplication.run(DevChallengeApplication.class,
+				"--spring.profiles.active=binary", "--server.port=0", "--accounts.binary.port=0",
+				"--logging.level.root=WARN", "--accounts.reconciliation.interval-millis=0");
+		int port = context.getBean(BinaryTransferServer.class).port();
+		AccountsService accountsService = context.getBean(AccountsService.class);
+		for (int i = 0; i < accounts; i++) {
+			accountsService.createAccount(new Account("ACC-" + i, new BigDecimal(1_000_000)));
+		}
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+		int[] handles = register(address, accounts);
+
+		Histogram latency = new Histogram(TimeUnit.SECONDS.toNanos(60), 3);
+		long[] rejected = new long[1];
+		Random random = new Random(42);
+		Selector selector = Selector.open();
+		for (int i = 0; i < connections; i++) {
+			SocketChannel channel = SocketChannel.open(address);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel.configureBlocking(false);
+			Connection connection = new Connection(depth);
+			for (int r = 0; r < depth; r++) {
+				connection.send(random, handles);
+			}
+			connection.flush(channel);
+			channel.register(selector, SelectionKey.OP_READ, connection);
+		}
+
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		long completed = 0;
+		while (System.nanoTime() < end) {
+			selector.select(100);
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				SocketChannel channel = (SocketChannel) key.channel();
+				Connection connection = (Connection) key.attachment();
+				if (channel.read(connection.in) < 0) {
+					throw new IOException("Connection closed by the server");
+				}
+				connection.in.flip();
+				while (connection.in.remaining() >= 4
+						&& connection.in.remaining() - 4 >= connection.in.getInt(connection.in.position())) {
+					int replyEnd = connection.in.position() + 4 + connection.in.getInt();
+					long correlationId = connection.in.getLong();
+					if (connection.in.get() != BinaryProtocol.OK) {
+						rejected[0]++;
+					}
+					connection.in.position(replyEnd);
+					latency.recordValue(Math.min(System.nanoTime() - connection.sentAt[(int) (correlationId % depth)],
+							latency.getHighestTrackableValue()));
+					completed++;
+					connection.send(random, handles);
+				}
+				connection.in.compact();
+				connection.flush(channel);
+			}
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("binary: %d connections x %d in flight, %.0f transfers/s, p50 %.3f ms, p99 %.3f ms, "
+				+ "p99.9 %.3f ms, %d rejected%n", connections, depth, completed / elapsed,
+				latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+				latency.getValueAtPercentile(99.9) / 1e6, rejected[0]);
+		selector.close();
+		context.close();
+		System.exit(0);
+	}
+
+	/**
+	 * Registers ACC-0 to ACC-(accounts - 1) over a blocking connection
+	 */
+	private static int[] register(InetSocketAddress address, int accounts) throws IOException {
+		int[] handles = new int[accounts];
+		try (SocketChannel channel = SocketChannel.open(address)) {
+			ByteBuffer buffer = ByteBuffer.allocate(64);
+			for (int i = 0; i < accounts; i++) {
+				buffer.clear();
+				buffer.position(4);
+				buffer.putLong(i).put(BinaryProtocol.REGISTER);
+				BinaryProtocol.putString(buffer, "ACC-" + i);
+				buffer.putInt(0, buffer.position() - 4);
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				buffer.clear().limit(4 + 8 + 1 + 4);
+				while (buffer.hasRemaining()) {
+					channel.read(buffer);
+				}
+				handles[i] = buffer.getInt(13);
+			}
+		}
+		return handles;
+	}
+
+	/**
+	 * One connection and the send times of its requests in flight, by
+	 * correlation id modulo the depth
+	 */
+	private static final class Connection {
+
+		final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+
+		final ByteBuffer out;
+
+		final long[] sentAt;
+
+		long nextCorrelationId;
+
+		Connection(int depth) {
+			this.sentAt = new long[depth];
+			this.out = ByteBuffer.allocate(depth * REQUEST_BYTES);
+		}
+
+		void send(Random random, int[] handles) {
+			int from = random.nextInt(handles.length);
+			int to = (from + 1 + random.nextInt(handles.length - 1)) % handles.length;
+			long correlationId = nextCorrelationId++;
+			sentAt[(int) (correlationId % sentAt.length)] = System.nanoTime();
+			out.putInt(REQUEST_BYTES - 4).putLong(correlationId).put(BinaryProtocol.TRANSFER).putInt(handles[from])
+					.putInt(handles[to]).putLong(100);
+		}
+
+		void flush(SocketChannel channel) throws IOException {
+			out.flip();
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+			out.clear();
+		}
+	}
+}
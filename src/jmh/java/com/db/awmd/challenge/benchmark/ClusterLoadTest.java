@@ -0,0 +1,131 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.db.awmd.challenge.DevChallengeApplication;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.metrics.LatencyRecorder;
+import com.db.awmd.challenge.service.AccountsService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Transfers through a cluster of nodes on localhost. Node 0 runs in
+ *         this JVM with the cluster profile; the others are started with java
+ *         on the same class path, each with its own node index. Random
+ *         transfers between the accounts are sent from several threads
+ *         through node 0, so most of them cross nodes, then the throughput,
+ *         the latency percentiles and the total balance seen from node 0 are
+ *         printed.
+ *
+ *         Arguments: nodes (default 3), threads (default 8), seconds (default
+ *         30), accounts (default 10000).
+ *
+ */
+public class ClusterLoadTest {
+
+	public static void main(String[] args) throws Exception {
+		int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		int accounts = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+
+		StringBuilder nodes = new StringBuilder();
+		for (int i = 0; i < nodeCount; i++) {
+			nodes.append(i == 0 ? "" : ",").append("localhost:").append(freePort());
+		}
+		List<Process> others = new ArrayList<>();
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		for (int i = 1; i < nodeCount; i++) {
+			others.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					DevChallengeApplication.class.getName(), "--spring.profiles.active=cluster",
+					"--server.port=" + freePort(), "--logging.level.root=WARN", "--accounts.cluster.nodes=" + nodes,
+					"--accounts.cluster.node-index=" + i, "--accounts.reconciliation.interval-millis=0").inheritIO()
+							.start());
+		}
+		ConfigurableApplicationContext context = SpringApplication.run(DevChallengeApplication.class,
+				"--spring.profiles.active=cluster", "--server.port=0", "--logging.level.root=WARN",
+				"--accounts.cluster.nodes=" + nodes, "--accounts.cluster.node-index=0",
+				"--accounts.reconciliation.interval-millis=0");
+		AccountsService accountsService = context.getBean(AccountsService.class);
+
+		long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+		for (int i = 0; i < accounts; i++) {
+			Account account = new Account("ACC-" + i, new BigDecimal(1_000_000));
+			while (true) {
+				try {
+					accountsService.createAccount(account);
+					break;
+				} catch (ApplicationException ae) {
+					// the other nodes are still starting
+					if (System.nanoTime() > deadline) {
+						throw ae;
+					}
+					Thread.sleep(200);
+				}
+			}
+		}
+		System.out.printf("%d accounts created on %d nodes%n", accounts, nodeCount);
+
+		LatencyRecorder latency = new LatencyRecorder();
+		AtomicLong failed = new AtomicLong();
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		Thread[] senders = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			senders[t] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (System.nanoTime() < end) {
+					int from = random.nextInt(accounts);
+					TransferRequest transfer = new TransferRequest();
+					transfer.setAccountFrom("ACC-" + from);
+					transfer.setAccountTo("ACC-" + (from + 1 + random.nextInt(accounts - 1)) % accounts);
+					transfer.setAmount(BigDecimal.ONE);
+					long start = System.nanoTime();
+					try {
+						accountsService.transferMoney(transfer);
+						latency.record(System.nanoTime() - start);
+					} catch (ApplicationException ae) {
+						failed.incrementAndGet();
+					}
+				}
+			});
+			senders[t].start();
+		}
+		for (Thread sender : senders) {
+			sender.join();
+		}
+
+		System.out.printf(
+				"%.0f transfers/s over %d nodes from %d threads, %d failed: p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+				latency.count() / (double) seconds, nodeCount, threads, failed.get(), latency.percentileNanos(50) / 1e6,
+				latency.percentileNanos(99) / 1e6, latency.percentileNanos(99.9) / 1e6, latency.maxNanos() / 1e6);
+		System.out.printf("total balance %s, expected %d%n",
+				accountsService.getAccountsRepository().totalBalanceMinorUnits() / 100, accounts * 1_000_000L);
+
+		for (Process other : others) {
+			other.destroy();
+			other.waitFor();
+		}
+		context.close();
+		System.exit(0);
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.config.FxProperties;
+import com.db.awmd.challenge.config.HotAccountProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.fx.FxRates;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Transfer throughput of the in-memory engine with every account in
+ *         the base currency against accounts spread over 30 currencies, where
+ *         nearly every transfer is converted.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class FxTransferBenchmark {
+
+	private static final int ACCOUNTS = 10_000;
+
+	private static final int CURRENCIES = 30;
+
+	@Param({ "single", "cross" })
+	String currencies;
+
+	AccountsRepositoryInMemory repository;
+
+	FxRates fxRates;
+
+	Path rateFile;
+
+	TransferRequest[] transfers;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		rateFile = Files.createTempFile("fx-rates", ".csv");
+		List<String> lines = new ArrayList<>();
+		for (int i = 1; i < CURRENCIES; i++) {
+			lines.add(code(i) + "," + (0.5 + i / 10.0));
+		}
+		Files.write(rateFile, lines, StandardCharsets.UTF_8);
+		FxProperties properties = new FxProperties();
+		properties.setRateFile(rateFile.toString());
+		properties.setRefreshIntervalMillis(0);
+		fxRates = new FxRates(properties);
+		fxRates.start();
+
+		repository = new AccountsRepositoryInMemory((account, description) -> {
+		}, 1024, new HotAccountProperties(), fxRates);
+		for (int i = 0; i < ACCOUNTS; i++) {
+			Account account = new Account("ACC-" + i, new BigDecimal(1_000_000_000));
+			if ("cross".equals(currencies) && i % CURRENCIES != 0) {
+				account.setCurrency(code(i % CURRENCIES));
+			}
+			repository.createAccount(account);
+		}
+		transfers = new TransferRequest[1 << 16];
+		for (int i = 0; i < transfers.length; i++) {
+			int from = ThreadLocalRandom.current().nextInt(ACCOUNTS);
+			int to = (from + 1 + ThreadLocalRandom.current().nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+			TransferRequest transferRequest = new TransferRequest();
+			transferRequest.setAccountFrom("ACC-" + from);
+			transferRequest.setAccountTo("ACC-" + to);
+			transferRequest.setAmount(BigDecimal.ONE);
+			transfers[i] = transferRequest;
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		fxRates.stop();
+		Files.delete(rateFile);
+	}
+
+	@Benchmark
+	public void transfer() {
+		repository.transferMoney(transfers[ThreadLocalRandom.current().nextInt(transfers.length)]);
+	}
+
+	/**
+	 * @return a made up code for currency i, AAB, AAC and so on
+	 */
+	private static String code(int i) {
+		return "A" + (char) ('A' + i / 26) + (char) ('A' + i % 26);
+	}
+}
@@ -0,0 +1,80 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.config.IdempotencyProperties;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.repository.IdempotencyCache;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Throughput of the idempotency key cache with the default capacity:
+ *         every call claims a fresh key and records a committed outcome, and
+ *         once the keys wrap around they are replayed.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class IdempotencyCacheBenchmark {
+
+	private static final int KEYS = 1 << 20;
+
+	private static final Runnable TRANSFER = () -> {
+	};
+
+	IdempotencyCache cache;
+
+	final AtomicInteger threads = new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		cache = new IdempotencyCache(new IdempotencyProperties());
+	}
+
+	@State(Scope.Thread)
+	public static class Caller {
+
+		TransferRequest[] transfers = new TransferRequest[KEYS / 4];
+
+		int next;
+
+		@Setup(Level.Trial)
+		public void setUp(IdempotencyCacheBenchmark state) {
+			int thread = state.threads.getAndIncrement();
+			for (int i = 0; i < transfers.length; i++) {
+				TransferRequest transferRequest = new TransferRequest();
+				transferRequest.setAccountFrom("ACC-" + thread);
+				transferRequest.setAccountTo("ACC-X");
+				transferRequest.setAmount(BigDecimal.ONE);
+				transferRequest.setIdempotencyKey("request-" + thread + "-" + i);
+				transfers[i] = transferRequest;
+			}
+		}
+	}
+
+	@Benchmark
+	public void execute(Caller caller) {
+		cache.execute(caller.transfers[caller.next++ % caller.transfers.length], TRANSFER);
+	}
+}
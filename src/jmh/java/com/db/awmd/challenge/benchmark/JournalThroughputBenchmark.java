@@ -0,0 +1,116 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import com.db.awmd.challenge.config.JournalProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.DurabilityLevel;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.JournaledAccountsRepository;
+import com.db.awmd.challenge.service.NotificationService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Compares transfer throughput of the plain in-memory repository with
+ *         the journaled one at each durability level. Run with
+ *         {@code gradle journalBenchmark -Pthreads=1,4,16}; every thread moves
+ *         money between its own pair of accounts so only the journal is
+ *         shared.
+ *
+ */
+public class JournalThroughputBenchmark {
+
+	private static final int TRANSFERS_PER_THREAD = 20_000;
+
+	private static final NotificationService NOTIFICATIONS = (account, description) -> {
+	};
+
+	public static void main(String[] args) throws Exception {
+		String[] threadCounts = args.length > 0 ? args : new String[] { "1", "4", "16" };
+
+		System.out.printf("%-10s %8s %14s%n", "engine", "threads", "transfers/s");
+		for (String count : threadCounts) {
+			int threads = Integer.parseInt(count.trim());
+			run("memory", threads, new AccountsRepositoryInMemory(NOTIFICATIONS));
+			for (DurabilityLevel durability : DurabilityLevel.values()) {
+				Path directory = Files.createTempDirectory("journal-benchmark");
+				JournaledAccountsRepository repository = journaled(directory, durability);
+				try {
+					run(durability.name().toLowerCase(), threads, repository);
+				} finally {
+					repository.close();
+					delete(directory);
+				}
+			}
+		}
+	}
+
+	private static void run(String engine, int threads, AccountsRepository repository) throws Exception {
+		for (int i = 0; i < threads * 2; i++) {
+			repository.createAccount(new Account("ACC-" + i, new BigDecimal(TRANSFERS_PER_THREAD)));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> futures = new ArrayList<>(threads);
+		long start = System.nanoTime();
+		for (int thread = 0; thread < threads; thread++) {
+			String first = "ACC-" + thread * 2;
+			String second = "ACC-" + (thread * 2 + 1);
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+					boolean even = i % 2 == 0;
+					repository.transferMoney(transferRequest(even ? first : second, even ? second : first));
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		long elapsed = System.nanoTime() - start;
+		executor.shutdown();
+
+		System.out.printf("%-10s %8d %14.0f%n", engine, threads,
+				threads * (double) TRANSFERS_PER_THREAD * 1_000_000_000L / elapsed);
+	}
+
+	private static JournaledAccountsRepository journaled(Path directory, DurabilityLevel durability)
+			throws IOException {
+		JournalProperties properties = new JournalProperties();
+		properties.setDirectory(directory.toString());
+		properties.setDurability(durability);
+		JournaledAccountsRepository repository = new JournaledAccountsRepository(
+				new AccountsRepositoryInMemory(NOTIFICATIONS), properties);
+		repository.recover();
+		return repository;
+	}
+
+	private static TransferRequest transferRequest(String from, String to) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(from);
+		transferRequest.setAccountTo(to);
+		transferRequest.setAmount(BigDecimal.ONE);
+		return transferRequest;
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+}
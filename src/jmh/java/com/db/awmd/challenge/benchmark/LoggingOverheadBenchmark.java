@@ -0,0 +1,139 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.metrics.LatencyRecorder;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.NotificationService;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Cost of the application logging on transferMoney of the locking
+ *         repository, with the application loggers at INFO, the level the
+ *         service runs at, and at WARN. Log lines are formatted by a real
+ *         encoder and written to a stream that discards them. The mean lock
+ *         wait and hold times of the transfers are printed when the trial
+ *         ends.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class LoggingOverheadBenchmark {
+
+	private static final int ACCOUNTS = 1024;
+
+	private static final int PREPARED = 1024;
+
+	@Param({ "INFO", "WARN" })
+	public String level;
+
+	AccountsRepositoryInMemory repository;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+		encoder.setContext(context);
+		encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss.SSS} %5p [%t] %logger{39} : %m%n");
+		encoder.start();
+		OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+		appender.setContext(context);
+		appender.setEncoder(encoder);
+		appender.setOutputStream(new OutputStream() {
+
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+		appender.start();
+
+		ch.qos.logback.classic.Logger logger = context.getLogger("com.db.awmd.challenge");
+		logger.detachAndStopAllAppenders();
+		logger.setAdditive(false);
+		logger.setLevel(ch.qos.logback.classic.Level.toLevel(level));
+		logger.addAppender(appender);
+
+		NotificationService notifications = (account, description) -> {
+		};
+		repository = new AccountsRepositoryInMemory(notifications);
+		for (int i = 0; i < ACCOUNTS; i++) {
+			repository.createAccount(new Account("ACC-" + i, new BigDecimal(1_000_000_000L)));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void printLockTimes() {
+		System.out.printf("%nlock wait %.1f ns, lock hold %.1f ns%n", mean(repository.getLockWait()),
+				mean(repository.getLockHold()));
+	}
+
+	/**
+	 * Mean over the whole trial, warm up included
+	 */
+	private static double mean(LatencyRecorder recorder) {
+		return recorder.count() == 0 ? 0 : (double) recorder.totalNanos() / recorder.count();
+	}
+
+	@State(Scope.Thread)
+	public static class Caller {
+
+		TransferRequest[] transfers = new TransferRequest[PREPARED];
+
+		int next;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+			for (int i = 0; i < PREPARED; i++) {
+				int from = random.nextInt(ACCOUNTS);
+				int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+				TransferRequest transferRequest = new TransferRequest();
+				transferRequest.setAccountFrom("ACC-" + from);
+				transferRequest.setAccountTo("ACC-" + to);
+				transferRequest.setAmount(new BigDecimal("0.01"));
+				transfers[i] = transferRequest;
+			}
+		}
+	}
+
+	@Benchmark
+	public void transferMoney(Caller caller) {
+		repository.transferMoney(caller.transfers[caller.next++ & (PREPARED - 1)]);
+	}
+}
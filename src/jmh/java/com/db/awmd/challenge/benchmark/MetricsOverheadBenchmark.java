@@ -0,0 +1,47 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.metrics.LatencyRecorder;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Cost added to a transfer by timing it into a {@link LatencyRecorder}:
+ *         two nanoTime calls and one record, against a
+ *         single nanoTime call as the baseline.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsOverheadBenchmark {
+
+	private final LatencyRecorder recorder = new LatencyRecorder();
+
+	@Benchmark
+	public long timeAndRecord() {
+		long start = System.nanoTime();
+		long elapsed = System.nanoTime() - start;
+		recorder.record(elapsed);
+		return elapsed;
+	}
+
+	@Benchmark
+	public long baseline() {
+		return System.nanoTime();
+	}
+}
@@ -0,0 +1,91 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.db.awmd.challenge.ratelimit.RateLimiter;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Cost of the rate limit check of a transfer, with a count and an
+ *         amount limit, over a small set of hot accounts or a million
+ *         accounts. A sweeper thread drops idle accounts as the application
+ *         does; the number of accounts held at the end is printed.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class RateLimiterBenchmark {
+
+	@Param({ "16", "1000000" })
+	int accounts;
+
+	RateLimiter limiter;
+
+	String[] accountIds;
+
+	Thread sweeper;
+
+	volatile boolean running;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		limiter = new RateLimiter(1_000_000, 1_000_000_000_000L, TimeUnit.SECONDS.toNanos(1), 1024,
+				TimeUnit.MILLISECONDS.toNanos(10));
+		accountIds = new String[accounts];
+		for (int i = 0; i < accounts; i++) {
+			accountIds[i] = "ACC-" + i;
+		}
+		running = true;
+		sweeper = new Thread(() -> {
+			while (running) {
+				limiter.sweep(System.nanoTime());
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException ie) {
+					return;
+				}
+			}
+		});
+		sweeper.setDaemon(true);
+		sweeper.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		running = false;
+		System.out.printf("%n%d accounts held%n", limiter.size());
+	}
+
+	@State(Scope.Thread)
+	public static class Caller {
+
+		int next;
+	}
+
+	@Benchmark
+	public RateLimiter.Outcome tryAcquire(Caller caller) {
+		caller.next = caller.next * 1_103_515_245 + 12345;
+		return limiter.tryAcquire(accountIds[(caller.next >>> 1) % accountIds.length], 100, System.nanoTime());
+	}
+}
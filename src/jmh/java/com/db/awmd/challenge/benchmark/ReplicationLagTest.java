@@ -0,0 +1,134 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.db.awmd.challenge.DevChallengeApplication;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.metrics.LatencyRecorder;
+import com.db.awmd.challenge.replication.ReplicationPrimary;
+import com.db.awmd.challenge.service.AccountsService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Replication lag with followers in their own JVMs on localhost. The
+ *         primary runs in this JVM with the durable and primary profiles and
+ *         a fresh journal; each follower is started with java on the same
+ *         class path and the follower profile. Transfers are paced at the
+ *         target rate from one thread, then the lag percentiles measured by
+ *         the primary are printed and one account is read back from every
+ *         follower over HTTP.
+ *
+ *         Arguments: followers (default 2), transfers per second (default
+ *         50000), seconds (default 30), accounts (default 1000).
+ *
+ */
+public class ReplicationLagTest {
+
+	public static void main(String[] args) throws Exception {
+		int followerCount = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+		int rate = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		int accounts = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+		Path journal = Files.createTempDirectory("replication-journal");
+		int replicationPort = freePort();
+		ConfigurableApplicationContext context = SpringApplication.run(DevChallengeApplication.class,
+				"--spring.profiles.active=durable,primary", "--server.port=0", "--logging.level.root=WARN",
+				"--accounts.journal.directory=" + journal, "--accounts.journal.durability=buffered",
+				"--accounts.replication.port=" + replicationPort, "--accounts.reconciliation.interval-millis=0");
+		AccountsService accountsService = context.getBean(AccountsService.class);
+		ReplicationPrimary primary = context.getBean(ReplicationPrimary.class);
+		for (int i = 0; i < accounts; i++) {
+			accountsService.createAccount(new Account("ACC-" + i, new BigDecimal(1_000_000)));
+		}
+
+		List<Process> followers = new ArrayList<>();
+		List<Integer> httpPorts = new ArrayList<>();
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		for (int i = 0; i < followerCount; i++) {
+			int httpPort = freePort();
+			httpPorts.add(httpPort);
+			followers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					DevChallengeApplication.class.getName(), "--spring.profiles.active=follower",
+					"--server.port=" + httpPort, "--logging.level.root=WARN",
+					"--accounts.replication.primary-port=" + replicationPort).inheritIO().start());
+		}
+		long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+		while (primary.followers() < followerCount && System.nanoTime() < deadline) {
+			Thread.sleep(100);
+		}
+		System.out.printf("%d of %d followers connected%n", primary.followers(), followerCount);
+
+		TransferRequest[] transfers = new TransferRequest[1 << 16];
+		for (int i = 0; i < transfers.length; i++) {
+			int from = i % accounts;
+			transfers[i] = new TransferRequest();
+			transfers[i].setAccountFrom("ACC-" + from);
+			transfers[i].setAccountTo("ACC-" + (from + 1 + i / accounts % (accounts - 1)) % accounts);
+			transfers[i].setAmount(BigDecimal.ONE);
+		}
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+		long start = System.nanoTime();
+		long sent = 0;
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		while (System.nanoTime() < end) {
+			long due = start + sent * intervalNanos;
+			while (System.nanoTime() < due) {
+				LockSupport.parkNanos(1_000);
+			}
+			accountsService.transferMoney(transfers[(int) (sent++ & (transfers.length - 1))]);
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		Thread.sleep(1000);
+
+		LatencyRecorder lag = primary.getLag();
+		System.out.printf("%.0f transfers/s to %d followers: lag p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+				sent / elapsed, primary.followers(), lag.percentileNanos(50) / 1e6, lag.percentileNanos(99) / 1e6,
+				lag.percentileNanos(99.9) / 1e6, lag.maxNanos() / 1e6);
+		String expected = accountsService.getAccount("ACC-0").getBalance().toPlainString();
+		for (int httpPort : httpPorts) {
+			System.out.printf("follower on port %d: ACC-0 %s, primary %s%n", httpPort, read(httpPort, "ACC-0"),
+					expected);
+		}
+
+		for (Process follower : followers) {
+			follower.destroy();
+			follower.waitFor();
+		}
+		context.close();
+		System.exit(0);
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static String read(int port, String accountId) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(
+				"http://localhost:" + port + "/v1/accounts/" + accountId).openConnection();
+		try (Scanner body = new Scanner(connection.getInputStream(), "UTF-8")) {
+			return body.useDelimiter("\\A").next();
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Runs {@link AccountsRepositoryBenchmark} once per thread count and
+ *         writes all results to one JMH JSON file, so two builds can be
+ *         compared with any JMH result viewer or a plain diff.
+ *
+ *         Arguments: results file, comma separated thread counts, and
+ *         optionally comma separated engines, patterns and a benchmark name
+ *         regex.
+ *
+ */
+public class RepositoryBenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		File results = new File(args.length > 0 ? args[0] : "build/reports/jmh/results.json");
+		String[] threadCounts = (args.length > 1 ? args[1] : "1,2,4,8,16,32,64").split(",");
+
+		List<RunResult> all = new ArrayList<>();
+		for (String threads : threadCounts) {
+			ChainedOptionsBuilder options = new OptionsBuilder()
+					.include(AccountsRepositoryBenchmark.class.getSimpleName() + "."
+							+ (args.length > 4 && !args[4].isEmpty() ? args[4] : ".*"))
+					.threads(Integer.parseInt(threads.trim()));
+			if (args.length > 2 && !args[2].isEmpty()) {
+				options.param("engine", args[2].split(","));
+			}
+			if (args.length > 3 && !args[3].isEmpty()) {
+				options.param("pattern", args[3].split(","));
+			}
+			Collection<RunResult> run = new Runner(options.build()).run();
+			all.addAll(run);
+		}
+
+		results.getAbsoluteFile().getParentFile().mkdirs();
+		ResultFormatFactory.getInstance(ResultFormatType.JSON, results.getPath()).writeOut(all);
+		System.out.println("JMH results written to " + results.getAbsolutePath());
+	}
+}
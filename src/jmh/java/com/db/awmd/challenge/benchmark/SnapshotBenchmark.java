@@ -0,0 +1,108 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import com.db.awmd.challenge.config.JournalProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.DurabilityLevel;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.JournaledAccountsRepository;
+import com.db.awmd.challenge.service.NotificationService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Measures, for the given number of accounts, the startup time when
+ *         the whole journal has to be replayed, the snapshot write throughput
+ *         and the startup time from a snapshot plus a short journal tail. Run
+ *         with {@code gradle snapshotBenchmark -Paccounts=10000000}.
+ *
+ */
+public class SnapshotBenchmark {
+
+	private static final int TAIL_TRANSFERS = 100_000;
+
+	private static final NotificationService NOTIFICATIONS = (account, description) -> {
+	};
+
+	public static void main(String[] args) throws Exception {
+		int accounts = args.length > 0 ? Integer.parseInt(args[0].trim()) : 10_000_000;
+		Path directory = Files.createTempDirectory("snapshot-benchmark");
+		try {
+			JournaledAccountsRepository repository = open(directory);
+			long start = System.nanoTime();
+			for (int i = 0; i < accounts; i++) {
+				repository.createAccount(new Account("ACC-" + i, BigDecimal.TEN));
+			}
+			report("journal accounts", accounts, start, directorySize(directory));
+			repository.close();
+			repository = null;
+
+			start = System.nanoTime();
+			repository = open(directory);
+			report("startup from journal", accounts, start, directorySize(directory));
+
+			start = System.nanoTime();
+			repository.snapshot();
+			report("write snapshot", accounts, start, directorySize(directory));
+
+			for (int i = 0; i < TAIL_TRANSFERS; i++) {
+				repository.transferMoney(transferRequest("ACC-" + i % accounts, "ACC-" + (i + 1) % accounts));
+			}
+			repository.close();
+			repository = null;
+
+			start = System.nanoTime();
+			repository = open(directory);
+			report("startup from snapshot", accounts, start, directorySize(directory));
+			repository.close();
+		} finally {
+			delete(directory);
+		}
+	}
+
+	private static JournaledAccountsRepository open(Path directory) throws IOException {
+		JournalProperties properties = new JournalProperties();
+		properties.setDirectory(directory.toString());
+		properties.setDurability(DurabilityLevel.BUFFERED);
+		properties.setSnapshotIntervalMillis(0);
+		JournaledAccountsRepository repository = new JournaledAccountsRepository(
+				new AccountsRepositoryInMemory(NOTIFICATIONS), properties);
+		repository.recover();
+		return repository;
+	}
+
+	private static void report(String step, int accounts, long start, long bytes) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-22s %10d accounts %8.2f s %12.0f accounts/s %10.1f MB on disk%n", step, accounts,
+				seconds, accounts / seconds, bytes / 1e6);
+	}
+
+	private static TransferRequest transferRequest(String from, String to) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(from);
+		transferRequest.setAccountTo(to);
+		transferRequest.setAmount(BigDecimal.ONE);
+		return transferRequest;
+	}
+
+	private static long directorySize(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.mapToLong(file -> file.toFile().length()).sum();
+		}
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>) files::iterator) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(directory);
+	}
+}
@@ -0,0 +1,184 @@
+package com.db.awmd.challenge.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+
+import com.db.awmd.challenge.DevChallengeApplication;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Closed loop HTTP load test of the transfer endpoint: every
+ *         connection keeps one transfer outstanding, so the number of
+ *         connections is the concurrency. The application runs in the same JVM
+ *         on a random port and the client is a single selector thread, so the
+ *         numbers are only comparable between variants on the same machine.
+ *
+ *         Arguments: blocking or async, connections (default 10000), seconds
+ *         (default 30), accounts (default 1000). Prints throughput, latency
+ *         percentiles, error responses and the peak number of JVM threads.
+ *
+ */
+public class WebLoadTest {
+
+	public static void main(String[] args) throws Exception {
+		String variant = args.length > 0 ? args[0] : "async";
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		int accounts = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+		String path = "async".equals(variant) ? "/v1/async/accounts/transfer" : "/v1/accounts/transfer";
+
+		EmbeddedWebApplicationContext context = (EmbeddedWebApplicationContext) SpringApplication.run(
+				DevChallengeApplication.class, "--server.port=0", "--logging.level.root=WARN",
+				"--accounts.reconciliation.interval-millis=0");
+		int port = context.getEmbeddedServletContainer().getPort();
+		AccountsService accountsService = context.getBean(AccountsService.class);
+		for (int i = 0; i < accounts; i++) {
+			accountsService.createAccount(new Account("ACC-" + i, new BigDecimal(1_000_000)));
+		}
+
+		Histogram latency = new Histogram(TimeUnit.SECONDS.toNanos(60), 3);
+		long[] errors = new long[1];
+		Random random = new Random(42);
+		Selector selector = Selector.open();
+		InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+		for (int i = 0; i < connections; i++) {
+			SocketChannel channel = SocketChannel.open();
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel.configureBlocking(false);
+			channel.connect(address);
+			channel.register(selector, SelectionKey.OP_CONNECT, new Connection());
+		}
+
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(seconds);
+		long completed = 0;
+		while (System.nanoTime() < end) {
+			selector.select(100);
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				SocketChannel channel = (SocketChannel) key.channel();
+				Connection connection = (Connection) key.attachment();
+				try {
+					if (key.isConnectable()) {
+						channel.finishConnect();
+						connection.send(channel, key, path, random, accounts);
+					} else if (key.isWritable()) {
+						connection.flush(channel, key);
+					} else if (key.isReadable()) {
+						int status = connection.receive(channel);
+						if (status > 0) {
+							latency.recordValue(Math.min(System.nanoTime() - connection.sentAt, latency.getHighestTrackableValue()));
+							completed++;
+							if (status != 200) {
+								errors[0]++;
+							}
+							connection.send(channel, key, path, random, accounts);
+						}
+					}
+				} catch (IOException ioe) {
+					errors[0]++;
+					key.cancel();
+					channel.close();
+				}
+			}
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%s: %d connections, %.0f transfers/s, p50 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, "
+				+ "%d errors, peak threads %d%n", variant, connections, completed / elapsed,
+				latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+				latency.getValueAtPercentile(99.9) / 1e6, errors[0],
+				ManagementFactory.getThreadMXBean().getPeakThreadCount());
+		selector.close();
+		context.close();
+		System.exit(0);
+	}
+
+	/**
+	 * One keep-alive connection with one request in flight
+	 */
+	private static final class Connection {
+
+		final ByteBuffer in = ByteBuffer.allocate(4096);
+
+		ByteBuffer out;
+
+		long sentAt;
+
+		void send(SocketChannel channel, SelectionKey key, String path, Random random, int accounts)
+				throws IOException {
+			int from = random.nextInt(accounts);
+			int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+			String body = "{\"accountFrom\":\"ACC-" + from + "\",\"accountTo\":\"ACC-" + to + "\",\"amount\":1}";
+			String request = "PUT " + path + " HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\n"
+					+ "Content-Length: " + body.length() + "\r\n\r\n" + body;
+			out = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+			sentAt = System.nanoTime();
+			flush(channel, key);
+		}
+
+		void flush(SocketChannel channel, SelectionKey key) throws IOException {
+			channel.write(out);
+			key.interestOps(out.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+
+		/**
+		 * @return the status once a whole response arrived, else 0
+		 */
+		int receive(SocketChannel channel) throws IOException {
+			if (channel.read(in) < 0) {
+				throw new IOException("Connection closed by the server");
+			}
+			String received = new String(in.array(), 0, in.position(), StandardCharsets.US_ASCII);
+			int headersEnd = received.indexOf("\r\n\r\n");
+			if (headersEnd < 0) {
+				return 0;
+			}
+			String headers = received.substring(0, headersEnd).toLowerCase();
+			int bodyStart = headersEnd + 4;
+			int responseEnd;
+			if (headers.contains("transfer-encoding: chunked")) {
+				int last = received.indexOf("\r\n0\r\n\r\n", bodyStart - 2);
+				if (last < 0) {
+					return 0;
+				}
+				responseEnd = last + 7;
+			} else {
+				int lengthAt = headers.indexOf("content-length:");
+				int length = lengthAt < 0 ? 0
+						: Integer.parseInt(headers.substring(lengthAt + 15, headers.indexOf('\r', lengthAt) < 0
+								? headers.length() : headers.indexOf('\r', lengthAt)).trim());
+				responseEnd = bodyStart + length;
+				if (in.position() < responseEnd) {
+					return 0;
+				}
+			}
+			int status = Integer.parseInt(received.substring(9, 12));
+			// keep whatever followed the response, there should be nothing
+			in.flip();
+			in.position(responseEnd);
+			in.compact();
+			return status;
+		}
+	}
+}
@@ -0,0 +1,187 @@
+package com.db.awmd.challenge.audit;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.config.AuditProperties;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.RejectionReason;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Audit trail of transfers, written to the "accounts.audit" logger,
+ *         which logback sends to its own file. Callers fill a preallocated slot
+ *         of a ring buffer with references and primitives they already hold,
+ *         so recording an event allocates nothing; a single writer thread
+ *         formats the events in order and hands them to the logger. Producers
+ *         claim a slot with one atomic increment and publish it by stamping it
+ *         with its sequence, and only wait when the ring is full, so no audit
+ *         event is ever dropped.
+ *
+ */
+@Component
+public class AuditTrail {
+
+	public static final String LOGGER = "accounts.audit";
+
+	private static final Logger audit = LoggerFactory.getLogger(LOGGER);
+
+	private static final int SPINS = 100;
+
+	private static final long PARK_NANOS = 1_000_000;
+
+	private final Event[] slots;
+
+	/**
+	 * Sequence + 1 of the event held by each slot, 0 before first use
+	 */
+	private final AtomicLongArray published;
+
+	private final int mask;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private volatile long head;
+
+	private volatile boolean sleeping;
+
+	private volatile boolean running;
+
+	private Thread writer;
+
+	@Autowired
+	public AuditTrail(AuditProperties properties) {
+		int size = Integer.highestOneBit(Math.max(2, properties.getRingCapacity()) * 2 - 1);
+		this.slots = new Event[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Event();
+		}
+		this.published = new AtomicLongArray(size);
+		this.mask = size - 1;
+	}
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		writer = new Thread(this::writeLoop, "accounts-audit-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Stops the writer once every event published so far is written
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		LockSupport.unpark(writer);
+		writer.join(TimeUnit.SECONDS.toMillis(5));
+	}
+
+	public void transferCommitted(TransferRequest transferRequest) {
+		publish(transferRequest, null);
+	}
+
+	public void transferRejected(TransferRequest transferRequest, RejectionReason reason) {
+		publish(transferRequest, reason);
+	}
+
+	/**
+	 * @return number of events handed to the logger so far
+	 */
+	public long written() {
+		return head;
+	}
+
+	private void publish(TransferRequest transferRequest, RejectionReason reason) {
+		long sequence = tail.getAndIncrement();
+		while (sequence - head >= slots.length) {
+			LockSupport.parkNanos(1_000);
+		}
+		int index = (int) sequence & mask;
+		Event event = slots[index];
+		event.timestamp = System.currentTimeMillis();
+		event.accountFrom = transferRequest.getAccountFrom();
+		event.accountTo = transferRequest.getAccountTo();
+		event.amountMinorUnits = transferRequest.getAmountMinorUnits();
+		event.reason = reason;
+		published.set(index, sequence + 1);
+		if (sleeping) {
+			LockSupport.unpark(writer);
+		}
+	}
+
+	private void writeLoop() {
+		StringBuilder line = new StringBuilder(128);
+		int idle = 0;
+		while (true) {
+			long sequence = head;
+			int index = (int) sequence & mask;
+			if (published.get(index) == sequence + 1) {
+				Event event = slots[index];
+				line.setLength(0);
+				event.formatTo(line);
+				event.accountFrom = null;
+				event.accountTo = null;
+				audit.info(line.toString());
+				head = sequence + 1;
+				idle = 0;
+			} else if (!running && published.get(index) != sequence + 1) {
+				// checked again after running: the event may have been published
+				// between the first check and stop()
+				return;
+			} else if (idle < SPINS) {
+				idle++;
+				Thread.yield();
+			} else {
+				sleeping = true;
+				if (published.get(index) != sequence + 1 && running) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				sleeping = false;
+			}
+		}
+	}
+
+	/**
+	 * Slot of the ring, reused for every event that lands on it
+	 */
+	private static final class Event {
+
+		long timestamp;
+
+		String accountFrom;
+
+		String accountTo;
+
+		long amountMinorUnits;
+
+		/**
+		 * null for a committed transfer
+		 */
+		RejectionReason reason;
+
+		void formatTo(StringBuilder line) {
+			DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(timestamp), line);
+			line.append(reason == null ? " COMMITTED" : " REJECTED").append(" from=").append(accountFrom)
+					.append(" to=").append(accountTo).append(" amount=").append(Money.toDecimal(amountMinorUnits));
+			if (reason != null) {
+				line.append(" reason=").append(reason.name().toLowerCase());
+			}
+		}
+	}
+}
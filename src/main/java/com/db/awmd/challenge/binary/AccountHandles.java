@@ -0,0 +1,70 @@
+package com.db.awmd.challenge.binary;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.db.awmd.challenge.exception.ApplicationException;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Numeric handles of the account ids registered on the binary port.
+ *         Handles are handed out in registration order and never reused, so a
+ *         transfer resolves its accounts with two array reads instead of
+ *         decoding and hashing the ids.
+ *
+ */
+final class AccountHandles {
+
+	private final Map<String, Integer> handles = new ConcurrentHashMap<>();
+
+	private final AtomicReferenceArray<String> accountIds;
+
+	private int next;
+
+	/**
+	 * @param capacity
+	 *            most account ids that can be registered
+	 */
+	AccountHandles(int capacity) {
+		this.accountIds = new AtomicReferenceArray<>(capacity);
+	}
+
+	/**
+	 * @return the handle of the account id, the one it got at its first
+	 *         registration
+	 * @throws ApplicationException
+	 *             when every handle is taken
+	 */
+	int register(String accountId) throws ApplicationException {
+		Integer handle = handles.get(accountId);
+		if (handle != null) {
+			return handle;
+		}
+		synchronized (this) {
+			handle = handles.get(accountId);
+			if (handle == null) {
+				if (next == accountIds.length()) {
+					throw new ApplicationException("All " + next + " account handles are taken");
+				}
+				handle = next++;
+				accountIds.set(handle, accountId);
+				handles.put(accountId, handle);
+			}
+			return handle;
+		}
+	}
+
+	/**
+	 * @throws ApplicationException
+	 *             when no account was registered for the handle
+	 */
+	String accountId(int handle) throws ApplicationException {
+		String accountId = handle >= 0 && handle < accountIds.length() ? accountIds.get(handle) : null;
+		if (accountId == null) {
+			throw new ApplicationException("Account handle " + handle + " is not registered");
+		}
+		return accountId;
+	}
+}
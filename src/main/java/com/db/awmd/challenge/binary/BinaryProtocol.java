@@ -0,0 +1,64 @@
+package com.db.awmd.challenge.binary;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Wire format of the binary transfer port. All numbers are big endian.
+ *
+ *         A request is [length int][correlation id long][operation
+ *         byte][arguments] and its reply [length int][correlation id
+ *         long][status byte][result], the length counting what follows it.
+ *         Clients send requests without waiting for replies; the replies of a
+ *         connection come back in request order, carrying the correlation id
+ *         of their request.
+ *
+ *         <ul>
+ *         <li>REGISTER [account id string] returns [handle int], the number
+ *         that names the account in the other requests, the same for every
+ *         connection</li>
+ *         <li>TRANSFER [from handle int][to handle int][amount long] moves the
+ *         amount, in minor units, and returns nothing</li>
+ *         <li>BALANCE [handle int] returns [balance long][version long], the
+ *         balance in minor units</li>
+ *         </ul>
+ *
+ *         Strings are [length short][UTF-8 bytes]. A NOT_FOUND reply has no
+ *         result; a REJECTED or ERROR one carries the message as a string.
+ *
+ */
+public final class BinaryProtocol {
+
+	public static final byte REGISTER = 1;
+
+	public static final byte TRANSFER = 2;
+
+	public static final byte BALANCE = 3;
+
+	public static final byte OK = 0;
+
+	public static final byte NOT_FOUND = 1;
+
+	public static final byte REJECTED = 2;
+
+	public static final byte ERROR = 3;
+
+	private BinaryProtocol() {
+	}
+
+	public static void putString(ByteBuffer buffer, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.putShort((short) Math.min(bytes.length, 0xFFFF));
+		buffer.put(bytes, 0, Math.min(bytes.length, 0xFFFF));
+	}
+
+	public static String getString(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xFFFF;
+		String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+				StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+}
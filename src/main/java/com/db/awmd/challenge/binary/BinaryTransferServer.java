@@ -0,0 +1,253 @@
+package com.db.awmd.challenge.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.config.BinaryProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.service.AccountsService;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Second ingress for high frequency clients, active with the "binary"
+ *         profile: the {@link BinaryProtocol} on a plain TCP port, in front of
+ *         the same {@link AccountsService} as the REST API, so transfers are
+ *         validated, audited and recorded the same way.
+ *
+ *         Each connection has a thread that runs every complete request it
+ *         read, in order, and writes their replies back in one go, so a client
+ *         keeping many requests in flight pays one read and one write per
+ *         batch instead of per transfer.
+ *
+ */
+@Slf4j
+@Component
+@Profile("binary")
+public class BinaryTransferServer implements MeterBinder {
+
+	private static final int MAX_MESSAGE_LENGTH = 1000;
+
+	/**
+	 * Room left in the reply buffer before it is flushed, enough for the
+	 * longest reply
+	 */
+	private static final int MAX_REPLY_BYTES = 16 + 3 * MAX_MESSAGE_LENGTH;
+
+	private final AccountsService accountsService;
+
+	private final BinaryProperties properties;
+
+	private final AccountHandles handles;
+
+	private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+	private ServerSocketChannel server;
+
+	private int port;
+
+	private volatile boolean running;
+
+	@Autowired
+	public BinaryTransferServer(AccountsService accountsService, BinaryProperties properties) {
+		this.accountsService = accountsService;
+		this.properties = properties;
+		this.handles = new AccountHandles(properties.getMaxHandles());
+	}
+
+	@PostConstruct
+	public void start() throws IOException {
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(properties.getPort()));
+		port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+		running = true;
+		Thread acceptor = new Thread(this::accept, "binary-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		log.info("Binary transfer port {} open", port);
+	}
+
+	@PreDestroy
+	public void stop() {
+		running = false;
+		try {
+			server.close();
+		} catch (IOException ioe) {
+			log.warn("Could not close the binary transfer port", ioe);
+		}
+		for (SocketChannel connection : connections) {
+			close(connection);
+		}
+	}
+
+	/**
+	 * @return the port clients connect to
+	 */
+	public int port() {
+		return port;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("accounts.binary.connections", connections, Set::size)
+				.description("Open connections to the binary transfer port").register(registry);
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				SocketChannel connection = server.accept();
+				connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				connections.add(connection);
+				String clientId = ((InetSocketAddress) connection.getRemoteAddress()).getHostString();
+				Thread thread = new Thread(() -> serve(connection, clientId),
+						"binary-" + connection.getRemoteAddress());
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException ioe) {
+				if (running) {
+					log.error("Could not accept a binary connection", ioe);
+				}
+			}
+		}
+	}
+
+	private void serve(SocketChannel connection, String clientId) {
+		ByteBuffer in = ByteBuffer.allocate(16 * properties.getMaxRequestBytes());
+		ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+		try {
+			while (running) {
+				if (connection.read(in) < 0) {
+					throw new EOFException("closed by the client");
+				}
+				in.flip();
+				while (in.remaining() >= 4) {
+					int length = in.getInt(in.position());
+					if (length < 9 || length > properties.getMaxRequestBytes()) {
+						throw new IOException("Request of " + length + " bytes is not accepted");
+					}
+					if (in.remaining() - 4 < length) {
+						break;
+					}
+					int end = in.position() + 4 + length;
+					in.position(in.position() + 4);
+					if (out.remaining() < MAX_REPLY_BYTES) {
+						flush(connection, out);
+					}
+					handle(in.slice(), length, clientId, out);
+					in.position(end);
+				}
+				in.compact();
+				flush(connection, out);
+			}
+		} catch (IOException | RuntimeException e) {
+			if (running) {
+				log.info("Binary connection closed: {}", e.toString());
+			}
+		} finally {
+			close(connection);
+		}
+	}
+
+	/**
+	 * Runs one request and appends its reply
+	 *
+	 * @param clientId
+	 *            host of the connection, the client transfers are rate
+	 *            limited for
+	 */
+	private void handle(ByteBuffer request, int length, String clientId, ByteBuffer out) {
+		request.limit(length);
+		long correlationId = request.getLong();
+		byte operation = request.get();
+		int start = out.position();
+		out.position(start + 4);
+		out.putLong(correlationId);
+		int statusAt = out.position();
+		out.put(BinaryProtocol.OK);
+		try {
+			switch (operation) {
+			case BinaryProtocol.REGISTER:
+				String accountId = BinaryProtocol.getString(request);
+				if (accountsService.getAccount(accountId) == null) {
+					out.put(statusAt, BinaryProtocol.NOT_FOUND);
+				} else {
+					out.putInt(handles.register(accountId));
+				}
+				break;
+			case BinaryProtocol.TRANSFER:
+				TransferRequest transferRequest = new TransferRequest();
+				transferRequest.setAccountFrom(handles.accountId(request.getInt()));
+				transferRequest.setAccountTo(handles.accountId(request.getInt()));
+				transferRequest.setAmount(Money.toDecimal(request.getLong()));
+				transferRequest.setClientId(clientId);
+				accountsService.transferMoney(transferRequest);
+				break;
+			case BinaryProtocol.BALANCE:
+				Account account = accountsService.getAccount(handles.accountId(request.getInt()));
+				if (account == null) {
+					out.put(statusAt, BinaryProtocol.NOT_FOUND);
+				} else {
+					out.putLong(account.getBalanceMinorUnits()).putLong(account.getVersion());
+				}
+				break;
+			default:
+				throw new ApplicationException("Unknown operation " + operation);
+			}
+		} catch (ApplicationException ae) {
+			reject(out, statusAt, BinaryProtocol.REJECTED, ae.getMessage());
+		} catch (RuntimeException e) {
+			log.error("Binary request {} failed", correlationId, e);
+			reject(out, statusAt, BinaryProtocol.ERROR, String.valueOf(e.getMessage()));
+		}
+		out.putInt(start, out.position() - start - 4);
+	}
+
+	/**
+	 * Replaces what was written after the status with the message
+	 */
+	private static void reject(ByteBuffer out, int statusAt, byte status, String message) {
+		out.position(statusAt);
+		out.put(status);
+		BinaryProtocol.putString(out, message.substring(0, Math.min(message.length(), MAX_MESSAGE_LENGTH)));
+	}
+
+	private static void flush(SocketChannel connection, ByteBuffer out) throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			connection.write(out);
+		}
+		out.clear();
+	}
+
+	private void close(SocketChannel connection) {
+		connections.remove(connection);
+		try {
+			connection.close();
+		} catch (IOException ioe) {
+			log.warn("Could not close a binary connection", ioe);
+		}
+	}
+}
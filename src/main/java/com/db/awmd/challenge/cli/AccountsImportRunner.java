@@ -0,0 +1,66 @@
+package com.db.awmd.challenge.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.ImportResult;
+import com.db.awmd.challenge.domain.ImportResult.RowError;
+import com.db.awmd.challenge.service.AccountsImporter;
+import com.db.awmd.challenge.service.AccountsImporter.Format;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Imports account files named on the command line before the
+ *         application starts serving, e.g.
+ *         {@code java -jar app.jar --import=accounts.csv --import=more.ndjson}.
+ *         The format follows the file extension. Rejected rows are logged and
+ *         do not stop the startup; a file that cannot be read does.
+ *
+ */
+@Slf4j
+@Component
+public class AccountsImportRunner implements ApplicationRunner {
+
+	private static final String IMPORT_OPTION = "import";
+
+	private static final int LOGGED_ERRORS = 20;
+
+	private final AccountsImporter accountsImporter;
+
+	@Autowired
+	public AccountsImportRunner(AccountsImporter accountsImporter) {
+		this.accountsImporter = accountsImporter;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) throws IOException {
+		List<String> files = args.getOptionValues(IMPORT_OPTION);
+		if (files == null) {
+			return;
+		}
+		for (String file : files) {
+			Path path = Paths.get(file);
+			ImportResult result;
+			try (InputStream input = Files.newInputStream(path)) {
+				result = accountsImporter.importAccounts(input, Format.ofFileName(file));
+			}
+			log.info("Imported {} accounts from {}, rejected {} rows", result.getCreated(), path, result.getRejected());
+			List<RowError> errors = result.getErrors();
+			for (RowError error : errors.subList(0, Math.min(LOGGED_ERRORS, errors.size()))) {
+				log.warn("{} row {}: {}", path, error.getRow(), error.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,323 @@
+package com.db.awmd.challenge.cluster;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.cluster.ClusterPartition.Credit;
+import com.db.awmd.challenge.config.ClusterProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.service.NotificationService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Accounts partitioned across the nodes of a cluster, active with the
+ *         "cluster" profile. A {@link HashRing} names the owner of every
+ *         account id; this node keeps its own accounts in memory and answers
+ *         the other nodes over the binary {@link ClusterProtocol}, and any
+ *         node routes a request to the owner, so clients may call any of them.
+ *
+ *         A transfer between two accounts of one node is a single request to
+ *         it. A transfer across nodes runs two phases with a transaction id:
+ *         the source node reserves the amount while the target node checks
+ *         the account exists, then the source commits the debit and the
+ *         target is credited. If a phase one request fails the reservation is
+ *         aborted, and the source refunds reservations neither committed nor
+ *         aborted in time.
+ *
+ *         The source owes the credit from the moment it commits: it sends the
+ *         credit itself before answering the commit, and keeps sending it in
+ *         the background until the target has applied it and forgotten the
+ *         transaction. The coordinator holds nothing once it has an answer.
+ *         A commit is answered as committed, aborted or unknown; if it gets
+ *         no answer, or an unknown one, the transfer fails with a
+ *         {@link NodeUnavailableException}, and the source settles it alone:
+ *         a late commit credits the target, an expired reservation is
+ *         refunded. Credits are idempotent per transaction, so retries never
+ *         move an amount twice.
+ *
+ *         Notifications are sent by the node owning the account.
+ *
+ */
+@Slf4j
+@Primary
+@Profile("cluster")
+@Repository
+public class ClusterAccountsRepository implements AccountsRepository {
+
+	private static final long TRANSACTION_MASK = (1L << 48) - 1;
+
+	/**
+	 * Aborts outlive the reservations by far, so a commit that arrives late
+	 * still finds out it was aborted
+	 */
+	private static final int DECISION_RETENTION_FACTOR = 6;
+
+	private final ClusterProperties properties;
+
+	private final HashRing ring;
+
+	private final ClusterNode[] nodes;
+
+	private final LocalNode local;
+
+	private final ClusterServer server;
+
+	private final ScheduledThreadPoolExecutor timer;
+
+	private final AtomicLong transactions = new AtomicLong(System.currentTimeMillis() << 12);
+
+	@Autowired
+	public ClusterAccountsRepository(NotificationService notificationService, ClusterProperties properties) {
+		List<String> addresses = properties.getNodes();
+		if (properties.getNodeIndex() < 0 || properties.getNodeIndex() >= addresses.size()) {
+			throw new IllegalStateException("accounts.cluster.node-index " + properties.getNodeIndex()
+					+ " is not a position in accounts.cluster.nodes " + addresses);
+		}
+		this.properties = properties;
+		this.ring = new HashRing(addresses.size(), properties.getVirtualNodes());
+		this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+			Thread thread = new Thread(runnable, "cluster-timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timer.setRemoveOnCancelPolicy(true);
+		this.local = new LocalNode(new ClusterPartition(notificationService, properties.getReservationTimeoutMillis(),
+				DECISION_RETENTION_FACTOR * properties.getReservationTimeoutMillis()), this::deliver);
+		this.server = new ClusterServer(local);
+		this.nodes = new ClusterNode[addresses.size()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = i == properties.getNodeIndex() ? local
+					: new RemoteNode(addressOf(addresses.get(i)), properties.getTimeoutMillis(), timer);
+		}
+	}
+
+	@PostConstruct
+	public void start() throws IOException {
+		int port = addressOf(properties.getNodes().get(properties.getNodeIndex())).getPort();
+		server.start(new InetSocketAddress(port));
+		long interval = properties.getTimeoutMillis();
+		timer.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.MILLISECONDS);
+		log.info("Cluster node {} of {} answering on port {}", properties.getNodeIndex(), nodes.length, port);
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		timer.shutdownNow();
+		server.close();
+		for (ClusterNode node : nodes) {
+			if (node instanceof RemoteNode) {
+				((RemoteNode) node).close();
+			}
+		}
+		int owed = local.partition().owedCredits().size();
+		if (owed > 0) {
+			log.warn("Stopping with {} credits of committed transfers not delivered", owed);
+		}
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		log.info("Creating account {}", account);
+		await(ownerOf(account.getAccountId()).create(account.getAccountId(), account.getBalanceMinorUnits()));
+	}
+
+	@Override
+	public Account getAccount(String accountId) {
+		return await(ownerOf(accountId).get(accountId));
+	}
+
+	@Override
+	public void clearAccounts() {
+		log.info("clearAccounts");
+		sum(ClusterNode::clear);
+	}
+
+	@Override
+	public long countAccounts() {
+		return sum(ClusterNode::count);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see com.db.awmd.challenge.repository.AccountsRepository#
+	 * totalBalanceMinorUnits()
+	 *
+	 * Reserved amounts count on their source node; an amount whose debit
+	 * committed is missing until it is credited
+	 */
+	@Override
+	public long totalBalanceMinorUnits() {
+		return sum(ClusterNode::total);
+	}
+
+	@Override
+	public void transferMoney(TransferRequest transferRequest) throws ApplicationException {
+		log.debug("Start of transferMoney {}", transferRequest);
+
+		String accountFromId = transferRequest.getAccountFrom();
+		String accountToId = transferRequest.getAccountTo();
+		long amount = transferRequest.getAmountMinorUnits();
+
+		if (accountFromId.compareToIgnoreCase(accountToId) == 0) {
+			throw new ApplicationException(RejectionReason.SAME_ACCOUNT,
+					"AccountFrom " + accountFromId + " is same as accountTo " + accountToId);
+		}
+		if (amount < 0) {
+			throw new ApplicationException(RejectionReason.NEGATIVE_AMOUNT,
+					"Transfer amount " + transferRequest.getAmount() + " must not be negative");
+		}
+
+		ClusterNode fromNode = ownerOf(accountFromId);
+		ClusterNode toNode = ownerOf(accountToId);
+		if (fromNode == toNode) {
+			await(fromNode.transfer(accountFromId, accountToId, amount));
+		} else {
+			transferAcrossNodes(fromNode, toNode, accountFromId, accountToId, amount);
+		}
+		log.debug("End of transferMoney");
+	}
+
+	/**
+	 * @return number of cross node transfers debited on this node whose
+	 *         target has not yet confirmed the credit
+	 */
+	public int unresolvedTransfers() {
+		return local.partition().owedCredits().size();
+	}
+
+	private void transferAcrossNodes(ClusterNode fromNode, ClusterNode toNode, String accountFromId,
+			String accountToId, long amount) {
+		long transaction = ((long) properties.getNodeIndex() << 48)
+				| (transactions.incrementAndGet() & TRANSACTION_MASK);
+
+		CompletableFuture<Void> reserved = fromNode.reserve(transaction, accountFromId, accountToId, amount);
+		CompletableFuture<Void> prepared = toNode.prepareCredit(accountToId);
+		try {
+			await(reserved);
+			await(prepared);
+		} catch (RuntimeException e) {
+			// no need to wait: a reservation the abort misses expires
+			fromNode.abort(transaction);
+			throw e;
+		}
+
+		try {
+			await(fromNode.commitDebit(transaction));
+		} catch (NodeUnavailableException nue) {
+			throw new NodeUnavailableException("Transfer " + transaction + " from " + accountFromId + " to "
+					+ accountToId + " may or may not have been applied, its source settles it: " + nue.getMessage());
+		}
+	}
+
+	/**
+	 * Credits the target of a transfer this node committed; once the target
+	 * answers it is told to forget the transaction and the credit is settled.
+	 * A failure leaves the credit owed for the next round of
+	 * {@link #maintain()}.
+	 *
+	 * @return completes once the credit was tried, never exceptionally
+	 */
+	private CompletableFuture<Void> deliver(Credit credit) {
+		if (!credit.delivering.compareAndSet(false, true)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		ClusterNode target = ownerOf(credit.accountTo);
+		CompletableFuture<Void> credited = target.credit(credit.transaction, credit.accountTo, credit.amount);
+		credited.thenCompose(applied -> target.forget(credit.transaction)).whenComplete((forgotten, failure) -> {
+			if (failure == null) {
+				local.partition().settled(credit.transaction);
+			} else {
+				log.debug("Credit of transfer {} to {} not delivered yet: {}", credit.transaction, credit.accountTo,
+						failure.toString());
+			}
+			credit.delivering.set(false);
+		});
+		return credited.handle((applied, failure) -> null);
+	}
+
+	/**
+	 * Runs on the timer: refunds expired reservations of this node and
+	 * delivers the credits it still owes
+	 */
+	private void maintain() {
+		try {
+			local.partition().expire();
+			for (Credit credit : local.partition().owedCredits()) {
+				deliver(credit);
+			}
+		} catch (RuntimeException e) {
+			log.error("Cluster maintenance failed", e);
+		}
+	}
+
+	private ClusterNode ownerOf(String accountId) {
+		return nodes[ring.ownerOf(accountId)];
+	}
+
+	/**
+	 * Asks every node at once and adds up the answers
+	 */
+	private long sum(Function<ClusterNode, CompletableFuture<?>> request) {
+		CompletableFuture<?>[] answers = new CompletableFuture<?>[nodes.length];
+		for (int i = 0; i < nodes.length; i++) {
+			answers[i] = request.apply(nodes[i]);
+		}
+		long sum = 0;
+		for (CompletableFuture<?> answer : answers) {
+			Object value = await(answer);
+			if (value instanceof Long) {
+				sum += (Long) value;
+			}
+		}
+		return sum;
+	}
+
+	private static InetSocketAddress addressOf(String node) {
+		int colon = node.lastIndexOf(':');
+		if (colon < 0) {
+			throw new IllegalStateException("Cluster node " + node + " is not host:port");
+		}
+		return new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)));
+	}
+
+	/**
+	 * Waits for a node to answer and rethrows what the request failed with
+	 */
+	private static <T> T await(CompletableFuture<T> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ee.getCause();
+			}
+			throw new ApplicationException("Cluster request failed: " + ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ApplicationException("Interrupted while waiting for a cluster node");
+		}
+	}
+}
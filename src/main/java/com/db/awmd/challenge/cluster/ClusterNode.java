@@ -0,0 +1,55 @@
+package com.db.awmd.challenge.cluster;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.db.awmd.challenge.domain.Account;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Requests one node of the cluster answers for the accounts it owns.
+ *         The futures fail with the exception the owning partition threw, or
+ *         with a {@link NodeUnavailableException} if the node did not answer.
+ *
+ */
+interface ClusterNode {
+
+	/**
+	 * @return the account, or null if the node has none with the id
+	 */
+	CompletableFuture<Account> get(String accountId);
+
+	CompletableFuture<Void> create(String accountId, long balance);
+
+	/**
+	 * Transfers between two accounts the node owns
+	 *
+	 * @return the source and target account after the transfer
+	 */
+	CompletableFuture<Account[]> transfer(String accountFrom, String accountTo, long amount);
+
+	CompletableFuture<Void> reserve(long transaction, String accountFrom, String accountTo, long amount);
+
+	CompletableFuture<Void> prepareCredit(String accountTo);
+
+	/**
+	 * Commits the debit on the source node, which then owes and delivers the
+	 * credit; completes once the credit was tried
+	 */
+	CompletableFuture<Void> commitDebit(long transaction);
+
+	CompletableFuture<Void> credit(long transaction, String accountTo, long amount);
+
+	/**
+	 * Lets the target forget a credit the source knows is applied
+	 */
+	CompletableFuture<Void> forget(long transaction);
+
+	CompletableFuture<Void> abort(long transaction);
+
+	CompletableFuture<Long> count();
+
+	CompletableFuture<Long> total();
+
+	CompletableFuture<Void> clear();
+}
@@ -0,0 +1,380 @@
+package com.db.awmd.challenge.cluster;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.service.NotificationService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         The accounts one node owns. Every balance is {balance, version},
+ *         changed under its own monitor; a transfer between two accounts of
+ *         the node takes both monitors in id order.
+ *
+ *         For a transfer across nodes the partition of the source reserves the
+ *         amount, taking it off the balance, until the coordinator commits or
+ *         aborts the transfer. A reservation that is still open after the
+ *         reservation timeout is aborted and refunded. Committing the debit
+ *         leaves this partition owing the credit to the target until the
+ *         target has applied it and forgotten the transaction, so the
+ *         obligation lives with the money rather than with the coordinator.
+ *
+ *         The target remembers a credit until the source tells it to forget
+ *         it, so a credit delivered twice is applied once however late the
+ *         second copy comes. The source remembers a commit while the credit
+ *         is owed and an abort for a while after; a commit for a transaction
+ *         it no longer knows is answered as unknown, never as aborted. A node
+ *         is never both sides of one transfer, so one map holds the decisions
+ *         of both.
+ *
+ */
+@Slf4j
+final class ClusterPartition {
+
+	private enum Outcome {
+		COMMITTED, ABORTED, CREDITED
+	}
+
+	private final Map<String, long[]> balances = new ConcurrentHashMap<>();
+
+	private final Map<Long, Reservation> reservations = new ConcurrentHashMap<>();
+
+	private final Map<Long, Decision> decisions = new ConcurrentHashMap<>();
+
+	private final Map<Long, Credit> owed = new ConcurrentHashMap<>();
+
+	private final NotificationService notificationService;
+
+	private final long reservationTimeoutMillis;
+
+	private final long decisionRetentionMillis;
+
+	/**
+	 * @param notificationService
+	 *            receives a notification per account of this node a transfer
+	 *            changed
+	 * @param reservationTimeoutMillis
+	 * @param decisionRetentionMillis
+	 *            time an abort, or a commit whose credit was delivered, is
+	 *            remembered for retries
+	 */
+	ClusterPartition(NotificationService notificationService, long reservationTimeoutMillis,
+			long decisionRetentionMillis) {
+		this.notificationService = notificationService;
+		this.reservationTimeoutMillis = reservationTimeoutMillis;
+		this.decisionRetentionMillis = decisionRetentionMillis;
+	}
+
+	Account get(String accountId) {
+		long[] balance = balances.get(accountId);
+		if (balance == null) {
+			return null;
+		}
+		synchronized (balance) {
+			return copyOf(accountId, balance);
+		}
+	}
+
+	void create(String accountId, long balance) throws DuplicateAccountIdException {
+		if (balances.putIfAbsent(accountId, new long[] { balance, 0 }) != null) {
+			throw new DuplicateAccountIdException("Account id " + accountId + " already exists!");
+		}
+	}
+
+	/**
+	 * Transfers between two accounts of this node
+	 *
+	 * @return the source and target account after the transfer
+	 */
+	Account[] transfer(String accountFrom, String accountTo, long amount) throws ApplicationException {
+		long[] from = require(accountFrom);
+		long[] to = require(accountTo);
+		Account[] accounts;
+		boolean fromFirst = accountFrom.compareTo(accountTo) < 0;
+		synchronized (fromFirst ? from : to) {
+			synchronized (fromFirst ? to : from) {
+				// an overflow of the target is found before the source is touched
+				long toBalance = Money.add(to[0], amount);
+				debit(accountFrom, from, amount);
+				to[0] = toBalance;
+				to[1]++;
+				accounts = new Account[] { copyOf(accountFrom, from), copyOf(accountTo, to) };
+			}
+		}
+		notificationService.notifyAboutTransfer(accounts[0], " withdraw sucess");
+		notificationService.notifyAboutTransfer(accounts[1], " deposit sucess");
+		return accounts;
+	}
+
+	/**
+	 * Takes the amount off the source of a cross node transfer until it is
+	 * committed or aborted
+	 */
+	void reserve(long transaction, String accountFrom, String accountTo, long amount) throws ApplicationException {
+		long[] from = require(accountFrom);
+		synchronized (from) {
+			debit(accountFrom, from, amount);
+		}
+		reservations.put(transaction, new Reservation(accountFrom, accountTo, amount,
+				System.currentTimeMillis() + reservationTimeoutMillis));
+	}
+
+	/**
+	 * Checks the target of a cross node transfer exists
+	 */
+	void prepareCredit(String accountTo) throws ApplicationException {
+		require(accountTo);
+	}
+
+	/**
+	 * Keeps the reserved amount off the source for good; the credit is owed
+	 * to the target from then on
+	 *
+	 * @return the credit still owed for the transaction, null if it was
+	 *         already delivered
+	 * @throws ApplicationException
+	 *             if the transfer was aborted, or with
+	 *             {@link RejectionReason#UNAVAILABLE} if its outcome is no
+	 *             longer known
+	 */
+	Credit commitDebit(long transaction) throws ApplicationException {
+		Reservation reservation = reservations.remove(transaction);
+		if (reservation == null) {
+			Decision decision = decisions.get(transaction);
+			if (decision == null) {
+				throw new ApplicationException(RejectionReason.UNAVAILABLE,
+						"Outcome of transfer " + transaction + " is no longer known");
+			}
+			if (decision.outcome != Outcome.COMMITTED) {
+				throw new ApplicationException("Transfer " + transaction + " was aborted before its commit");
+			}
+			return owed.get(transaction);
+		}
+		Credit credit = new Credit(transaction, reservation.accountTo, reservation.amount);
+		owed.put(transaction, credit);
+		decisions.put(transaction, new Decision(Outcome.COMMITTED));
+		Account account = get(reservation.accountId);
+		if (account != null) {
+			notificationService.notifyAboutTransfer(account, " withdraw sucess");
+		}
+		return credit;
+	}
+
+	/**
+	 * @return the credits this partition owes for the transfers it committed
+	 */
+	Collection<Credit> owedCredits() {
+		return owed.values();
+	}
+
+	/**
+	 * Records that the target applied the credit and forgot the transaction
+	 */
+	void settled(long transaction) {
+		owed.remove(transaction);
+	}
+
+	/**
+	 * Credits the target of a committed cross node transfer, once per
+	 * transaction until the source lets it forget the transaction
+	 */
+	void credit(long transaction, String accountTo, long amount) throws ApplicationException {
+		if (decisions.putIfAbsent(transaction, new Decision(Outcome.CREDITED)) != null) {
+			return;
+		}
+		long[] to = balances.get(accountTo);
+		if (to == null) {
+			// only when the accounts were cleared while the transfer was in flight
+			log.warn("Account id {} was removed while a transfer of {} to it was in flight", accountTo, amount);
+			to = balances.computeIfAbsent(accountTo, id -> new long[] { 0, 0 });
+		}
+		Account account;
+		synchronized (to) {
+			try {
+				to[0] = Money.add(to[0], amount);
+			} catch (ApplicationException ae) {
+				// not applied, so a later copy of the credit must not be taken for a duplicate
+				decisions.remove(transaction);
+				throw ae;
+			}
+			to[1]++;
+			account = copyOf(accountTo, to);
+		}
+		notificationService.notifyAboutTransfer(account, " deposit sucess");
+	}
+
+	/**
+	 * Forgets a credit the source knows is applied, no copy of it being in
+	 * flight any more
+	 */
+	void forget(long transaction) {
+		decisions.computeIfPresent(transaction,
+				(key, decision) -> decision.outcome == Outcome.CREDITED ? null : decision);
+	}
+
+	/**
+	 * Refunds the reservation of the transaction, if this node holds one
+	 */
+	void abort(long transaction) {
+		Reservation reservation = reservations.remove(transaction);
+		if (reservation != null) {
+			decisions.put(transaction, new Decision(Outcome.ABORTED));
+			refund(reservation);
+		}
+	}
+
+	/**
+	 * Refunds the reservations past their deadline and forgets old aborts and
+	 * settled commits
+	 */
+	void expire() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<Long, Reservation> entry : reservations.entrySet()) {
+			Reservation reservation = entry.getValue();
+			if (reservation.deadline < now && reservations.remove(entry.getKey(), reservation)) {
+				decisions.put(entry.getKey(), new Decision(Outcome.ABORTED));
+				log.warn("Transfer {} was neither committed nor aborted in time, refunding {} to {}", entry.getKey(),
+						reservation.amount, reservation.accountId);
+				refund(reservation);
+			}
+		}
+		for (Iterator<Map.Entry<Long, Decision>> decided = decisions.entrySet().iterator(); decided.hasNext();) {
+			Map.Entry<Long, Decision> entry = decided.next();
+			Decision decision = entry.getValue();
+			if (decision.outcome != Outcome.CREDITED && !owed.containsKey(entry.getKey())
+					&& decision.decidedAt + decisionRetentionMillis < now) {
+				decided.remove();
+			}
+		}
+	}
+
+	long count() {
+		return balances.size();
+	}
+
+	/**
+	 * @return sum of the balances and of the open reservations
+	 */
+	long total() {
+		long total = 0;
+		for (long[] balance : balances.values()) {
+			synchronized (balance) {
+				total += balance[0];
+			}
+		}
+		for (Reservation reservation : reservations.values()) {
+			total += reservation.amount;
+		}
+		return total;
+	}
+
+	void clear() {
+		balances.clear();
+		reservations.clear();
+		owed.clear();
+		decisions.clear();
+	}
+
+	private void refund(Reservation reservation) {
+		long[] from = balances.get(reservation.accountId);
+		if (from == null) {
+			log.warn("Account id {} was removed before {} reserved from it was refunded", reservation.accountId,
+					reservation.amount);
+			return;
+		}
+		synchronized (from) {
+			from[0] = Money.add(from[0], reservation.amount);
+			from[1]++;
+		}
+	}
+
+	private long[] require(String accountId) throws ApplicationException {
+		long[] balance = balances.get(accountId);
+		if (balance == null) {
+			throw new ApplicationException(RejectionReason.ACCOUNT_NOT_FOUND, "Account id " + accountId + " not found");
+		}
+		return balance;
+	}
+
+	/**
+	 * The caller holds the monitor of the balance
+	 */
+	private static void debit(String accountId, long[] balance, long amount) throws ApplicationException {
+		if (amount > balance[0]) {
+			throw new ApplicationException(RejectionReason.INSUFFICIENT_BALANCE,
+					"Account id " + accountId + " balance is less than " + Money.toDecimal(amount));
+		}
+		balance[0] -= amount;
+		balance[1]++;
+	}
+
+	private static Account copyOf(String accountId, long[] balance) {
+		Account account = new Account(accountId);
+		account.setBalanceMinorUnits(balance[0]);
+		account.setVersion(balance[1]);
+		return account;
+	}
+
+	private static final class Reservation {
+
+		final String accountId;
+
+		final String accountTo;
+
+		final long amount;
+
+		final long deadline;
+
+		Reservation(String accountId, String accountTo, long amount, long deadline) {
+			this.accountId = accountId;
+			this.accountTo = accountTo;
+			this.amount = amount;
+			this.deadline = deadline;
+		}
+	}
+
+	/**
+	 * Amount owed to the target of a committed transfer
+	 */
+	static final class Credit {
+
+		final long transaction;
+
+		final String accountTo;
+
+		final long amount;
+
+		/**
+		 * Set while a delivery is waiting for the target
+		 */
+		final AtomicBoolean delivering = new AtomicBoolean();
+
+		Credit(long transaction, String accountTo, long amount) {
+			this.transaction = transaction;
+			this.accountTo = accountTo;
+			this.amount = amount;
+		}
+	}
+
+	private static final class Decision {
+
+		final Outcome outcome;
+
+		final long decidedAt = System.currentTimeMillis();
+
+		Decision(Outcome outcome) {
+			this.outcome = outcome;
+		}
+	}
+}
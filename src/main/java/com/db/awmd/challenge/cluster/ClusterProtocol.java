@@ -0,0 +1,128 @@
+package com.db.awmd.challenge.cluster;
+
+import java.nio.ByteBuffer;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.ApplicationException;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Binary protocol between the nodes of the cluster. A request is
+ *         [length int][request id long][operation byte][arguments] and its
+ *         reply [length int][request id long][status byte][result], the
+ *         length counting what follows it. Strings are [length short][chars],
+ *         amounts and transaction ids longs. An OK result is [count byte] and
+ *         that many longs; a DUPLICATE one is the message and a REJECTED
+ *         one [reason byte], the ordinal of its RejectionReason, and the
+ *         message.
+ *
+ *         Requests on one connection are answered in order, and a client
+ *         does not wait for a reply before sending the next request.
+ *
+ */
+final class ClusterProtocol {
+
+	static final byte GET = 1;
+
+	static final byte CREATE = 2;
+
+	static final byte TRANSFER = 3;
+
+	static final byte RESERVE = 4;
+
+	static final byte PREPARE_CREDIT = 5;
+
+	static final byte COMMIT_DEBIT = 6;
+
+	static final byte CREDIT = 7;
+
+	static final byte ABORT = 8;
+
+	static final byte COUNT = 9;
+
+	static final byte TOTAL = 10;
+
+	static final byte CLEAR = 11;
+
+	static final byte FORGET = 12;
+
+	static final byte OK = 0;
+
+	static final byte NOT_FOUND = 1;
+
+	static final byte DUPLICATE = 2;
+
+	static final byte REJECTED = 3;
+
+	/**
+	 * Largest request or reply: two account ids of the longest length and a
+	 * few longs
+	 */
+	static final int MAX_MESSAGE_BYTES = 2 * (2 + 2 * 0xFFFF) + 64;
+
+	private ClusterProtocol() {
+	}
+
+	static void putString(ByteBuffer buffer, String value) {
+		if (value.length() > 0xFFFF) {
+			throw new ApplicationException("Account id is too long to be sent to another node");
+		}
+		buffer.putShort((short) value.length());
+		for (int i = 0; i < value.length(); i++) {
+			buffer.putChar(value.charAt(i));
+		}
+	}
+
+	static String getString(ByteBuffer buffer) {
+		char[] chars = new char[buffer.getShort() & 0xFFFF];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = buffer.getChar();
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Writes the longs of an OK result: none, a count or total, or the
+	 * balance and version of each account
+	 */
+	static void putResult(ByteBuffer buffer, Object result) {
+		if (result instanceof Long) {
+			buffer.put((byte) 1).putLong((Long) result);
+		} else if (result instanceof Account) {
+			buffer.put((byte) 2);
+			putAccount(buffer, (Account) result);
+		} else if (result instanceof Account[]) {
+			Account[] accounts = (Account[]) result;
+			buffer.put((byte) (2 * accounts.length));
+			for (Account account : accounts) {
+				putAccount(buffer, account);
+			}
+		} else {
+			buffer.put((byte) 0);
+		}
+	}
+
+	static long[] getResult(ByteBuffer buffer) {
+		long[] result = new long[buffer.get()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = buffer.getLong();
+		}
+		return result;
+	}
+
+	/**
+	 * @param result
+	 *            balance and version from the given offset
+	 */
+	static Account accountOf(String accountId, long[] result, int offset) {
+		Account account = new Account(accountId);
+		account.setBalanceMinorUnits(result[offset]);
+		account.setVersion(result[offset + 1]);
+		return account;
+	}
+
+	private static void putAccount(ByteBuffer buffer, Account account) {
+		buffer.putLong(account.getBalanceMinorUnits()).putLong(account.getVersion());
+	}
+}
@@ -0,0 +1,213 @@
+package com.db.awmd.challenge.cluster;
+
+import static com.db.awmd.challenge.cluster.ClusterProtocol.MAX_MESSAGE_BYTES;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.RejectionReason;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Answers the requests other nodes send for the accounts of this node.
+ *         Each connection has a thread that runs every complete request it
+ *         read against the local node and writes the replies back in one go,
+ *         so a pipelining client gets its replies batched.
+ *
+ */
+@Slf4j
+final class ClusterServer implements Closeable {
+
+	private static final int MAX_MESSAGE_LENGTH = 1000;
+
+	private final LocalNode local;
+
+	private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+	private ServerSocketChannel server;
+
+	private volatile boolean running;
+
+	ClusterServer(LocalNode local) {
+		this.local = local;
+	}
+
+	/**
+	 * @return the port it listens on
+	 */
+	int start(InetSocketAddress address) throws IOException {
+		server = ServerSocketChannel.open();
+		server.bind(address);
+		running = true;
+		Thread acceptor = new Thread(this::accept, "cluster-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return ((InetSocketAddress) server.getLocalAddress()).getPort();
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		if (server != null) {
+			server.close();
+		}
+		for (SocketChannel connection : connections) {
+			connection.close();
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				SocketChannel connection = server.accept();
+				connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				connections.add(connection);
+				Thread thread = new Thread(() -> serve(connection),
+						"cluster-connection-" + connection.getRemoteAddress());
+				thread.setDaemon(true);
+				thread.start();
+			} catch (IOException ioe) {
+				if (running) {
+					log.error("Could not accept a cluster connection", ioe);
+				}
+			}
+		}
+	}
+
+	private void serve(SocketChannel connection) {
+		ByteBuffer in = ByteBuffer.allocate(MAX_MESSAGE_BYTES);
+		ByteBuffer out = ByteBuffer.allocate(4 * MAX_MESSAGE_BYTES);
+		try {
+			while (running) {
+				if (connection.read(in) < 0) {
+					throw new EOFException("Connection closed by the other node");
+				}
+				in.flip();
+				while (in.remaining() >= 4 && in.remaining() - 4 >= in.getInt(in.position())) {
+					int end = in.position() + 4 + in.getInt();
+					if (out.remaining() < MAX_MESSAGE_BYTES) {
+						flush(connection, out);
+					}
+					handle(in, out);
+					in.position(end);
+				}
+				in.compact();
+				flush(connection, out);
+			}
+		} catch (IOException | RuntimeException e) {
+			if (running) {
+				log.info("Cluster connection closed: {}", e.toString());
+			}
+		} finally {
+			connections.remove(connection);
+			try {
+				connection.close();
+			} catch (IOException ioe) {
+				log.warn("Could not close a cluster connection", ioe);
+			}
+		}
+	}
+
+	private static void flush(SocketChannel connection, ByteBuffer out) throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			connection.write(out);
+		}
+		out.clear();
+	}
+
+	/**
+	 * Runs one request and appends its reply
+	 */
+	private void handle(ByteBuffer request, ByteBuffer out) {
+		long requestId = request.getLong();
+		byte operation = request.get();
+		CompletableFuture<?> result;
+		switch (operation) {
+		case ClusterProtocol.GET:
+			result = local.get(ClusterProtocol.getString(request));
+			break;
+		case ClusterProtocol.CREATE:
+			result = local.create(ClusterProtocol.getString(request), request.getLong());
+			break;
+		case ClusterProtocol.TRANSFER:
+			result = local.transfer(ClusterProtocol.getString(request), ClusterProtocol.getString(request),
+					request.getLong());
+			break;
+		case ClusterProtocol.RESERVE:
+			result = local.reserve(request.getLong(), ClusterProtocol.getString(request),
+					ClusterProtocol.getString(request), request.getLong());
+			break;
+		case ClusterProtocol.PREPARE_CREDIT:
+			result = local.prepareCredit(ClusterProtocol.getString(request));
+			break;
+		case ClusterProtocol.COMMIT_DEBIT:
+			result = local.commitDebit(request.getLong());
+			break;
+		case ClusterProtocol.CREDIT:
+			result = local.credit(request.getLong(), ClusterProtocol.getString(request), request.getLong());
+			break;
+		case ClusterProtocol.FORGET:
+			result = local.forget(request.getLong());
+			break;
+		case ClusterProtocol.ABORT:
+			result = local.abort(request.getLong());
+			break;
+		case ClusterProtocol.COUNT:
+			result = local.count();
+			break;
+		case ClusterProtocol.TOTAL:
+			result = local.total();
+			break;
+		case ClusterProtocol.CLEAR:
+			result = local.clear();
+			break;
+		default:
+			throw new IllegalStateException("Unknown cluster operation " + operation);
+		}
+
+		int start = out.position();
+		out.position(start + 4);
+		out.putLong(requestId);
+		try {
+			Object value = result.join();
+			if (operation == ClusterProtocol.GET && value == null) {
+				out.put(ClusterProtocol.NOT_FOUND);
+			} else {
+				out.put(ClusterProtocol.OK);
+				ClusterProtocol.putResult(out, value);
+			}
+		} catch (CompletionException ce) {
+			Throwable cause = ce.getCause();
+			if (!(cause instanceof ApplicationException || cause instanceof DuplicateAccountIdException)) {
+				log.error("Cluster operation {} failed", operation, cause);
+			}
+			if (cause instanceof DuplicateAccountIdException) {
+				out.put(ClusterProtocol.DUPLICATE);
+			} else {
+				out.put(ClusterProtocol.REJECTED);
+				RejectionReason reason = cause instanceof ApplicationException
+						? ((ApplicationException) cause).getReason() : RejectionReason.OTHER;
+				out.put((byte) reason.ordinal());
+			}
+			String message = String.valueOf(cause.getMessage());
+			ClusterProtocol.putString(out, message.substring(0, Math.min(message.length(), MAX_MESSAGE_LENGTH)));
+		}
+		out.putInt(start, out.position() - start - 4);
+	}
+}
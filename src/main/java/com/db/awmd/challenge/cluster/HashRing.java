@@ -0,0 +1,72 @@
+package com.db.awmd.challenge.cluster;
+
+import java.util.Arrays;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Consistent hash ring assigning account ids to nodes. Every node
+ *         owns virtualNodes points on a 64 bit ring and an account belongs to
+ *         the node of the first point at or after the hash of its id, so
+ *         adding a node only moves the accounts that fall just before its new
+ *         points.
+ *
+ */
+final class HashRing {
+
+	private final long[] points;
+
+	private final int[] owners;
+
+	/**
+	 * @param nodes
+	 *            number of nodes, identified by their position
+	 * @param virtualNodes
+	 *            points per node
+	 */
+	HashRing(int nodes, int virtualNodes) {
+		long[][] entries = new long[nodes * virtualNodes][];
+		for (int node = 0; node < nodes; node++) {
+			for (int point = 0; point < virtualNodes; point++) {
+				entries[node * virtualNodes + point] = new long[] { hash("node-" + node + "#" + point), node };
+			}
+		}
+		Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+		this.points = new long[entries.length];
+		this.owners = new int[entries.length];
+		for (int i = 0; i < entries.length; i++) {
+			points[i] = entries[i][0];
+			owners[i] = (int) entries[i][1];
+		}
+	}
+
+	/**
+	 * @param accountId
+	 * @return position of the node owning the account
+	 */
+	int ownerOf(String accountId) {
+		int index = Arrays.binarySearch(points, hash(accountId));
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return owners[index == points.length ? 0 : index];
+	}
+
+	/**
+	 * FNV-1a over the chars, finished with the MurmurHash3 mix so nearby ids
+	 * spread over the whole ring
+	 */
+	static long hash(String value) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < value.length(); i++) {
+			hash ^= value.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,116 @@
+package com.db.awmd.challenge.cluster;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.db.awmd.challenge.cluster.ClusterPartition.Credit;
+
+import com.db.awmd.challenge.domain.Account;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         This node: requests run on the calling thread against the local
+ *         partition and return completed futures, except a commit, which
+ *         completes once the credit it leaves owed was tried
+ *
+ */
+final class LocalNode implements ClusterNode {
+
+	private final ClusterPartition partition;
+
+	private final Function<Credit, CompletableFuture<Void>> delivery;
+
+	/**
+	 * @param delivery
+	 *            sends an owed credit to its target, never completing
+	 *            exceptionally
+	 */
+	LocalNode(ClusterPartition partition, Function<Credit, CompletableFuture<Void>> delivery) {
+		this.partition = partition;
+		this.delivery = delivery;
+	}
+
+	ClusterPartition partition() {
+		return partition;
+	}
+
+	@Override
+	public CompletableFuture<Account> get(String accountId) {
+		return call(() -> partition.get(accountId));
+	}
+
+	@Override
+	public CompletableFuture<Void> create(String accountId, long balance) {
+		return run(() -> partition.create(accountId, balance));
+	}
+
+	@Override
+	public CompletableFuture<Account[]> transfer(String accountFrom, String accountTo, long amount) {
+		return call(() -> partition.transfer(accountFrom, accountTo, amount));
+	}
+
+	@Override
+	public CompletableFuture<Void> reserve(long transaction, String accountFrom, String accountTo, long amount) {
+		return run(() -> partition.reserve(transaction, accountFrom, accountTo, amount));
+	}
+
+	@Override
+	public CompletableFuture<Void> prepareCredit(String accountTo) {
+		return run(() -> partition.prepareCredit(accountTo));
+	}
+
+	@Override
+	public CompletableFuture<Void> commitDebit(long transaction) {
+		return call(() -> partition.commitDebit(transaction))
+				.thenCompose(credit -> credit == null ? CompletableFuture.completedFuture(null) : delivery.apply(credit));
+	}
+
+	@Override
+	public CompletableFuture<Void> credit(long transaction, String accountTo, long amount) {
+		return run(() -> partition.credit(transaction, accountTo, amount));
+	}
+
+	@Override
+	public CompletableFuture<Void> forget(long transaction) {
+		return run(() -> partition.forget(transaction));
+	}
+
+	@Override
+	public CompletableFuture<Void> abort(long transaction) {
+		return run(() -> partition.abort(transaction));
+	}
+
+	@Override
+	public CompletableFuture<Long> count() {
+		return call(partition::count);
+	}
+
+	@Override
+	public CompletableFuture<Long> total() {
+		return call(partition::total);
+	}
+
+	@Override
+	public CompletableFuture<Void> clear() {
+		return run(partition::clear);
+	}
+
+	private static <T> CompletableFuture<T> call(Supplier<T> request) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			future.complete(request.get());
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	private static CompletableFuture<Void> run(Runnable request) {
+		return call(() -> {
+			request.run();
+			return null;
+		});
+	}
+}
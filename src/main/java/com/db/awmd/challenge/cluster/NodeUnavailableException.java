@@ -0,0 +1,19 @@
+package com.db.awmd.challenge.cluster;
+
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.RejectionReason;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         A node of the cluster could not be reached or did not answer in
+ *         time; whether it applied the request is unknown, so it is not a
+ *         final rejection
+ *
+ */
+public class NodeUnavailableException extends ApplicationException {
+
+	public NodeUnavailableException(String message) {
+		super(RejectionReason.UNAVAILABLE, message);
+	}
+}
@@ -0,0 +1,311 @@
+package com.db.awmd.challenge.cluster;
+
+import static com.db.awmd.challenge.cluster.ClusterProtocol.MAX_MESSAGE_BYTES;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.RejectionReason;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Another node, reached over one TCP connection. Requests are written
+ *         as they are made without waiting for earlier replies; a reader thread
+ *         completes the futures as the replies arrive. A request without a
+ *         reply within the timeout, or pending when the connection breaks,
+ *         fails with a {@link NodeUnavailableException}. A broken connection
+ *         is opened again by the next request, at most once per timeout.
+ *
+ */
+@Slf4j
+final class RemoteNode implements ClusterNode, Closeable {
+
+	private final InetSocketAddress address;
+
+	private final long timeoutMillis;
+
+	private final ScheduledExecutorService timer;
+
+	private final ByteBuffer out = ByteBuffer.allocate(MAX_MESSAGE_BYTES);
+
+	private Connection connection;
+
+	private long nextRequestId;
+
+	private long retryAfter;
+
+	private boolean closed;
+
+	/**
+	 * @param timer
+	 *            fails the requests that were not answered in time; it should
+	 *            remove cancelled tasks
+	 */
+	RemoteNode(InetSocketAddress address, long timeoutMillis, ScheduledExecutorService timer) {
+		this.address = address;
+		this.timeoutMillis = timeoutMillis;
+		this.timer = timer;
+	}
+
+	@Override
+	public CompletableFuture<Account> get(String accountId) {
+		return send(ClusterProtocol.GET, request -> ClusterProtocol.putString(request, accountId),
+				result -> result == null ? null : ClusterProtocol.accountOf(accountId, result, 0));
+	}
+
+	@Override
+	public CompletableFuture<Void> create(String accountId, long balance) {
+		return send(ClusterProtocol.CREATE, request -> {
+			ClusterProtocol.putString(request, accountId);
+			request.putLong(balance);
+		}, result -> null);
+	}
+
+	@Override
+	public CompletableFuture<Account[]> transfer(String accountFrom, String accountTo, long amount) {
+		return send(ClusterProtocol.TRANSFER, request -> {
+			ClusterProtocol.putString(request, accountFrom);
+			ClusterProtocol.putString(request, accountTo);
+			request.putLong(amount);
+		}, result -> new Account[] { ClusterProtocol.accountOf(accountFrom, result, 0),
+				ClusterProtocol.accountOf(accountTo, result, 2) });
+	}
+
+	@Override
+	public CompletableFuture<Void> reserve(long transaction, String accountFrom, String accountTo, long amount) {
+		return send(ClusterProtocol.RESERVE, request -> {
+			request.putLong(transaction);
+			ClusterProtocol.putString(request, accountFrom);
+			ClusterProtocol.putString(request, accountTo);
+			request.putLong(amount);
+		}, result -> null);
+	}
+
+	@Override
+	public CompletableFuture<Void> prepareCredit(String accountTo) {
+		return send(ClusterProtocol.PREPARE_CREDIT, request -> ClusterProtocol.putString(request, accountTo),
+				result -> null);
+	}
+
+	@Override
+	public CompletableFuture<Void> commitDebit(long transaction) {
+		return send(ClusterProtocol.COMMIT_DEBIT, request -> request.putLong(transaction), result -> null);
+	}
+
+	@Override
+	public CompletableFuture<Void> credit(long transaction, String accountTo, long amount) {
+		return send(ClusterProtocol.CREDIT, request -> {
+			request.putLong(transaction);
+			ClusterProtocol.putString(request, accountTo);
+			request.putLong(amount);
+		}, result -> null);
+	}
+
+	@Override
+	public CompletableFuture<Void> forget(long transaction) {
+		return send(ClusterProtocol.FORGET, request -> request.putLong(transaction), result -> null);
+	}
+
+	@Override
+	public CompletableFuture<Void> abort(long transaction) {
+		return send(ClusterProtocol.ABORT, request -> request.putLong(transaction), result -> null);
+	}
+
+	@Override
+	public CompletableFuture<Long> count() {
+		return send(ClusterProtocol.COUNT, request -> {
+		}, result -> result[0]);
+	}
+
+	@Override
+	public CompletableFuture<Long> total() {
+		return send(ClusterProtocol.TOTAL, request -> {
+		}, result -> result[0]);
+	}
+
+	@Override
+	public CompletableFuture<Void> clear() {
+		return send(ClusterProtocol.CLEAR, request -> {
+		}, result -> null);
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if (connection != null) {
+			connection.fail("Node " + address + " closed");
+		}
+	}
+
+	/**
+	 * @param arguments
+	 *            writes the arguments of the request
+	 * @param decoder
+	 *            maps the longs of an OK reply, null for NOT_FOUND, to the
+	 *            result
+	 */
+	private <T> CompletableFuture<T> send(byte operation, Consumer<ByteBuffer> arguments,
+			Function<long[], T> decoder) {
+		CompletableFuture<long[]> reply = new CompletableFuture<>();
+		synchronized (this) {
+			try {
+				Connection current = connect();
+				long requestId = nextRequestId++;
+				out.clear();
+				out.position(4);
+				out.putLong(requestId).put(operation);
+				arguments.accept(out);
+				out.putInt(0, out.position() - 4);
+				out.flip();
+				current.pending.put(requestId, reply);
+				ScheduledFuture<?> timeout = timer.schedule(() -> {
+					if (current.pending.remove(requestId, reply)) {
+						reply.completeExceptionally(new NodeUnavailableException(
+								"Node " + address + " did not answer within " + timeoutMillis + " ms"));
+					}
+				}, timeoutMillis, TimeUnit.MILLISECONDS);
+				reply.whenComplete((result, failure) -> timeout.cancel(false));
+				try {
+					while (out.hasRemaining()) {
+						current.channel.write(out);
+					}
+				} catch (IOException ioe) {
+					current.fail("Connection to node " + address + " lost: " + ioe);
+				}
+			} catch (ApplicationException ae) {
+				reply.completeExceptionally(ae);
+			}
+		}
+		return reply.thenApply(decoder);
+	}
+
+	/**
+	 * Called holding the monitor
+	 */
+	private Connection connect() throws NodeUnavailableException {
+		if (connection != null && connection.channel.isOpen()) {
+			return connection;
+		}
+		if (closed) {
+			throw new NodeUnavailableException("Node " + address + " closed");
+		}
+		long now = System.currentTimeMillis();
+		if (now < retryAfter) {
+			throw new NodeUnavailableException("Node " + address + " is unreachable");
+		}
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.socket().connect(address, (int) timeoutMillis);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			connection = new Connection(channel);
+			return connection;
+		} catch (IOException ioe) {
+			retryAfter = now + timeoutMillis;
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException closeFailure) {
+					ioe.addSuppressed(closeFailure);
+				}
+			}
+			log.warn("Could not connect to node {}: {}", address, ioe.toString());
+			throw new NodeUnavailableException("Node " + address + " is unreachable: " + ioe.getMessage());
+		}
+	}
+
+	private final class Connection {
+
+		final SocketChannel channel;
+
+		final Map<Long, CompletableFuture<long[]>> pending = new ConcurrentHashMap<>();
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+			Thread reader = new Thread(this::read, "cluster-client-" + address);
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		private void read() {
+			ByteBuffer in = ByteBuffer.allocate(MAX_MESSAGE_BYTES);
+			try {
+				while (true) {
+					if (channel.read(in) < 0) {
+						throw new EOFException("closed by the other node");
+					}
+					in.flip();
+					while (in.remaining() >= 4 && in.remaining() - 4 >= in.getInt(in.position())) {
+						int end = in.position() + 4 + in.getInt();
+						complete(in);
+						in.position(end);
+					}
+					in.compact();
+				}
+			} catch (IOException | RuntimeException e) {
+				fail("Connection to node " + address + " lost: " + e);
+			}
+		}
+
+		private void complete(ByteBuffer reply) {
+			CompletableFuture<long[]> future = pending.remove(reply.getLong());
+			byte status = reply.get();
+			if (future == null) {
+				// answered after its timeout
+				return;
+			}
+			switch (status) {
+			case ClusterProtocol.OK:
+				future.complete(ClusterProtocol.getResult(reply));
+				break;
+			case ClusterProtocol.NOT_FOUND:
+				future.complete(null);
+				break;
+			case ClusterProtocol.DUPLICATE:
+				future.completeExceptionally(new DuplicateAccountIdException(ClusterProtocol.getString(reply)));
+				break;
+			default:
+				RejectionReason reason = RejectionReason.values()[reply.get()];
+				String message = ClusterProtocol.getString(reply);
+				future.completeExceptionally(reason == RejectionReason.UNAVAILABLE
+						? new NodeUnavailableException(message) : new ApplicationException(reason, message));
+			}
+		}
+
+		/**
+		 * Closes the connection and fails the requests waiting on it
+		 */
+		void fail(String message) {
+			try {
+				channel.close();
+			} catch (IOException ioe) {
+				log.warn("Could not close the connection to node {}", address, ioe);
+			}
+			for (Long requestId : pending.keySet()) {
+				CompletableFuture<long[]> future = pending.remove(requestId);
+				if (future != null) {
+					future.completeExceptionally(new NodeUnavailableException(message));
+				}
+			}
+		}
+	}
+}
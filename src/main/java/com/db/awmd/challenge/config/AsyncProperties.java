@@ -0,0 +1,31 @@
+package com.db.awmd.challenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Settings of the executor behind the asynchronous accounts API,
+ *         bound from accounts.async.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.async")
+public class AsyncProperties {
+
+	/**
+	 * Threads applying writes; transfers are CPU bound, so more threads than
+	 * cores only add contention on the lock stripes
+	 */
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Writes waiting for a thread; beyond it requests are refused as busy
+	 * instead of piling up
+	 */
+	private int queueCapacity = 65536;
+}
@@ -0,0 +1,24 @@
+package com.db.awmd.challenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Settings of the transfer audit trail, bound from accounts.audit.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.audit")
+public class AuditProperties {
+
+	/**
+	 * Number of audit events buffered ahead of the writer, rounded up to a
+	 * power of two. Transfers wait for room once it is full.
+	 */
+	private int ringCapacity = 65536;
+}
@@ -0,0 +1,34 @@
+package com.db.awmd.challenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Settings of the binary transfer port of the "binary" profile, bound
+ *         from accounts.binary.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.binary")
+public class BinaryProperties {
+
+	/**
+	 * Port clients of the binary protocol connect to, 0 for any free port
+	 */
+	private int port = 18070;
+
+	/**
+	 * Most account ids that can be registered for a handle
+	 */
+	private int maxHandles = 1 << 20;
+
+	/**
+	 * Largest request accepted; a connection sending a larger one is closed
+	 */
+	private int maxRequestBytes = 4096;
+}
@@ -0,0 +1,48 @@
+package com.db.awmd.challenge.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Settings of the "cluster" profile, bound from accounts.cluster.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.cluster")
+public class ClusterProperties {
+
+	/**
+	 * host:port of the cluster protocol of every node, in the same order on
+	 * all of them; the position of a node is its identity on the hash ring
+	 */
+	private List<String> nodes = new ArrayList<>();
+
+	/**
+	 * Position of this node in the nodes list
+	 */
+	private int nodeIndex;
+
+	/**
+	 * Points each node gets on the hash ring
+	 */
+	private int virtualNodes = 160;
+
+	/**
+	 * Longest wait for another node to answer a request
+	 */
+	private long timeoutMillis = 1000;
+
+	/**
+	 * Time after which an amount reserved for a cross node transfer that was
+	 * neither committed nor aborted is refunded
+	 */
+	private long reservationTimeoutMillis = 10_000;
+}
@@ -0,0 +1,36 @@
+package com.db.awmd.challenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Settings of the currency conversion rates, bound from accounts.fx.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.fx")
+public class FxProperties {
+
+	/**
+	 * Currency of accounts created without one, and the currency the rates
+	 * are quoted against
+	 */
+	private String baseCurrency = "EUR";
+
+	/**
+	 * Local file of currency,rate lines, a rate being the units of the
+	 * currency one unit of the base currency buys. Without it only the base
+	 * currency is known.
+	 */
+	private String rateFile = "fx-rates.csv";
+
+	/**
+	 * Delay between two checks of the rate file for changes, 0 loads it once
+	 */
+	private long refreshIntervalMillis = 10000;
+}
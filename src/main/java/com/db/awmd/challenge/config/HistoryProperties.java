@@ -0,0 +1,36 @@
+package com.db.awmd.challenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Settings of the per account transaction history, bound from
+ *         accounts.history.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.history")
+public class HistoryProperties {
+
+	/**
+	 * Directory holding the file older chunks are spilled to
+	 */
+	private String directory = "history";
+
+	/**
+	 * Entries kept in memory before the oldest full chunks are spilled to
+	 * disk, 0 keeps everything in memory. The open chunk of every account
+	 * stays in memory on top of it.
+	 */
+	private long maxResidentEntries = 8 * 1024 * 1024;
+
+	/**
+	 * Largest chunk; the chunks of an account start small and double up to it
+	 */
+	private int maxChunkEntries = 4096;
+}
@@ -0,0 +1,32 @@
+package com.db.awmd.challenge.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Accounts whose balance the in memory repository splits across slots
+ *         because most transfers go through them, bound from accounts.hot.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.hot")
+public class HotAccountProperties {
+
+	/**
+	 * Ids of the hot accounts, split when they are created
+	 */
+	private List<String> accountIds = new ArrayList<>();
+
+	/**
+	 * Number of slots per hot account, rounded up to a power of two
+	 */
+	private int slots = 8;
+}
@@ -0,0 +1,31 @@
+package com.db.awmd.challenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Settings of the idempotency key cache of transfers, bound from
+ *         accounts.idempotency.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.idempotency")
+public class IdempotencyProperties {
+
+	/**
+	 * Number of keys the cache can hold, rounded up to a power of two. Each
+	 * costs about 36 bytes; size it for the peak transfer rate times the time
+	 * to live.
+	 */
+	private int capacity = 1 << 21;
+
+	/**
+	 * How long the outcome of a transfer is kept for retries
+	 */
+	private long timeToLiveMillis = 30_000;
+}
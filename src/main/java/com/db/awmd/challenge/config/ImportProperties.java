@@ -0,0 +1,34 @@
+package com.db.awmd.challenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Settings of the bulk account import, bound from accounts.import.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.import")
+public class ImportProperties {
+
+	/**
+	 * Number of accounts handed to the repository at once
+	 */
+	private int batchSize = 8192;
+
+	/**
+	 * Number of threads inserting batches while the input is parsed
+	 */
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Most rejected rows listed in the result of one import; the rest are
+	 * only counted
+	 */
+	private int maxReportedErrors = 10_000;
+}
@@ -0,0 +1,46 @@
+package com.db.awmd.challenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.DurabilityLevel;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         Settings of the write ahead journal used by the "durable" profile,
+ *         bound from accounts.journal.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.journal")
+public class JournalProperties {
+
+	/**
+	 * Directory holding the journal segment files
+	 */
+	private String directory = "journal";
+
+	/**
+	 * Size in bytes of one memory mapped segment file
+	 */
+	private int segmentSize = 64 * 1024 * 1024;
+
+	/**
+	 * Durability of calls that do not ask for a level themselves
+	 */
+	private DurabilityLevel durability = DurabilityLevel.FSYNC;
+
+	/**
+	 * Longest time buffered records stay unforced when nobody waits for them
+	 */
+	private long flushIntervalMillis = 10;
+
+	/**
+	 * Time between background snapshots, 0 to disable them
+	 */
+	private long snapshotIntervalMillis = 60_000;
+}
@@ -0,0 +1,63 @@
+package com.db.awmd.challenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         Settings of the asynchronous transfer notification dispatcher,
+ *         bound from accounts.notifications.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.notifications")
+public class NotificationProperties {
+
+	/**
+	 * Total number of queued notifications, split evenly over the dispatchers
+	 */
+	private int queueCapacity = 65536;
+
+	/**
+	 * Number of dispatcher threads; an account always maps to the same one
+	 */
+	private int dispatchers = 2;
+
+	/**
+	 * Maximum number of queued notifications coalesced in one pass
+	 */
+	private int batchSize = 256;
+
+	/**
+	 * What a publisher does when its dispatcher queue is full
+	 */
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+	/**
+	 * Directory of the spill file used by {@link OverflowPolicy#SPILL}
+	 */
+	private String spillDirectory = System.getProperty("java.io.tmpdir") + "/accounts-notifications";
+
+	public enum OverflowPolicy {
+
+		/**
+		 * Discard the notification and count it as dropped
+		 */
+		DROP,
+
+		/**
+		 * Wait for room in the queue
+		 */
+		BLOCK,
+
+		/**
+		 * Append the notification to a file which is replayed once the queues
+		 * have drained
+		 */
+		SPILL
+	}
+}
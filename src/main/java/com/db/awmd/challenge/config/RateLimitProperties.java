@@ -0,0 +1,53 @@
+package com.db.awmd.challenge.config;
+
+import java.math.BigDecimal;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Transfer rate limits per source account and per client, bound from
+ *         accounts.rate-limit.*. A limit left at 0 is not enforced.
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.rate-limit")
+public class RateLimitProperties {
+
+	/**
+	 * Most transfers out of one account per window
+	 */
+	private long accountTransfers;
+
+	/**
+	 * Most money out of one account per window
+	 */
+	private BigDecimal accountAmount = BigDecimal.ZERO;
+
+	/**
+	 * Most transfers of one client per window
+	 */
+	private long clientTransfers;
+
+	/**
+	 * Most money moved by one client per window
+	 */
+	private BigDecimal clientAmount = BigDecimal.ZERO;
+
+	private long windowMillis = 1000;
+
+	/**
+	 * Slots of the time wheel that drops idle accounts and clients
+	 */
+	private int wheelSlots = 1024;
+
+	/**
+	 * Time each slot of the wheel covers
+	 */
+	private long tickMillis = 10;
+}
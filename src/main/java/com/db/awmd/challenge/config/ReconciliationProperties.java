@@ -0,0 +1,30 @@
+package com.db.awmd.challenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Settings of the background balance reconciliation, bound from
+ *         accounts.reconciliation.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.reconciliation")
+public class ReconciliationProperties {
+
+	/**
+	 * Delay between two reconciliation scans, 0 disables them
+	 */
+	private long intervalMillis = 5000;
+
+	/**
+	 * Number of consecutive conclusive scans that must find the same
+	 * discrepancy before it is reported
+	 */
+	private int confirmations = 3;
+}
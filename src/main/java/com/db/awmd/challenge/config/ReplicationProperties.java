@@ -0,0 +1,45 @@
+package com.db.awmd.challenge.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Settings of journal replication between a "primary" and its
+ *         "follower" instances, bound from accounts.replication.*
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "accounts.replication")
+public class ReplicationProperties {
+
+	/**
+	 * Port the primary accepts followers on, 0 for any free port
+	 */
+	private int port = 18090;
+
+	/**
+	 * Host of the primary a follower connects to
+	 */
+	private String primaryHost = "localhost";
+
+	/**
+	 * Port of the primary a follower connects to
+	 */
+	private int primaryPort = 18090;
+
+	/**
+	 * Most journal bytes shipped in one frame; a larger record is shipped on
+	 * its own
+	 */
+	private int maxFrameBytes = 1024 * 1024;
+
+	/**
+	 * Time a follower waits before connecting again after losing the primary
+	 */
+	private long reconnectIntervalMillis = 1000;
+}
@@ -4,48 +4,115 @@ import java.math.BigDecimal;
 
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
 
 import org.hibernate.validator.constraints.NotEmpty;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 
 /**
  * @author Dhananjay Jadhav
- * 
- *         This class holds information related to Account
+ *
+ *         This class holds information related to Account. The balance is
+ *         kept in minor units (see {@link Money}) and only exposed as a
+ *         BigDecimal at the JSON edge. The version counts the committed
+ *         changes of the balance; it is served as the ETag of the account and
+ *         is not part of its equality. An account without a currency is in
+ *         the base currency.
  *
  */
-@Data
+@EqualsAndHashCode(exclude = "version")
 public class Account {
 
 	@NotNull
 	@NotEmpty
+	@Getter
 	private final String accountId;
 
-	@NotNull
-	@Min(value = 0, message = "Initial balance must be positive.")
-	private BigDecimal balance;
+	private long balance;
+
+	private long version;
+
+	private String currency;
 
 	public Account(String accountId) {
 		this.accountId = accountId;
-		this.balance = BigDecimal.ZERO;
+		this.balance = 0;
 	}
 
 	@JsonCreator
 	public Account(@JsonProperty("accountId") String accountId, @JsonProperty("balance") BigDecimal balance) {
+		if (balance == null) {
+			throw new IllegalArgumentException("Balance is required.");
+		}
 		this.accountId = accountId;
+		this.balance = Money.toMinorUnits(balance);
+	}
+
+	@Min(value = 0, message = "Initial balance must be positive.")
+	public BigDecimal getBalance() {
+		return Money.toDecimal(balance);
+	}
+
+	public void setBalance(BigDecimal balance) {
+		this.balance = Money.toMinorUnits(balance);
+	}
+
+	@JsonIgnore
+	public long getBalanceMinorUnits() {
+		return balance;
+	}
+
+	@JsonIgnore
+	public void setBalanceMinorUnits(long balance) {
 		this.balance = balance;
 	}
 
+	@Pattern(regexp = "[A-Z]{3}", message = "Currency must be an ISO 4217 code.")
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public String getCurrency() {
+		return currency;
+	}
+
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
+
+	@JsonIgnore
+	public long getVersion() {
+		return version;
+	}
+
+	@JsonIgnore
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	public void withdraw(long amount) {
+		this.balance = Money.subtract(this.balance, amount);
+	}
+
+	public void deposit(long amount) {
+		this.balance = Money.add(this.balance, amount);
+	}
+
 	public void withdraw(BigDecimal amount) {
-		this.balance = this.balance.subtract(amount);
+		withdraw(Money.toMinorUnits(amount));
 	}
 
 	public void deposit(BigDecimal amount) {
-		this.balance = this.balance.add(amount);
+		deposit(Money.toMinorUnits(amount));
+	}
+
+	@Override
+	public String toString() {
+		return "Account(accountId=" + accountId + ", balance=" + getBalance() + ")";
 	}
 
 }
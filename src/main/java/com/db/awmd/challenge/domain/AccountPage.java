@@ -0,0 +1,23 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         This class holds one page of the account listing and the cursor of
+ *         the next page, which is absent on the last page
+ *
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AccountPage {
+
+	private final List<Account> accounts;
+
+	private final String nextCursor;
+}
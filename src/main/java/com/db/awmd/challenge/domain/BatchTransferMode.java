@@ -0,0 +1,20 @@
+package com.db.awmd.challenge.domain;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         How a batch of transfers is applied
+ *
+ */
+public enum BatchTransferMode {
+
+	/**
+	 * Either every transfer of the batch commits or none does
+	 */
+	ATOMIC,
+
+	/**
+	 * Every transfer commits or fails on its own
+	 */
+	BEST_EFFORT
+}
@@ -0,0 +1,22 @@
+package com.db.awmd.challenge.domain;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         When a journaled change is acknowledged to the caller
+ *
+ */
+public enum DurabilityLevel {
+
+	/**
+	 * Once it is written to the memory mapped journal; survives a process
+	 * crash, not a machine crash
+	 */
+	BUFFERED,
+
+	/**
+	 * Once the journal has been forced to disk; concurrent callers share one
+	 * force (group commit)
+	 */
+	FSYNC
+}
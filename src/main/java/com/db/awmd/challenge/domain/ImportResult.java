@@ -0,0 +1,41 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         This class holds the outcome of a bulk account import: how many
+ *         accounts were created and which rows were rejected, identified by
+ *         their line number in the input
+ *
+ */
+@Data
+public class ImportResult {
+
+	private final long created;
+
+	private final long rejected;
+
+	private final List<RowError> errors;
+
+	/**
+	 * True if more rows were rejected than are listed in {@link #errors}
+	 */
+	private final boolean errorsTruncated;
+
+	@Data
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public static class RowError {
+
+		private final long row;
+
+		private final String accountId;
+
+		private final String message;
+	}
+}
@@ -0,0 +1,128 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.RejectionReason;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Fixed point money arithmetic. Balances and amounts are held as a
+ *         scaled long of minor units (cents) inside the domain and the
+ *         repositories; BigDecimal is only used at the API edge.
+ *
+ */
+public final class Money {
+
+	/**
+	 * Number of decimal places kept in minor units
+	 */
+	public static final int SCALE = 2;
+
+	private Money() {
+	}
+
+	/**
+	 * Converts a decimal amount to minor units
+	 *
+	 * @param amount
+	 * @return
+	 * @throws ApplicationException
+	 *             when the amount has more than {@link #SCALE} decimal places or
+	 *             does not fit in a long
+	 */
+	public static long toMinorUnits(BigDecimal amount) throws ApplicationException {
+		try {
+			return amount.movePointRight(SCALE).longValueExact();
+		} catch (ArithmeticException ae) {
+			throw new ApplicationException(RejectionReason.INVALID_AMOUNT,
+					"Amount " + amount + " must have at most " + SCALE + " decimal places and fit the ledger range");
+		}
+	}
+
+	/**
+	 * Parses a decimal amount straight to minor units. Plain amounts such as
+	 * 120 or 99.5 are read without creating a BigDecimal, anything else (an
+	 * exponent, a sign, more decimals) goes through {@link #toMinorUnits}.
+	 *
+	 * @param text
+	 * @return
+	 * @throws ApplicationException
+	 *             when the text is not a number or does not fit minor units
+	 */
+	public static long parseMinorUnits(String text) throws ApplicationException {
+		int length = text.length();
+		long units = 0;
+		int decimals = -1;
+		boolean plain = length > 0 && length <= 16;
+		for (int i = 0; plain && i < length; i++) {
+			char c = text.charAt(i);
+			if (c == '.' && decimals < 0 && i > 0) {
+				decimals = 0;
+			} else if (c >= '0' && c <= '9' && decimals < SCALE) {
+				units = units * 10 + (c - '0');
+				if (decimals >= 0) {
+					decimals++;
+				}
+			} else {
+				plain = false;
+			}
+		}
+		if (plain && decimals != 0) {
+			for (int i = Math.max(decimals, 0); i < SCALE; i++) {
+				units *= 10;
+			}
+			return units;
+		}
+		try {
+			return toMinorUnits(new BigDecimal(text));
+		} catch (NumberFormatException nfe) {
+			throw new ApplicationException(RejectionReason.INVALID_AMOUNT, "Amount " + text + " is not a number");
+		}
+	}
+
+	/**
+	 * Converts minor units back to a decimal amount of {@link #SCALE} decimal
+	 * places, so 1050 is rendered as 10.50 and the JSON always carries the
+	 * cents
+	 *
+	 * @param minorUnits
+	 * @return
+	 */
+	public static BigDecimal toDecimal(long minorUnits) {
+		return BigDecimal.valueOf(minorUnits, SCALE);
+	}
+
+	/**
+	 * Overflow checked addition of minor units
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static long add(long a, long b) throws ApplicationException {
+		long result = a + b;
+		if (((a ^ result) & (b ^ result)) < 0) {
+			throw new ApplicationException(RejectionReason.BALANCE_OVERFLOW,
+					"Balance overflow adding " + toDecimal(b) + " to " + toDecimal(a));
+		}
+		return result;
+	}
+
+	/**
+	 * Overflow checked subtraction of minor units
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static long subtract(long a, long b) throws ApplicationException {
+		long result = a - b;
+		if (((a ^ b) & (a ^ result)) < 0) {
+			throw new ApplicationException(RejectionReason.BALANCE_OVERFLOW,
+					"Balance overflow subtracting " + toDecimal(b) + " from " + toDecimal(a));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,26 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         This class holds one line of an account statement: a committed
+ *         transfer as seen from the account, with a negative amount for money
+ *         that left it
+ *
+ */
+@Data
+public class Transaction {
+
+	/**
+	 * ISO-8601 instant the transfer was recorded at
+	 */
+	private final String timestamp;
+
+	private final String counterparty;
+
+	private final BigDecimal amount;
+}
@@ -4,13 +4,22 @@ import java.math.BigDecimal;
 
 import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
 
 import org.hibernate.validator.constraints.NotEmpty;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * @author Dhananjay Jadhav
  * 
- *         This class holds inforamtion related to transfer money
+ *         This class holds inforamtion related to transfer money. The amount
+ *         is converted to minor units once, when it is set, so the transfer
+ *         path works on a plain long. The amount is in the currency of
+ *         accountFrom; a currency given with it must match that currency.
+ *         The credit is the amount converted to the currency of accountTo,
+ *         set by the repository that converted it.
  *
  */
 public class TransferRequest {
@@ -26,6 +35,31 @@ public class TransferRequest {
 	@DecimalMin("0.0")
 	BigDecimal amount;
 
+	@JsonIgnore
+	long amountMinorUnits;
+
+	@JsonIgnore
+	long creditMinorUnits;
+
+	@Pattern(regexp = "[A-Z]{3}")
+	String currency;
+
+	DurabilityLevel durability;
+
+	/**
+	 * Optional key chosen by the client; a retry with the same key gets the
+	 * outcome of the first attempt instead of moving the money again
+	 */
+	@Size(max = 255)
+	String idempotencyKey;
+
+	/**
+	 * Caller the transfer is rate limited for, taken from the connection
+	 * rather than the body
+	 */
+	@JsonIgnore
+	String clientId;
+
 	public String getAccountFrom() {
 		return accountFrom;
 	}
@@ -48,6 +82,61 @@ public class TransferRequest {
 
 	public void setAmount(BigDecimal amount) {
 		this.amount = amount;
+		this.amountMinorUnits = amount == null ? 0 : Money.toMinorUnits(amount);
+		this.creditMinorUnits = amountMinorUnits;
+	}
+
+	@JsonIgnore
+	public long getAmountMinorUnits() {
+		return amountMinorUnits;
+	}
+
+	/**
+	 * @return amount credited to accountTo in its currency, in minor units;
+	 *         the amount itself unless the repository converted it
+	 */
+	@JsonIgnore
+	public long getCreditMinorUnits() {
+		return creditMinorUnits;
+	}
+
+	@JsonIgnore
+	public void setCreditMinorUnits(long creditMinorUnits) {
+		this.creditMinorUnits = creditMinorUnits;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
+
+	public DurabilityLevel getDurability() {
+		return durability;
+	}
+
+	public void setDurability(DurabilityLevel durability) {
+		this.durability = durability;
+	}
+
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+
+	public void setIdempotencyKey(String idempotencyKey) {
+		this.idempotencyKey = idempotencyKey;
+	}
+
+	@JsonIgnore
+	public String getClientId() {
+		return clientId;
+	}
+
+	@JsonIgnore
+	public void setClientId(String clientId) {
+		this.clientId = clientId;
 	}
 
 }
@@ -0,0 +1,69 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         This class holds the outcome of one transfer of a batch, identified
+ *         by its position in the request
+ *
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TransferResult {
+
+	private final int index;
+
+	private final TransferStatus status;
+
+	private final String message;
+
+	@JsonIgnore
+	private final RejectionReason reason;
+
+	public static TransferResult committed(int index) {
+		return new TransferResult(index, TransferStatus.COMMITTED, null, null);
+	}
+
+	public static TransferResult rejected(int index, ApplicationException rejection) {
+		return new TransferResult(index, TransferStatus.REJECTED, rejection.getMessage(), rejection.getReason());
+	}
+
+	public static TransferResult rolledBack(int index) {
+		return new TransferResult(index, TransferStatus.ROLLED_BACK, null, null);
+	}
+
+	/**
+	 * Results of an atomic batch that failed at the given transfer: that one is
+	 * rejected, every other one is rolled back
+	 * 
+	 * @param size
+	 * @param failedIndex
+	 * @param rejection
+	 * @return
+	 */
+	public static List<TransferResult> atomicBatchFailure(int size, int failedIndex, ApplicationException rejection) {
+		List<TransferResult> results = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			results.add(i == failedIndex ? rejected(i, rejection) : rolledBack(i));
+		}
+		return results;
+	}
+
+	/**
+	 * @return the same outcome for the transfer at another position
+	 */
+	public TransferResult withIndex(int index) {
+		return new TransferResult(index, status, message, reason);
+	}
+
+}
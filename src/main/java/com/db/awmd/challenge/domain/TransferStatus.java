@@ -0,0 +1,16 @@
+package com.db.awmd.challenge.domain;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         Outcome of one transfer of a batch
+ *
+ */
+public enum TransferStatus {
+
+	COMMITTED,
+
+	REJECTED,
+
+	ROLLED_BACK
+}
@@ -8,7 +8,24 @@ package com.db.awmd.challenge.exception;
  */
 public class ApplicationException extends RuntimeException {
 
+	private final RejectionReason reason;
+
 	public ApplicationException(String message) {
+		this(RejectionReason.OTHER, message);
+	}
+
+	/**
+	 * @param reason
+	 *            why the transfer is rejected, reported by the metrics, the
+	 *            audit trail and the HTTP status
+	 * @param message
+	 */
+	public ApplicationException(RejectionReason reason, String message) {
 		super(message);
+		this.reason = reason;
+	}
+
+	public RejectionReason getReason() {
+		return reason;
 	}
 }
@@ -0,0 +1,56 @@
+package com.db.awmd.challenge.exception;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Reasons a transfer is rejected, carried by the
+ *         {@link ApplicationException} that rejects it.
+ *
+ */
+public enum RejectionReason {
+
+	ACCOUNT_NOT_FOUND(false),
+
+	INSUFFICIENT_BALANCE(false),
+
+	SAME_ACCOUNT(false),
+
+	NEGATIVE_AMOUNT(false),
+
+	/**
+	 * The transfer lost a race and may succeed if tried again
+	 */
+	CONTENTION(true),
+
+	INVALID_AMOUNT(false),
+
+	BALANCE_OVERFLOW(false),
+
+	/**
+	 * The client sent more than its share; the same transfer is admitted
+	 * once its budget refills
+	 */
+	RATE_LIMITED(true),
+
+	/**
+	 * A node that owns an account did not answer, so the transfer may or may
+	 * not have been applied
+	 */
+	UNAVAILABLE(true),
+
+	OTHER(false);
+
+	private final boolean retryable;
+
+	private RejectionReason(boolean retryable) {
+		this.retryable = retryable;
+	}
+
+	/**
+	 * @return true if the same transfer may succeed when tried again, so its
+	 *         outcome is not remembered against its idempotency key
+	 */
+	public boolean isRetryable() {
+		return retryable;
+	}
+}
@@ -0,0 +1,302 @@
+package com.db.awmd.challenge.fx;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.config.FxProperties;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.RejectionReason;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Currency conversion rates, read by transfers without any lock. A
+ *         currency gets a small index the first time the rate file names it
+ *         and keeps it across reloads, so an account holds the index of its
+ *         currency and a conversion is one volatile read of the current table
+ *         and one element of its cross rate matrix.
+ *
+ *         Loading the rate file builds a whole new table with the next epoch
+ *         and swaps it in with a single write; a conversion uses the table it
+ *         read and never mixes rates of two epochs.
+ *
+ */
+@Slf4j
+@Component
+public class FxRates {
+
+	/**
+	 * Index of the base currency
+	 */
+	public static final int BASE = 0;
+
+	private static final int RATE_SCALE = 9;
+
+	private static final long RATE_ONE = 1_000_000_000L;
+
+	private final FxProperties properties;
+
+	private volatile RateTable table;
+
+	/**
+	 * Modification time of the loaded rate file, guarded by this
+	 */
+	private long loadedModified = -1;
+
+	private ScheduledExecutorService refresher;
+
+	@Autowired
+	public FxRates(FxProperties properties) {
+		this.properties = properties;
+		String base = properties.getBaseCurrency();
+		this.table = new RateTable(0, new String[] { base }, Collections.singletonMap(base, BASE),
+				new long[] { RATE_ONE });
+	}
+
+	@PostConstruct
+	public void start() {
+		refresh();
+		if (properties.getRefreshIntervalMillis() > 0) {
+			refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "fx-rates-refresher");
+				thread.setDaemon(true);
+				return thread;
+			});
+			refresher.scheduleWithFixedDelay(this::refresh, properties.getRefreshIntervalMillis(),
+					properties.getRefreshIntervalMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+		}
+	}
+
+	/**
+	 * Loads the rate file if it changed since it was last loaded
+	 */
+	public synchronized void refresh() {
+		Path file = Paths.get(properties.getRateFile());
+		try {
+			if (!Files.exists(file)) {
+				if (loadedModified == -1) {
+					log.warn("No FX rate file {}, only {} is known", file.toAbsolutePath(), properties.getBaseCurrency());
+					loadedModified = 0;
+				}
+				return;
+			}
+			if (Files.getLastModifiedTime(file).toMillis() != loadedModified) {
+				reload();
+			}
+		} catch (IOException ioe) {
+			log.error("Could not check FX rate file {}", file, ioe);
+		}
+	}
+
+	/**
+	 * Loads the rate file and swaps in a table of the next epoch. A file that
+	 * cannot be read or parsed leaves the current table in place.
+	 *
+	 * @return true if a new table was swapped in
+	 */
+	public synchronized boolean reload() {
+		Path file = Paths.get(properties.getRateFile());
+		try {
+			long modified = Files.getLastModifiedTime(file).toMillis();
+			RateTable next = table.next(parse(file));
+			table = next;
+			loadedModified = modified;
+			log.info("Loaded {} FX rates from {} as epoch {}", next.codes.length, file, next.epoch);
+			return true;
+		} catch (IOException | ApplicationException | ArithmeticException e) {
+			log.error("Could not load FX rates from {}, keeping epoch {}: {}", file, table.epoch, e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * @param currency
+	 *            ISO 4217 code, null for the base currency
+	 * @return the index of the currency
+	 * @throws ApplicationException
+	 *             if the rate file never named the currency
+	 */
+	public int indexOf(String currency) throws ApplicationException {
+		if (currency == null) {
+			return BASE;
+		}
+		Integer index = table.indexes.get(currency);
+		if (index == null) {
+			throw new ApplicationException("Currency " + currency + " has no FX rate");
+		}
+		return index;
+	}
+
+	/**
+	 * @param index
+	 * @return the ISO 4217 code of the currency
+	 */
+	public String currencyOf(int index) {
+		return table.codes[index];
+	}
+
+	/**
+	 * Converts an amount, rounding towards zero so the credited amount never
+	 * exceeds the exact value
+	 *
+	 * @param amount
+	 *            non negative amount in minor units of the from currency
+	 * @param from
+	 *            currency index
+	 * @param to
+	 *            currency index
+	 * @return amount in minor units of the to currency
+	 * @throws ApplicationException
+	 *             if the current table has no rate between the currencies or
+	 *             the result overflows
+	 */
+	public long convert(long amount, int from, int to) throws ApplicationException {
+		if (from == to) {
+			return amount;
+		}
+		RateTable current = table;
+		long rate = current.crossRates[from * current.codes.length + to];
+		if (rate == 0) {
+			throw new ApplicationException("No FX rate from " + current.codes[from] + " to " + current.codes[to]);
+		}
+		try {
+			return Math.multiplyExact(amount, rate) / RATE_ONE;
+		} catch (ArithmeticException overflow) {
+			try {
+				return BigDecimal.valueOf(amount).multiply(BigDecimal.valueOf(rate))
+						.divide(BigDecimal.valueOf(RATE_ONE), 0, RoundingMode.DOWN).longValueExact();
+			} catch (ArithmeticException ae) {
+				throw new ApplicationException(RejectionReason.BALANCE_OVERFLOW, "Converted amount overflows");
+			}
+		}
+	}
+
+	/**
+	 * @return epoch of the current table, 0 before any rate file was loaded
+	 */
+	public long epoch() {
+		return table.epoch;
+	}
+
+	/**
+	 * Reads currency,rate lines; blank lines, lines starting with # and a
+	 * currency,rate header are skipped
+	 */
+	private Map<String, BigDecimal> parse(Path file) throws IOException, ApplicationException {
+		Map<String, BigDecimal> rates = new LinkedHashMap<>();
+		try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			int row = 0;
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				row++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#") || line.equalsIgnoreCase("currency,rate")) {
+					continue;
+				}
+				String[] fields = line.split(",");
+				BigDecimal rate = null;
+				try {
+					rate = fields.length == 2 ? new BigDecimal(fields[1].trim()) : null;
+				} catch (NumberFormatException nfe) {
+					// reported below
+				}
+				String currency = fields[0].trim();
+				if (!currency.matches("[A-Z]{3}") || rate == null || rate.signum() <= 0) {
+					throw new ApplicationException("Line " + row + " is not currency,rate with a positive rate");
+				}
+				rates.put(currency, rate);
+			}
+		}
+		return rates;
+	}
+
+	/**
+	 * Immutable rates of one epoch. The cross rate from currency i to j,
+	 * scaled by {@link FxRates#RATE_ONE}, is at i * codes.length + j; 0 means
+	 * there is none.
+	 */
+	private static final class RateTable {
+
+		final long epoch;
+
+		final String[] codes;
+
+		final Map<String, Integer> indexes;
+
+		final long[] crossRates;
+
+		RateTable(long epoch, String[] codes, Map<String, Integer> indexes, long[] crossRates) {
+			this.epoch = epoch;
+			this.codes = codes;
+			this.indexes = indexes;
+			this.crossRates = crossRates;
+		}
+
+		/**
+		 * Builds the table of the next epoch. Currencies keep their index;
+		 * one missing from the rates keeps it too but has no rate.
+		 *
+		 * @param rates
+		 *            units of each currency per unit of the base currency
+		 */
+		RateTable next(Map<String, BigDecimal> rates) {
+			Map<String, Integer> nextIndexes = new HashMap<>(indexes);
+			String[] nextCodes = Arrays.copyOf(codes, codes.length + rates.size());
+			int count = codes.length;
+			for (String currency : rates.keySet()) {
+				if (!nextIndexes.containsKey(currency)) {
+					nextIndexes.put(currency, count);
+					nextCodes[count++] = currency;
+				}
+			}
+			nextCodes = Arrays.copyOf(nextCodes, count);
+
+			BigDecimal[] perBase = new BigDecimal[count];
+			perBase[BASE] = BigDecimal.ONE;
+			for (Map.Entry<String, BigDecimal> rate : rates.entrySet()) {
+				int index = nextIndexes.get(rate.getKey());
+				if (index != BASE) {
+					perBase[index] = rate.getValue();
+				}
+			}
+			long[] nextRates = new long[count * count];
+			for (int from = 0; from < count; from++) {
+				for (int to = 0; to < count; to++) {
+					if (perBase[from] != null && perBase[to] != null) {
+						nextRates[from * count + to] = perBase[to].divide(perBase[from], RATE_SCALE, RoundingMode.HALF_EVEN)
+								.unscaledValue().longValueExact();
+					}
+				}
+			}
+			return new RateTable(epoch + 1, nextCodes, nextIndexes, nextRates);
+		}
+	}
+}
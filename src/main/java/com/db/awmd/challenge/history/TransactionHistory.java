@@ -0,0 +1,373 @@
+package com.db.awmd.challenge.history;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.config.HistoryProperties;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.domain.TransferRequest;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Statement of every account: the committed transfers it took part
+ *         in, appended in time order. Entries live in chunks of primitive
+ *         columns, so an entry costs a timestamp, an amount and a reference
+ *         to the shared id of the counterparty rather than an object of its
+ *         own. A time range is found by binary search over the chunks and
+ *         within the first chunk of the range, then read in order.
+ *
+ *         Once more than maxResidentEntries are held in memory, a background
+ *         thread writes the oldest full chunks to a spill file and drops
+ *         their columns; a query that reaches them reads them back. The
+ *         history is not recovered on restart, the spill file starts empty.
+ *
+ */
+@Slf4j
+@Component
+public class TransactionHistory {
+
+	private static final int FIRST_CHUNK_ENTRIES = 8;
+
+	private static final String SPILL_FILE = "chunks.dat";
+
+	private final HistoryProperties properties;
+
+	private final Map<String, AccountHistory> histories = new ConcurrentHashMap<>();
+
+	/**
+	 * One instance of every account id, referenced by the entries
+	 */
+	private final Map<String, String> accountIds = new ConcurrentHashMap<>();
+
+	/**
+	 * Full chunks in the order they filled up, oldest first
+	 */
+	private final Queue<Chunk> sealed = new ConcurrentLinkedQueue<>();
+
+	private final AtomicLong residentEntries = new AtomicLong();
+
+	private final AtomicBoolean spilling = new AtomicBoolean();
+
+	private ExecutorService spiller;
+
+	private FileChannel spillFile;
+
+	/**
+	 * Only used by the spiller thread
+	 */
+	private long spillEnd;
+
+	@Autowired
+	public TransactionHistory(HistoryProperties properties) {
+		this.properties = properties;
+	}
+
+	@PostConstruct
+	public void start() throws IOException {
+		if (properties.getMaxResidentEntries() <= 0) {
+			return;
+		}
+		Path directory = Paths.get(properties.getDirectory());
+		Files.createDirectories(directory);
+		spillFile = FileChannel.open(directory.resolve(SPILL_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		spiller = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "transaction-history-spiller");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void stop() throws IOException {
+		if (spiller != null) {
+			spiller.shutdownNow();
+		}
+		if (spillFile != null) {
+			spillFile.close();
+			Files.deleteIfExists(Paths.get(properties.getDirectory(), SPILL_FILE));
+		}
+	}
+
+	/**
+	 * Appends the transfer to the statements of both accounts, the credited
+	 * one getting the amount in its own currency. An account's entries never
+	 * go back in time, an earlier timestamp is raised to its last one.
+	 *
+	 * @param transferRequest
+	 * @param timestamp
+	 *            epoch millisecond the transfer committed at
+	 */
+	public void transferCommitted(TransferRequest transferRequest, long timestamp) {
+		long amount = transferRequest.getAmountMinorUnits();
+		String accountFrom = canonical(transferRequest.getAccountFrom());
+		String accountTo = canonical(transferRequest.getAccountTo());
+		historyOf(accountFrom).append(timestamp, -amount, accountTo);
+		historyOf(accountTo).append(timestamp, transferRequest.getCreditMinorUnits(), accountFrom);
+	}
+
+	/**
+	 * @param accountId
+	 * @param fromMillis
+	 *            first epoch millisecond of the range
+	 * @param toMillis
+	 *            epoch millisecond after the range
+	 * @return the transactions of the account in the range, oldest first
+	 */
+	public List<Transaction> transactions(String accountId, long fromMillis, long toMillis) {
+		AccountHistory history = histories.get(accountId);
+		List<Transaction> transactions = new ArrayList<>();
+		if (history == null || fromMillis >= toMillis) {
+			return transactions;
+		}
+		Chunk[] chunks = history.chunks();
+		// the last chunk that starts before the range may still reach into it
+		int first = Math.max(0, startsAfter(chunks, fromMillis - 1) - 1);
+		for (int c = first; c < chunks.length && chunks[c].firstTimestamp < toMillis; c++) {
+			Chunk chunk = chunks[c];
+			int size = chunk.size;
+			Columns columns = columnsOf(chunk);
+			int i = c == first ? startsAfter(columns.timestamps, size, fromMillis - 1) : 0;
+			for (; i < size && columns.timestamps[i] < toMillis; i++) {
+				transactions.add(new Transaction(Instant.ofEpochMilli(columns.timestamps[i]).toString(),
+						columns.counterparties[i], Money.toDecimal(columns.amounts[i])));
+			}
+		}
+		return transactions;
+	}
+
+	/**
+	 * @return number of entries the chunks held in memory have room for
+	 */
+	public long residentEntries() {
+		return residentEntries.get();
+	}
+
+	private String canonical(String accountId) {
+		String canonical = accountIds.get(accountId);
+		return canonical != null ? canonical : accountIds.computeIfAbsent(accountId, id -> id);
+	}
+
+	private AccountHistory historyOf(String accountId) {
+		AccountHistory history = histories.get(accountId);
+		return history != null ? history : histories.computeIfAbsent(accountId, id -> new AccountHistory());
+	}
+
+	/**
+	 * @return index of the first chunk starting after the timestamp
+	 */
+	private static int startsAfter(Chunk[] chunks, long timestamp) {
+		int low = 0;
+		int high = chunks.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (chunks[middle].firstTimestamp <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return index of the first of the entries after the timestamp
+	 */
+	private static int startsAfter(long[] timestamps, int size, long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private void sealed(Chunk chunk) {
+		if (spiller == null) {
+			return;
+		}
+		sealed.add(chunk);
+		if (residentEntries.get() > properties.getMaxResidentEntries() && spilling.compareAndSet(false, true)) {
+			spiller.execute(this::spill);
+		}
+	}
+
+	/**
+	 * Writes the oldest full chunks to the spill file until the resident
+	 * entries are within the limit again
+	 */
+	private void spill() {
+		try {
+			Chunk chunk;
+			while (residentEntries.get() > properties.getMaxResidentEntries() && (chunk = sealed.poll()) != null) {
+				Columns columns = chunk.columns;
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(chunk.size * 24);
+				DataOutputStream out = new DataOutputStream(bytes);
+				for (int i = 0; i < chunk.size; i++) {
+					out.writeLong(columns.timestamps[i]);
+					out.writeLong(columns.amounts[i]);
+					out.writeUTF(columns.counterparties[i]);
+				}
+				ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+				chunk.spillOffset = spillEnd;
+				chunk.spillLength = buffer.remaining();
+				while (buffer.hasRemaining()) {
+					spillEnd += spillFile.write(buffer, spillEnd);
+				}
+				// readers that see no columns see where they went
+				chunk.columns = null;
+				residentEntries.addAndGet(-columns.timestamps.length);
+			}
+		} catch (IOException ioe) {
+			log.error("Could not spill transaction history, keeping it in memory", ioe);
+		} finally {
+			spilling.set(false);
+		}
+	}
+
+	private Columns columnsOf(Chunk chunk) {
+		Columns columns = chunk.columns;
+		if (columns != null) {
+			return columns;
+		}
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(chunk.spillLength);
+			while (buffer.hasRemaining()) {
+				if (spillFile.read(buffer, chunk.spillOffset + buffer.position()) < 0) {
+					throw new IOException("Spill file ends inside a chunk");
+				}
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+			columns = new Columns(chunk.size);
+			for (int i = 0; i < chunk.size; i++) {
+				columns.timestamps[i] = in.readLong();
+				columns.amounts[i] = in.readLong();
+				columns.counterparties[i] = canonical(in.readUTF());
+			}
+			return columns;
+		} catch (IOException ioe) {
+			throw new UncheckedIOException("Could not read spilled transaction history", ioe);
+		}
+	}
+
+	/**
+	 * The chunks of one account. Appends are serialized by the account;
+	 * readers take a copy of the chunk array and read the entries each chunk
+	 * had published without a lock.
+	 */
+	private final class AccountHistory {
+
+		private Chunk[] chunks = new Chunk[0];
+
+		private long lastTimestamp;
+
+		synchronized void append(long timestamp, long amount, String counterparty) {
+			lastTimestamp = Math.max(timestamp, lastTimestamp);
+			Chunk active = chunks.length == 0 ? null : chunks[chunks.length - 1];
+			if (active == null || active.size == active.capacity) {
+				if (active != null) {
+					sealed(active);
+				}
+				int capacity = active == null ? FIRST_CHUNK_ENTRIES
+						: Math.min(active.capacity * 2, Math.max(FIRST_CHUNK_ENTRIES, properties.getMaxChunkEntries()));
+				active = new Chunk(capacity, lastTimestamp);
+				residentEntries.addAndGet(capacity);
+				chunks = Arrays.copyOf(chunks, chunks.length + 1);
+				chunks[chunks.length - 1] = active;
+			}
+			active.add(lastTimestamp, amount, counterparty);
+		}
+
+		synchronized Chunk[] chunks() {
+			return chunks;
+		}
+	}
+
+	/**
+	 * Entries of one account in time order. The columns are only written by
+	 * the account's appender before it publishes the new size.
+	 */
+	private static final class Chunk {
+
+		final int capacity;
+
+		final long firstTimestamp;
+
+		volatile int size;
+
+		/**
+		 * Null once the chunk was spilled
+		 */
+		volatile Columns columns;
+
+		long spillOffset;
+
+		int spillLength;
+
+		Chunk(int capacity, long firstTimestamp) {
+			this.capacity = capacity;
+			this.firstTimestamp = firstTimestamp;
+			this.columns = new Columns(capacity);
+		}
+
+		void add(long timestamp, long amount, String counterparty) {
+			int index = size;
+			columns.timestamps[index] = timestamp;
+			columns.amounts[index] = amount;
+			columns.counterparties[index] = counterparty;
+			size = index + 1;
+		}
+	}
+
+	private static final class Columns {
+
+		final long[] timestamps;
+
+		final long[] amounts;
+
+		final String[] counterparties;
+
+		Columns(int capacity) {
+			timestamps = new long[capacity];
+			amounts = new long[capacity];
+			counterparties = new String[capacity];
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package com.db.awmd.challenge.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.BalanceReconciler;
+import com.db.awmd.challenge.repository.IdempotencyCache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Transfer, rejection and lock metrics of the accounts. Callers record
+ *         into {@link LatencyRecorder}s and striped counters, which never touch
+ *         the meter registry; the registry reads them when it is scraped, at
+ *         /prometheus. Lock and reconciliation meters are only registered
+ *         while the locking repository holds the accounts.
+ *
+ */
+@Component
+public class AccountsMetrics implements MeterBinder {
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final AccountsRepository accountsRepository;
+
+	private final AccountsRepositoryInMemory lockingRepository;
+
+	private final BalanceReconciler balanceReconciler;
+
+	private final IdempotencyCache idempotencyCache;
+
+	private final LatencyRecorder committedLatency = new LatencyRecorder();
+
+	private final LatencyRecorder rejectedLatency = new LatencyRecorder();
+
+	private final LongAdder[] rejections = new LongAdder[RejectionReason.values().length];
+
+	@Autowired
+	public AccountsMetrics(AccountsRepository accountsRepository, AccountsRepositoryInMemory lockingRepository,
+			BalanceReconciler balanceReconciler, IdempotencyCache idempotencyCache) {
+		this.accountsRepository = accountsRepository;
+		this.lockingRepository = lockingRepository;
+		this.balanceReconciler = balanceReconciler;
+		this.idempotencyCache = idempotencyCache;
+		for (int i = 0; i < rejections.length; i++) {
+			rejections[i] = new LongAdder();
+		}
+	}
+
+	public void transferCommitted(long nanos) {
+		committedLatency.record(nanos);
+	}
+
+	public void transferRejected(ApplicationException exception, long nanos) {
+		transferRejected(exception.getReason(), nanos);
+	}
+
+	/**
+	 * Records a rejection that did not surface as an exception, such as a
+	 * rejected transfer of a batch
+	 *
+	 * @param reason
+	 * @param nanos
+	 */
+	public void transferRejected(RejectionReason reason, long nanos) {
+		rejectedLatency.record(nanos);
+		rejections[reason.ordinal()].increment();
+	}
+
+	public long committedCount() {
+		return committedLatency.count();
+	}
+
+	public long rejectionCount(RejectionReason reason) {
+		return rejections[reason.ordinal()].sum();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		bindLatency(registry, "accounts.transfer.latency", committedLatency, Tags.of("outcome", "committed"));
+		bindLatency(registry, "accounts.transfer.latency", rejectedLatency, Tags.of("outcome", "rejected"));
+		for (RejectionReason reason : RejectionReason.values()) {
+			FunctionCounter.builder("accounts.transfer.rejections", rejections[reason.ordinal()], LongAdder::sum)
+					.tags(Tags.of("reason", reason.name().toLowerCase()))
+					.description("Transfers rejected with an ApplicationException").register(registry);
+		}
+
+		Gauge.builder("accounts.count", accountsRepository, AccountsRepository::countAccounts)
+				.description("Number of accounts").register(registry);
+		Gauge.builder("accounts.balance.total", accountsRepository,
+				repository -> Money.toDecimal(repository.totalBalanceMinorUnits()).doubleValue())
+				.description("Sum of all account balances").register(registry);
+
+		if (balanceReconciler.isActive()) {
+			bindLatency(registry, "accounts.lock.wait", lockingRepository.getLockWait(), Tags.empty());
+			bindLatency(registry, "accounts.lock.hold", lockingRepository.getLockHold(), Tags.empty());
+			FunctionCounter
+					.builder("accounts.reconciliation.violations", balanceReconciler, BalanceReconciler::violations)
+					.description("Confirmed differences between the balances and the total balance")
+					.register(registry);
+			FunctionCounter
+					.builder("accounts.reconciliation.inconclusive", balanceReconciler,
+							BalanceReconciler::inconclusiveScans)
+					.description("Reconciliation scans disturbed by concurrent updates").register(registry);
+			Gauge.builder("accounts.reconciliation.discrepancy", balanceReconciler,
+					reconciler -> Money.toDecimal(reconciler.discrepancyMinorUnits()).doubleValue())
+					.description("Balances minus total balance as last confirmed").register(registry);
+		}
+
+		FunctionCounter.builder("accounts.idempotency.replays", idempotencyCache, IdempotencyCache::replays)
+				.description("Transfers answered with the outcome of an earlier attempt").register(registry);
+		FunctionCounter.builder("accounts.idempotency.evictions", idempotencyCache, IdempotencyCache::evictions)
+				.description("Idempotency keys dropped before they expired").register(registry);
+	}
+
+	/**
+	 * Registers a timer and percentile gauges reading the recorder
+	 */
+	public static void bindLatency(MeterRegistry registry, String name, LatencyRecorder recorder,
+			Iterable<Tag> tags) {
+		FunctionTimer.builder(name, recorder, LatencyRecorder::count, LatencyRecorder::totalNanos, TimeUnit.NANOSECONDS)
+				.tags(tags).register(registry);
+		for (double percentile : PERCENTILES) {
+			Gauge.builder(name + ".percentile", recorder, r -> r.percentileNanos(percentile) / 1e9)
+					.tags(Tags.concat(tags, "quantile", String.valueOf(percentile / 100))).baseUnit("seconds")
+					.register(registry);
+		}
+		Gauge.builder(name + ".max", recorder, r -> r.maxNanos() / 1e9).tags(tags).baseUnit("seconds")
+				.register(registry);
+	}
+}
@@ -0,0 +1,92 @@
+package com.db.awmd.challenge.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Latency distribution that is cheap to record into from many threads.
+ *         {@link #record(long)} is wait free: it bumps two striped counters and
+ *         one HdrHistogram bucket. The distribution is only collected when
+ *         percentiles are read, and covers the last one to two windows, so it
+ *         follows changes in load instead of averaging since startup.
+ *
+ */
+public class LatencyRecorder {
+
+	private static final long HIGHEST_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+	private static final int SIGNIFICANT_DIGITS = 2;
+
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private final Recorder recorder = new Recorder(HIGHEST_NANOS, SIGNIFICANT_DIGITS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder totalNanos = new LongAdder();
+
+	private Histogram interval;
+
+	private Histogram current = new Histogram(HIGHEST_NANOS, SIGNIFICANT_DIGITS);
+
+	private Histogram previous = new Histogram(HIGHEST_NANOS, SIGNIFICANT_DIGITS);
+
+	private final Histogram window = new Histogram(HIGHEST_NANOS, SIGNIFICANT_DIGITS);
+
+	private long currentStart = System.nanoTime();
+
+	/**
+	 * @param nanos
+	 *            elapsed time, clamped to one minute
+	 */
+	public void record(long nanos) {
+		long value = nanos < 0 ? 0 : Math.min(nanos, HIGHEST_NANOS);
+		recorder.recordValue(value);
+		count.increment();
+		totalNanos.add(value);
+	}
+
+	public long count() {
+		return count.sum();
+	}
+
+	public long totalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return the latency in nanoseconds at the given percentile of the recent
+	 *         window, 0 if nothing was recorded
+	 */
+	public synchronized double percentileNanos(double percentile) {
+		return collect().getValueAtPercentile(percentile);
+	}
+
+	public synchronized double maxNanos() {
+		return collect().getMaxValue();
+	}
+
+	private Histogram collect() {
+		interval = recorder.getIntervalHistogram(interval);
+		current.add(interval);
+		long now = System.nanoTime();
+		if (now - currentStart >= WINDOW_NANOS) {
+			Histogram recycled = previous;
+			previous = current;
+			current = recycled;
+			current.reset();
+			currentStart = now;
+		}
+		window.reset();
+		window.add(previous);
+		window.add(current);
+		return window;
+	}
+}
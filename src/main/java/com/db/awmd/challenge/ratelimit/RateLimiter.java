@@ -0,0 +1,223 @@
+package com.db.awmd.challenge.ratelimit;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Lock-free rate limits per key: at most a number of transfers and an
+ *         amount per window. Each limit is a token bucket kept as the
+ *         theoretical arrival time of the generic cell rate algorithm, the
+ *         time at which the bucket is full again. A transfer pushes it ahead
+ *         by its cost, the window divided by the transfer count, or the share
+ *         of the amount limit it spends, and is refused if that puts it more
+ *         than a window ahead of now. Both times of a key are swapped together
+ *         with one compare and set.
+ *
+ *         A key whose bucket is full again is the same as one never seen, so it
+ *         is dropped: every key sits in the slot of a time wheel for the tick
+ *         its bucket fills up, and {@link #sweep(long)} retires the keys of
+ *         the slots it passes. Only keys active within the last window are
+ *         held, however many there are in total.
+ *
+ *         Times are System.nanoTime() values passed in by the caller.
+ *
+ */
+public final class RateLimiter {
+
+	public enum Outcome {
+		ALLOWED, COUNT_EXCEEDED, AMOUNT_EXCEEDED
+	}
+
+	private static final State RETIRED = new State(0, 0);
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final Queue<Entry>[] wheel;
+
+	private final long windowNanos;
+
+	private final long countCost;
+
+	private final double amountCostPerUnit;
+
+	private final long tickNanos;
+
+	private volatile long sweptTick = Long.MIN_VALUE;
+
+	/**
+	 * @param transfers
+	 *            most transfers per window, 0 for no limit
+	 * @param amount
+	 *            most minor units per window, 0 for no limit
+	 * @param windowNanos
+	 * @param wheelSlots
+	 *            slots of the time wheel, at least 2
+	 * @param tickNanos
+	 *            time each slot covers
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public RateLimiter(long transfers, long amount, long windowNanos, int wheelSlots, long tickNanos) {
+		if (wheelSlots < 2) {
+			throw new IllegalArgumentException("The time wheel needs at least 2 slots");
+		}
+		this.windowNanos = windowNanos;
+		this.countCost = transfers > 0 ? windowNanos / transfers : 0;
+		this.amountCostPerUnit = amount > 0 ? (double) windowNanos / amount : 0;
+		this.tickNanos = tickNanos;
+		this.wheel = new Queue[wheelSlots];
+		for (int i = 0; i < wheelSlots; i++) {
+			wheel[i] = new ConcurrentLinkedQueue<>();
+		}
+	}
+
+	/**
+	 * Takes one transfer of the amount from the buckets of the key, or
+	 * nothing if either limit refuses it
+	 */
+	public Outcome tryAcquire(String key, long amount, long now) {
+		long amountCost = amountCost(amount);
+		while (true) {
+			Entry entry = entryOf(key, now);
+			State current = entry.get();
+			if (current == RETIRED) {
+				entries.remove(key, entry);
+				continue;
+			}
+			long countTime = Math.max(current.countTime, now) + countCost;
+			if (countCost > 0 && countTime - now > windowNanos) {
+				return Outcome.COUNT_EXCEEDED;
+			}
+			long amountTime = Math.max(current.amountTime, now) + amountCost;
+			if (amountCost > 0 && amountTime - now > windowNanos) {
+				return Outcome.AMOUNT_EXCEEDED;
+			}
+			if (entry.compareAndSet(current, new State(countTime, amountTime))) {
+				return Outcome.ALLOWED;
+			}
+		}
+	}
+
+	/**
+	 * Gives back a transfer taken by {@link #tryAcquire(String, long, long)}
+	 * that was then refused by another limit or by the repository. A key
+	 * whose bucket is full again is dropped at once, so refused transfers
+	 * from keys never seen before leave nothing behind.
+	 */
+	public void release(String key, long amount, long now) {
+		long amountCost = amountCost(amount);
+		Entry entry = entries.get(key);
+		while (entry != null) {
+			State current = entry.get();
+			if (current == RETIRED) {
+				return;
+			}
+			State released = new State(current.countTime - countCost, current.amountTime - amountCost);
+			if (Math.max(released.countTime, released.amountTime) <= now) {
+				if (entry.compareAndSet(current, RETIRED)) {
+					entries.remove(key, entry);
+					return;
+				}
+			} else if (entry.compareAndSet(current, released)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Drops the keys whose buckets are full again at now and moves the others
+	 * to the slot they fill up in. Called from one thread at a time.
+	 */
+	public void sweep(long now) {
+		long nowTick = Math.floorDiv(now, tickNanos);
+		long tick = sweptTick == Long.MIN_VALUE ? nowTick - 1 : sweptTick;
+		// past a full turn every slot is swept once
+		tick = Math.max(tick, nowTick - wheel.length);
+		while (tick < nowTick) {
+			tick++;
+			sweptTick = tick;
+			Queue<Entry> slot = wheel[slotOf(tick)];
+			for (int pending = slot.size(); pending > 0; pending--) {
+				Entry entry = slot.poll();
+				if (entry == null) {
+					break;
+				}
+				State current = entry.get();
+				if (current == RETIRED) {
+					continue;
+				}
+				long fullAt = Math.max(current.countTime, current.amountTime);
+				if (fullAt <= now && entry.compareAndSet(current, RETIRED)) {
+					entries.remove(entry.key, entry);
+				} else {
+					schedule(entry, Math.max(fullAt, now));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return keys held
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	private Entry entryOf(String key, long now) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			Entry created = new Entry(key, new State(now, now));
+			entry = entries.putIfAbsent(key, created);
+			if (entry == null) {
+				schedule(created, now + windowNanos);
+				return created;
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Puts the entry in the slot of the first tick after the time, and never
+	 * in a slot already swept
+	 */
+	private void schedule(Entry entry, long time) {
+		long tick = Math.max(Math.floorDiv(time, tickNanos) + 1, sweptTick + 1);
+		wheel[slotOf(tick)].add(entry);
+	}
+
+	private int slotOf(long tick) {
+		return (int) Math.floorMod(tick, (long) wheel.length);
+	}
+
+	private long amountCost(long amount) {
+		return amountCostPerUnit == 0 ? 0 : (long) Math.min(amount * amountCostPerUnit, Long.MAX_VALUE / 4);
+	}
+
+	private static final class State {
+
+		final long countTime;
+
+		final long amountTime;
+
+		State(long countTime, long amountTime) {
+			this.countTime = countTime;
+			this.amountTime = amountTime;
+		}
+	}
+
+	private static final class Entry extends AtomicReference<State> {
+
+		private static final long serialVersionUID = 1L;
+
+		final String key;
+
+		Entry(String key, State state) {
+			super(state);
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package com.db.awmd.challenge.ratelimit;
+
+import java.math.BigDecimal;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.config.RateLimitProperties;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.ratelimit.RateLimiter.Outcome;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Rate limits of transfers per source account and per client, checked
+ *         by the service before the transfer reaches the repository, so a
+ *         refused transfer never waits for a lock. A transfer must pass the
+ *         limits of both; one refused by the client limit gives back what it
+ *         took from the account limit, and one the repository then rejects
+ *         gives back both. Transfers without a client id are only limited per
+ *         account.
+ *
+ */
+@Component
+public class TransferRateLimiter implements MeterBinder {
+
+	private final RateLimitProperties properties;
+
+	private final RateLimiter accounts;
+
+	private final RateLimiter clients;
+
+	private ScheduledExecutorService sweeper;
+
+	@Autowired
+	public TransferRateLimiter(RateLimitProperties properties) {
+		this.properties = properties;
+		this.accounts = limiterOf(properties.getAccountTransfers(), properties.getAccountAmount());
+		this.clients = limiterOf(properties.getClientTransfers(), properties.getClientAmount());
+	}
+
+	@PostConstruct
+	public void start() {
+		if (accounts != null || clients != null) {
+			sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "rate-limit-sweeper");
+				thread.setDaemon(true);
+				return thread;
+			});
+			sweeper.scheduleWithFixedDelay(() -> sweep(System.nanoTime()), properties.getTickMillis(),
+					properties.getTickMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (sweeper != null) {
+			sweeper.shutdownNow();
+		}
+	}
+
+	/**
+	 * @throws ApplicationException
+	 *             when the transfer is over the limit of its source account or
+	 *             of its client
+	 */
+	public void check(TransferRequest transferRequest) throws ApplicationException {
+		if (accounts == null && clients == null) {
+			return;
+		}
+		long now = System.nanoTime();
+		long amount = transferRequest.getAmountMinorUnits();
+		String accountId = transferRequest.getAccountFrom();
+		if (accounts != null) {
+			Outcome outcome = accounts.tryAcquire(accountId, amount, now);
+			if (outcome != Outcome.ALLOWED) {
+				throw exceeded("Account id " + accountId, outcome, properties.getAccountTransfers(),
+						properties.getAccountAmount());
+			}
+		}
+		String clientId = transferRequest.getClientId();
+		if (clients != null && clientId != null) {
+			Outcome outcome = clients.tryAcquire(clientId, amount, now);
+			if (outcome != Outcome.ALLOWED) {
+				if (accounts != null) {
+					accounts.release(accountId, amount, now);
+				}
+				throw exceeded("Client " + clientId, outcome, properties.getClientTransfers(),
+						properties.getClientAmount());
+			}
+		}
+	}
+
+	/**
+	 * Gives back what {@link #check(TransferRequest)} took for a transfer that
+	 * was then rejected
+	 */
+	public void release(TransferRequest transferRequest) {
+		if (accounts == null && clients == null) {
+			return;
+		}
+		long now = System.nanoTime();
+		long amount = transferRequest.getAmountMinorUnits();
+		if (accounts != null) {
+			accounts.release(transferRequest.getAccountFrom(), amount, now);
+		}
+		if (clients != null && transferRequest.getClientId() != null) {
+			clients.release(transferRequest.getClientId(), amount, now);
+		}
+	}
+
+	/**
+	 * Drops the accounts and clients idle for a window
+	 */
+	void sweep(long now) {
+		if (accounts != null) {
+			accounts.sweep(now);
+		}
+		if (clients != null) {
+			clients.sweep(now);
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		if (accounts != null) {
+			Gauge.builder("accounts.ratelimit.keys", accounts, RateLimiter::size)
+					.description("Accounts with transfers in the last rate limit window").tag("scope", "account")
+					.register(registry);
+		}
+		if (clients != null) {
+			Gauge.builder("accounts.ratelimit.keys", clients, RateLimiter::size)
+					.description("Clients with transfers in the last rate limit window").tag("scope", "client")
+					.register(registry);
+		}
+	}
+
+	private RateLimiter limiterOf(long transfers, BigDecimal amount) {
+		long amountMinorUnits = amount == null ? 0 : Money.toMinorUnits(amount);
+		if (transfers <= 0 && amountMinorUnits <= 0) {
+			return null;
+		}
+		return new RateLimiter(transfers, amountMinorUnits, TimeUnit.MILLISECONDS.toNanos(properties.getWindowMillis()),
+				properties.getWheelSlots(), TimeUnit.MILLISECONDS.toNanos(properties.getTickMillis()));
+	}
+
+	private ApplicationException exceeded(String who, Outcome outcome, long transfers, BigDecimal amount) {
+		String limit = outcome == Outcome.COUNT_EXCEEDED ? transfers + " transfers" : amount.toPlainString();
+		return new ApplicationException(RejectionReason.RATE_LIMITED,
+				who + " is over its rate limit of " + limit + " per " + properties.getWindowMillis() + " ms");
+	}
+}
@@ -0,0 +1,161 @@
+package com.db.awmd.challenge.replication;
+
+import static com.db.awmd.challenge.replication.ReplicationFrames.ACCOUNTS;
+import static com.db.awmd.challenge.replication.ReplicationFrames.HEADER;
+import static com.db.awmd.challenge.replication.ReplicationFrames.RECORDS;
+import static com.db.awmd.challenge.replication.ReplicationFrames.RESET;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.config.ReplicationProperties;
+import com.db.awmd.challenge.repository.Journal;
+import com.db.awmd.challenge.repository.ReplicaAccountsRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Follows a replication primary, active with the "follower" profile.
+ *         One thread reads the frames the primary ships, applies them to the
+ *         {@link ReplicaAccountsRepository} and, once it applied everything it
+ *         read, acknowledges the position it reached. When the connection is
+ *         lost it connects again and resumes from that position.
+ *
+ */
+@Slf4j
+@Component
+@Profile("follower")
+public class ReplicationFollower {
+
+	private final ReplicaAccountsRepository replica;
+
+	private final ReplicationProperties properties;
+
+	private volatile boolean running;
+
+	private volatile SocketChannel channel;
+
+	private Thread follower;
+
+	@Autowired
+	public ReplicationFollower(ReplicaAccountsRepository replica, ReplicationProperties properties) {
+		this.replica = replica;
+		this.properties = properties;
+	}
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		follower = new Thread(this::run, "replication-follower");
+		follower.setDaemon(true);
+		follower.start();
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		SocketChannel current = channel;
+		if (current != null) {
+			try {
+				current.close();
+			} catch (IOException ioe) {
+				log.warn("Could not close the connection to the primary", ioe);
+			}
+		}
+		follower.interrupt();
+		follower.join();
+	}
+
+	private void run() {
+		InetSocketAddress primary = new InetSocketAddress(properties.getPrimaryHost(), properties.getPrimaryPort());
+		while (running) {
+			try (SocketChannel connected = SocketChannel.open(primary)) {
+				channel = connected;
+				connected.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				log.info("Following primary {} from journal position {}", primary, replica.appliedPosition());
+				ReplicationFrames.writeLong(connected, ByteBuffer.allocate(8), replica.appliedPosition());
+				follow(connected);
+			} catch (IOException | RuntimeException e) {
+				if (!running) {
+					return;
+				}
+				log.warn("Lost primary {}: {}, connecting again in {} ms", primary, e.toString(),
+						properties.getReconnectIntervalMillis());
+				try {
+					Thread.sleep(properties.getReconnectIntervalMillis());
+				} catch (InterruptedException ie) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void follow(SocketChannel connected) throws IOException {
+		ByteBuffer in = ByteBuffer.allocate(HEADER + 8 + properties.getMaxFrameBytes());
+		ByteBuffer acknowledgement = ByteBuffer.allocate(8);
+		while (running) {
+			if (connected.read(in) < 0) {
+				throw new EOFException("Primary closed the connection");
+			}
+			in.flip();
+			boolean appliedRecords = false;
+			while (in.remaining() >= 4 && in.remaining() - 4 >= in.getInt(in.position())) {
+				int end = in.position() + 4 + in.getInt();
+				ByteBuffer frame = in.duplicate();
+				frame.limit(end);
+				appliedRecords |= apply(frame);
+				in.position(end);
+			}
+			if (in.remaining() >= 4 && 4 + in.getInt(in.position()) > in.capacity()) {
+				// a record larger than a frame was shipped on its own
+				ByteBuffer larger = ByteBuffer.allocate(4 + in.getInt(in.position()));
+				larger.put(in);
+				in = larger;
+			} else {
+				in.compact();
+			}
+			if (appliedRecords) {
+				ReplicationFrames.writeLong(connected, acknowledgement, replica.appliedPosition());
+			}
+		}
+	}
+
+	/**
+	 * @param frame
+	 *            kind and body
+	 * @return whether the frame moved the applied position
+	 */
+	private boolean apply(ByteBuffer frame) {
+		byte kind = frame.get();
+		switch (kind) {
+		case RESET:
+			replica.reset();
+			return false;
+		case ACCOUNTS:
+			for (int count = frame.getInt(); count > 0; count--) {
+				replica.created(ReplicationFrames.getAccountId(frame), frame.getLong());
+			}
+			return false;
+		case RECORDS:
+			long position = frame.getLong();
+			Journal.replayRecords(frame, replica);
+			replica.applied(position);
+			return true;
+		default:
+			throw new IllegalStateException("Unknown replication frame kind " + kind);
+		}
+	}
+}
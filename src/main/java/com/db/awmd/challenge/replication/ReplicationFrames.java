@@ -0,0 +1,89 @@
+package com.db.awmd.challenge.replication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Wire format between a replication primary and its followers. The
+ *         follower opens with its journal position as a long, -1 if it holds
+ *         nothing, and then acknowledges every position it applied with
+ *         another long. The primary sends frames of [length int][kind byte]
+ *         [body], the length counting kind and body:
+ *
+ *         RESET, with no body, before a snapshot; ACCOUNTS, a [count int] and
+ *         [id][balance long] per account of the snapshot; RECORDS, the
+ *         [position long] after the shipped journal records and the records
+ *         themselves as they are in the journal.
+ *
+ */
+final class ReplicationFrames {
+
+	static final byte RESET = 1;
+
+	static final byte ACCOUNTS = 2;
+
+	static final byte RECORDS = 3;
+
+	/**
+	 * Length and kind
+	 */
+	static final int HEADER = 5;
+
+	/**
+	 * Room for the longest account of an ACCOUNTS frame
+	 */
+	static final int MAX_ACCOUNT_BYTES = 2 + 2 * 0xFFFF + 8;
+
+	private ReplicationFrames() {
+	}
+
+	static int accountBytes(String accountId) {
+		return 2 + 2 * accountId.length() + 8;
+	}
+
+	static void putAccount(ByteBuffer frame, String accountId, long balance) {
+		frame.putShort((short) accountId.length());
+		for (int i = 0; i < accountId.length(); i++) {
+			frame.putChar(accountId.charAt(i));
+		}
+		frame.putLong(balance);
+	}
+
+	static String getAccountId(ByteBuffer frame) {
+		char[] chars = new char[frame.getShort() & 0xFFFF];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = frame.getChar();
+		}
+		return new String(chars);
+	}
+
+	static void writeFully(SocketChannel channel, ByteBuffer... buffers) throws IOException {
+		long remaining = 0;
+		for (ByteBuffer buffer : buffers) {
+			remaining += buffer.remaining();
+		}
+		while (remaining > 0) {
+			remaining -= channel.write(buffers);
+		}
+	}
+
+	static void writeLong(SocketChannel channel, ByteBuffer buffer, long value) throws IOException {
+		buffer.clear();
+		buffer.putLong(value).flip();
+		writeFully(channel, buffer);
+	}
+
+	static long readLong(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.clear().limit(8);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Connection closed");
+			}
+		}
+		return buffer.getLong(0);
+	}
+}
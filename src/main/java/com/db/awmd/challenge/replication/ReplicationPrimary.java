@@ -0,0 +1,371 @@
+package com.db.awmd.challenge.replication;
+
+import static com.db.awmd.challenge.replication.ReplicationFrames.ACCOUNTS;
+import static com.db.awmd.challenge.replication.ReplicationFrames.HEADER;
+import static com.db.awmd.challenge.replication.ReplicationFrames.MAX_ACCOUNT_BYTES;
+import static com.db.awmd.challenge.replication.ReplicationFrames.RECORDS;
+import static com.db.awmd.challenge.replication.ReplicationFrames.RESET;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ObjLongConsumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.config.ReplicationProperties;
+import com.db.awmd.challenge.metrics.AccountsMetrics;
+import com.db.awmd.challenge.metrics.LatencyRecorder;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.Journal;
+import com.db.awmd.challenge.repository.JournaledAccountsRepository;
+import com.db.awmd.challenge.repository.SnapshotStore;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Ships the journal of the "durable" repository to followers, active
+ *         with the "primary" profile. Each follower gets a thread that tails
+ *         the journal from the position the follower asked for and writes
+ *         every record appended since its last frame straight from the
+ *         segment mapping, without waiting for the follower to acknowledge
+ *         the previous frames. The thread parks when it caught up and is
+ *         unparked by the next append.
+ *
+ *         A follower that holds nothing, or whose position was truncated
+ *         after a snapshot, first gets the latest snapshot and then the
+ *         journal from the segment after it. Records are shipped once
+ *         appended, before they are forced to disk.
+ *
+ *         The lag is the time from shipping a frame until the follower
+ *         acknowledged applying it.
+ *
+ */
+@Slf4j
+@Component
+@Profile("primary")
+public class ReplicationPrimary implements MeterBinder {
+
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static final int BOOTSTRAP_ATTEMPTS = 3;
+
+	private final ReplicationProperties properties;
+
+	private final Journal journal;
+
+	private final SnapshotStore snapshots;
+
+	private final List<Follower> followers = new CopyOnWriteArrayList<>();
+
+	private final LatencyRecorder lag = new LatencyRecorder();
+
+	private ServerSocketChannel server;
+
+	private int port;
+
+	private volatile boolean running;
+
+	@Autowired
+	public ReplicationPrimary(AccountsRepository accountsRepository, ReplicationProperties properties) {
+		if (!(accountsRepository instanceof JournaledAccountsRepository)) {
+			throw new IllegalStateException("The primary profile needs the durable profile, only the journal is shipped");
+		}
+		JournaledAccountsRepository journaled = (JournaledAccountsRepository) accountsRepository;
+		this.properties = properties;
+		this.journal = journaled.getJournal();
+		this.snapshots = journaled.getSnapshots();
+	}
+
+	@PostConstruct
+	public void start() throws IOException {
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(properties.getPort()));
+		port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+		running = true;
+		journal.setAppendListener(this::appended);
+		Thread acceptor = new Thread(this::accept, "replication-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		log.info("Replication primary accepting followers on port {}", port);
+	}
+
+	@PreDestroy
+	public void stop() {
+		running = false;
+		journal.setAppendListener(null);
+		try {
+			server.close();
+		} catch (IOException ioe) {
+			log.warn("Could not close the replication port", ioe);
+		}
+		for (Follower follower : followers) {
+			follower.close();
+		}
+	}
+
+	/**
+	 * @return the port followers connect to
+	 */
+	public int port() {
+		return port;
+	}
+
+	public int followers() {
+		return followers.size();
+	}
+
+	public LatencyRecorder getLag() {
+		return lag;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		AccountsMetrics.bindLatency(registry, "accounts.replication.lag", lag, Tags.empty());
+		Gauge.builder("accounts.replication.followers", followers, List::size)
+				.description("Followers the journal is shipped to").register(registry);
+	}
+
+	/**
+	 * Runs on every append with the journal's append lock held
+	 */
+	private void appended() {
+		for (Follower follower : followers) {
+			if (follower.parked) {
+				LockSupport.unpark(follower.shipper);
+			}
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			try {
+				SocketChannel channel = server.accept();
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Follower follower = new Follower(channel);
+				followers.add(follower);
+				follower.shipper.start();
+			} catch (IOException ioe) {
+				if (running) {
+					log.error("Could not accept a follower", ioe);
+				}
+			}
+		}
+	}
+
+	/**
+	 * One connected follower
+	 */
+	private final class Follower {
+
+		final SocketChannel channel;
+
+		final String remote;
+
+		final Thread shipper;
+
+		volatile boolean parked;
+
+		/**
+		 * End position and ship time of the frames not acknowledged yet,
+		 * guarded by itself
+		 */
+		private final ArrayDeque<long[]> unacknowledged = new ArrayDeque<>();
+
+		Follower(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			this.remote = String.valueOf(channel.getRemoteAddress());
+			this.shipper = new Thread(this::ship, "replication-shipper-" + remote);
+			shipper.setDaemon(true);
+		}
+
+		private void ship() {
+			try {
+				long position = ReplicationFrames.readLong(channel, ByteBuffer.allocate(8));
+				Journal.Tail tail = open(position);
+				Thread acknowledgements = new Thread(this::readAcknowledgements, "replication-acks-" + remote);
+				acknowledgements.setDaemon(true);
+				acknowledgements.start();
+
+				ByteBuffer header = ByteBuffer.allocate(HEADER + 8);
+				while (running) {
+					ByteBuffer records = tail.next(properties.getMaxFrameBytes());
+					if (records == null) {
+						// publish parked before looking again, so an append in between unparks
+						parked = true;
+						records = tail.next(properties.getMaxFrameBytes());
+						if (records == null) {
+							LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+						}
+						parked = false;
+						if (records == null) {
+							continue;
+						}
+					}
+					shipRecords(header, records, tail.position());
+				}
+			} catch (IOException | RuntimeException e) {
+				if (running) {
+					log.warn("Stopped shipping the journal to follower {}: {}", remote, e.toString());
+				}
+			} finally {
+				close();
+			}
+		}
+
+		/**
+		 * @param position
+		 *            asked for by the follower, -1 if it holds nothing
+		 * @return a tail at the position, or after a snapshot sent first
+		 */
+		private Journal.Tail open(long position) throws IOException {
+			if (position >= 0 && position <= journal.appendedPosition()) {
+				try {
+					Journal.Tail tail = journal.tail(position);
+					log.info("Follower {} resumes at journal position {}", remote, position);
+					return tail;
+				} catch (NoSuchFileException nsfe) {
+					log.info("Journal position {} of follower {} was truncated, sending a snapshot", position, remote);
+				}
+			}
+			for (int attempt = 1;; attempt++) {
+				try {
+					return bootstrap();
+				} catch (NoSuchFileException nsfe) {
+					// a newer snapshot replaced the one being sent
+					if (attempt == BOOTSTRAP_ATTEMPTS) {
+						throw nsfe;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Sends the latest snapshot, then an empty RECORDS frame with the
+		 * position after it
+		 */
+		private Journal.Tail bootstrap() throws IOException {
+			long sequence = snapshots.latestSequence();
+			long start = journal.segmentStart(sequence + 1);
+			// mapped before the snapshot is read, so a truncation meanwhile cannot remove it
+			Journal.Tail tail = journal.tail(start);
+
+			ByteBuffer reset = ByteBuffer.allocate(HEADER);
+			reset.putInt(1).put(RESET).flip();
+			ReplicationFrames.writeFully(channel, reset);
+
+			AccountsFrame accounts = new AccountsFrame();
+			long count = 0;
+			if (sequence > 0) {
+				try {
+					count = snapshots.read(sequence, accounts);
+				} catch (UncheckedIOException uioe) {
+					throw uioe.getCause();
+				}
+			}
+			accounts.flush();
+			shipRecords(ByteBuffer.allocate(HEADER + 8), ByteBuffer.allocate(0), start);
+			log.info("Sent snapshot {} of {} accounts to follower {}", sequence, count, remote);
+			return tail;
+		}
+
+		private void shipRecords(ByteBuffer header, ByteBuffer records, long end) throws IOException {
+			header.clear();
+			header.putInt(1 + 8 + records.remaining()).put(RECORDS).putLong(end).flip();
+			synchronized (unacknowledged) {
+				unacknowledged.add(new long[] { end, System.nanoTime() });
+			}
+			ReplicationFrames.writeFully(channel, header, records);
+		}
+
+		private void readAcknowledgements() {
+			ByteBuffer buffer = ByteBuffer.allocate(8);
+			try {
+				while (true) {
+					long acknowledged = ReplicationFrames.readLong(channel, buffer);
+					long now = System.nanoTime();
+					synchronized (unacknowledged) {
+						while (!unacknowledged.isEmpty() && unacknowledged.peek()[0] <= acknowledged) {
+							lag.record(now - unacknowledged.poll()[1]);
+						}
+					}
+				}
+			} catch (IOException ioe) {
+				close();
+			}
+		}
+
+		void close() {
+			if (followers.remove(this)) {
+				log.info("Follower {} disconnected", remote);
+			}
+			try {
+				channel.close();
+			} catch (IOException ioe) {
+				log.warn("Could not close the connection of follower {}", remote, ioe);
+			}
+			LockSupport.unpark(shipper);
+		}
+
+		/**
+		 * Collects snapshot accounts into ACCOUNTS frames of at most
+		 * maxFrameBytes
+		 */
+		private final class AccountsFrame implements ObjLongConsumer<String> {
+
+			private final ByteBuffer frame = ByteBuffer
+					.allocate(HEADER + 4 + Math.max(properties.getMaxFrameBytes(), MAX_ACCOUNT_BYTES));
+
+			private int count;
+
+			AccountsFrame() {
+				frame.position(HEADER + 4);
+			}
+
+			@Override
+			public void accept(String accountId, long balance) {
+				try {
+					if (frame.remaining() < ReplicationFrames.accountBytes(accountId)
+							|| frame.position() - HEADER - 4 >= properties.getMaxFrameBytes()) {
+						flush();
+					}
+				} catch (IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+				ReplicationFrames.putAccount(frame, accountId, balance);
+				count++;
+			}
+
+			void flush() throws IOException {
+				if (count > 0) {
+					frame.putInt(0, frame.position() - 4).put(4, ACCOUNTS).putInt(HEADER, count).flip();
+					ReplicationFrames.writeFully(channel, frame);
+				}
+				frame.clear();
+				frame.position(HEADER + 4);
+				count = 0;
+			}
+		}
+	}
+}
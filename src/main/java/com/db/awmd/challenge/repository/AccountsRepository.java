@@ -1,7 +1,15 @@
 package com.db.awmd.challenge.repository;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountPage;
+import com.db.awmd.challenge.domain.BatchTransferMode;
 import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
 import com.db.awmd.challenge.exception.ApplicationException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 
@@ -15,9 +23,128 @@ public interface AccountsRepository {
 
   void createAccount(Account account) throws DuplicateAccountIdException;
 
+  /**
+   * Creates many accounts, carrying on past ids that already exist. This is
+   * the bulk import path, so engines should not log each account.
+   *
+   * @param accounts
+   * @return positions in the list of the accounts that were not created
+   *         because their id already exists, in ascending order
+   */
+  default List<Integer> createAccounts(List<Account> accounts) {
+    List<Integer> duplicates = new ArrayList<>();
+    for (int i = 0; i < accounts.size(); i++) {
+      try {
+        createAccount(accounts.get(i));
+      } catch (DuplicateAccountIdException daie) {
+        duplicates.add(i);
+      }
+    }
+    return duplicates;
+  }
+
   Account getAccount(String accountId);
 
   void clearAccounts();
+
+  /**
+   * Lists accounts in the order they were created, starting at the cursor
+   * returned with the previous page. Each account is read as last committed;
+   * pages are not a consistent snapshot of each other, use
+   * {@link #exportAccounts(LongConsumer, Consumer)} for that.
+   *
+   * @param cursor
+   *          null for the first page
+   * @param limit
+   * @return
+   * @throws ApplicationException
+   *           when the cursor is invalid or the engine cannot list accounts
+   */
+  default AccountPage listAccounts(String cursor, int limit) throws ApplicationException {
+    throw new ApplicationException("Listing accounts is not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * Walks a consistent snapshot of all accounts without stopping transfers.
+   * The snapshot reflects every transfer with a commit sequence up to the one
+   * handed to the marker and none after it.
+   *
+   * @param marker
+   *          receives the commit sequence of the snapshot before any account
+   * @param sink
+   *          receives each account of the snapshot
+   * @return number of accounts exported
+   * @throws ApplicationException
+   *           when the engine cannot export accounts
+   */
+  default long exportAccounts(LongConsumer marker, Consumer<Account> sink) throws ApplicationException {
+    throw new ApplicationException("Exporting accounts is not supported by " + getClass().getSimpleName());
+  }
   
   void transferMoney(TransferRequest transferRequest) throws ApplicationException;
+
+  /**
+   * Tells whether the engine keeps the currency of an account and converts
+   * transfers between currencies. Engines that do not only hold accounts in
+   * the base currency.
+   *
+   * @return
+   */
+  default boolean supportsCurrencies() {
+    return false;
+  }
+
+  /**
+   * The engine that holds the accounts: this repository, or the one it wraps
+   *
+   * @return
+   */
+  default AccountsRepository engine() {
+    return this;
+  }
+
+  /**
+   * Number of accounts, for monitoring
+   *
+   * @return
+   */
+  long countAccounts();
+
+  /**
+   * Sum of all balances in minor units, for monitoring. Balances in other
+   * currencies are converted to the base currency at the current rates. It is
+   * read while transfers carry on, so an engine may count money in flight
+   * once, twice or not at all.
+   *
+   * @return
+   */
+  long totalBalanceMinorUnits();
+
+  /**
+   * Applies a batch of transfers and returns one result per transfer, in
+   * request order. This default applies the transfers one at a time and
+   * therefore only supports {@link BatchTransferMode#BEST_EFFORT}.
+   *
+   * @param transferRequests
+   * @param mode
+   * @return
+   * @throws ApplicationException
+   *           when the mode is not supported by the repository
+   */
+  default List<TransferResult> transferMoneyBatch(List<TransferRequest> transferRequests, BatchTransferMode mode)
+      throws ApplicationException {
+    if (mode == BatchTransferMode.ATOMIC) {
+      throw new ApplicationException("Atomic batch transfers are not supported by " + getClass().getSimpleName());
+    }
+    List<TransferResult> results = new ArrayList<>(transferRequests.size());
+    for (int i = 0; i < transferRequests.size(); i++) {
+      try {
+        transferMoney(transferRequests.get(i));
+        results.add(TransferResult.committed(i));
+      } catch (ApplicationException ae) {
+        results.add(TransferResult.rejected(i, ae));
+      }
+    }
+    return results;
+  }
 }
@@ -1,36 +1,188 @@
 package com.db.awmd.challenge.repository;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import com.db.awmd.challenge.config.FxProperties;
+import com.db.awmd.challenge.config.HotAccountProperties;
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountPage;
+import com.db.awmd.challenge.domain.BatchTransferMode;
+import com.db.awmd.challenge.domain.Money;
 import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
 import com.db.awmd.challenge.exception.ApplicationException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
-import com.db.awmd.challenge.service.EmailNotificationService;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.fx.FxRates;
+import com.db.awmd.challenge.metrics.LatencyRecorder;
+import com.db.awmd.challenge.service.NotificationService;
 
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * @author Dhananjay Jadhav
+ * 
+ *         Accounts are guarded by a fixed array of lock stripes instead of one
+ *         bank wide lock, so transfers between unrelated accounts run in
+ *         parallel. The two stripes of a transfer are always acquired in
+ *         ascending index order, which rules out deadlock.
+ *
+ *         Readers never take a lock: every account has an immutable copy
+ *         which is replaced, with a new version, while the transfer that
+ *         changed the account still holds its locks. getAccount returns that
+ *         copy, so it never sees a transfer half applied.
+ *
+ *         Transfers conserve money, so the total balance only moves when
+ *         accounts are created or cleared and is kept in a striped counter
+ *         without any work per transfer. {@link BalanceReconciler} checks it
+ *         against the balances in the background.
+ *
+ *         Every transfer, or batch, takes the next commit sequence under its
+ *         locks. An export picks the current sequence as its marker; while it
+ *         runs, a transfer that replaces a copy still within the marker keeps
+ *         that copy aside, so the export can walk the accounts one lock stripe
+ *         at a time and still read each of them as of the marker.
+ *
+ *         Accounts listed in {@link HotAccountProperties} keep their balance
+ *         in a {@link HotBalance} instead: transfers take one slot of it
+ *         rather than the account's stripe, so the few accounts most
+ *         transfers go through no longer serialize them. Stripes are always
+ *         locked before slots, and slots by account ordinal then index.
+ *
+ *         An account keeps the index of its currency. A transfer between two
+ *         currencies converts the amount with {@link FxRates} before it takes
+ *         any lock and credits the converted amount. The total balance is
+ *         kept per currency, so such a transfer moves the amount out of the
+ *         total of one currency and the credit into that of the other.
+ *
+ *         A {@link TransferLog}, when set, records every transfer under its
+ *         locks before it is published, and can refuse it.
  *
  */
 @Slf4j
 @Repository
 public class AccountsRepositoryInMemory implements AccountsRepository {
 
-	private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+	private final Map<String, AccountEntry> accounts = new ConcurrentHashMap<>();
+
+	private final NotificationService notificationService;
+
+	private static final int DEFAULT_LOCK_STRIPES = 1024;
 
-	private EmailNotificationService emailNotificationService = new EmailNotificationService();
+	private final ReentrantLock[] accountLocks;
 
-	private Lock bankLock = new ReentrantLock();
+	private final int stripeMask;
+
+	/**
+	 * Total balance per currency index, in minor units of that currency
+	 */
+	private final Map<Integer, LongAdder> totalBalances = new ConcurrentHashMap<>();
+
+	private static final long NO_EXPORT = Long.MAX_VALUE;
+
+	/**
+	 * Accounts in the order they were created, for listing and export
+	 */
+	private final AppendOnlyIndex<AccountEntry> createdOrder = new AppendOnlyIndex<>();
+
+	private final AtomicLong commitSequence = new AtomicLong();
+
+	private final ReentrantLock exportLock = new ReentrantLock();
+
+	/**
+	 * Commit sequence of the running export, or {@link #NO_EXPORT}
+	 */
+	private volatile long exportMarker = NO_EXPORT;
+
+	private final Set<String> hotAccountIds;
+
+	private final int hotSlots;
+
+	private final List<HotBalance> hotBalances = new CopyOnWriteArrayList<>();
+
+	private final FxRates fxRates;
+
+	private volatile TransferLog transferLog = TransferLog.NONE;
+
+	@Getter
+	private final LatencyRecorder lockWait = new LatencyRecorder();
+
+	@Getter
+	private final LatencyRecorder lockHold = new LatencyRecorder();
+
+	@Autowired
+	public AccountsRepositoryInMemory(NotificationService notificationService, HotAccountProperties hotAccounts,
+			FxRates fxRates) {
+		this(notificationService, DEFAULT_LOCK_STRIPES, hotAccounts, fxRates);
+	}
+
+	public AccountsRepositoryInMemory(NotificationService notificationService) {
+		this(notificationService, DEFAULT_LOCK_STRIPES);
+	}
+
+	public AccountsRepositoryInMemory(NotificationService notificationService, int lockStripes) {
+		this(notificationService, lockStripes, new HotAccountProperties());
+	}
+
+	public AccountsRepositoryInMemory(NotificationService notificationService, int lockStripes,
+			HotAccountProperties hotAccounts) {
+		this(notificationService, lockStripes, hotAccounts, new FxRates(new FxProperties()));
+	}
+
+	/**
+	 * @param notificationService
+	 *            receives a notification per account once a transfer commits
+	 * @param lockStripes
+	 *            number of account locks, rounded up to a power of two
+	 * @param hotAccounts
+	 *            accounts to split across slots when they are created
+	 * @param fxRates
+	 *            currencies accounts may be in and the rates between them
+	 */
+	public AccountsRepositoryInMemory(NotificationService notificationService, int lockStripes,
+			HotAccountProperties hotAccounts, FxRates fxRates) {
+		this.notificationService = notificationService;
+		this.fxRates = fxRates;
+		this.hotAccountIds = new HashSet<>(hotAccounts.getAccountIds());
+		this.hotSlots = Math.max(1, hotAccounts.getSlots());
+		int stripes = 1;
+		while (stripes < lockStripes) {
+			stripes <<= 1;
+		}
+		this.accountLocks = new ReentrantLock[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.accountLocks[i] = new ReentrantLock();
+		}
+		this.stripeMask = stripes - 1;
+	}
 
-	private BigDecimal totalBalance = new BigDecimal(0);
+	/**
+	 * Sets the log that records transfers before they are published
+	 */
+	public void setTransferLog(TransferLog transferLog) {
+		this.transferLog = transferLog == null ? TransferLog.NONE : transferLog;
+	}
 
 	/*
 	 * (non-Javadoc)
@@ -42,11 +194,26 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
 	@Override
 	public void createAccount(Account account) throws DuplicateAccountIdException {
 		log.info("Creating account {}", account);
-		Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
-		if (previousAccount != null) {
+		if (!insert(account)) {
 			throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
 		}
-		totalBalance = totalBalance.add(account.getBalance());
+	}
+
+	/**
+	 * Inserts the accounts without logging each of them
+	 */
+	@Override
+	public List<Integer> createAccounts(List<Account> accounts) {
+		List<Integer> duplicates = new ArrayList<>();
+		for (int i = 0; i < accounts.size(); i++) {
+			if (!insert(accounts.get(i))) {
+				duplicates.add(i);
+			}
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Created {} of {} accounts", accounts.size() - duplicates.size(), accounts.size());
+		}
+		return duplicates;
 	}
 
 	/*
@@ -56,18 +223,113 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
 	 * com.db.awmd.challenge.repository.AccountsRepository#getAccount(java.lang.
 	 * String)
 	 * 
-	 * Get the account from memory
+	 * Returns the last committed copy of the account, which must not be
+	 * modified
 	 */
 	@Override
 	public Account getAccount(String accountId) {
-		log.info("getAccount ", accountId);
-		return accounts.get(accountId);
+		log.debug("getAccount {}", accountId);
+		AccountEntry entry = accounts.get(accountId);
+		return entry == null ? null : entry.current();
 	}
 
+	/**
+	 * Must not run while accounts are exported
+	 */
 	@Override
 	public void clearAccounts() {
 		log.info("clearAccounts ");
 		accounts.clear();
+		createdOrder.clear();
+		hotBalances.clear();
+		totalBalances.clear();
+	}
+
+	/**
+	 * The cursor is the position in creation order of the first account of
+	 * the page
+	 */
+	@Override
+	public AccountPage listAccounts(String cursor, int limit) throws ApplicationException {
+		int position = cursor == null ? 0 : parseCursor(cursor);
+		int end = (int) Math.min((long) position + limit, createdOrder.size());
+		List<Account> page = new ArrayList<>(Math.max(end - position, 0));
+		for (int i = position; i < end; i++) {
+			AccountEntry entry = createdOrder.get(i);
+			if (entry != null) {
+				page.add(entry.current());
+			}
+		}
+		return new AccountPage(page, end < createdOrder.size() ? String.valueOf(end) : null);
+	}
+
+	/**
+	 * Exports run one at a time. Each account is read under its lock stripe,
+	 * so transfers only wait for the account being read, never for the whole
+	 * export; accounts created after the marker may or may not be included.
+	 */
+	@Override
+	public long exportAccounts(LongConsumer marker, Consumer<Account> sink) {
+		exportLock.lock();
+		try {
+			long sequence;
+			// a transfer reads the marker after taking its sequence, so once the
+			// sequence is seen unchanged every later transfer sees the marker
+			do {
+				sequence = commitSequence.get();
+				exportMarker = sequence;
+			} while (commitSequence.get() != sequence);
+			try {
+				int size = createdOrder.size();
+				marker.accept(sequence);
+				long exported = 0;
+				for (int i = 0; i < size; i++) {
+					AccountEntry entry = createdOrder.get(i);
+					Account account = entry == null ? null : readAsOf(entry, sequence);
+					if (account != null) {
+						sink.accept(account);
+						exported++;
+					}
+				}
+				return exported;
+			} finally {
+				exportMarker = NO_EXPORT;
+			}
+		} finally {
+			exportLock.unlock();
+		}
+	}
+
+	@Override
+	public boolean supportsCurrencies() {
+		return true;
+	}
+
+	@Override
+	public long countAccounts() {
+		return accounts.size();
+	}
+
+	/**
+	 * Converts the total of every currency to the base currency at the
+	 * current rates
+	 */
+	@Override
+	public long totalBalanceMinorUnits() {
+		return getTotalBalance();
+	}
+
+	/**
+	 * @param currency
+	 *            ISO 4217 code, null for the base currency
+	 * @return sum of the balances of the accounts in the currency, in its
+	 *         minor units
+	 * @throws ApplicationException
+	 *             if the currency has no rate
+	 */
+	public long totalBalanceMinorUnits(String currency) throws ApplicationException {
+		LongAdder total = totalBalances.get(fxRates.indexOf(currency));
+		return total == null ? 0 : total.sum();
 	}
 
 	/*
@@ -79,96 +341,723 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
 	 * 
 	 * This method is used to transfer money from one account to another
 	 */
+	@Override
 	public void transferMoney(TransferRequest transferRequest) throws ApplicationException {
 
-		log.info("Start of transferMoney ", transferRequest);
+		log.debug("Start of transferMoney {}", transferRequest);
+
+		AccountEntry entryFrom = requireAccount(transferRequest.getAccountFrom());
+
+		AccountEntry entryTo = requireAccount(transferRequest.getAccountTo());
+
+		checkTransfer(transferRequest);
+
+		long credit = creditOf(entryFrom, entryTo, transferRequest);
+
+		if (entryFrom.hot != null || entryTo.hot != null) {
+			transferHot(entryFrom, entryTo, transferRequest, credit);
+			log.debug("End of transferMoney");
+			return;
+		}
 
-		bankLock.lock();
+		int fromStripe = stripeOf(transferRequest.getAccountFrom());
+		int toStripe = stripeOf(transferRequest.getAccountTo());
+		Lock firstLock = accountLocks[Math.min(fromStripe, toStripe)];
+		Lock secondLock = accountLocks[Math.max(fromStripe, toStripe)];
 
+		Account accountFrom;
+		Account accountTo;
+		long requested = System.nanoTime();
+		long acquired = requested;
+		firstLock.lock();
 		try {
+			if (secondLock != firstLock) {
+				secondLock.lock();
+			}
+			acquired = System.nanoTime();
+			try {
+
+				applyTransfer(entryFrom.account, entryTo.account, transferRequest, credit);
+				try {
+					transferLog.transferred(transferRequest);
+				} catch (RuntimeException e) {
+					undoTransfer(entryFrom.account, entryTo.account, transferRequest, credit);
+					throw e;
+				}
+				moveTotal(entryFrom, entryTo, transferRequest.getAmountMinorUnits(), credit);
+				long sequence = commitSequence.incrementAndGet();
+				long marker = exportMarker;
+				accountFrom = entryFrom.publish(sequence, marker);
+				accountTo = entryTo.publish(sequence, marker);
+
+			} finally {
+				if (secondLock != firstLock) {
+					secondLock.unlock();
+				}
+			}
+		} finally {
+			firstLock.unlock();
+			recordLockTimes(requested, acquired);
+		}
+		notificationService.notifyAboutTransfer(accountFrom, " withdraw sucess");
+		notificationService.notifyAboutTransfer(accountTo, " deposit sucess");
+		log.debug("End of transferMoney");
+	}
 
-			Account accountFrom = getAccount(transferRequest.getAccountFrom());
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.db.awmd.challenge.repository.AccountsRepository#transferMoneyBatch(java.
+	 * util.List, com.db.awmd.challenge.domain.BatchTransferMode)
+	 * 
+	 * Takes the lock stripes of every account in the batch once, in ascending
+	 * order, and applies the transfers in request order. In atomic mode the
+	 * first failure undoes the already applied transfers before the locks are
+	 * released. A hot account in the batch has all of its slots locked and is
+	 * worked on as one balance, spread over the slots again on commit.
+	 */
+	@Override
+	public List<TransferResult> transferMoneyBatch(List<TransferRequest> transferRequests, BatchTransferMode mode)
+			throws ApplicationException {
+
+		int size = transferRequests.size();
+		if (log.isDebugEnabled()) {
+			log.debug("Start of transferMoneyBatch of {} transfers in {} mode", size, mode);
+		}
 
-			Account accountTo = getAccount(transferRequest.getAccountTo());
+		AccountEntry[] entriesFrom = new AccountEntry[size];
+		AccountEntry[] entriesTo = new AccountEntry[size];
+		Account[] accountsFrom = new Account[size];
+		Account[] accountsTo = new Account[size];
+		TransferResult[] results = new TransferResult[size];
+		long[] credits = new long[size];
+		int[] stripes = new int[size * 2];
+		int stripeCount = 0;
+		Map<AccountEntry, Account> hotWorking = new HashMap<>();
 
-			if (accountFrom == null) {
-				throw new ApplicationException("Account id " + transferRequest.getAccountFrom() + " not found");
+		for (int i = 0; i < size; i++) {
+			TransferRequest transferRequest = transferRequests.get(i);
+			try {
+				entriesFrom[i] = requireAccount(transferRequest.getAccountFrom());
+				entriesTo[i] = requireAccount(transferRequest.getAccountTo());
+				checkTransfer(transferRequest);
+				credits[i] = creditOf(entriesFrom[i], entriesTo[i], transferRequest);
+			} catch (ApplicationException ae) {
+				if (mode == BatchTransferMode.ATOMIC) {
+					return TransferResult.atomicBatchFailure(size, i, ae);
+				}
+				results[i] = TransferResult.rejected(i, ae);
+				continue;
 			}
-			if (accountTo == null) {
-				throw new ApplicationException("Account id " + transferRequest.getAccountTo() + " not found");
+			for (AccountEntry entry : new AccountEntry[] { entriesFrom[i], entriesTo[i] }) {
+				if (entry.hot == null) {
+					stripes[stripeCount++] = stripeOf(entry.account.getAccountId());
+				} else {
+					hotWorking.put(entry, null);
+				}
 			}
+		}
 
-			if (accountFrom.getAccountId().compareToIgnoreCase(accountTo.getAccountId()) == 0) {
-				throw new ApplicationException("AccountFrom " + accountFrom.getAccountId() + " is same as accountTo "
-						+ accountTo.getAccountId());
+		int[] lockOrder = IntStream.of(stripes).limit(stripeCount).sorted().distinct().toArray();
+		List<AccountEntry> hotOrder = new ArrayList<>(hotWorking.keySet());
+		hotOrder.sort(Comparator.comparingInt(entry -> entry.hot.ordinal));
+		int locked = 0;
+		int hotLocked = 0;
+		long requested = System.nanoTime();
+		long acquired = requested;
+		try {
+			for (; locked < lockOrder.length; locked++) {
+				accountLocks[lockOrder[locked]].lock();
+			}
+			for (; hotLocked < hotOrder.size(); hotLocked++) {
+				AccountEntry entry = hotOrder.get(hotLocked);
+				entry.hot.lockAll();
+				hotWorking.put(entry, entry.hot.snapshot(entry.account));
 			}
+			acquired = System.nanoTime();
 
-			BigDecimal beforeTotalOfTwoAccounts = getTwoAccountBalance(accountFrom, accountTo);
-			BigDecimal afterTotalOfTwoAccounts;
+			for (int i = 0; i < size; i++) {
+				if (results[i] != null) {
+					continue;
+				}
+				try {
+					applyTransfer(working(entriesFrom[i], hotWorking), working(entriesTo[i], hotWorking),
+							transferRequests.get(i), credits[i]);
+					results[i] = TransferResult.committed(i);
+				} catch (ApplicationException ae) {
+					if (mode == BatchTransferMode.ATOMIC) {
+						for (int j = i - 1; j >= 0; j--) {
+							undoTransfer(working(entriesFrom[j], hotWorking), working(entriesTo[j], hotWorking),
+									transferRequests.get(j), credits[j]);
+						}
+						return TransferResult.atomicBatchFailure(size, i, ae);
+					}
+					results[i] = TransferResult.rejected(i, ae);
+				}
+			}
 
-			BigDecimal beforeTotal = getTotalBalance();
-			BigDecimal afterTotal;
+			List<TransferRequest> committed = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				if (results[i].getStatus() == TransferStatus.COMMITTED) {
+					committed.add(transferRequests.get(i));
+				}
+			}
+			if (!committed.isEmpty()) {
+				try {
+					transferLog.transferred(committed);
+				} catch (RuntimeException e) {
+					for (int i = size - 1; i >= 0; i--) {
+						if (results[i].getStatus() == TransferStatus.COMMITTED) {
+							undoTransfer(working(entriesFrom[i], hotWorking), working(entriesTo[i], hotWorking),
+									transferRequests.get(i), credits[i]);
+						}
+					}
+					throw e;
+				}
+			}
 
-			if (transferRequest.getAmount().compareTo(accountFrom.getBalance()) == -1) {
-				accountFrom.withdraw(transferRequest.getAmount());
-				accountTo.deposit(transferRequest.getAmount());
-				afterTotalOfTwoAccounts = getTwoAccountBalance(accountFrom, accountTo);
-				afterTotal = getTotalBalance();
-				if (beforeTotalOfTwoAccounts.compareTo(afterTotalOfTwoAccounts) == 0) {
-					log.info("Two account balance before Transfer " + beforeTotalOfTwoAccounts
-							+ " Two account balance after Transfer " + afterTotalOfTwoAccounts);
-					log.info("Total balance before Transfer " + beforeTotal + " total balance after Transfer "
-							+ afterTotal);
-					emailNotificationService.notifyAboutTransfer(accountFrom, " withdraw sucess");
-					emailNotificationService.notifyAboutTransfer(accountTo, " deposit sucess");
+			// published once the whole batch is applied, so readers never see part of it
+			long sequence = commitSequence.incrementAndGet();
+			long marker = exportMarker;
+			for (int i = 0; i < size; i++) {
+				if (results[i].getStatus() == TransferStatus.COMMITTED) {
+					moveTotal(entriesFrom[i], entriesTo[i], transferRequests.get(i).getAmountMinorUnits(), credits[i]);
+					accountsFrom[i] = publish(entriesFrom[i], hotWorking, sequence, marker);
+					accountsTo[i] = publish(entriesTo[i], hotWorking, sequence, marker);
 				}
-			} else if (transferRequest.getAmount().compareTo(accountFrom.getBalance()) == 1) {
-				throw new ApplicationException("Account id " + transferRequest.getAccountFrom()
-						+ " balance is less than " + transferRequest.getAmount());
 			}
+		} finally {
+			while (hotLocked > 0) {
+				hotOrder.get(--hotLocked).hot.unlockAll();
+			}
+			while (locked > 0) {
+				accountLocks[lockOrder[--locked]].unlock();
+			}
+			recordLockTimes(requested, acquired);
+		}
+
+		for (int i = 0; i < size; i++) {
+			if (results[i].getStatus() == TransferStatus.COMMITTED) {
+				notificationService.notifyAboutTransfer(accountsFrom[i], " withdraw sucess");
+				notificationService.notifyAboutTransfer(accountsTo[i], " deposit sucess");
+			}
+		}
+		log.debug("End of transferMoneyBatch");
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Moves money from or to a hot account using the home slot of the calling
+	 * thread. A withdrawal the home slot cannot cover is retried with every
+	 * slot of the account locked, and fails only if the slots together cannot
+	 * cover it.
+	 * 
+	 * @param entryFrom
+	 * @param entryTo
+	 * @param transferRequest
+	 * @param credit
+	 *            amount in the currency of entryTo
+	 */
+	private void transferHot(AccountEntry entryFrom, AccountEntry entryTo, TransferRequest transferRequest,
+			long credit) throws ApplicationException {
+		Account[] committed = tryTransferHot(entryFrom, entryTo, transferRequest, credit, false);
+		if (committed == null) {
+			committed = tryTransferHot(entryFrom, entryTo, transferRequest, credit, true);
+		}
+		notificationService.notifyAboutTransfer(committed[0], " withdraw sucess");
+		notificationService.notifyAboutTransfer(committed[1], " deposit sucess");
+	}
+
+	/**
+	 * @param borrow
+	 *            whether to lock every slot of a hot source account
+	 * @return the accounts as notified, or null if the home slot of a hot
+	 *         source account cannot cover the amount without borrowing
+	 */
+	private Account[] tryTransferHot(AccountEntry entryFrom, AccountEntry entryTo, TransferRequest transferRequest,
+			long credit, boolean borrow) throws ApplicationException {
+		HotBalance hotFrom = entryFrom.hot;
+		HotBalance hotTo = entryTo.hot;
+		int fromSlot = hotFrom == null ? -1 : hotFrom.home();
+		int toSlot = hotTo == null ? -1 : hotTo.home();
+
+		List<Lock> locks = new ArrayList<>(borrow ? hotFrom.size() + 1 : 2);
+		if (hotFrom == null) {
+			locks.add(accountLocks[stripeOf(transferRequest.getAccountFrom())]);
+		}
+		if (hotTo == null) {
+			locks.add(accountLocks[stripeOf(transferRequest.getAccountTo())]);
+		}
+		boolean toFirst = hotTo != null && (hotFrom == null || hotTo.ordinal < hotFrom.ordinal);
+		if (toFirst) {
+			locks.add(hotTo.slot(toSlot).lock);
+		}
+		if (hotFrom != null && borrow) {
+			for (int i = 0; i < hotFrom.size(); i++) {
+				locks.add(hotFrom.slot(i).lock);
+			}
+		} else if (hotFrom != null) {
+			locks.add(hotFrom.slot(fromSlot).lock);
+		}
+		if (hotTo != null && !toFirst) {
+			locks.add(hotTo.slot(toSlot).lock);
+		}
 
+		long amount = transferRequest.getAmountMinorUnits();
+		int locked = 0;
+		long requested = System.nanoTime();
+		long acquired = requested;
+		try {
+			for (; locked < locks.size(); locked++) {
+				locks.get(locked).lock();
+			}
+			acquired = System.nanoTime();
+
+			long available = hotFrom == null ? entryFrom.account.getBalanceMinorUnits()
+					: borrow ? hotFrom.sum() : hotFrom.slot(fromSlot).balance;
+			if (amount > available) {
+				if (hotFrom != null && !borrow) {
+					return null;
+				}
+				throw insufficientBalance(transferRequest);
+			}
+			long toBalance = Money.add(
+					hotTo == null ? entryTo.account.getBalanceMinorUnits() : hotTo.slot(toSlot).balance, credit);
+			// nothing is changed yet, so a refusal needs no undo
+			transferLog.transferred(transferRequest);
+
+			long sequence = commitSequence.incrementAndGet();
+			long marker = exportMarker;
+			Account accountFrom = null;
+			Account accountTo = null;
+			if (hotFrom == null) {
+				entryFrom.account.setBalanceMinorUnits(available - amount);
+				accountFrom = entryFrom.publish(sequence, marker);
+			} else if (borrow) {
+				hotFrom.withdrawAll(amount, sequence, marker);
+			} else {
+				hotFrom.slot(fromSlot).set(available - amount, sequence, marker);
+			}
+			if (hotTo == null) {
+				entryTo.account.setBalanceMinorUnits(toBalance);
+				accountTo = entryTo.publish(sequence, marker);
+			} else {
+				hotTo.slot(toSlot).set(toBalance, sequence, marker);
+			}
+			moveTotal(entryFrom, entryTo, amount, credit);
+			// the sum of the other slots is read without their locks
+			return new Account[] {
+					accountFrom != null ? accountFrom : hotFrom.snapshot(entryFrom.account),
+					accountTo != null ? accountTo : hotTo.snapshot(entryTo.account) };
 		} finally {
-			bankLock.unlock();
+			while (locked > 0) {
+				locks.get(--locked).unlock();
+			}
+			recordLockTimes(requested, acquired);
 		}
-		log.info("End of transferMoney ");
 	}
 
 	/**
-	 * This method returns two account balance
+	 * @return the account a batch changes: its own for a plain account, the
+	 *         working copy of the sum of the slots for a hot one
+	 */
+	private static Account working(AccountEntry entry, Map<AccountEntry, Account> hotWorking) {
+		return entry.hot == null ? entry.account : hotWorking.get(entry);
+	}
+
+	/**
+	 * Publishes an account changed by a batch, spreading the working balance
+	 * of a hot account over its slots
+	 */
+	private static Account publish(AccountEntry entry, Map<AccountEntry, Account> hotWorking, long sequence,
+			long marker) {
+		if (entry.hot == null) {
+			return entry.publish(sequence, marker);
+		}
+		entry.hot.rebalance(hotWorking.get(entry).getBalanceMinorUnits(), sequence, marker);
+		return entry.hot.snapshot(entry.account);
+	}
+
+	/**
+	 * Adds the account unless its id exists. The entry is indexed under the
+	 * lock stripe of the account, so no transfer can reach it before it can
+	 * be exported.
+	 * 
+	 * @param account
+	 * @return false if the id exists
+	 * @throws ApplicationException
+	 *             if the currency of the account has no rate
+	 */
+	private boolean insert(Account account) throws ApplicationException {
+		int currency = fxRates.indexOf(account.getCurrency());
+		HotBalance hot = hotAccountIds.contains(account.getAccountId())
+				? new HotBalance(hotSlots, account.getBalanceMinorUnits())
+				: null;
+		AccountEntry entry = new AccountEntry(account, currency, hot);
+		Lock lock = accountLocks[stripeOf(account.getAccountId())];
+		lock.lock();
+		try {
+			if (accounts.putIfAbsent(account.getAccountId(), entry) != null) {
+				return false;
+			}
+			createdOrder.add(entry);
+			if (hot != null) {
+				hotBalances.add(hot);
+			}
+			totalOf(currency).add(account.getBalanceMinorUnits());
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the copy of the account that was current at the given commit
+	 * sequence, or null if it had none the export may use
+	 */
+	private Account readAsOf(AccountEntry entry, long sequence) {
+		if (entry.hot != null) {
+			return entry.hot.readAsOf(entry.account, sequence);
+		}
+		Lock lock = accountLocks[stripeOf(entry.account.getAccountId())];
+		lock.lock();
+		try {
+			return entry.publishedSequence <= sequence ? entry.published : entry.retained;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static int parseCursor(String cursor) throws ApplicationException {
+		try {
+			int position = Integer.parseInt(cursor);
+			if (position >= 0) {
+				return position;
+			}
+		} catch (NumberFormatException nfe) {
+			// reported below
+		}
+		throw new ApplicationException("Cursor " + cursor + " is not valid");
+	}
+
+	/**
+	 * This method returns the account or fails if it does not exist
+	 * 
+	 * @param accountId
+	 * @return
+	 */
+	private AccountEntry requireAccount(String accountId) throws ApplicationException {
+		AccountEntry entry = accounts.get(accountId);
+		if (entry == null) {
+			throw new ApplicationException(RejectionReason.ACCOUNT_NOT_FOUND, "Account id " + accountId + " not found");
+		}
+		return entry;
+	}
+
+	/**
+	 * This method validates a transfer before any lock is taken
+	 * 
+	 * @param transferRequest
+	 */
+	private static void checkTransfer(TransferRequest transferRequest) throws ApplicationException {
+		if (transferRequest.getAccountFrom().compareToIgnoreCase(transferRequest.getAccountTo()) == 0) {
+			throw new ApplicationException(RejectionReason.SAME_ACCOUNT,
+					"AccountFrom " + transferRequest.getAccountFrom() + " is same as accountTo "
+					+ transferRequest.getAccountTo());
+		}
+		if (transferRequest.getAmountMinorUnits() < 0) {
+			throw new ApplicationException(RejectionReason.NEGATIVE_AMOUNT,
+					"Transfer amount " + transferRequest.getAmount() + " must not be negative");
+		}
+	}
+
+	/**
+	 * This method moves the amount between the two accounts. The caller must
+	 * hold the lock stripes of both accounts.
 	 * 
 	 * @param accountFrom
 	 * @param accountTo
-	 * @return
+	 * @param transferRequest
+	 * @param credit
+	 *            amount in the currency of accountTo
 	 */
-	private BigDecimal getTwoAccountBalance(Account accountFrom, Account accountTo) {
-		bankLock.lock();
+	private void applyTransfer(Account accountFrom, Account accountTo, TransferRequest transferRequest, long credit)
+			throws ApplicationException {
+		long amount = transferRequest.getAmountMinorUnits();
+		if (amount > accountFrom.getBalanceMinorUnits()) {
+			throw insufficientBalance(transferRequest);
+		}
 
-		try {
+		// this runs under the locks, so nothing is computed for the log unless it is enabled
+		boolean debug = log.isDebugEnabled();
+		long beforeTotalOfTwoAccounts = debug ? getTwoAccountBalance(accountFrom, accountTo) : 0;
 
-			return accountFrom.getBalance().add(accountTo.getBalance());
+		// compute both balances first so an overflow leaves the accounts untouched
+		long fromBalance = Money.subtract(accountFrom.getBalanceMinorUnits(), amount);
+		long toBalance = Money.add(accountTo.getBalanceMinorUnits(), credit);
+		accountFrom.setBalanceMinorUnits(fromBalance);
+		accountTo.setBalanceMinorUnits(toBalance);
 
-		} finally {
-			bankLock.unlock();
+		if (debug) {
+			log.debug("Two account balance before Transfer {} Two account balance after Transfer {}",
+					Money.toDecimal(beforeTotalOfTwoAccounts), Money.toDecimal(getTwoAccountBalance(accountFrom, accountTo)));
+			log.debug("Total balance {}", Money.toDecimal(getTotalBalance()));
+		}
+	}
+
+	/**
+	 * This method converts the amount into the currency of accountTo, before
+	 * any lock is taken
+	 * 
+	 * @param entryFrom
+	 * @param entryTo
+	 * @param transferRequest
+	 * @return amount to credit in minor units
+	 */
+	private long creditOf(AccountEntry entryFrom, AccountEntry entryTo, TransferRequest transferRequest)
+			throws ApplicationException {
+		String currency = transferRequest.getCurrency();
+		if (currency != null && !currency.equals(fxRates.currencyOf(entryFrom.currency))) {
+			throw new ApplicationException("Transfer currency " + currency + " is not the currency "
+					+ fxRates.currencyOf(entryFrom.currency) + " of account " + transferRequest.getAccountFrom());
+		}
+		long credit = fxRates.convert(transferRequest.getAmountMinorUnits(), entryFrom.currency, entryTo.currency);
+		transferRequest.setCreditMinorUnits(credit);
+		return credit;
+	}
+
+	private static ApplicationException insufficientBalance(TransferRequest transferRequest) {
+		return new ApplicationException(RejectionReason.INSUFFICIENT_BALANCE,
+				"Account id " + transferRequest.getAccountFrom() + " balance is less than "
+				+ transferRequest.getAmount());
+	}
+
+	/**
+	 * This method reverts a transfer applied by
+	 * {@link #applyTransfer(Account, Account, TransferRequest, long)} while the
+	 * same locks are still held
+	 * 
+	 * @param accountFrom
+	 * @param accountTo
+	 * @param transferRequest
+	 * @param credit
+	 */
+	private void undoTransfer(Account accountFrom, Account accountTo, TransferRequest transferRequest, long credit) {
+		long amount = transferRequest.getAmountMinorUnits();
+		accountTo.setBalanceMinorUnits(accountTo.getBalanceMinorUnits() - credit);
+		accountFrom.setBalanceMinorUnits(accountFrom.getBalanceMinorUnits() + amount);
+	}
+
+	/**
+	 * Moves a committed transfer between the totals of the two currencies,
+	 * if they differ
+	 * 
+	 * @param entryFrom
+	 * @param entryTo
+	 * @param amount
+	 *            in the currency of entryFrom
+	 * @param credit
+	 *            in the currency of entryTo
+	 */
+	private void moveTotal(AccountEntry entryFrom, AccountEntry entryTo, long amount, long credit) {
+		if (entryFrom.currency != entryTo.currency) {
+			totalOf(entryFrom.currency).add(-amount);
+			totalOf(entryTo.currency).add(credit);
 		}
 	}
 
+	private LongAdder totalOf(int currency) {
+		LongAdder total = totalBalances.get(currency);
+		return total != null ? total : totalBalances.computeIfAbsent(currency, c -> new LongAdder());
+	}
+
 	/**
-	 * This method returns total balance
+	 * This method returns two account balance in minor units
 	 * 
 	 * @param accountFrom
 	 * @param accountTo
 	 * @return
 	 */
-	private BigDecimal getTotalBalance() {
-		bankLock.lock();
+	private long getTwoAccountBalance(Account accountFrom, Account accountTo) {
+		return Money.add(accountFrom.getBalanceMinorUnits(), accountTo.getBalanceMinorUnits());
+	}
 
-		try {
+	/**
+	 * This method returns total balance in minor units
+	 * 
+	 * @return
+	 */
+	private long getTotalBalance() {
+		long total = 0;
+		for (Map.Entry<Integer, LongAdder> currency : totalBalances.entrySet()) {
+			total = Money.add(total, fxRates.convert(currency.getValue().sum(), currency.getKey(), FxRates.BASE));
+		}
+		return total;
+	}
 
-			return totalBalance;
+	/**
+	 * @return the total balance per currency index, leaving out the zero ones
+	 */
+	Map<Integer, Long> totalBalances() {
+		Map<Integer, Long> totals = new HashMap<>();
+		for (Map.Entry<Integer, LongAdder> currency : totalBalances.entrySet()) {
+			long total = currency.getValue().sum();
+			if (total != 0) {
+				totals.put(currency.getKey(), total);
+			}
+		}
+		return totals;
+	}
 
-		} finally {
-			bankLock.unlock();
+	/**
+	 * Sums the balances per currency index without taking any lock. Transfers
+	 * in flight while the accounts are read can make the result differ from
+	 * the total balances, so it is only meaningful to
+	 * {@link BalanceReconciler}.
+	 * 
+	 * @return the sums, leaving out the zero ones
+	 */
+	Map<Integer, Long> scanTotalBalances() {
+		Map<Integer, Long> totals = new HashMap<>();
+		for (AccountEntry entry : accounts.values()) {
+			long balance = entry.hot == null ? entry.account.getBalanceMinorUnits() : entry.hot.sum();
+			totals.merge(entry.currency, balance, Long::sum);
 		}
+		totals.values().removeIf(total -> total == 0);
+		return totals;
+	}
+
+	/**
+	 * @return ISO 4217 code of the currency index
+	 */
+	String currencyOf(int currency) {
+		return fxRates.currencyOf(currency);
 	}
 
+	/**
+	 * Converts a non negative amount between currency indexes at the current
+	 * rates
+	 */
+	long convert(long amount, int from, int to) throws ApplicationException {
+		return fxRates.convert(amount, from, to);
+	}
+
+	/**
+	 * Tells, without taking it, whether any lock stripe or hot account slot
+	 * is held, that is whether a transfer may be half applied
+	 * 
+	 * @return
+	 */
+	boolean anyStripeLocked() {
+		for (ReentrantLock lock : accountLocks) {
+			if (lock.isLocked()) {
+				return true;
+			}
+		}
+		for (HotBalance hot : hotBalances) {
+			if (hot.anyLocked()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * This method records how long a transfer waited for its lock stripes and
+	 * how long it held them
+	 * 
+	 * @param requested
+	 *            nanoTime before the first lock was requested
+	 * @param acquired
+	 *            nanoTime once all locks were held
+	 */
+	private void recordLockTimes(long requested, long acquired) {
+		lockWait.record(acquired - requested);
+		lockHold.record(System.nanoTime() - acquired);
+	}
+
+	/**
+	 * This method returns the lock stripe guarding the given account
+	 * 
+	 * @param accountId
+	 * @return
+	 */
+	private int stripeOf(String accountId) {
+		int h = accountId.hashCode();
+		return (h ^ (h >>> 16)) & stripeMask;
+	}
+
+	/**
+	 * An account as changed by transfers under its lock stripe, and the copy
+	 * of its last committed state that readers get. The sequences and the
+	 * retained copy are only used under the lock stripe. The balance of a hot
+	 * account lives in its slots instead and is read from there.
+	 */
+	private static final class AccountEntry {
+
+		final Account account;
+
+		/**
+		 * Index of the currency in {@link FxRates}
+		 */
+		final int currency;
+
+		final HotBalance hot;
+
+		volatile Account published;
+
+		long publishedSequence;
+
+		/**
+		 * The last copy within the marker of the running export, once a newer
+		 * one was published
+		 */
+		Account retained;
+
+		AccountEntry(Account account, int currency, HotBalance hot) {
+			this.account = account;
+			this.currency = currency;
+			this.hot = hot;
+			this.published = copyOf(account);
+		}
+
+		/**
+		 * @return the last committed copy of the account
+		 */
+		Account current() {
+			return hot == null ? published : hot.read(account);
+		}
+
+		/**
+		 * Publishes the current state as a new version. The caller must hold
+		 * the lock stripe of the account.
+		 * 
+		 * @param sequence
+		 *            commit sequence of the transfer
+		 * @param marker
+		 *            commit sequence of the running export
+		 * @return the published copy
+		 */
+		Account publish(long sequence, long marker) {
+			if (marker == NO_EXPORT) {
+				retained = null;
+			} else if (publishedSequence <= marker) {
+				retained = published;
+			}
+			account.setVersion(account.getVersion() + 1);
+			Account copy = copyOf(account);
+			published = copy;
+			publishedSequence = sequence;
+			return copy;
+		}
+
+		private static Account copyOf(Account account) {
+			Account copy = new Account(account.getAccountId());
+			copy.setCurrency(account.getCurrency());
+			copy.setBalanceMinorUnits(account.getBalanceMinorUnits());
+			copy.setVersion(account.getVersion());
+			return copy;
+		}
+	}
 }
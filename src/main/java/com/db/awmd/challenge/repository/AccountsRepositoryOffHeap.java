@@ -0,0 +1,601 @@
+package com.db.awmd.challenge.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchTransferMode;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.service.NotificationService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Accounts repository storing every account outside the Java heap,
+ *         active with the "offheap" profile. Accounts are spread over
+ *         segments; each segment is an open addressing table of fixed width
+ *         slots in a direct ByteBuffer plus an append only arena holding the
+ *         account id characters once. An account costs about 24 / load factor
+ *         bytes of slot plus two bytes per id character and no heap objects.
+ *
+ *         Each segment has its own lock. A transfer locks the two segments in
+ *         ascending order, like the lock stripes of
+ *         {@link AccountsRepositoryInMemory}.
+ *
+ */
+@Slf4j
+@Primary
+@Profile("offheap")
+@Repository
+public class AccountsRepositoryOffHeap implements AccountsRepository {
+
+	private static final int DEFAULT_SEGMENTS = 64;
+
+	private static final int DEFAULT_SLOTS_PER_SEGMENT = 1 << 12;
+
+	private final Segment[] segments;
+
+	private final int segmentShift;
+
+	private final int initialSlotsPerSegment;
+
+	private final NotificationService notificationService;
+
+	@Autowired
+	public AccountsRepositoryOffHeap(NotificationService notificationService) {
+		this(notificationService, DEFAULT_SEGMENTS, DEFAULT_SLOTS_PER_SEGMENT);
+	}
+
+	/**
+	 * @param notificationService
+	 *            receives a notification per account once a transfer commits
+	 * @param segments
+	 *            number of segments, rounded up to a power of two (at least 2)
+	 * @param initialSlotsPerSegment
+	 *            initial table size of every segment, rounded up to a power of
+	 *            two; presize it to avoid rehashing while loading a large book
+	 */
+	public AccountsRepositoryOffHeap(NotificationService notificationService, int segments,
+			int initialSlotsPerSegment) {
+		this.notificationService = notificationService;
+		int segmentBits = 1;
+		while ((1 << segmentBits) < segments) {
+			segmentBits++;
+		}
+		this.segmentShift = 32 - segmentBits;
+		this.initialSlotsPerSegment = powerOfTwo(initialSlotsPerSegment);
+		this.segments = new Segment[1 << segmentBits];
+		for (int i = 0; i < this.segments.length; i++) {
+			this.segments[i] = new Segment(this.initialSlotsPerSegment);
+		}
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		log.info("Creating account {}", account);
+		String accountId = account.getAccountId();
+		int hash = hash(accountId);
+		Segment segment = segmentFor(hash);
+		segment.lock.lock();
+		try {
+			if (segment.find(accountId, hash) >= 0) {
+				throw new DuplicateAccountIdException("Account id " + accountId + " already exists!");
+			}
+			segment.insert(accountId, hash, account.getBalanceMinorUnits());
+		} finally {
+			segment.lock.unlock();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.db.awmd.challenge.repository.AccountsRepository#getAccount(java.lang.
+	 * String)
+	 *
+	 * Returns a detached copy of the stored balance
+	 */
+	@Override
+	public Account getAccount(String accountId) {
+		int hash = hash(accountId);
+		Segment segment = segmentFor(hash);
+		long balance;
+		long version;
+		segment.lock.lock();
+		try {
+			int slot = segment.find(accountId, hash);
+			if (slot < 0) {
+				return null;
+			}
+			balance = segment.balance(slot);
+			version = segment.version(slot);
+		} finally {
+			segment.lock.unlock();
+		}
+		Account account = new Account(accountId);
+		account.setBalanceMinorUnits(balance);
+		account.setVersion(version);
+		return account;
+	}
+
+	@Override
+	public void clearAccounts() {
+		log.info("clearAccounts");
+		for (Segment segment : segments) {
+			segment.lock.lock();
+			try {
+				segment.reset(initialSlotsPerSegment);
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public long countAccounts() {
+		long count = 0;
+		for (Segment segment : segments) {
+			segment.lock.lock();
+			try {
+				count += segment.size;
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public long totalBalanceMinorUnits() {
+		long total = 0;
+		for (Segment segment : segments) {
+			segment.lock.lock();
+			try {
+				total += segment.totalBalance();
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+		return total;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.db.awmd.challenge.repository.AccountsRepository#transferMoney(com.db.awmd
+	 * .challenge.domain.TransferRequest)
+	 *
+	 * This method is used to transfer money from one account to another
+	 */
+	@Override
+	public void transferMoney(TransferRequest transferRequest) throws ApplicationException {
+		log.debug("Start of transferMoney {}", transferRequest);
+
+		String accountFromId = transferRequest.getAccountFrom();
+		String accountToId = transferRequest.getAccountTo();
+		long amount = transferRequest.getAmountMinorUnits();
+
+		checkTransfer(transferRequest);
+
+		int fromHash = hash(accountFromId);
+		int toHash = hash(accountToId);
+		int fromSegmentIndex = fromHash >>> segmentShift;
+		int toSegmentIndex = toHash >>> segmentShift;
+		Segment fromSegment = segments[fromSegmentIndex];
+		Segment toSegment = segments[toSegmentIndex];
+		ReentrantLock firstLock = segments[Math.min(fromSegmentIndex, toSegmentIndex)].lock;
+		ReentrantLock secondLock = segments[Math.max(fromSegmentIndex, toSegmentIndex)].lock;
+
+		long fromBalance;
+		long toBalance;
+		firstLock.lock();
+		try {
+			if (secondLock != firstLock) {
+				secondLock.lock();
+			}
+			try {
+				int fromSlot = fromSegment.find(accountFromId, fromHash);
+				int toSlot = toSegment.find(accountToId, toHash);
+				if (fromSlot < 0) {
+					throw new ApplicationException(RejectionReason.ACCOUNT_NOT_FOUND,
+							"Account id " + accountFromId + " not found");
+				}
+				if (toSlot < 0) {
+					throw new ApplicationException(RejectionReason.ACCOUNT_NOT_FOUND,
+							"Account id " + accountToId + " not found");
+				}
+				if (amount > fromSegment.balance(fromSlot)) {
+					throw new ApplicationException(RejectionReason.INSUFFICIENT_BALANCE,
+							"Account id " + accountFromId + " balance is less than " + transferRequest.getAmount());
+				}
+				fromBalance = fromSegment.balance(fromSlot) - amount;
+				toBalance = Money.add(toSegment.balance(toSlot), amount);
+				fromSegment.setBalance(fromSlot, fromBalance);
+				toSegment.setBalance(toSlot, toBalance);
+			} finally {
+				if (secondLock != firstLock) {
+					secondLock.unlock();
+				}
+			}
+		} finally {
+			firstLock.unlock();
+		}
+
+		Account accountFrom = new Account(accountFromId);
+		accountFrom.setBalanceMinorUnits(fromBalance);
+		Account accountTo = new Account(accountToId);
+		accountTo.setBalanceMinorUnits(toBalance);
+		notificationService.notifyAboutTransfer(accountFrom, " withdraw sucess");
+		notificationService.notifyAboutTransfer(accountTo, " deposit sucess");
+		log.debug("End of transferMoney");
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.db.awmd.challenge.repository.AccountsRepository#transferMoneyBatch(java.
+	 * util.List, com.db.awmd.challenge.domain.BatchTransferMode)
+	 *
+	 * Locks every segment touched by the batch once, in ascending order. In
+	 * atomic mode the first failure restores the balances of the already
+	 * applied transfers before the segments are unlocked.
+	 */
+	@Override
+	public List<TransferResult> transferMoneyBatch(List<TransferRequest> transferRequests, BatchTransferMode mode)
+			throws ApplicationException {
+		int size = transferRequests.size();
+		if (log.isDebugEnabled()) {
+			log.debug("Start of transferMoneyBatch of {} transfers in {} mode", size, mode);
+		}
+
+		TransferResult[] results = new TransferResult[size];
+		int[] fromHashes = new int[size];
+		int[] toHashes = new int[size];
+		int[] fromSlots = new int[size];
+		int[] toSlots = new int[size];
+		long[] fromBalances = new long[size];
+		long[] toBalances = new long[size];
+		int[] segmentIndexes = new int[size * 2];
+		int segmentCount = 0;
+
+		for (int i = 0; i < size; i++) {
+			TransferRequest transferRequest = transferRequests.get(i);
+			try {
+				checkTransfer(transferRequest);
+			} catch (ApplicationException ae) {
+				if (mode == BatchTransferMode.ATOMIC) {
+					return TransferResult.atomicBatchFailure(size, i, ae);
+				}
+				results[i] = TransferResult.rejected(i, ae);
+				continue;
+			}
+			fromHashes[i] = hash(transferRequest.getAccountFrom());
+			toHashes[i] = hash(transferRequest.getAccountTo());
+			segmentIndexes[segmentCount++] = fromHashes[i] >>> segmentShift;
+			segmentIndexes[segmentCount++] = toHashes[i] >>> segmentShift;
+		}
+
+		int[] lockOrder = IntStream.of(segmentIndexes).limit(segmentCount).sorted().distinct().toArray();
+		int locked = 0;
+		try {
+			for (; locked < lockOrder.length; locked++) {
+				segments[lockOrder[locked]].lock.lock();
+			}
+
+			for (int i = 0; i < size; i++) {
+				if (results[i] != null) {
+					continue;
+				}
+				TransferRequest transferRequest = transferRequests.get(i);
+				Segment fromSegment = segmentFor(fromHashes[i]);
+				Segment toSegment = segmentFor(toHashes[i]);
+				try {
+					fromSlots[i] = fromSegment.find(transferRequest.getAccountFrom(), fromHashes[i]);
+					toSlots[i] = toSegment.find(transferRequest.getAccountTo(), toHashes[i]);
+					if (fromSlots[i] < 0) {
+						throw new ApplicationException(RejectionReason.ACCOUNT_NOT_FOUND,
+								"Account id " + transferRequest.getAccountFrom() + " not found");
+					}
+					if (toSlots[i] < 0) {
+						throw new ApplicationException(RejectionReason.ACCOUNT_NOT_FOUND,
+								"Account id " + transferRequest.getAccountTo() + " not found");
+					}
+					long amount = transferRequest.getAmountMinorUnits();
+					if (amount > fromSegment.balance(fromSlots[i])) {
+						throw new ApplicationException(RejectionReason.INSUFFICIENT_BALANCE,
+								"Account id " + transferRequest.getAccountFrom() + " balance is less than "
+								+ transferRequest.getAmount());
+					}
+					fromBalances[i] = fromSegment.balance(fromSlots[i]) - amount;
+					toBalances[i] = Money.add(toSegment.balance(toSlots[i]), amount);
+					fromSegment.setBalance(fromSlots[i], fromBalances[i]);
+					toSegment.setBalance(toSlots[i], toBalances[i]);
+					results[i] = TransferResult.committed(i);
+				} catch (ApplicationException ae) {
+					if (mode == BatchTransferMode.ATOMIC) {
+						for (int j = i - 1; j >= 0; j--) {
+							long amount = transferRequests.get(j).getAmountMinorUnits();
+							Segment revertFrom = segmentFor(fromHashes[j]);
+							Segment revertTo = segmentFor(toHashes[j]);
+							revertTo.setBalance(toSlots[j], revertTo.balance(toSlots[j]) - amount);
+							revertFrom.setBalance(fromSlots[j], revertFrom.balance(fromSlots[j]) + amount);
+						}
+						return TransferResult.atomicBatchFailure(size, i, ae);
+					}
+					results[i] = TransferResult.rejected(i, ae);
+				}
+			}
+		} finally {
+			while (locked > 0) {
+				segments[lockOrder[--locked]].lock.unlock();
+			}
+		}
+
+		for (int i = 0; i < size; i++) {
+			if (results[i].getStatus() == TransferStatus.COMMITTED) {
+				Account accountFrom = new Account(transferRequests.get(i).getAccountFrom());
+				accountFrom.setBalanceMinorUnits(fromBalances[i]);
+				Account accountTo = new Account(transferRequests.get(i).getAccountTo());
+				accountTo.setBalanceMinorUnits(toBalances[i]);
+				notificationService.notifyAboutTransfer(accountFrom, " withdraw sucess");
+				notificationService.notifyAboutTransfer(accountTo, " deposit sucess");
+			}
+		}
+		log.debug("End of transferMoneyBatch");
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * This method validates a transfer before any lock is taken
+	 *
+	 * @param transferRequest
+	 */
+	private static void checkTransfer(TransferRequest transferRequest) throws ApplicationException {
+		if (transferRequest.getAccountFrom().compareToIgnoreCase(transferRequest.getAccountTo()) == 0) {
+			throw new ApplicationException(RejectionReason.SAME_ACCOUNT,
+					"AccountFrom " + transferRequest.getAccountFrom() + " is same as accountTo "
+					+ transferRequest.getAccountTo());
+		}
+		if (transferRequest.getAmountMinorUnits() < 0) {
+			throw new ApplicationException(RejectionReason.NEGATIVE_AMOUNT,
+					"Transfer amount " + transferRequest.getAmount() + " must not be negative");
+		}
+	}
+
+	/**
+	 * Total number of bytes reserved outside the heap by this repository
+	 *
+	 * @return
+	 */
+	public long offHeapBytes() {
+		long bytes = 0;
+		for (Segment segment : segments) {
+			segment.lock.lock();
+			try {
+				bytes += segment.slots.capacity() + segment.ids.capacity();
+			} finally {
+				segment.lock.unlock();
+			}
+		}
+		return bytes;
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[hash >>> segmentShift];
+	}
+
+	/**
+	 * Spreads String.hashCode (which is cached by the String) so that both
+	 * the high segment bits and the low slot bits are well distributed
+	 *
+	 * @param accountId
+	 * @return
+	 */
+	private static int hash(String accountId) {
+		int h = accountId.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 15);
+	}
+
+	private static int powerOfTwo(int value) {
+		int result = 1;
+		while (result < value) {
+			result <<= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * One open addressing table with linear probing. All methods must be called
+	 * while holding {@link #lock}.
+	 *
+	 * Slot layout (24 bytes): balance long, hash int, id arena offset int, id
+	 * length + 1 int (0 marks a free slot), version int.
+	 */
+	private static final class Segment {
+
+		private static final int SLOT_SIZE = 24;
+
+		private static final int BALANCE = 0;
+
+		private static final int HASH = 8;
+
+		private static final int ID_OFFSET = 12;
+
+		private static final int ID_LENGTH = 16;
+
+		private static final int VERSION = 20;
+
+		private static final int MAX_LOAD_PERCENT = 60;
+
+		private static final int MIN_ARENA_BYTES = 1 << 12;
+
+		final ReentrantLock lock = new ReentrantLock();
+
+		ByteBuffer slots;
+
+		ByteBuffer ids;
+
+		int mask;
+
+		int size;
+
+		int idsUsed;
+
+		Segment(int slotCount) {
+			reset(slotCount);
+		}
+
+		void reset(int slotCount) {
+			this.slots = allocate((long) slotCount * SLOT_SIZE);
+			this.ids = allocate(MIN_ARENA_BYTES);
+			this.mask = slotCount - 1;
+			this.size = 0;
+			this.idsUsed = 0;
+		}
+
+		int find(String accountId, int hash) {
+			int length = accountId.length();
+			for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+				int base = slot * SLOT_SIZE;
+				int storedLength = slots.getInt(base + ID_LENGTH) - 1;
+				if (storedLength < 0) {
+					return -1;
+				}
+				if (storedLength == length && slots.getInt(base + HASH) == hash
+						&& idEquals(slots.getInt(base + ID_OFFSET), accountId)) {
+					return slot;
+				}
+			}
+		}
+
+		void insert(String accountId, int hash, long balance) {
+			if ((size + 1) * 100L > (mask + 1) * (long) MAX_LOAD_PERCENT) {
+				rehash((mask + 1) << 1);
+			}
+			int idOffset = appendId(accountId);
+			int slot = hash & mask;
+			while (slots.getInt(slot * SLOT_SIZE + ID_LENGTH) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			writeSlot(slots, slot * SLOT_SIZE, balance, hash, idOffset, accountId.length() + 1, 0);
+			size++;
+		}
+
+		long totalBalance() {
+			long total = 0;
+			for (int slot = 0; slot <= mask; slot++) {
+				if (slots.getInt(slot * SLOT_SIZE + ID_LENGTH) != 0) {
+					total += balance(slot);
+				}
+			}
+			return total;
+		}
+
+		long balance(int slot) {
+			return slots.getLong(slot * SLOT_SIZE + BALANCE);
+		}
+
+		/**
+		 * Changes the balance and counts the change in the version of the slot
+		 */
+		void setBalance(int slot, long balance) {
+			int base = slot * SLOT_SIZE;
+			slots.putLong(base + BALANCE, balance);
+			slots.putInt(base + VERSION, slots.getInt(base + VERSION) + 1);
+		}
+
+		/**
+		 * Unsigned, so it only wraps after 2^32 changes
+		 */
+		long version(int slot) {
+			return slots.getInt(slot * SLOT_SIZE + VERSION) & 0xFFFFFFFFL;
+		}
+
+		private boolean idEquals(int idOffset, String accountId) {
+			for (int i = 0, length = accountId.length(); i < length; i++) {
+				if (ids.getChar(idOffset + (i << 1)) != accountId.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int appendId(String accountId) {
+			int bytes = accountId.length() << 1;
+			if ((long) idsUsed + bytes > ids.capacity()) {
+				long capacity = ids.capacity();
+				while (capacity < (long) idsUsed + bytes) {
+					capacity <<= 1;
+				}
+				ByteBuffer grown = allocate(capacity);
+				ByteBuffer used = ids.duplicate();
+				used.position(0).limit(idsUsed);
+				grown.put(used);
+				ids = grown;
+			}
+			int offset = idsUsed;
+			for (int i = 0, length = accountId.length(); i < length; i++) {
+				ids.putChar(offset + (i << 1), accountId.charAt(i));
+			}
+			idsUsed += bytes;
+			return offset;
+		}
+
+		private void rehash(int slotCount) {
+			ByteBuffer grown = allocate((long) slotCount * SLOT_SIZE);
+			int grownMask = slotCount - 1;
+			for (int slot = 0; slot <= mask; slot++) {
+				int base = slot * SLOT_SIZE;
+				int lengthMarker = slots.getInt(base + ID_LENGTH);
+				if (lengthMarker == 0) {
+					continue;
+				}
+				int hash = slots.getInt(base + HASH);
+				int target = hash & grownMask;
+				while (grown.getInt(target * SLOT_SIZE + ID_LENGTH) != 0) {
+					target = (target + 1) & grownMask;
+				}
+				writeSlot(grown, target * SLOT_SIZE, slots.getLong(base + BALANCE), hash,
+						slots.getInt(base + ID_OFFSET), lengthMarker, slots.getInt(base + VERSION));
+			}
+			slots = grown;
+			mask = grownMask;
+		}
+
+		private static void writeSlot(ByteBuffer table, int base, long balance, int hash, int idOffset,
+				int lengthMarker, int version) {
+			table.putLong(base + BALANCE, balance);
+			table.putInt(base + HASH, hash);
+			table.putInt(base + ID_OFFSET, idOffset);
+			table.putInt(base + ID_LENGTH, lengthMarker);
+			table.putInt(base + VERSION, version);
+		}
+
+		private static ByteBuffer allocate(long bytes) {
+			if (bytes > Integer.MAX_VALUE) {
+				throw new ApplicationException("Off heap segment cannot grow beyond 2GB, configure more segments");
+			}
+			return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+		}
+	}
+}
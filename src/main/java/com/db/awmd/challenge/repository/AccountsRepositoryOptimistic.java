@@ -0,0 +1,251 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.service.NotificationService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Lock free accounts repository, active with the "optimistic" profile.
+ *         Every balance lives in a cell holding an immutable, versioned
+ *         snapshot. A transfer claims the source cell with a CAS, swaps the
+ *         target cell with a second CAS and then publishes the new source
+ *         balance. If the target moved in between, the claim is released and
+ *         the transfer retries after a randomised back-off, so no thread ever
+ *         waits while holding anything.
+ *
+ */
+@Slf4j
+@Primary
+@Profile("optimistic")
+@Repository
+public class AccountsRepositoryOptimistic implements AccountsRepository {
+
+	private static final int DEFAULT_MAX_ATTEMPTS = 100_000;
+
+	private static final int SPIN_ATTEMPTS = 8;
+
+	private static final long MIN_BACKOFF_NANOS = 100;
+
+	private static final long MAX_BACKOFF_NANOS = 100_000;
+
+	private final Map<String, BalanceCell> balances = new ConcurrentHashMap<>();
+
+	private final NotificationService notificationService;
+
+	private final int maxAttempts;
+
+	@Autowired
+	public AccountsRepositoryOptimistic(NotificationService notificationService) {
+		this(notificationService, DEFAULT_MAX_ATTEMPTS);
+	}
+
+	/**
+	 * @param notificationService
+	 *            receives a notification per account once a transfer commits
+	 * @param maxAttempts
+	 *            number of optimistic attempts before a transfer is rejected
+	 */
+	public AccountsRepositoryOptimistic(NotificationService notificationService, int maxAttempts) {
+		this.notificationService = notificationService;
+		this.maxAttempts = maxAttempts;
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		log.info("Creating account {}", account);
+		BalanceCell previous = balances.putIfAbsent(account.getAccountId(), new BalanceCell(account.getBalanceMinorUnits()));
+		if (previous != null) {
+			throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.db.awmd.challenge.repository.AccountsRepository#getAccount(java.lang.
+	 * String)
+	 *
+	 * Returns a detached copy of the last committed balance
+	 */
+	@Override
+	public Account getAccount(String accountId) {
+		BalanceCell cell = balances.get(accountId);
+		if (cell == null) {
+			return null;
+		}
+		Snapshot snapshot = cell.get();
+		Account account = new Account(accountId);
+		account.setBalanceMinorUnits(snapshot.balance);
+		account.setVersion(snapshot.version);
+		return account;
+	}
+
+	@Override
+	public void clearAccounts() {
+		log.info("clearAccounts");
+		balances.clear();
+	}
+
+	@Override
+	public long countAccounts() {
+		return balances.size();
+	}
+
+	@Override
+	public long totalBalanceMinorUnits() {
+		long total = 0;
+		for (BalanceCell cell : balances.values()) {
+			total += cell.get().balance;
+		}
+		return total;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.db.awmd.challenge.repository.AccountsRepository#transferMoney(com.db.awmd
+	 * .challenge.domain.TransferRequest)
+	 *
+	 * Optimistic two cell commit with retry and contention back-off
+	 */
+	@Override
+	public void transferMoney(TransferRequest transferRequest) throws ApplicationException {
+		log.debug("Start of transferMoney {}", transferRequest);
+
+		String accountFromId = transferRequest.getAccountFrom();
+		String accountToId = transferRequest.getAccountTo();
+		long amount = transferRequest.getAmountMinorUnits();
+
+		BalanceCell from = balances.get(accountFromId);
+		BalanceCell to = balances.get(accountToId);
+
+		if (from == null) {
+			throw new ApplicationException(RejectionReason.ACCOUNT_NOT_FOUND,
+					"Account id " + accountFromId + " not found");
+		}
+		if (to == null) {
+			throw new ApplicationException(RejectionReason.ACCOUNT_NOT_FOUND,
+					"Account id " + accountToId + " not found");
+		}
+		if (accountFromId.compareToIgnoreCase(accountToId) == 0) {
+			throw new ApplicationException(RejectionReason.SAME_ACCOUNT,
+					"AccountFrom " + accountFromId + " is same as accountTo " + accountToId);
+		}
+		if (amount < 0) {
+			throw new ApplicationException(RejectionReason.NEGATIVE_AMOUNT,
+					"Transfer amount " + transferRequest.getAmount() + " must not be negative");
+		}
+
+		for (int attempt = 0; attempt < maxAttempts; attempt++) {
+			Snapshot fromSnapshot = from.get();
+			Snapshot toSnapshot = to.get();
+
+			if (fromSnapshot.claimed || toSnapshot.claimed) {
+				backOff(attempt);
+				continue;
+			}
+			if (amount > fromSnapshot.balance) {
+				throw new ApplicationException(RejectionReason.INSUFFICIENT_BALANCE,
+						"Account id " + accountFromId + " balance is less than " + transferRequest.getAmount());
+			}
+			long toBalance = Money.add(toSnapshot.balance, amount);
+
+			Snapshot fromClaim = fromSnapshot.claim();
+			if (!from.compareAndSet(fromSnapshot, fromClaim)) {
+				backOff(attempt);
+				continue;
+			}
+			if (!to.compareAndSet(toSnapshot, toSnapshot.next(toBalance))) {
+				from.set(fromSnapshot);
+				backOff(attempt);
+				continue;
+			}
+			from.set(fromSnapshot.next(fromSnapshot.balance - amount));
+
+			notificationService.notifyAboutTransfer(getAccount(accountFromId), " withdraw sucess");
+			notificationService.notifyAboutTransfer(getAccount(accountToId), " deposit sucess");
+			if (log.isDebugEnabled()) {
+				log.debug("End of transferMoney after {} retries", attempt);
+			}
+			return;
+		}
+
+		throw new ApplicationException(RejectionReason.CONTENTION, "Transfer from " + accountFromId + " to "
+				+ accountToId + " aborted after " + maxAttempts + " attempts due to contention");
+	}
+
+	/**
+	 * Spins briefly, then parks for a random time bounded by an exponentially
+	 * growing ceiling
+	 *
+	 * @param attempt
+	 */
+	private static void backOff(int attempt) {
+		if (attempt < SPIN_ATTEMPTS) {
+			Thread.yield();
+			return;
+		}
+		long ceiling = Math.min(MAX_BACKOFF_NANOS, MIN_BACKOFF_NANOS << Math.min(attempt - SPIN_ATTEMPTS, 20));
+		LockSupport.parkNanos(1 + ThreadLocalRandom.current().nextLong(ceiling));
+	}
+
+	/**
+	 * Mutable holder of the current balance snapshot of one account
+	 */
+	private static final class BalanceCell extends AtomicReference<Snapshot> {
+
+		private static final long serialVersionUID = 1L;
+
+		BalanceCell(long balance) {
+			super(new Snapshot(balance, 0, false));
+		}
+	}
+
+	/**
+	 * Immutable balance of an account, in minor units, at a given version. A claimed snapshot
+	 * belongs to an in-flight transfer and must not be replaced by anybody else.
+	 */
+	private static final class Snapshot {
+
+		final long balance;
+
+		final long version;
+
+		final boolean claimed;
+
+		Snapshot(long balance, long version, boolean claimed) {
+			this.balance = balance;
+			this.version = version;
+			this.claimed = claimed;
+		}
+
+		Snapshot claim() {
+			return new Snapshot(balance, version, true);
+		}
+
+		Snapshot next(long newBalance) {
+			return new Snapshot(newBalance, version + 1, false);
+		}
+	}
+}
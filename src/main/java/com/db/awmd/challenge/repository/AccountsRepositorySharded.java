@@ -0,0 +1,342 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.service.NotificationService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Single writer accounts repository, active with the "sharded" profile.
+ *         Accounts are partitioned by id across shards; each shard owns its
+ *         balances and is the only thread that ever touches them, running the
+ *         commands it receives through a {@link CommandRing} one at a time. A
+ *         transfer within one shard is a single command and needs no lock.
+ *
+ *         A transfer across shards runs two phases. Prepare debits the source
+ *         on its shard, if the balance allows, and checks that the target
+ *         exists on the other one; both answers depend only on the state of
+ *         each shard when it runs the command. If both shards agree the credit
+ *         is applied to the target, otherwise the debit is refunded. Between
+ *         the phases the amount is held by neither account.
+ *
+ *         Callers submit commands and wait on a future for the answer. A
+ *         shard keeps every balance as {balance, version}.
+ *
+ */
+@Slf4j
+@Primary
+@Profile("sharded")
+@Repository
+public class AccountsRepositorySharded implements AccountsRepository {
+
+	private static final int DEFAULT_RING_CAPACITY = 4096;
+
+	private final NotificationService notificationService;
+
+	private final Shard[] shards;
+
+	@Autowired
+	public AccountsRepositorySharded(NotificationService notificationService) {
+		this(notificationService, Runtime.getRuntime().availableProcessors(), DEFAULT_RING_CAPACITY);
+	}
+
+	/**
+	 * @param notificationService
+	 *            receives a notification per account once a transfer commits
+	 * @param shards
+	 *            number of shard threads
+	 * @param ringCapacity
+	 *            commands each shard can have queued before submitters wait
+	 */
+	public AccountsRepositorySharded(NotificationService notificationService, int shards, int ringCapacity) {
+		this.notificationService = notificationService;
+		this.shards = new Shard[shards];
+		for (int i = 0; i < shards; i++) {
+			this.shards[i] = new Shard(i, ringCapacity);
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		for (Shard shard : shards) {
+			shard.thread.interrupt();
+		}
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		log.info("Creating account {}", account);
+		String accountId = account.getAccountId();
+		long balance = account.getBalanceMinorUnits();
+		await(shardOf(accountId).call(balances -> {
+			if (balances.putIfAbsent(accountId, new long[] { balance, 0 }) != null) {
+				throw new DuplicateAccountIdException("Account id " + accountId + " already exists!");
+			}
+			return null;
+		}));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.db.awmd.challenge.repository.AccountsRepository#getAccount(java.lang.
+	 * String)
+	 *
+	 * Returns a detached copy of the balance as seen by the owning shard
+	 */
+	@Override
+	public Account getAccount(String accountId) {
+		return await(shardOf(accountId).call(balances -> copyOf(accountId, balances.get(accountId))));
+	}
+
+	@Override
+	public void clearAccounts() {
+		log.info("clearAccounts");
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		CompletableFuture<Object>[] cleared = new CompletableFuture[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			cleared[i] = shards[i].call(balances -> {
+				balances.clear();
+				return null;
+			});
+		}
+		for (CompletableFuture<Object> future : cleared) {
+			await(future);
+		}
+	}
+
+	@Override
+	public long countAccounts() {
+		long count = 0;
+		for (Shard shard : shards) {
+			count += await(shard.call(Map::size));
+		}
+		return count;
+	}
+
+	@Override
+	public long totalBalanceMinorUnits() {
+		long total = 0;
+		for (Shard shard : shards) {
+			total += await(shard.call(balances -> {
+				long sum = 0;
+				for (long[] balance : balances.values()) {
+					sum += balance[0];
+				}
+				return sum;
+			}));
+		}
+		return total;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see
+	 * com.db.awmd.challenge.repository.AccountsRepository#transferMoney(com.db.awmd
+	 * .challenge.domain.TransferRequest)
+	 *
+	 * One command on a shared shard, two phases across shards
+	 */
+	@Override
+	public void transferMoney(TransferRequest transferRequest) throws ApplicationException {
+		log.debug("Start of transferMoney {}", transferRequest);
+
+		String accountFromId = transferRequest.getAccountFrom();
+		String accountToId = transferRequest.getAccountTo();
+		long amount = transferRequest.getAmountMinorUnits();
+
+		if (accountFromId.compareToIgnoreCase(accountToId) == 0) {
+			throw new ApplicationException(RejectionReason.SAME_ACCOUNT,
+					"AccountFrom " + accountFromId + " is same as accountTo " + accountToId);
+		}
+		if (amount < 0) {
+			throw new ApplicationException(RejectionReason.NEGATIVE_AMOUNT,
+					"Transfer amount " + transferRequest.getAmount() + " must not be negative");
+		}
+
+		Shard fromShard = shardOf(accountFromId);
+		Shard toShard = shardOf(accountToId);
+		Account[] accounts;
+		if (fromShard == toShard) {
+			accounts = await(fromShard.call(balances -> {
+				long[] to = balances.get(accountToId);
+				if (to == null && balances.containsKey(accountFromId)) {
+					throw notFound(accountToId);
+				}
+				// an overflow of the target is found before the source is touched
+				long toBalance = to == null ? 0 : Money.add(to[0], amount);
+				long[] from = debit(balances, accountFromId, amount, transferRequest);
+				to[0] = toBalance;
+				to[1]++;
+				return new Account[] { copyOf(accountFromId, from), copyOf(accountToId, to) };
+			}));
+		} else {
+			accounts = transferAcrossShards(fromShard, toShard, accountFromId, accountToId, amount, transferRequest);
+		}
+
+		notificationService.notifyAboutTransfer(accounts[0], " withdraw sucess");
+		notificationService.notifyAboutTransfer(accounts[1], " deposit sucess");
+		log.debug("End of transferMoney");
+	}
+
+	private Account[] transferAcrossShards(Shard fromShard, Shard toShard, String accountFromId, String accountToId,
+			long amount, TransferRequest transferRequest) {
+		CompletableFuture<Account> debited = fromShard
+				.call(balances -> copyOf(accountFromId, debit(balances, accountFromId, amount, transferRequest)));
+		CompletableFuture<Boolean> targetExists = toShard.call(balances -> balances.containsKey(accountToId));
+
+		Account from;
+		try {
+			from = await(debited);
+		} catch (RuntimeException e) {
+			await(targetExists);
+			throw e;
+		}
+		if (!await(targetExists)) {
+			refund(fromShard, accountFromId, amount);
+			throw notFound(accountToId);
+		}
+		Account to;
+		try {
+			to = await(toShard.call(balances -> copyOf(accountToId, credit(balances, accountToId, amount))));
+		} catch (ApplicationException ae) {
+			// the credit would overflow the target, which it leaves untouched
+			refund(fromShard, accountFromId, amount);
+			throw ae;
+		}
+		return new Account[] { from, to };
+	}
+
+	/**
+	 * Gives the debit of a transfer that cannot be credited back to the
+	 * source
+	 */
+	private static void refund(Shard fromShard, String accountFromId, long amount) {
+		await(fromShard.call(balances -> {
+			credit(balances, accountFromId, amount);
+			return null;
+		}));
+	}
+
+	/**
+	 * Runs on the owning shard
+	 */
+	private static long[] debit(Map<String, long[]> balances, String accountId, long amount,
+			TransferRequest transferRequest) {
+		long[] balance = balances.get(accountId);
+		if (balance == null) {
+			throw notFound(accountId);
+		}
+		if (amount > balance[0]) {
+			throw new ApplicationException(RejectionReason.INSUFFICIENT_BALANCE,
+					"Account id " + accountId + " balance is less than " + transferRequest.getAmount());
+		}
+		balance[0] -= amount;
+		balance[1]++;
+		return balance;
+	}
+
+	/**
+	 * Runs on the owning shard. The account may only be missing if the
+	 * accounts were cleared between the two phases.
+	 */
+	private static long[] credit(Map<String, long[]> balances, String accountId, long amount) {
+		long[] balance = balances.get(accountId);
+		if (balance == null) {
+			log.warn("Account id {} was removed while a transfer of {} to it was in flight", accountId, amount);
+			return new long[] { amount, 1 };
+		}
+		balance[0] = Money.add(balance[0], amount);
+		balance[1]++;
+		return balance;
+	}
+
+	private static ApplicationException notFound(String accountId) {
+		return new ApplicationException(RejectionReason.ACCOUNT_NOT_FOUND, "Account id " + accountId + " not found");
+	}
+
+	private static Account copyOf(String accountId, long[] balance) {
+		if (balance == null) {
+			return null;
+		}
+		Account account = new Account(accountId);
+		account.setBalanceMinorUnits(balance[0]);
+		account.setVersion(balance[1]);
+		return account;
+	}
+
+	private Shard shardOf(String accountId) {
+		int h = accountId.hashCode();
+		return shards[((h ^ (h >>> 16)) & Integer.MAX_VALUE) % shards.length];
+	}
+
+	/**
+	 * Waits for a shard to answer and rethrows what the command threw
+	 */
+	private static <T> T await(CompletableFuture<T> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ee.getCause();
+			}
+			throw new ApplicationException("Shard command failed: " + ee.getCause());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ApplicationException("Interrupted while waiting for a shard");
+		}
+	}
+
+	/**
+	 * One partition of the accounts and the thread that owns it
+	 */
+	private static final class Shard {
+
+		private final Map<String, long[]> balances = new HashMap<>();
+
+		private final CommandRing ring;
+
+		private final Thread thread;
+
+		Shard(int index, int ringCapacity) {
+			this.ring = new CommandRing(ringCapacity);
+			this.thread = new Thread(ring::consume, "accounts-shard-" + index);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		<T> CompletableFuture<T> call(Function<Map<String, long[]>, T> command) {
+			CompletableFuture<T> future = new CompletableFuture<>();
+			ring.publish(() -> {
+				try {
+					future.complete(command.apply(balances));
+				} catch (RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			});
+			return future;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.Arrays;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Positions of elements in the order they were added, so a reader can
+ *         resume a walk from a position while elements keep being appended.
+ *         Elements live in fixed size chunks that are never copied; appends
+ *         are serialized and readers never lock.
+ *
+ */
+final class AppendOnlyIndex<T> {
+
+	private static final int CHUNK_BITS = 13;
+
+	private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+	private volatile Object[][] chunks = new Object[16][];
+
+	private volatile int size;
+
+	/**
+	 * @param element
+	 * @return position of the element
+	 */
+	synchronized int add(T element) {
+		int position = size;
+		int chunk = position >>> CHUNK_BITS;
+		Object[][] current = chunks;
+		if (chunk == current.length) {
+			current = Arrays.copyOf(current, current.length * 2);
+			chunks = current;
+		}
+		if (current[chunk] == null) {
+			current[chunk] = new Object[1 << CHUNK_BITS];
+		}
+		current[chunk][position & CHUNK_MASK] = element;
+		// the volatile write publishes the element to readers that see the new size
+		size = position + 1;
+		return position;
+	}
+
+	/**
+	 * @param position
+	 * @return the element, or null if there is none at that position
+	 */
+	@SuppressWarnings("unchecked")
+	T get(int position) {
+		if (position < 0 || position >= size) {
+			return null;
+		}
+		Object[] chunk = chunks[position >>> CHUNK_BITS];
+		return chunk == null ? null : (T) chunk[position & CHUNK_MASK];
+	}
+
+	int size() {
+		return size;
+	}
+
+	synchronized void clear() {
+		chunks = new Object[16][];
+		size = 0;
+	}
+}
@@ -0,0 +1,92 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Folds journal records into per account changes, then merges them
+ *         with a snapshot. Memory grows with the accounts touched by the
+ *         journal, not with the accounts in the snapshot, which is streamed.
+ *
+ */
+@Slf4j
+class BalanceDeltas implements Journal.Replayer {
+
+	private static final int AMOUNT = 0;
+
+	/**
+	 * 1 when the account was created in the journal, so the amount is its
+	 * balance rather than a change to the snapshot balance
+	 */
+	private static final int CREATED = 1;
+
+	private final Map<String, long[]> deltas = new HashMap<>();
+
+	private boolean cleared;
+
+	@Override
+	public void created(String accountId, long balance) {
+		deltas.put(accountId, new long[] { balance, 1 });
+	}
+
+	@Override
+	public void transferred(String accountFrom, String accountTo, long amount) {
+		deltas.computeIfAbsent(accountFrom, id -> new long[2])[AMOUNT] -= amount;
+		deltas.computeIfAbsent(accountTo, id -> new long[2])[AMOUNT] += amount;
+	}
+
+	@Override
+	public void cleared() {
+		cleared = true;
+		deltas.clear();
+	}
+
+	/**
+	 * Applies the changes to a snapshot and passes the resulting accounts to
+	 * the consumer in ascending id order
+	 *
+	 * @param snapshots
+	 * @param sequence
+	 *            snapshot to start from, 0 for none
+	 * @param consumer
+	 * @throws IOException
+	 */
+	void mergeWith(SnapshotStore snapshots, long sequence, ObjLongConsumer<String> consumer) throws IOException {
+		String[] changed = deltas.keySet().toArray(new String[deltas.size()]);
+		Arrays.sort(changed);
+		int[] next = { 0 };
+
+		if (!cleared && sequence > 0) {
+			snapshots.read(sequence, (accountId, balance) -> {
+				while (next[0] < changed.length && changed[next[0]].compareTo(accountId) < 0) {
+					emitCreated(changed[next[0]++], consumer);
+				}
+				if (next[0] < changed.length && changed[next[0]].equals(accountId)) {
+					long[] delta = deltas.get(changed[next[0]++]);
+					consumer.accept(accountId, delta[CREATED] == 1 ? delta[AMOUNT] : balance + delta[AMOUNT]);
+				} else {
+					consumer.accept(accountId, balance);
+				}
+			});
+		}
+		while (next[0] < changed.length) {
+			emitCreated(changed[next[0]++], consumer);
+		}
+	}
+
+	private void emitCreated(String accountId, ObjLongConsumer<String> consumer) {
+		long[] delta = deltas.get(accountId);
+		if (delta[CREATED] == 1) {
+			consumer.accept(accountId, delta[AMOUNT]);
+		} else {
+			log.warn("Dropping journaled transfers of unknown account {}", accountId);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.config.ReconciliationProperties;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.fx.FxRates;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Background check that the locking repository conserves money: the
+ *         balances of the accounts in each currency must add up to the total
+ *         balance counter of that currency.
+ *         The scan takes no lock and adds nothing to a transfer, so a transfer
+ *         running while the accounts are read can make one scan disagree with
+ *         the counter. A scan only counts as conclusive if neither the number
+ *         of transfers nor the counters moved while it ran and, when it found
+ *         a discrepancy, no transfer was half applied when it ended. A
+ *         discrepancy is only reported once it has been found by the
+ *         configured number of consecutive conclusive scans.
+ *
+ *         It only scans while the locking repository is the engine of the
+ *         active repository; with any other engine it sits idle.
+ *
+ */
+@Slf4j
+@Component
+public class BalanceReconciler {
+
+	private final AccountsRepositoryInMemory repository;
+
+	private final ReconciliationProperties properties;
+
+	private final boolean active;
+
+	private final LongAdder violations = new LongAdder();
+
+	private final LongAdder inconclusive = new LongAdder();
+
+	/**
+	 * Balances minus total balance per currency index, leaving out the ones
+	 * that agree
+	 */
+	private Map<Integer, Long> suspectedDiscrepancy = new HashMap<>();
+
+	private int confirmed;
+
+	private volatile long discrepancy;
+
+	private ScheduledExecutorService scanner;
+
+	@Autowired
+	public BalanceReconciler(AccountsRepository accountsRepository, AccountsRepositoryInMemory repository,
+			ReconciliationProperties properties) {
+		this(repository, properties, accountsRepository.engine() == repository);
+	}
+
+	public BalanceReconciler(AccountsRepositoryInMemory repository, ReconciliationProperties properties) {
+		this(repository, properties, true);
+	}
+
+	private BalanceReconciler(AccountsRepositoryInMemory repository, ReconciliationProperties properties,
+			boolean active) {
+		this.repository = repository;
+		this.properties = properties;
+		this.active = active;
+	}
+
+	@PostConstruct
+	public void start() {
+		if (active && properties.getIntervalMillis() > 0) {
+			scanner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "balance-reconciler");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scanner.scheduleWithFixedDelay(this::scheduledReconcile, properties.getIntervalMillis(),
+					properties.getIntervalMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (scanner != null) {
+			scanner.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs one scan
+	 *
+	 * @return true if the scan was conclusive
+	 */
+	public synchronized boolean reconcile() {
+		// every transfer records its lock hold time once, after its balances are written
+		long transfers = repository.getLockHold().count();
+		Map<Integer, Long> expected = repository.totalBalances();
+		Map<Integer, Long> actual = repository.scanTotalBalances();
+		if ((!actual.equals(expected) && repository.anyStripeLocked()) || transfers != repository.getLockHold().count()
+				|| !expected.equals(repository.totalBalances())) {
+			inconclusive.increment();
+			return false;
+		}
+
+		Map<Integer, Long> found = new HashMap<>();
+		Set<Integer> currencies = new HashSet<>(expected.keySet());
+		currencies.addAll(actual.keySet());
+		for (Integer currency : currencies) {
+			long difference = actual.getOrDefault(currency, 0L) - expected.getOrDefault(currency, 0L);
+			if (difference != 0) {
+				found.put(currency, difference);
+			}
+		}
+		if (found.isEmpty() || !found.equals(suspectedDiscrepancy)) {
+			suspectedDiscrepancy = found;
+			confirmed = found.isEmpty() ? 0 : 1;
+		} else {
+			confirmed++;
+		}
+		if (found.isEmpty()) {
+			discrepancy = 0;
+		} else if (confirmed == Math.max(1, properties.getConfirmations())) {
+			long total = 0;
+			for (Map.Entry<Integer, Long> currency : found.entrySet()) {
+				long difference = currency.getValue();
+				total += Long.signum(difference)
+						* repository.convert(Math.abs(difference), currency.getKey(), FxRates.BASE);
+				log.error("Conservation violated: the accounts in {} hold {} but their total balance is {}",
+						repository.currencyOf(currency.getKey()),
+						Money.toDecimal(actual.getOrDefault(currency.getKey(), 0L)),
+						Money.toDecimal(expected.getOrDefault(currency.getKey(), 0L)));
+			}
+			discrepancy = total;
+			violations.increment();
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether the locking repository holds the accounts, so its
+	 *         scans mean something
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * @return number of confirmed discrepancies reported so far
+	 */
+	public long violations() {
+		return violations.sum();
+	}
+
+	/**
+	 * @return number of scans disturbed by concurrent updates
+	 */
+	public long inconclusiveScans() {
+		return inconclusive.sum();
+	}
+
+	/**
+	 * @return balances minus total balance, in minor units of the base
+	 *         currency, as last confirmed; 0 once a conclusive scan agrees
+	 *         again
+	 */
+	public long discrepancyMinorUnits() {
+		return discrepancy;
+	}
+
+	private void scheduledReconcile() {
+		try {
+			reconcile();
+		} catch (RuntimeException e) {
+			log.error("Balance reconciliation failed", e);
+		}
+	}
+}
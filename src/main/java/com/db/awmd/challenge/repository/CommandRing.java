@@ -0,0 +1,100 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Bounded ring buffer with many producers and a single consumer thread.
+ *         Producers claim a sequence with one atomic increment, write their
+ *         slot and publish it by stamping the slot with the sequence; the
+ *         consumer reads slots strictly in sequence order. Producers wait only
+ *         when the ring is full, and wake the consumer when it went to sleep.
+ *
+ */
+final class CommandRing {
+
+	private static final int SPINS = 100;
+
+	private static final int YIELDS = 100;
+
+	private static final long PARK_NANOS = 1_000_000;
+
+	private final Runnable[] slots;
+
+	/**
+	 * Sequence + 1 of the command held by each slot, 0 before first use
+	 */
+	private final AtomicLongArray published;
+
+	private final int mask;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private volatile long head;
+
+	private volatile boolean sleeping;
+
+	private volatile Thread consumer;
+
+	/**
+	 * @param capacity
+	 *            rounded up to a power of two
+	 */
+	CommandRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+		this.slots = new Runnable[size];
+		this.published = new AtomicLongArray(size);
+		this.mask = size - 1;
+	}
+
+	void publish(Runnable command) {
+		long sequence = tail.getAndIncrement();
+		while (sequence - head >= slots.length) {
+			LockSupport.parkNanos(1_000);
+		}
+		int index = (int) sequence & mask;
+		slots[index] = command;
+		published.set(index, sequence + 1);
+		if (sleeping) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Runs the published commands in order until the thread is interrupted;
+	 * spins, then yields, then parks while the ring is empty
+	 */
+	void consume() {
+		consumer = Thread.currentThread();
+		int idle = 0;
+		while (!Thread.currentThread().isInterrupted()) {
+			long sequence = head;
+			int index = (int) sequence & mask;
+			if (published.get(index) == sequence + 1) {
+				Runnable command = slots[index];
+				slots[index] = null;
+				head = sequence + 1;
+				command.run();
+				idle = 0;
+			} else if (idle < SPINS) {
+				idle++;
+			} else if (idle < SPINS + YIELDS) {
+				idle++;
+				Thread.yield();
+			} else {
+				sleeping = true;
+				if (published.get(index) != sequence + 1) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+				sleeping = false;
+			}
+		}
+	}
+
+	int size() {
+		return (int) Math.max(0, tail.get() - head);
+	}
+}
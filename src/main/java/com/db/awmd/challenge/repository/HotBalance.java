@@ -0,0 +1,238 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.db.awmd.challenge.domain.Account;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Balance of a hot account split across slots, each with its own lock,
+ *         so transfers of different threads on the account rarely wait for
+ *         each other. A thread deposits to and withdraws from its home slot;
+ *         when that slot cannot cover a withdrawal the caller takes every slot
+ *         and borrows from the others, so the account as a whole is never
+ *         overdrawn.
+ *
+ *         Like an account entry of {@link AccountsRepositoryInMemory}, each
+ *         slot keeps the commit sequence of its last change and the balance
+ *         it had before, which an export reads when the change is past its
+ *         marker.
+ *
+ */
+final class HotBalance {
+
+	private static final AtomicInteger ORDINALS = new AtomicInteger();
+
+	/**
+	 * Orders the slot locks of different hot accounts
+	 */
+	final int ordinal = ORDINALS.getAndIncrement();
+
+	private final Slot[] slots;
+
+	private final int mask;
+
+	/**
+	 * @param slotCount
+	 *            rounded up to a power of two
+	 * @param balance
+	 *            initial balance in minor units, spread over the slots
+	 */
+	HotBalance(int slotCount, long balance) {
+		int count = 1;
+		while (count < slotCount) {
+			count <<= 1;
+		}
+		this.slots = new Slot[count];
+		for (int i = 0; i < count; i++) {
+			slots[i] = new Slot();
+			slots[i].balance = share(balance, i);
+		}
+		this.mask = count - 1;
+	}
+
+	int size() {
+		return slots.length;
+	}
+
+	Slot slot(int index) {
+		return slots[index];
+	}
+
+	/**
+	 * @return the slot the calling thread deposits to and withdraws from
+	 */
+	int home() {
+		long id = Thread.currentThread().getId();
+		return (int) (id ^ (id >>> 16)) & mask;
+	}
+
+	/**
+	 * Sums the slots. Without their locks held, transfers in flight may be
+	 * missing from the result.
+	 */
+	long sum() {
+		long total = 0;
+		for (Slot slot : slots) {
+			total += slot.balance;
+		}
+		return total;
+	}
+
+	/**
+	 * Takes the amount from the slots and spreads what is left evenly over
+	 * them again. The caller must hold every slot lock and have checked
+	 * {@link #sum()}.
+	 */
+	void withdrawAll(long amount, long sequence, long marker) {
+		rebalance(sum() - amount, sequence, marker);
+	}
+
+	/**
+	 * Spreads the balance evenly over the slots; the caller must hold every
+	 * slot lock
+	 */
+	void rebalance(long balance, long sequence, long marker) {
+		for (int i = 0; i < slots.length; i++) {
+			long share = share(balance, i);
+			if (slots[i].balance != share) {
+				slots[i].set(share, sequence, marker);
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the account with the sum of the slots, read under all
+	 *         of their locks
+	 */
+	Account read(Account account) {
+		lockAll();
+		try {
+			return snapshot(account);
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/**
+	 * @return a copy of the account with the sum of the slots. Without their
+	 *         locks held it may miss transfers in flight.
+	 */
+	Account snapshot(Account account) {
+		long balance = 0;
+		long version = 0;
+		for (Slot slot : slots) {
+			balance += slot.balance;
+			version += slot.version;
+		}
+		return copy(account, balance, version);
+	}
+
+	/**
+	 * @return a copy of the account as of the given commit sequence
+	 */
+	Account readAsOf(Account account, long sequence) {
+		lockAll();
+		try {
+			long balance = 0;
+			long version = 0;
+			for (Slot slot : slots) {
+				balance += slot.balanceAsOf(sequence);
+				version += slot.version;
+			}
+			return copy(account, balance, version);
+		} finally {
+			unlockAll();
+		}
+	}
+
+	/**
+	 * @return whether any slot lock is held, without taking it
+	 */
+	boolean anyLocked() {
+		for (Slot slot : slots) {
+			if (slot.lock.isLocked()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Slot 0 also gets the remainder of the division
+	 */
+	private long share(long balance, int index) {
+		long share = balance / slots.length;
+		return index == 0 ? balance - share * (slots.length - 1) : share;
+	}
+
+	/**
+	 * Locks the slots in ascending order
+	 */
+	void lockAll() {
+		for (Slot slot : slots) {
+			slot.lock.lock();
+		}
+	}
+
+	void unlockAll() {
+		for (int i = slots.length - 1; i >= 0; i--) {
+			slots[i].lock.unlock();
+		}
+	}
+
+	/**
+	 * @param account
+	 *            the account as created, for its id and currency
+	 */
+	private static Account copy(Account account, long balance, long version) {
+		Account copy = new Account(account.getAccountId());
+		copy.setCurrency(account.getCurrency());
+		copy.setBalanceMinorUnits(balance);
+		copy.setVersion(version);
+		return copy;
+	}
+
+	/**
+	 * One part of the balance. Only changed under its lock; the balance is
+	 * volatile so {@link HotBalance#sum()} can read it without one.
+	 */
+	static final class Slot {
+
+		final ReentrantLock lock = new ReentrantLock();
+
+		volatile long balance;
+
+		long version;
+
+		long sequence;
+
+		/**
+		 * Balance before the last change, valid when that change is past the
+		 * marker of the running export
+		 */
+		long retained;
+
+		/**
+		 * @param newBalance
+		 * @param sequence
+		 *            commit sequence of the transfer
+		 * @param marker
+		 *            commit sequence of the running export
+		 */
+		void set(long newBalance, long sequence, long marker) {
+			if (this.sequence <= marker) {
+				retained = balance;
+			}
+			balance = newBalance;
+			version++;
+			this.sequence = sequence;
+		}
+
+		long balanceAsOf(long marker) {
+			return sequence <= marker ? balance : retained;
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.db.awmd.challenge.config.IdempotencyProperties;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.RejectionReason;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Outcomes of transfers by idempotency key, so that a client retrying a
+ *         transfer gets the outcome of its first attempt instead of moving the
+ *         money twice. A key is scoped by the source account and stored as a
+ *         128 bit fingerprint together with a hash of the transfer, so a key
+ *         reused for a different transfer is refused. The fingerprint is not
+ *         meant to resist keys crafted to collide.
+ *
+ *         The cache is split into segments, each an open addressing table of
+ *         long slots with its own lock. A key may only live in the first
+ *         {@value #PROBES} slots from its home slot, which bounds every lookup.
+ *         Expired outcomes are overwritten in place; once all slots of a probe
+ *         window are live the one closest to expiry is evicted, so the cache
+ *         never grows. A slot costs 32 bytes plus the reference to the message
+ *         of a rejected transfer.
+ *
+ *         The key is claimed before the transfer runs, and a retry arriving
+ *         while the first attempt is still running is refused rather than run
+ *         a second time.
+ *
+ */
+@Component
+public class IdempotencyCache {
+
+	private static final int SEGMENTS = 64;
+
+	private static final int PROBES = 16;
+
+	private static final int EMPTY = 0;
+
+	private static final int PENDING = 1;
+
+	private static final int COMMITTED = 2;
+
+	private static final int REJECTED = 3;
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	private final long timeToLiveMillis;
+
+	private final LongAdder replays = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	@Autowired
+	public IdempotencyCache(IdempotencyProperties properties) {
+		int slotsPerSegment = Integer.highestOneBit(Math.max(PROBES, properties.getCapacity() / SEGMENTS) * 2 - 1);
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(slotsPerSegment);
+		}
+		this.timeToLiveMillis = properties.getTimeToLiveMillis();
+	}
+
+	/**
+	 * Runs the transfer unless a transfer with the same idempotency key was
+	 * seen within the time to live, in which case its outcome is replayed: a
+	 * committed transfer returns, a rejected one throws the same exception
+	 * message again. Transfers rejected for a
+	 * {@link RejectionReason#isRetryable() retryable} reason, such as
+	 * contention, the rate limit or a node that did not answer, are not
+	 * remembered, so a retry runs them again.
+	 *
+	 * @param transferRequest
+	 *            carrying the idempotency key
+	 * @param transfer
+	 *            applies the transfer, throwing ApplicationException if it is
+	 *            rejected
+	 */
+	public void execute(TransferRequest transferRequest, Runnable transfer) throws ApplicationException {
+		Claim claim = claim(transferRequest);
+		if (claim == null) {
+			return;
+		}
+		int outcome = EMPTY;
+		ApplicationException rejection = null;
+		try {
+			transfer.run();
+			outcome = COMMITTED;
+		} catch (ApplicationException ae) {
+			if (!ae.getReason().isRetryable()) {
+				outcome = REJECTED;
+				rejection = ae;
+			}
+			throw ae;
+		} finally {
+			complete(claim, outcome, rejection);
+		}
+	}
+
+	/**
+	 * Claims the idempotency key of a transfer about to run, for callers that
+	 * apply several transfers at once. Every claim must be completed with
+	 * {@link #committed(Claim)}, {@link #rejected(Claim, ApplicationException)}
+	 * or {@link #forget(Claim)}.
+	 *
+	 * @param transferRequest
+	 *            carrying the idempotency key
+	 * @return the claim, or null if the transfer already committed
+	 * @throws ApplicationException
+	 *             replaying the rejection of the transfer, or if it is still
+	 *             in progress or the key was used for a different transfer
+	 */
+	public Claim claim(TransferRequest transferRequest) throws ApplicationException {
+		String key = transferRequest.getIdempotencyKey();
+		long keyHi = fingerprint(transferRequest.getAccountFrom(), key, 0xcbf29ce484222325L, 0x100000001b3L);
+		long keyLo = fingerprint(transferRequest.getAccountFrom(), key, 0x84222325cbf29ce4L, 0x9e3779b97f4a7c15L);
+		int payload = payloadHash(transferRequest);
+		Segment segment = segments[(int) (keyLo >>> 58) & (SEGMENTS - 1)];
+		int home = (int) keyHi & segment.mask;
+		long now = System.currentTimeMillis();
+
+		segment.lock.lock();
+		try {
+			int slot = segment.find(keyHi, keyLo, home, now);
+			if (slot >= 0) {
+				replay(segment, slot, key, payload);
+				return null;
+			}
+			if (segment.claim(keyHi, keyLo, home, payload, now + timeToLiveMillis, now)) {
+				evictions.increment();
+			}
+		} finally {
+			segment.lock.unlock();
+		}
+		return new Claim(segment, keyHi, keyLo, home, now);
+	}
+
+	/**
+	 * Remembers that the claimed transfer committed
+	 */
+	public void committed(Claim claim) {
+		complete(claim, COMMITTED, null);
+	}
+
+	/**
+	 * Remembers the rejection of the claimed transfer, unless its reason is
+	 * retryable
+	 */
+	public void rejected(Claim claim, ApplicationException rejection) {
+		if (rejection.getReason().isRetryable()) {
+			forget(claim);
+		} else {
+			complete(claim, REJECTED, rejection);
+		}
+	}
+
+	/**
+	 * Frees the claimed key, so a retry runs the transfer again
+	 */
+	public void forget(Claim claim) {
+		complete(claim, EMPTY, null);
+	}
+
+	private void complete(Claim claim, int outcome, ApplicationException rejection) {
+		Segment segment = claim.segment;
+		segment.lock.lock();
+		try {
+			segment.complete(claim.keyHi, claim.keyLo, claim.home, outcome, rejection, claim.now);
+		} finally {
+			segment.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of transfers answered from the cache
+	 */
+	public long replays() {
+		return replays.sum();
+	}
+
+	/**
+	 * @return number of outcomes dropped before they expired to make room
+	 */
+	public long evictions() {
+		return evictions.sum();
+	}
+
+	private void replay(Segment segment, int slot, String key, int payload) {
+		long meta = segment.slots[slot * Segment.STRIDE + Segment.META];
+		if ((int) (meta >>> 32) != payload) {
+			throw new ApplicationException("Idempotency key " + key + " was already used for a different transfer");
+		}
+		switch ((int) meta & 0xFF) {
+		case PENDING:
+			throw new ApplicationException("Transfer with idempotency key " + key + " is still in progress");
+		case REJECTED:
+			replays.increment();
+			ApplicationException rejection = segment.rejections[slot];
+			throw new ApplicationException(rejection.getReason(), rejection.getMessage());
+		default:
+			replays.increment();
+		}
+	}
+
+	private static long fingerprint(String scope, String key, long seed, long prime) {
+		long hash = seed;
+		for (int i = 0; i < scope.length(); i++) {
+			hash = (hash ^ scope.charAt(i)) * prime;
+		}
+		// U+FFFF is not a character, so it separates scope and key unambiguously
+		hash = (hash ^ 0xFFFF) * prime;
+		for (int i = 0; i < key.length(); i++) {
+			hash = (hash ^ key.charAt(i)) * prime;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		return hash ^ (hash >>> 33);
+	}
+
+	private static int payloadHash(TransferRequest transferRequest) {
+		int hash = transferRequest.getAccountTo().hashCode();
+		return 31 * hash + Long.hashCode(transferRequest.getAmountMinorUnits());
+	}
+
+	/**
+	 * An idempotency key claimed by a transfer that has not completed yet
+	 */
+	public static final class Claim {
+
+		private final Segment segment;
+
+		private final long keyHi;
+
+		private final long keyLo;
+
+		private final int home;
+
+		private final long now;
+
+		private Claim(Segment segment, long keyHi, long keyLo, int home, long now) {
+			this.segment = segment;
+			this.keyHi = keyHi;
+			this.keyLo = keyLo;
+			this.home = home;
+			this.now = now;
+		}
+	}
+
+	/**
+	 * One open addressing table; only used while holding its lock
+	 */
+	private static final class Segment {
+
+		static final int STRIDE = 4;
+
+		static final int KEY_HI = 0;
+
+		static final int KEY_LO = 1;
+
+		static final int EXPIRES = 2;
+
+		/**
+		 * Payload hash in the high 32 bits, state in the low byte
+		 */
+		static final int META = 3;
+
+		final ReentrantLock lock = new ReentrantLock();
+
+		final long[] slots;
+
+		final ApplicationException[] rejections;
+
+		final int mask;
+
+		Segment(int slotCount) {
+			this.slots = new long[slotCount * STRIDE];
+			this.rejections = new ApplicationException[slotCount];
+			this.mask = slotCount - 1;
+		}
+
+		int find(long keyHi, long keyLo, int home, long now) {
+			for (int i = 0; i < PROBES; i++) {
+				int slot = (home + i) & mask;
+				int base = slot * STRIDE;
+				if (((int) slots[base + META] & 0xFF) != EMPTY && slots[base + EXPIRES] > now
+						&& slots[base + KEY_HI] == keyHi && slots[base + KEY_LO] == keyLo) {
+					return slot;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Stores a pending outcome in the first free or expired slot of the
+		 * probe window, or else in the one closest to expiry
+		 *
+		 * @return true if an outcome was evicted before it expired
+		 */
+		boolean claim(long keyHi, long keyLo, int home, int payload, long expires, long now) {
+			int victim = -1;
+			long earliest = Long.MAX_VALUE;
+			for (int i = 0; i < PROBES; i++) {
+				int slot = (home + i) & mask;
+				int base = slot * STRIDE;
+				if (((int) slots[base + META] & 0xFF) == EMPTY || slots[base + EXPIRES] <= now) {
+					victim = slot;
+					earliest = now;
+					break;
+				}
+				if (slots[base + EXPIRES] < earliest) {
+					victim = slot;
+					earliest = slots[base + EXPIRES];
+				}
+			}
+			int base = victim * STRIDE;
+			slots[base + KEY_HI] = keyHi;
+			slots[base + KEY_LO] = keyLo;
+			slots[base + EXPIRES] = expires;
+			slots[base + META] = (long) payload << 32 | PENDING;
+			rejections[victim] = null;
+			return earliest > now;
+		}
+
+		/**
+		 * Records the outcome of a claimed key, or frees its slot if the
+		 * outcome must not be remembered. Does nothing if the claim was
+		 * evicted meanwhile.
+		 */
+		void complete(long keyHi, long keyLo, int home, int outcome, ApplicationException rejection, long now) {
+			int slot = find(keyHi, keyLo, home, now);
+			if (slot < 0) {
+				return;
+			}
+			int base = slot * STRIDE;
+			slots[base + META] = outcome == EMPTY ? EMPTY : (slots[base + META] & ~0xFFL) | outcome;
+			rejections[slot] = rejection;
+		}
+	}
+}
@@ -0,0 +1,710 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Append only journal of account events stored in fixed size, memory
+ *         mapped segment files named journal-&lt;sequence&gt;.log. A record is
+ *         [payload length int][CRC32 of payload int][payload]; a length of 0
+ *         marks the end of the journal and -1 the end of a segment.
+ *
+ *         Appends are serialised by a lock and only copy bytes into the
+ *         mapping. A single flusher thread forces the mapped segments to disk;
+ *         callers that need an fsync wait for the flusher to pass their
+ *         position, so concurrent callers share one force (group commit).
+ *
+ *         A position is sequence * segmentSize + offset. A {@link Tail} reads
+ *         the records appended after a position, as they are appended, for
+ *         shipping them to a replica.
+ *
+ */
+@Slf4j
+public class Journal implements Closeable {
+
+	/**
+	 * Receives the journaled events, in order, during {@link Journal#open}
+	 */
+	public interface Replayer {
+
+		void created(String accountId, long balance);
+
+		void transferred(String accountFrom, String accountTo, long amount);
+
+		void cleared();
+	}
+
+	private static final byte CREATE = 1;
+
+	private static final byte TRANSFER = 2;
+
+	private static final byte BATCH = 3;
+
+	private static final byte CLEAR = 4;
+
+	private static final int HEADER = 8;
+
+	private static final int END_OF_SEGMENT = -1;
+
+	private static final String PREFIX = "journal-";
+
+	private static final String SUFFIX = ".log";
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	private final long flushIntervalMillis;
+
+	private final ReentrantLock appendLock = new ReentrantLock();
+
+	private final CRC32 crc = new CRC32();
+
+	private final Deque<MappedByteBuffer> unforced = new ArrayDeque<>();
+
+	private MappedByteBuffer segment;
+
+	private ByteBuffer crcView;
+
+	private long sequence;
+
+	private volatile long appendedPosition;
+
+	private final Object flushMonitor = new Object();
+
+	private long requestedPosition;
+
+	private volatile long durablePosition;
+
+	private volatile boolean running;
+
+	private Thread flusher;
+
+	private volatile Runnable appendListener;
+
+	/**
+	 * @param directory
+	 *            directory of the segment files
+	 * @param segmentSize
+	 *            size in bytes of one segment file
+	 * @param flushIntervalMillis
+	 *            longest time appended records stay unforced
+	 */
+	public Journal(Path directory, int segmentSize, long flushIntervalMillis) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+	}
+
+	/**
+	 * Replays every intact record to the replayer and positions the journal
+	 * after the last one. A torn record at the tail, left by a crash in the
+	 * middle of an append, is discarded.
+	 *
+	 * @param replayer
+	 * @throws IOException
+	 */
+	public void open(Replayer replayer) throws IOException {
+		open(0, replayer);
+	}
+
+	/**
+	 * Same as {@link #open(Replayer)}, skipping the segments up to and
+	 * including the given sequence, which are covered by a snapshot
+	 *
+	 * @param afterSequence
+	 * @param replayer
+	 * @throws IOException
+	 */
+	public void open(long afterSequence, Replayer replayer) throws IOException {
+		Files.createDirectories(directory);
+		List<Path> files = segmentFiles(afterSequence, Long.MAX_VALUE);
+		CRC32 replayCrc = new CRC32();
+
+		for (int i = 0; i < files.size(); i++) {
+			Path file = files.get(i);
+			boolean last = i == files.size() - 1;
+			MappedByteBuffer buffer = map(file);
+			int offset = replaySegment(file, buffer, last, replayCrc, replayer);
+
+			if (last) {
+				sequence = sequenceOf(file);
+				if (offset < 0) {
+					openSegment(sequence + 1);
+				} else {
+					segment = buffer;
+					segment.position(offset);
+					crcView = segment.duplicate();
+				}
+			}
+		}
+		if (segment == null) {
+			openSegment(afterSequence + 1);
+		}
+
+		appendedPosition = position();
+		durablePosition = appendedPosition;
+		requestedPosition = appendedPosition;
+		running = true;
+		flusher = new Thread(this::flushLoop, "journal-flusher");
+		flusher.setDaemon(true);
+		flusher.start();
+		log.info("Journal {} opened at segment {} after replaying {} segments", directory, sequence, files.size());
+	}
+
+	/**
+	 * Seals the current segment, so that every record appended so far is in a
+	 * segment that no longer changes. Does nothing when the current segment
+	 * is still empty.
+	 *
+	 * @return the sequence of the last sealed segment
+	 */
+	public long roll() throws ApplicationException {
+		appendLock.lock();
+		try {
+			if (segment.position() > 0) {
+				seal();
+			}
+			return sequence - 1;
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Replays the sealed segments in the given range. Safe to call while
+	 * records are being appended to the current segment.
+	 *
+	 * @param afterSequence
+	 *            first sequence not to replay
+	 * @param throughSequence
+	 *            last sequence to replay; must be sealed
+	 * @param replayer
+	 * @throws IOException
+	 */
+	public void replaySealed(long afterSequence, long throughSequence, Replayer replayer) throws IOException {
+		CRC32 replayCrc = new CRC32();
+		for (Path file : segmentFiles(afterSequence, throughSequence)) {
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				replaySegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize), false, replayCrc,
+						replayer);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the sealed segments up to and including the given sequence,
+	 * once a snapshot covers them
+	 *
+	 * @param throughSequence
+	 * @throws IOException
+	 */
+	public void truncate(long throughSequence) throws IOException {
+		long current;
+		appendLock.lock();
+		try {
+			current = sequence;
+		} finally {
+			appendLock.unlock();
+		}
+		List<Path> files = segmentFiles(0, Math.min(throughSequence, current - 1));
+		for (Path file : files) {
+			Files.delete(file);
+		}
+		log.info("Journal {} truncated {} segments through {}", directory, files.size(), throughSequence);
+	}
+
+	/**
+	 * @return position after the last appended record
+	 */
+	public long appendedPosition() {
+		return appendedPosition;
+	}
+
+	/**
+	 * @param sequence
+	 * @return position of the first record of the segment
+	 */
+	public long segmentStart(long sequence) {
+		return sequence * segmentSize;
+	}
+
+	/**
+	 * Registers a callback run after every append, with the append lock held;
+	 * it must not block
+	 *
+	 * @param listener
+	 *            null to remove it
+	 */
+	public void setAppendListener(Runnable listener) {
+		this.appendListener = listener;
+	}
+
+	/**
+	 * @param position
+	 *            start of a record, or the end of the journal
+	 * @return a reader of the records appended from the position on
+	 * @throws IOException
+	 *             if the segment of the position no longer exists
+	 */
+	public Tail tail(long position) throws IOException {
+		return new Tail(position);
+	}
+
+	public long appendCreate(String accountId, long balance) throws ApplicationException {
+		int payload = 1 + stringBytes(accountId) + 8;
+		appendLock.lock();
+		try {
+			int start = begin(CREATE, payload);
+			putString(accountId);
+			segment.putLong(balance);
+			return finish(start, payload);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	public long appendTransfer(String accountFrom, String accountTo, long amount) throws ApplicationException {
+		int payload = 1 + transferBytes(accountFrom, accountTo);
+		appendLock.lock();
+		try {
+			int start = begin(TRANSFER, payload);
+			putTransfer(accountFrom, accountTo, amount);
+			return finish(start, payload);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Appends committed transfers as one record, so they are replayed all or
+	 * nothing
+	 *
+	 * @param transferRequests
+	 * @return
+	 */
+	public long appendTransfers(List<TransferRequest> transferRequests) throws ApplicationException {
+		int payload = batchBytes(transferRequests);
+		appendLock.lock();
+		try {
+			int start = begin(BATCH, payload);
+			segment.putInt(transferRequests.size());
+			for (TransferRequest transferRequest : transferRequests) {
+				putTransfer(transferRequest.getAccountFrom(), transferRequest.getAccountTo(),
+						transferRequest.getAmountMinorUnits());
+			}
+			return finish(start, payload);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	public long appendClear() throws ApplicationException {
+		appendLock.lock();
+		try {
+			int start = begin(CLEAR, 1);
+			return finish(start, 1);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Size of the payload of a batch record, for checking it fits a segment
+	 * before the batch is applied
+	 *
+	 * @param transferRequests
+	 * @return
+	 */
+	public int batchBytes(List<TransferRequest> transferRequests) {
+		long bytes = 1 + 4;
+		for (TransferRequest transferRequest : transferRequests) {
+			bytes += transferBytes(transferRequest.getAccountFrom(), transferRequest.getAccountTo());
+		}
+		return (int) Math.min(Integer.MAX_VALUE, bytes);
+	}
+
+	/**
+	 * Largest payload a single record can have
+	 *
+	 * @return
+	 */
+	public int maxRecordBytes() {
+		return segmentSize - HEADER - 4;
+	}
+
+	/**
+	 * Blocks until everything up to the given position has been forced to
+	 * disk
+	 *
+	 * @param position
+	 *            returned by one of the append methods
+	 */
+	public void awaitDurable(long position) throws ApplicationException {
+		if (durablePosition >= position) {
+			return;
+		}
+		synchronized (flushMonitor) {
+			if (position > requestedPosition) {
+				requestedPosition = position;
+				flushMonitor.notifyAll();
+			}
+			while (durablePosition < position) {
+				if (!running) {
+					throw new ApplicationException("Journal closed before position " + position + " became durable");
+				}
+				try {
+					flushMonitor.wait();
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new ApplicationException("Interrupted while waiting for the journal");
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!running) {
+			return;
+		}
+		flush();
+		synchronized (flushMonitor) {
+			running = false;
+			flushMonitor.notifyAll();
+		}
+		try {
+			flusher.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+		log.info("Journal {} closed at position {}", directory, durablePosition);
+	}
+
+	private void flushLoop() {
+		while (running) {
+			synchronized (flushMonitor) {
+				if (running && requestedPosition <= durablePosition) {
+					try {
+						flushMonitor.wait(flushIntervalMillis);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+			flush();
+		}
+	}
+
+	private void flush() {
+		List<MappedByteBuffer> toForce;
+		long target;
+		appendLock.lock();
+		try {
+			target = appendedPosition;
+			if (target == durablePosition) {
+				return;
+			}
+			toForce = new ArrayList<>(unforced);
+			toForce.add(segment);
+			unforced.clear();
+		} finally {
+			appendLock.unlock();
+		}
+		for (MappedByteBuffer buffer : toForce) {
+			buffer.force();
+		}
+		synchronized (flushMonitor) {
+			durablePosition = target;
+			flushMonitor.notifyAll();
+		}
+	}
+
+	private int begin(byte type, int payload) throws ApplicationException {
+		if (payload > maxRecordBytes()) {
+			throw new ApplicationException("Journal record of " + payload + " bytes does not fit a segment");
+		}
+		if (segment.position() + HEADER + payload + 4 > segmentSize) {
+			seal();
+		}
+		int start = segment.position();
+		segment.position(start + HEADER);
+		segment.put(type);
+		return start;
+	}
+
+	private void seal() throws ApplicationException {
+		segment.putInt(segment.position(), END_OF_SEGMENT);
+		unforced.add(segment);
+		try {
+			openSegment(sequence + 1);
+		} catch (IOException ioe) {
+			throw new ApplicationException("Could not open journal segment " + (sequence + 1) + ": " + ioe);
+		}
+		appendedPosition = position();
+	}
+
+	private long finish(int start, int payload) {
+		segment.putInt(start + 4, checksum(crc, crcView, start + HEADER, payload));
+		segment.putInt(start, payload);
+		appendedPosition = position();
+		Runnable listener = appendListener;
+		if (listener != null) {
+			listener.run();
+		}
+		return appendedPosition;
+	}
+
+	private long position() {
+		return sequence * segmentSize + segment.position();
+	}
+
+	/**
+	 * CRC32 of a range of the given view; moves the view's position and limit
+	 */
+	private static int checksum(CRC32 crc, ByteBuffer view, int offset, int length) {
+		view.limit(offset + length).position(offset);
+		crc.reset();
+		crc.update(view);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Replays the intact records of one segment
+	 *
+	 * @return the offset after the last record, or -1 if the segment is sealed
+	 */
+	private int replaySegment(Path file, ByteBuffer buffer, boolean last, CRC32 replayCrc, Replayer replayer) {
+		ByteBuffer replayView = buffer.duplicate();
+		int offset = 0;
+		while (true) {
+			int length = offset + HEADER <= segmentSize ? buffer.getInt(offset) : 0;
+			if (length == END_OF_SEGMENT) {
+				return -1;
+			}
+			if (length == 0) {
+				return offset;
+			}
+			if (length < 0 || offset + HEADER + length > segmentSize
+					|| buffer.getInt(offset + 4) != checksum(replayCrc, replayView, offset + HEADER, length)) {
+				if (!last) {
+					throw new IllegalStateException("Journal segment " + file + " is corrupt at offset " + offset);
+				}
+				log.warn("Discarding torn journal record at {} offset {}", file, offset);
+				for (int zero = offset; zero < segmentSize; zero++) {
+					buffer.put(zero, (byte) 0);
+				}
+				return offset;
+			}
+			replay(buffer, offset + HEADER, replayer);
+			offset += HEADER + length;
+		}
+	}
+
+	private void openSegment(long newSequence) throws IOException {
+		sequence = newSequence;
+		segment = map(directory.resolve(String.format("%s%016d%s", PREFIX, newSequence, SUFFIX)));
+		crcView = segment.duplicate();
+	}
+
+	private MappedByteBuffer map(Path file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+			if (raf.length() < segmentSize) {
+				raf.setLength(segmentSize);
+			}
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+
+	private List<Path> segmentFiles(long afterSequence, long throughSequence) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().startsWith(PREFIX))
+					.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+					.filter(file -> sequenceOf(file) > afterSequence && sequenceOf(file) <= throughSequence).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static long sequenceOf(Path file) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+
+	/**
+	 * Replays records read by a {@link Tail}, usually of another journal
+	 *
+	 * @param records
+	 *            whole records between the position and the limit
+	 * @param replayer
+	 * @throws IllegalStateException
+	 *             if a record is torn or fails its checksum
+	 */
+	public static void replayRecords(ByteBuffer records, Replayer replayer) {
+		CRC32 replayCrc = new CRC32();
+		ByteBuffer replayView = records.duplicate();
+		int offset = records.position();
+		while (offset < records.limit()) {
+			int length = offset + HEADER <= records.limit() ? records.getInt(offset) : -1;
+			if (length <= 0 || offset + HEADER + length > records.limit()
+					|| records.getInt(offset + 4) != checksum(replayCrc, replayView, offset + HEADER, length)) {
+				throw new IllegalStateException("Shipped journal record is corrupt at offset " + offset);
+			}
+			replay(records, offset + HEADER, replayer);
+			offset += HEADER + length;
+		}
+	}
+
+	private static void replay(ByteBuffer buffer, int offset, Replayer replayer) {
+		ByteBuffer record = buffer.duplicate();
+		record.position(offset);
+		byte type = record.get();
+		switch (type) {
+		case CREATE:
+			replayer.created(getString(record), record.getLong());
+			break;
+		case TRANSFER:
+			replayer.transferred(getString(record), getString(record), record.getLong());
+			break;
+		case BATCH:
+			for (int i = record.getInt(); i > 0; i--) {
+				replayer.transferred(getString(record), getString(record), record.getLong());
+			}
+			break;
+		case CLEAR:
+			replayer.cleared();
+			break;
+		default:
+			throw new IllegalStateException("Unknown journal record type " + type);
+		}
+	}
+
+	private void putTransfer(String accountFrom, String accountTo, long amount) {
+		putString(accountFrom);
+		putString(accountTo);
+		segment.putLong(amount);
+	}
+
+	private void putString(String value) {
+		segment.putShort((short) value.length());
+		for (int i = 0; i < value.length(); i++) {
+			segment.putChar(value.charAt(i));
+		}
+	}
+
+	private static String getString(ByteBuffer record) {
+		char[] chars = new char[record.getShort() & 0xFFFF];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = record.getChar();
+		}
+		return new String(chars);
+	}
+
+	private static int transferBytes(String accountFrom, String accountTo) {
+		return stringBytes(accountFrom) + stringBytes(accountTo) + 8;
+	}
+
+	private static int stringBytes(String value) {
+		if (value.length() > 0xFFFF) {
+			throw new ApplicationException("Account id is too long to be journaled");
+		}
+		return 2 + 2 * value.length();
+	}
+
+	/**
+	 * Reads the records appended after a position, following the journal
+	 * into new segments. Not thread safe; meant for one shipping thread.
+	 */
+	public final class Tail {
+
+		private long tailSequence;
+
+		private int offset;
+
+		private ByteBuffer buffer;
+
+		private Tail(long position) throws IOException {
+			this.tailSequence = position / segmentSize;
+			this.offset = (int) (position % segmentSize);
+			this.buffer = mapReadOnly(tailSequence);
+		}
+
+		/**
+		 * @return position after the records read so far
+		 */
+		public long position() {
+			return tailSequence * segmentSize + offset;
+		}
+
+		/**
+		 * Reads the next whole records, moving on to the next segment once
+		 * this one is sealed
+		 *
+		 * @param maxBytes
+		 *            most bytes to return, unless the first record alone is
+		 *            larger
+		 * @return a read only view of the records in the segment mapping, or
+		 *         null if nothing was appended after the position
+		 * @throws IOException
+		 *             if the next segment no longer exists
+		 */
+		public ByteBuffer next(int maxBytes) throws IOException {
+			while (true) {
+				long appended = appendedPosition;
+				boolean sealed = appended / segmentSize > tailSequence;
+				int end = sealed ? segmentSize : (int) (appended % segmentSize);
+				int start = offset;
+				int scan = start;
+				while (scan + HEADER <= end) {
+					int length = buffer.getInt(scan);
+					if (length <= 0 || (scan > start && scan + HEADER + length - start > maxBytes)) {
+						break;
+					}
+					scan += HEADER + length;
+				}
+				if (scan > start) {
+					offset = scan;
+					ByteBuffer records = buffer.duplicate();
+					records.limit(scan).position(start);
+					return records;
+				}
+				if (!sealed) {
+					return null;
+				}
+				tailSequence++;
+				offset = 0;
+				buffer = mapReadOnly(tailSequence);
+			}
+		}
+
+		private ByteBuffer mapReadOnly(long sequence) throws IOException {
+			Path file = directory.resolve(String.format("%s%016d%s", PREFIX, sequence, SUFFIX));
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize).asReadOnlyBuffer();
+			}
+		}
+	}
+}
@@ -0,0 +1,327 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.config.JournalProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountPage;
+import com.db.awmd.challenge.domain.BatchTransferMode;
+import com.db.awmd.challenge.domain.DurabilityLevel;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Durable accounts repository, active with the "durable" profile. It
+ *         wraps the in-memory repository and records every change in a
+ *         {@link Journal} before acknowledging it; on startup the journal is
+ *         replayed to rebuild the accounts. A background task periodically
+ *         folds the sealed journal segments into a snapshot and deletes them,
+ *         so startup only replays the journal written since the last one.
+ *
+ *         Accounts are journaled before they are inserted, under a lock on the
+ *         account id, so a transfer can never reach the journal ahead of the
+ *         creation of its accounts. Transfers are journaled as redo records by
+ *         the {@link TransferLog} of the in-memory repository, under the lock
+ *         stripes of their accounts and before they are published, so the
+ *         journal holds the transfers of an account in the order they
+ *         committed. A transfer the journal cannot take is undone in memory
+ *         and rejected.
+ *
+ */
+@Slf4j
+@Primary
+@Profile("durable")
+@Repository
+public class JournaledAccountsRepository implements AccountsRepository {
+
+	private static final int CREATE_LOCK_STRIPES = 64;
+
+	/**
+	 * Recovered accounts handed to the delegate at once
+	 */
+	private static final int RECOVERY_BATCH_SIZE = 4096;
+
+	private final AccountsRepositoryInMemory delegate;
+
+	private final JournalProperties properties;
+
+	/**
+	 * Shipped to followers by the replication primary
+	 */
+	@Getter
+	private final Journal journal;
+
+	@Getter
+	private final SnapshotStore snapshots;
+
+	private long snapshotSequence;
+
+	private ScheduledExecutorService snapshotter;
+
+	private final Lock[] createLocks = new Lock[CREATE_LOCK_STRIPES];
+
+	@Autowired
+	public JournaledAccountsRepository(
+			@Qualifier("accountsRepositoryInMemory") AccountsRepositoryInMemory delegate, JournalProperties properties) {
+		this.delegate = delegate;
+		this.properties = properties;
+		this.journal = new Journal(Paths.get(properties.getDirectory()), properties.getSegmentSize(),
+				properties.getFlushIntervalMillis());
+		this.snapshots = new SnapshotStore(Paths.get(properties.getDirectory()));
+		for (int i = 0; i < createLocks.length; i++) {
+			createLocks[i] = new ReentrantLock();
+		}
+		delegate.setTransferLog(new TransferLog() {
+
+			@Override
+			public void transferred(TransferRequest transferRequest) throws ApplicationException {
+				journal.appendTransfer(transferRequest.getAccountFrom(), transferRequest.getAccountTo(),
+						transferRequest.getAmountMinorUnits());
+			}
+
+			@Override
+			public void transferred(List<TransferRequest> transferRequests) throws ApplicationException {
+				journal.appendTransfers(transferRequests);
+			}
+		});
+	}
+
+	/**
+	 * Rebuilds the accounts from the latest snapshot and the journal written
+	 * after it, then opens the journal for appending
+	 *
+	 * @throws IOException
+	 */
+	@PostConstruct
+	public void recover() throws IOException {
+		long start = System.nanoTime();
+		long sequence = snapshots.latestSequence();
+		BalanceDeltas deltas = new BalanceDeltas();
+		journal.open(sequence, deltas);
+
+		delegate.clearAccounts();
+		long[] accounts = { 0 };
+		// inserted in batches, which do not log each account
+		List<Account> batch = new ArrayList<>(RECOVERY_BATCH_SIZE);
+		deltas.mergeWith(snapshots, sequence, (accountId, balance) -> {
+			Account account = new Account(accountId);
+			account.setBalanceMinorUnits(balance);
+			batch.add(account);
+			if (batch.size() == RECOVERY_BATCH_SIZE) {
+				delegate.createAccounts(batch);
+				batch.clear();
+			}
+			accounts[0]++;
+		});
+		delegate.createAccounts(batch);
+		snapshotSequence = sequence;
+		log.info("Recovered {} accounts from snapshot {} and the journal in {} ms", accounts[0], sequence,
+				(System.nanoTime() - start) / 1_000_000);
+
+		if (properties.getSnapshotIntervalMillis() > 0) {
+			snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "journal-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			snapshotter.scheduleWithFixedDelay(this::scheduledSnapshot, properties.getSnapshotIntervalMillis(),
+					properties.getSnapshotIntervalMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the journal up to now and truncates the segments
+	 * it covers. Transfers carry on meanwhile: the snapshot is built from the
+	 * previous snapshot and the sealed segments, not from the live accounts.
+	 *
+	 * @return number of accounts in the snapshot, or -1 if nothing changed
+	 *         since the previous one
+	 * @throws IOException
+	 */
+	public synchronized long snapshot() throws IOException {
+		long sealed = journal.roll();
+		if (sealed <= snapshotSequence) {
+			return -1;
+		}
+		long start = System.nanoTime();
+		BalanceDeltas deltas = new BalanceDeltas();
+		journal.replaySealed(snapshotSequence, sealed, deltas);
+
+		long accounts;
+		try (SnapshotStore.Writer writer = snapshots.writer(sealed)) {
+			deltas.mergeWith(snapshots, snapshotSequence, writer);
+			accounts = writer.commit();
+		}
+		snapshotSequence = sealed;
+		snapshots.deleteBefore(sealed);
+		journal.truncate(sealed);
+		log.info("Snapshot {} of {} accounts written in {} ms", sealed, accounts,
+				(System.nanoTime() - start) / 1_000_000);
+		return accounts;
+	}
+
+	@PreDestroy
+	public void close() {
+		if (snapshotter != null) {
+			snapshotter.shutdownNow();
+		}
+		journal.close();
+	}
+
+	private void scheduledSnapshot() {
+		try {
+			snapshot();
+		} catch (IOException | RuntimeException e) {
+			log.error("Journal snapshot failed", e);
+		}
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException {
+		String accountId = account.getAccountId();
+		Lock lock = createLocks[(accountId.hashCode() & Integer.MAX_VALUE) % createLocks.length];
+		long position;
+		lock.lock();
+		try {
+			if (delegate.getAccount(accountId) != null) {
+				throw new DuplicateAccountIdException("Account id " + accountId + " already exists!");
+			}
+			position = journal.appendCreate(accountId, account.getBalanceMinorUnits());
+			delegate.createAccount(account);
+		} finally {
+			lock.unlock();
+		}
+		awaitDurability(position, properties.getDurability());
+	}
+
+	/**
+	 * Journals and inserts the accounts one at a time like
+	 * {@link #createAccount(Account)}, but waits for durability once for the
+	 * whole list
+	 */
+	@Override
+	public List<Integer> createAccounts(List<Account> accounts) {
+		List<Integer> duplicates = new ArrayList<>();
+		long position = -1;
+		for (int i = 0; i < accounts.size(); i++) {
+			Account account = accounts.get(i);
+			String accountId = account.getAccountId();
+			Lock lock = createLocks[(accountId.hashCode() & Integer.MAX_VALUE) % createLocks.length];
+			lock.lock();
+			try {
+				if (delegate.getAccount(accountId) != null) {
+					duplicates.add(i);
+					continue;
+				}
+				position = journal.appendCreate(accountId, account.getBalanceMinorUnits());
+				delegate.createAccounts(Collections.singletonList(account));
+			} finally {
+				lock.unlock();
+			}
+		}
+		if (position >= 0) {
+			awaitDurability(position, properties.getDurability());
+		}
+		return duplicates;
+	}
+
+	@Override
+	public Account getAccount(String accountId) {
+		return delegate.getAccount(accountId);
+	}
+
+	@Override
+	public AccountPage listAccounts(String cursor, int limit) {
+		return delegate.listAccounts(cursor, limit);
+	}
+
+	@Override
+	public long exportAccounts(LongConsumer marker, Consumer<Account> sink) {
+		return delegate.exportAccounts(marker, sink);
+	}
+
+	@Override
+	public AccountsRepository engine() {
+		return delegate;
+	}
+
+	@Override
+	public long countAccounts() {
+		return delegate.countAccounts();
+	}
+
+	@Override
+	public long totalBalanceMinorUnits() {
+		return delegate.totalBalanceMinorUnits();
+	}
+
+	@Override
+	public void clearAccounts() {
+		journal.appendClear();
+		delegate.clearAccounts();
+	}
+
+	@Override
+	public void transferMoney(TransferRequest transferRequest) throws ApplicationException {
+		delegate.transferMoney(transferRequest);
+		// at or past the record of this transfer, appended by the transfer log
+		awaitDurability(journal.appendedPosition(), durabilityOf(transferRequest));
+	}
+
+	@Override
+	public List<TransferResult> transferMoneyBatch(List<TransferRequest> transferRequests, BatchTransferMode mode)
+			throws ApplicationException {
+		if (journal.batchBytes(transferRequests) > journal.maxRecordBytes()) {
+			throw new ApplicationException("Batch of " + transferRequests.size() + " transfers is too large to journal");
+		}
+		List<TransferResult> results = delegate.transferMoneyBatch(transferRequests, mode);
+		long position = journal.appendedPosition();
+
+		for (TransferResult result : results) {
+			if (result.getStatus() == TransferStatus.COMMITTED
+					&& durabilityOf(transferRequests.get(result.getIndex())) == DurabilityLevel.FSYNC) {
+				awaitDurability(position, DurabilityLevel.FSYNC);
+				break;
+			}
+		}
+		return results;
+	}
+
+	private DurabilityLevel durabilityOf(TransferRequest transferRequest) {
+		return transferRequest.getDurability() != null ? transferRequest.getDurability() : properties.getDurability();
+	}
+
+	private void awaitDurability(long position, DurabilityLevel durability) {
+		if (durability == DurabilityLevel.FSYNC) {
+			journal.awaitDurable(position);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Read only accounts repository of a replica, active with the
+ *         "follower" profile. It holds the accounts of the primary as replayed
+ *         from the journal records the primary ships, and rejects every
+ *         change; writes go to the primary.
+ *
+ *         A single replication thread applies the records, replacing the
+ *         published copy of each account it changes, so reads never take a
+ *         lock and never see a half applied transfer. Transfers are applied as
+ *         committed on the primary, without a balance check: the journal may
+ *         order two commuting transfers differently than they committed.
+ *
+ */
+@Slf4j
+@Primary
+@Profile("follower")
+@Repository
+public class ReplicaAccountsRepository implements AccountsRepository, Journal.Replayer {
+
+	private static final String READ_ONLY = "This instance is a read only follower, changes go to the primary";
+
+	private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+	/**
+	 * Only written by the replication thread
+	 */
+	private volatile long totalBalance;
+
+	/**
+	 * Journal position of the primary the accounts are at, -1 until the
+	 * first records arrived
+	 */
+	private volatile long appliedPosition = -1;
+
+	@Override
+	public void createAccount(Account account) throws ApplicationException {
+		throw new ApplicationException(READ_ONLY);
+	}
+
+	@Override
+	public Account getAccount(String accountId) {
+		return accounts.get(accountId);
+	}
+
+	@Override
+	public void clearAccounts() {
+		throw new ApplicationException(READ_ONLY);
+	}
+
+	@Override
+	public void transferMoney(TransferRequest transferRequest) throws ApplicationException {
+		throw new ApplicationException(READ_ONLY);
+	}
+
+	@Override
+	public long countAccounts() {
+		return accounts.size();
+	}
+
+	@Override
+	public long totalBalanceMinorUnits() {
+		return totalBalance;
+	}
+
+	public long appliedPosition() {
+		return appliedPosition;
+	}
+
+	/**
+	 * @param position
+	 *            journal position of the primary after the applied records
+	 */
+	public void applied(long position) {
+		appliedPosition = position;
+	}
+
+	/**
+	 * Drops every account before the primary ships a snapshot
+	 */
+	public void reset() {
+		accounts.clear();
+		totalBalance = 0;
+		appliedPosition = -1;
+		log.info("Replica reset, waiting for a snapshot of the primary");
+	}
+
+	@Override
+	public void created(String accountId, long balance) {
+		Account account = new Account(accountId);
+		account.setBalanceMinorUnits(balance);
+		accounts.put(accountId, account);
+		totalBalance += balance;
+	}
+
+	@Override
+	public void transferred(String accountFrom, String accountTo, long amount) {
+		change(accountFrom, -amount);
+		change(accountTo, amount);
+	}
+
+	@Override
+	public void cleared() {
+		accounts.clear();
+		totalBalance = 0;
+	}
+
+	private void change(String accountId, long delta) {
+		Account account = accounts.get(accountId);
+		if (account == null) {
+			log.warn("Replicated transfer refers to unknown account {}", accountId);
+			return;
+		}
+		Account changed = new Account(accountId);
+		changed.setBalanceMinorUnits(account.getBalanceMinorUnits() + delta);
+		changed.setVersion(account.getVersion() + 1);
+		accounts.put(accountId, changed);
+	}
+}
@@ -0,0 +1,277 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Point in time snapshots of all balances, stored next to the journal
+ *         as snapshot-&lt;sequence&gt;.snap where sequence is the last journal
+ *         segment the snapshot covers. A snapshot is
+ *         [magic int][sequence long], one [1 byte][id][balance long] entry per
+ *         account in ascending id order, then [0 byte][count long][CRC32 int].
+ *
+ *         Snapshots are written to a temporary file and renamed once forced to
+ *         disk, so a crash never leaves a partial snapshot behind.
+ *
+ */
+@Slf4j
+public class SnapshotStore {
+
+	private static final int MAGIC = 0x534E4150;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private static final String PREFIX = "snapshot-";
+
+	private static final String SUFFIX = ".snap";
+
+	private static final String TEMPORARY = ".tmp";
+
+	private final Path directory;
+
+	public SnapshotStore(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the sequence of the newest snapshot, or 0 if there is none
+	 * @throws IOException
+	 */
+	public long latestSequence() throws IOException {
+		List<Path> files = snapshotFiles();
+		return files.isEmpty() ? 0 : sequenceOf(files.get(files.size() - 1));
+	}
+
+	/**
+	 * Streams the accounts of a snapshot, in ascending id order
+	 *
+	 * @param sequence
+	 * @param consumer
+	 *            receives every account id with its balance in minor units
+	 * @return number of accounts read
+	 * @throws IOException
+	 */
+	public long read(long sequence, ObjLongConsumer<String> consumer) throws IOException {
+		Path file = fileOf(sequence, SUFFIX);
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long content = channel.size() - 4;
+			buffer.flip();
+			if (!fill(channel, buffer, 12, content, crc) || buffer.getInt() != MAGIC || buffer.getLong() != sequence) {
+				throw new IllegalStateException("Snapshot " + file + " has a bad header");
+			}
+
+			long count = 0;
+			while (true) {
+				if (!fill(channel, buffer, 3, content, crc)) {
+					throw new IllegalStateException("Snapshot " + file + " is truncated after " + count + " accounts");
+				}
+				if (buffer.get() == 0) {
+					break;
+				}
+				int length = buffer.getShort() & 0xFFFF;
+				if (!fill(channel, buffer, 2 * length + 8, content, crc)) {
+					throw new IllegalStateException("Snapshot " + file + " is truncated after " + count + " accounts");
+				}
+				char[] chars = new char[length];
+				for (int i = 0; i < length; i++) {
+					chars[i] = buffer.getChar();
+				}
+				consumer.accept(new String(chars), buffer.getLong());
+				count++;
+			}
+
+			ByteBuffer checksum = ByteBuffer.allocate(4);
+			if (!fill(channel, buffer, 8, content, crc) || buffer.getLong() != count
+					|| channel.read(checksum, content) != 4 || checksum.getInt(0) != (int) crc.getValue()) {
+				throw new IllegalStateException("Snapshot " + file + " is corrupt");
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Starts a new snapshot; it only becomes visible once committed
+	 *
+	 * @param sequence
+	 *            last journal segment the snapshot covers
+	 * @return
+	 * @throws IOException
+	 */
+	public Writer writer(long sequence) throws IOException {
+		Files.createDirectories(directory);
+		return new Writer(sequence);
+	}
+
+	/**
+	 * Deletes the snapshots older than the given sequence
+	 *
+	 * @param sequence
+	 * @throws IOException
+	 */
+	public void deleteBefore(long sequence) throws IOException {
+		for (Path file : snapshotFiles()) {
+			if (sequenceOf(file) < sequence) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	/**
+	 * Makes sure the buffer holds at least the given number of bytes, reading
+	 * from the channel without going past the content
+	 *
+	 * @return false if the content ends first
+	 */
+	private static boolean fill(FileChannel channel, ByteBuffer buffer, int bytes, long content, CRC32 crc)
+			throws IOException {
+		while (buffer.remaining() < bytes) {
+			buffer.compact();
+			int start = buffer.position();
+			long left = content - channel.position();
+			if (left <= 0) {
+				buffer.flip();
+				return false;
+			}
+			if (left < buffer.remaining()) {
+				buffer.limit(start + (int) left);
+			}
+			channel.read(buffer);
+			ByteBuffer read = buffer.duplicate();
+			read.flip().position(start);
+			crc.update(read);
+			buffer.flip();
+		}
+		return true;
+	}
+
+	private List<Path> snapshotFiles() throws IOException {
+		if (!Files.isDirectory(directory)) {
+			return Collections.emptyList();
+		}
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().startsWith(PREFIX))
+					.filter(file -> file.getFileName().toString().endsWith(SUFFIX)).sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private Path fileOf(long sequence, String suffix) {
+		return directory.resolve(String.format("%s%016d%s", PREFIX, sequence, suffix));
+	}
+
+	private static long sequenceOf(Path file) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+
+	/**
+	 * Writes one snapshot; accounts must be written in ascending id order
+	 */
+	public class Writer implements Closeable, ObjLongConsumer<String> {
+
+		private final long sequence;
+
+		private final Path temporary;
+
+		private final FileChannel channel;
+
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		private final CRC32 crc = new CRC32();
+
+		private long count;
+
+		private boolean committed;
+
+		private Writer(long sequence) throws IOException {
+			this.sequence = sequence;
+			this.temporary = fileOf(sequence, SUFFIX + TEMPORARY);
+			this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			buffer.putInt(MAGIC).putLong(sequence);
+		}
+
+		@Override
+		public void accept(String accountId, long balance) {
+			try {
+				if (buffer.remaining() < 3 + 2 * accountId.length() + 8) {
+					drain();
+				}
+				buffer.put((byte) 1).putShort((short) accountId.length());
+				for (int i = 0; i < accountId.length(); i++) {
+					buffer.putChar(accountId.charAt(i));
+				}
+				buffer.putLong(balance);
+				count++;
+			} catch (IOException ioe) {
+				throw new IllegalStateException("Could not write snapshot " + temporary, ioe);
+			}
+		}
+
+		/**
+		 * Forces the snapshot to disk and makes it visible
+		 *
+		 * @return number of accounts written
+		 * @throws IOException
+		 */
+		public long commit() throws IOException {
+			if (buffer.remaining() < 9) {
+				drain();
+			}
+			buffer.put((byte) 0).putLong(count);
+			drain();
+			buffer.putInt((int) crc.getValue());
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+			channel.close();
+			Files.move(temporary, fileOf(sequence, SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+			// make the rename itself durable before the journal it replaces is
+			// truncated
+			try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+				directoryChannel.force(true);
+			} catch (IOException ioe) {
+				log.debug("Could not force directory {}: {}", directory, ioe.getMessage());
+			}
+			committed = true;
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!committed) {
+				channel.close();
+				Files.deleteIfExists(temporary);
+			}
+		}
+
+		private void drain() throws IOException {
+			buffer.flip();
+			crc.update(buffer.duplicate());
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package com.db.awmd.challenge.repository;
+
+import java.util.List;
+
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Records the transfers of {@link AccountsRepositoryInMemory} once they
+ *         are applied, while their locks are still held and before the
+ *         accounts are published. A transfer the log refuses with an exception
+ *         is undone and the exception is thrown to the caller, so no reader
+ *         or notification ever sees a transfer that was not recorded.
+ *
+ */
+public interface TransferLog {
+
+	TransferLog NONE = new TransferLog() {
+
+		@Override
+		public void transferred(TransferRequest transferRequest) {
+		}
+
+		@Override
+		public void transferred(List<TransferRequest> transferRequests) {
+		}
+	};
+
+	void transferred(TransferRequest transferRequest) throws ApplicationException;
+
+	/**
+	 * Records the committed transfers of a batch together
+	 */
+	void transferred(List<TransferRequest> transferRequests) throws ApplicationException;
+}
@@ -0,0 +1,387 @@
+package com.db.awmd.challenge.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.db.awmd.challenge.config.FxProperties;
+import com.db.awmd.challenge.config.ImportProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.ImportResult;
+import com.db.awmd.challenge.domain.ImportResult.RowError;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.fx.FxRates;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Bulk account import from CSV (accountId,balance and an optional
+ *         currency, with an optional header) or newline delimited JSON (one
+ *         account object per line).
+ *         The input is parsed one line at a time on the calling thread and the
+ *         parsed accounts are handed to the repository in batches by a pool
+ *         of workers, so neither the input nor the accounts are held in memory
+ *         as a whole. At most two batches per worker are in flight.
+ *
+ *         A row that cannot be parsed, is invalid, is in a currency without an
+ *         FX rate or has an id that already exists is reported and the import
+ *         carries on. Accounts are created
+ *         as their batch is inserted, so an import that fails midway keeps
+ *         what it created; when an id repeats within the input, which of its
+ *         rows wins is only defined inside one batch.
+ *
+ */
+@Slf4j
+@Service
+public class AccountsImporter {
+
+	public static final String TEXT_CSV = "text/csv";
+
+	public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+	private static final Pattern CURRENCY_CODE = Pattern.compile("[A-Z]{3}");
+
+	private final AccountsRepository accountsRepository;
+
+	private final ImportProperties properties;
+
+	private final FxRates fxRates;
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	private final AtomicInteger workerCount = new AtomicInteger();
+
+	public AccountsImporter(AccountsRepository accountsRepository, ImportProperties properties) {
+		this(accountsRepository, properties, new FxRates(new FxProperties()));
+	}
+
+	/**
+	 * @param accountsRepository
+	 * @param properties
+	 * @param fxRates
+	 *            currencies the imported accounts may be in
+	 */
+	@Autowired
+	public AccountsImporter(AccountsRepository accountsRepository, ImportProperties properties, FxRates fxRates) {
+		this.accountsRepository = accountsRepository;
+		this.properties = properties;
+		this.fxRates = fxRates;
+	}
+
+	/**
+	 * Input formats of an import
+	 */
+	public enum Format {
+		CSV, NDJSON;
+
+		/**
+		 * @param fileName
+		 * @return the format matching the file extension
+		 * @throws ApplicationException
+		 *             for an unknown extension
+		 */
+		public static Format ofFileName(String fileName) throws ApplicationException {
+			String name = fileName.toLowerCase();
+			if (name.endsWith(".csv")) {
+				return CSV;
+			}
+			if (name.endsWith(".ndjson") || name.endsWith(".jsonl")) {
+				return NDJSON;
+			}
+			throw new ApplicationException("Cannot tell the format of " + fileName + ", expected .csv, .ndjson or .jsonl");
+		}
+	}
+
+	/**
+	 * Imports the accounts of the input, which is not closed
+	 *
+	 * @param input
+	 * @param format
+	 * @return
+	 * @throws IOException
+	 *             when reading the input fails; accounts of batches already
+	 *             inserted are kept
+	 */
+	public ImportResult importAccounts(InputStream input, Format format) throws IOException {
+		long start = System.nanoTime();
+		int parallelism = Math.max(1, properties.getParallelism());
+		ImportRun run = new ImportRun();
+		Semaphore inFlight = new Semaphore(parallelism * 2);
+		List<Future<?>> inserts = new ArrayList<>();
+		ExecutorService workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "accounts-import-" + workerCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 1 << 16);
+			int batchSize = Math.max(1, properties.getBatchSize());
+			Batch batch = new Batch(batchSize);
+			long row = 0;
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				row++;
+				if (line.trim().isEmpty() || row == 1 && format == Format.CSV && isHeader(line)) {
+					continue;
+				}
+				try {
+					Account account = format == Format.CSV ? parseCsv(line) : parseJson(line);
+					checkCurrency(account.getCurrency());
+					batch.add(account, row);
+				} catch (ApplicationException ae) {
+					run.reject(row, null, ae.getMessage(), properties.getMaxReportedErrors());
+				}
+				if (batch.isFull()) {
+					inserts.add(submit(workers, inFlight, batch, run));
+					batch = new Batch(batchSize);
+				}
+			}
+			if (batch.size() > 0) {
+				inserts.add(submit(workers, inFlight, batch, run));
+			}
+			for (Future<?> insert : inserts) {
+				await(insert);
+			}
+		} finally {
+			workers.shutdownNow();
+		}
+
+		List<RowError> errors = new ArrayList<>(run.errors);
+		errors.sort(Comparator.comparingLong(RowError::getRow));
+		long rejected = run.rejected.get();
+		log.info("Imported {} accounts, rejected {} rows in {} ms", run.created.get(), rejected,
+				(System.nanoTime() - start) / 1_000_000);
+		return new ImportResult(run.created.get(), rejected, errors, rejected > errors.size());
+	}
+
+	private Future<?> submit(ExecutorService workers, Semaphore inFlight, Batch batch, ImportRun run) {
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ApplicationException("Import interrupted");
+		}
+		return workers.submit(() -> {
+			try {
+				List<Integer> duplicates = accountsRepository.createAccounts(batch.accounts);
+				run.created.addAndGet(batch.size() - duplicates.size());
+				for (int index : duplicates) {
+					String accountId = batch.accounts.get(index).getAccountId();
+					run.reject(batch.rows[index], accountId, "Account id " + accountId + " already exists!",
+							properties.getMaxReportedErrors());
+				}
+			} finally {
+				inFlight.release();
+			}
+		});
+	}
+
+	private static void await(Future<?> insert) {
+		try {
+			insert.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ApplicationException("Import interrupted");
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ee.getCause();
+			}
+			throw new ApplicationException("Import failed: " + ee.getCause());
+		}
+	}
+
+	/**
+	 * Refuses a currency the repository would refuse, before the row reaches
+	 * a batch
+	 */
+	private void checkCurrency(String currency) throws ApplicationException {
+		if (currency == null) {
+			return;
+		}
+		if (!accountsRepository.supportsCurrencies()) {
+			throw new ApplicationException("Accounts in a currency are not supported by this engine");
+		}
+		fxRates.indexOf(currency);
+	}
+
+	private static boolean isHeader(String line) {
+		return line.replace("\"", "").trim().toLowerCase().startsWith("accountid,");
+	}
+
+	/**
+	 * Parses accountId,balance with an optional third currency column, where
+	 * the id may be quoted, with "" standing for a quote inside it
+	 */
+	private static Account parseCsv(String line) throws ApplicationException {
+		String accountId;
+		int comma;
+		if (line.startsWith("\"")) {
+			StringBuilder id = new StringBuilder();
+			int i = 1;
+			while (true) {
+				int quote = line.indexOf('"', i);
+				if (quote < 0) {
+					throw new ApplicationException("Account id is missing its closing quote");
+				}
+				id.append(line, i, quote);
+				if (quote + 1 < line.length() && line.charAt(quote + 1) == '"') {
+					id.append('"');
+					i = quote + 2;
+				} else {
+					i = quote + 1;
+					break;
+				}
+			}
+			if (i >= line.length() || line.charAt(i) != ',') {
+				throw new ApplicationException("Expected a comma after the quoted account id");
+			}
+			accountId = id.toString();
+			comma = i;
+		} else {
+			comma = line.indexOf(',');
+			if (comma < 0) {
+				throw new ApplicationException("Expected accountId,balance[,currency]");
+			}
+			accountId = line.substring(0, comma).trim();
+		}
+		int currencyComma = line.indexOf(',', comma + 1);
+		if (currencyComma < 0) {
+			return account(accountId, line.substring(comma + 1).trim(), null);
+		}
+		if (line.indexOf(',', currencyComma + 1) >= 0) {
+			throw new ApplicationException("Expected accountId,balance[,currency]");
+		}
+		return account(accountId, line.substring(comma + 1, currencyComma).trim(),
+				line.substring(currencyComma + 1).trim());
+	}
+
+	private Account parseJson(String line) throws ApplicationException {
+		String accountId = null;
+		String balance = null;
+		String currency = null;
+		try (JsonParser parser = jsonFactory.createParser(line)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new ApplicationException("Expected an account object");
+			}
+			JsonToken token;
+			while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if ("accountId".equals(field) && value == JsonToken.VALUE_STRING) {
+					accountId = parser.getText();
+				} else if ("balance".equals(field) && value != null
+						&& (value.isNumeric() || value == JsonToken.VALUE_STRING)) {
+					balance = parser.getText();
+				} else if ("currency".equals(field) && value == JsonToken.VALUE_STRING) {
+					currency = parser.getText();
+				} else {
+					parser.skipChildren();
+				}
+			}
+			if (token != JsonToken.END_OBJECT || parser.nextToken() != null) {
+				throw new ApplicationException("Expected one account object per line");
+			}
+		} catch (JsonProcessingException jpe) {
+			throw new ApplicationException("Malformed account: " + jpe.getOriginalMessage());
+		} catch (IOException ioe) {
+			throw new ApplicationException("Malformed account: " + ioe.getMessage());
+		}
+		return account(accountId, balance, currency);
+	}
+
+	/**
+	 * Applies the validation of {@link Account} to a parsed row
+	 */
+	private static Account account(String accountId, String balance, String currency) throws ApplicationException {
+		if (accountId == null || accountId.isEmpty()) {
+			throw new ApplicationException("Account id may not be empty");
+		}
+		if (balance == null || balance.isEmpty()) {
+			throw new ApplicationException("Balance is required.");
+		}
+		long minorUnits = Money.parseMinorUnits(balance);
+		if (minorUnits < 0) {
+			throw new ApplicationException("Initial balance must be positive.");
+		}
+		Account account = new Account(accountId);
+		account.setBalanceMinorUnits(minorUnits);
+		if (currency != null && !currency.isEmpty()) {
+			if (!CURRENCY_CODE.matcher(currency).matches()) {
+				throw new ApplicationException("Currency must be an ISO 4217 code.");
+			}
+			account.setCurrency(currency);
+		}
+		return account;
+	}
+
+	/**
+	 * Parsed accounts with the line each came from
+	 */
+	private static final class Batch {
+
+		final List<Account> accounts;
+
+		final long[] rows;
+
+		Batch(int capacity) {
+			this.accounts = new ArrayList<>(capacity);
+			this.rows = new long[capacity];
+		}
+
+		void add(Account account, long row) {
+			rows[accounts.size()] = row;
+			accounts.add(account);
+		}
+
+		int size() {
+			return accounts.size();
+		}
+
+		boolean isFull() {
+			return accounts.size() == rows.length;
+		}
+	}
+
+	/**
+	 * Counters of one import, shared by its workers
+	 */
+	private static final class ImportRun {
+
+		final AtomicLong created = new AtomicLong();
+
+		final AtomicLong rejected = new AtomicLong();
+
+		final Queue<RowError> errors = new ConcurrentLinkedQueue<>();
+
+		void reject(long row, String accountId, String message, int maxReported) {
+			if (rejected.getAndIncrement() < maxReported) {
+				errors.add(new RowError(row, accountId, message));
+			}
+		}
+	}
+}
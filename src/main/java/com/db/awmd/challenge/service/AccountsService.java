@@ -1,11 +1,28 @@
 package com.db.awmd.challenge.service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.db.awmd.challenge.audit.AuditTrail;
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountPage;
+import com.db.awmd.challenge.domain.BatchTransferMode;
+import com.db.awmd.challenge.domain.Transaction;
 import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.history.TransactionHistory;
+import com.db.awmd.challenge.metrics.AccountsMetrics;
+import com.db.awmd.challenge.ratelimit.TransferRateLimiter;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.IdempotencyCache;
 
 import lombok.Getter;
 
@@ -22,12 +39,32 @@ public class AccountsService {
 	@Getter
 	private final AccountsRepository accountsRepository;
 
+	private final AccountsMetrics accountsMetrics;
+
+	private final AuditTrail auditTrail;
+
+	private final IdempotencyCache idempotencyCache;
+
+	private final TransactionHistory transactionHistory;
+
+	private final TransferRateLimiter rateLimiter;
+
 	@Autowired
-	public AccountsService(AccountsRepository accountsRepository) {
+	public AccountsService(AccountsRepository accountsRepository, AccountsMetrics accountsMetrics,
+			AuditTrail auditTrail, IdempotencyCache idempotencyCache, TransactionHistory transactionHistory,
+			TransferRateLimiter rateLimiter) {
 		this.accountsRepository = accountsRepository;
+		this.accountsMetrics = accountsMetrics;
+		this.auditTrail = auditTrail;
+		this.idempotencyCache = idempotencyCache;
+		this.transactionHistory = transactionHistory;
+		this.rateLimiter = rateLimiter;
 	}
 
 	public void createAccount(Account account) {
+		if (account.getCurrency() != null && !this.accountsRepository.supportsCurrencies()) {
+			throw new ApplicationException("Accounts in a currency are not supported by this engine");
+		}
 		this.accountsRepository.createAccount(account);
 	}
 
@@ -35,8 +72,198 @@ public class AccountsService {
 		return this.accountsRepository.getAccount(accountId);
 	}
 
+	public AccountPage listAccounts(String cursor, int limit) {
+		return this.accountsRepository.listAccounts(cursor, limit);
+	}
+
+	public long exportAccounts(LongConsumer marker, Consumer<Account> sink) {
+		return this.accountsRepository.exportAccounts(marker, sink);
+	}
+
+	/**
+	 * @param accountId
+	 * @param fromMillis
+	 *            first epoch millisecond of the range
+	 * @param toMillis
+	 *            epoch millisecond after the range
+	 * @return the committed transfers of the account in the range, oldest
+	 *         first
+	 */
+	public List<Transaction> getTransactions(String accountId, long fromMillis, long toMillis) {
+		return this.transactionHistory.transactions(accountId, fromMillis, toMillis);
+	}
+
+	/**
+	 * Transfers the money, or replays the outcome of an earlier transfer with
+	 * the same idempotency key. A replay is not rate limited again, and a
+	 * transfer the repository rejects gives back what it took from the rate
+	 * limits.
+	 * 
+	 * @param transferRequest
+	 */
 	public void transferMoney(TransferRequest transferRequest) {
-		this.accountsRepository.transferMoney(transferRequest);
+		if (transferRequest.getIdempotencyKey() == null) {
+			transfer(transferRequest);
+		} else {
+			this.idempotencyCache.execute(transferRequest, () -> transfer(transferRequest));
+		}
+	}
+
+	private void transfer(TransferRequest transferRequest) {
+		long start = System.nanoTime();
+		try {
+			checkCurrency(transferRequest);
+			this.rateLimiter.check(transferRequest);
+			try {
+				this.accountsRepository.transferMoney(transferRequest);
+			} catch (ApplicationException ae) {
+				this.rateLimiter.release(transferRequest);
+				throw ae;
+			}
+		} catch (ApplicationException ae) {
+			this.accountsMetrics.transferRejected(ae, System.nanoTime() - start);
+			this.auditTrail.transferRejected(transferRequest, ae.getReason());
+			throw ae;
+		}
+		this.accountsMetrics.transferCommitted(System.nanoTime() - start);
+		this.auditTrail.transferCommitted(transferRequest);
+		this.transactionHistory.transferCommitted(transferRequest, System.currentTimeMillis());
+	}
+
+	/**
+	 * Checks every transfer of the batch, and takes it from the rate limits,
+	 * before it reaches the repository. One refused there fails an atomic
+	 * batch; in best effort mode it is rejected and the others go on without
+	 * it. Transfers that do not commit give back what they took. A transfer
+	 * with an idempotency key is answered from the cache like a single one, so
+	 * a retried batch does not move the money twice.
+	 * 
+	 * @param transferRequests
+	 * @param mode
+	 * @return one result per transfer, in request order
+	 */
+	public List<TransferResult> transferMoneyBatch(List<TransferRequest> transferRequests, BatchTransferMode mode) {
+		long start = System.nanoTime();
+		int size = transferRequests.size();
+		TransferResult[] answered = new TransferResult[size];
+		IdempotencyCache.Claim[] claims = new IdempotencyCache.Claim[size];
+		boolean[] cached = new boolean[size];
+		List<TransferRequest> admitted = new ArrayList<>(size);
+		int[] admittedIndexes = new int[size];
+		for (int i = 0; i < size; i++) {
+			TransferRequest transferRequest = transferRequests.get(i);
+			try {
+				if (transferRequest.getIdempotencyKey() != null) {
+					try {
+						claims[i] = this.idempotencyCache.claim(transferRequest);
+					} finally {
+						cached[i] = claims[i] == null;
+					}
+					if (cached[i]) {
+						answered[i] = TransferResult.committed(i);
+						continue;
+					}
+				}
+				checkCurrency(transferRequest);
+				this.rateLimiter.check(transferRequest);
+			} catch (ApplicationException ae) {
+				if (mode == BatchTransferMode.ATOMIC) {
+					admitted.forEach(this.rateLimiter::release);
+					List<TransferResult> results = TransferResult.atomicBatchFailure(size, i, ae);
+					for (int j = 0; j < i; j++) {
+						// committed by an earlier batch, so nothing to roll back
+						if (cached[j]) {
+							results.set(j, answered[j]);
+						}
+					}
+					completeClaims(claims, results);
+					return recorded(transferRequests, results, cached, start);
+				}
+				answered[i] = TransferResult.rejected(i, ae);
+				continue;
+			}
+			admittedIndexes[admitted.size()] = i;
+			admitted.add(transferRequest);
+		}
+
+		List<TransferResult> results = new ArrayList<>(Arrays.asList(answered));
+		if (!admitted.isEmpty()) {
+			List<TransferResult> applied;
+			try {
+				applied = this.accountsRepository.transferMoneyBatch(admitted, mode);
+			} catch (ApplicationException ae) {
+				admitted.forEach(this.rateLimiter::release);
+				for (IdempotencyCache.Claim claim : claims) {
+					if (claim != null) {
+						this.idempotencyCache.forget(claim);
+					}
+				}
+				throw ae;
+			}
+			for (TransferResult result : applied) {
+				if (result.getStatus() != TransferStatus.COMMITTED) {
+					this.rateLimiter.release(admitted.get(result.getIndex()));
+				}
+				int index = admittedIndexes[result.getIndex()];
+				results.set(index, result.withIndex(index));
+			}
+		}
+		completeClaims(claims, results);
+		return recorded(transferRequests, results, cached, start);
+	}
+
+	/**
+	 * Remembers the outcomes of the transfers of a batch that claimed an
+	 * idempotency key; rolled back ones are forgotten
+	 */
+	private void completeClaims(IdempotencyCache.Claim[] claims, List<TransferResult> results) {
+		for (TransferResult result : results) {
+			IdempotencyCache.Claim claim = claims[result.getIndex()];
+			if (claim == null) {
+				continue;
+			}
+			if (result.getStatus() == TransferStatus.COMMITTED) {
+				this.idempotencyCache.committed(claim);
+			} else if (result.getStatus() == TransferStatus.REJECTED) {
+				this.idempotencyCache.rejected(claim, new ApplicationException(result.getReason(), result.getMessage()));
+			} else {
+				this.idempotencyCache.forget(claim);
+			}
+		}
+	}
+
+	private void checkCurrency(TransferRequest transferRequest) throws ApplicationException {
+		if (transferRequest.getCurrency() != null && !this.accountsRepository.supportsCurrencies()) {
+			throw new ApplicationException("Transfers in a currency are not supported by this engine");
+		}
+	}
+
+	/**
+	 * Records the outcomes of a batch started at start, except those answered
+	 * from the idempotency cache
+	 * 
+	 * @return the results
+	 */
+	private List<TransferResult> recorded(List<TransferRequest> transferRequests, List<TransferResult> results,
+			boolean[] cached, long start) {
+		// every transfer of the batch waited for the whole batch
+		long nanos = System.nanoTime() - start;
+		long committedAt = System.currentTimeMillis();
+		for (TransferResult result : results) {
+			if (cached[result.getIndex()]) {
+				continue;
+			}
+			TransferRequest transferRequest = transferRequests.get(result.getIndex());
+			if (result.getStatus() == TransferStatus.COMMITTED) {
+				this.accountsMetrics.transferCommitted(nanos);
+				this.auditTrail.transferCommitted(transferRequest);
+				this.transactionHistory.transferCommitted(transferRequest, committedAt);
+			} else if (result.getStatus() == TransferStatus.REJECTED) {
+				this.accountsMetrics.transferRejected(result.getReason(), nanos);
+				this.auditTrail.transferRejected(transferRequest, result.getReason());
+			}
+		}
+		return results;
 	}
 
 }
@@ -0,0 +1,86 @@
+package com.db.awmd.challenge.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.db.awmd.challenge.config.AsyncProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         Asynchronous front of {@link AccountsService}. Writes are queued on a
+ *         small executor sized to the cores and complete a CompletableFuture,
+ *         so a caller, typically a servlet thread, is released as soon as the
+ *         write is queued. Reads complete at once: the repositories serve them
+ *         from published copies without waiting on a lock.
+ *
+ *         A write refused because the queue is full completes exceptionally
+ *         with a RejectedExecutionException.
+ *
+ */
+@Service
+public class AsyncAccountsService {
+
+	private final AccountsService accountsService;
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicInteger threadCount = new AtomicInteger();
+
+	@Autowired
+	public AsyncAccountsService(AccountsService accountsService, AsyncProperties properties) {
+		this.accountsService = accountsService;
+		this.executor = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(), 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(properties.getQueueCapacity()), runnable -> {
+					Thread thread = new Thread(runnable, "accounts-async-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	public CompletableFuture<Void> createAccount(Account account) {
+		return submit(() -> accountsService.createAccount(account));
+	}
+
+	public CompletableFuture<Account> getAccount(String accountId) {
+		return CompletableFuture.completedFuture(accountsService.getAccount(accountId));
+	}
+
+	public CompletableFuture<Void> transferMoney(TransferRequest transferRequest) {
+		return submit(() -> accountsService.transferMoney(transferRequest));
+	}
+
+	private CompletableFuture<Void> submit(Runnable write) {
+		try {
+			return CompletableFuture.runAsync(write, executor);
+		} catch (RejectedExecutionException ree) {
+			CompletableFuture<Void> refused = new CompletableFuture<>();
+			refused.completeExceptionally(ree);
+			return refused;
+		}
+	}
+
+	/**
+	 * @return writes waiting for a thread
+	 */
+	public int queuedWrites() {
+		return executor.getQueue().size();
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+}
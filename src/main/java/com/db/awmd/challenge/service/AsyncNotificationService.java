@@ -0,0 +1,415 @@
+package com.db.awmd.challenge.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import com.db.awmd.challenge.config.NotificationProperties;
+import com.db.awmd.challenge.config.NotificationProperties.OverflowPolicy;
+import com.db.awmd.challenge.domain.Account;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         Notification service used by the repositories. Notifications are put
+ *         on a bounded in-process queue once a transfer has committed and are
+ *         sent by dispatcher threads, so slow delivery never holds up a
+ *         transfer. Every account maps to one dispatcher, which keeps its
+ *         notifications in order and lets the dispatcher coalesce all pending
+ *         notifications of an account into a single delivery.
+ *
+ *         Once a notification is spilled, the ones after it are spilled too
+ *         until the replayer has put the spill file back on the dispatcher
+ *         queues, so the notifications of an account stay in order.
+ *
+ */
+@Slf4j
+@Primary
+@Service
+public class AsyncNotificationService implements NotificationService, MeterBinder {
+
+	private static final String SPILL_FILE = "notifications.spill";
+
+	private static final long SPILL_REPLAY_MILLIS = 500;
+
+	private final NotificationService delegate;
+
+	private final NotificationProperties properties;
+
+	private final List<BlockingQueue<Notification>> queues = new ArrayList<>();
+
+	private final List<Thread> dispatchers = new ArrayList<>();
+
+	private final AtomicLong published = new AtomicLong();
+
+	private final AtomicLong dispatched = new AtomicLong();
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong spilled = new AtomicLong();
+
+	private final Object spillLock = new Object();
+
+	private ScheduledExecutorService spillReplayer;
+
+	private DataOutputStream spillOutput;
+
+	/**
+	 * Whether notifications are spilled whatever the room in the queues,
+	 * because older ones still wait in the spill file
+	 */
+	private volatile boolean spilling;
+
+	private volatile boolean running;
+
+	@Autowired
+	public AsyncNotificationService(@Qualifier("emailNotificationService") NotificationService delegate,
+			NotificationProperties properties) {
+		this.delegate = delegate;
+		this.properties = properties;
+	}
+
+	@PostConstruct
+	public void start() {
+		int dispatcherCount = Math.max(1, properties.getDispatchers());
+		int capacity = Math.max(1, properties.getQueueCapacity() / dispatcherCount);
+		running = true;
+		for (int i = 0; i < dispatcherCount; i++) {
+			BlockingQueue<Notification> queue = new ArrayBlockingQueue<>(capacity);
+			queues.add(queue);
+			Thread dispatcher = new Thread(() -> dispatchLoop(queue), "notification-dispatcher-" + i);
+			dispatcher.setDaemon(true);
+			dispatchers.add(dispatcher);
+			dispatcher.start();
+		}
+		if (properties.getOverflowPolicy() == OverflowPolicy.SPILL) {
+			Path directory = Paths.get(properties.getSpillDirectory());
+			spilling = Files.exists(directory.resolve(SPILL_FILE))
+					|| Files.exists(directory.resolve(SPILL_FILE + ".replay"));
+			spillReplayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "notification-spill-replayer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			spillReplayer.scheduleWithFixedDelay(this::replaySpill, SPILL_REPLAY_MILLIS, SPILL_REPLAY_MILLIS,
+					TimeUnit.MILLISECONDS);
+		}
+		log.info("Started {} notification dispatchers with {} queued notifications each, overflow policy {}",
+				dispatcherCount, capacity, properties.getOverflowPolicy());
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		if (spillReplayer != null) {
+			spillReplayer.shutdownNow();
+		}
+		for (Thread dispatcher : dispatchers) {
+			dispatcher.interrupt();
+			dispatcher.join(TimeUnit.SECONDS.toMillis(5));
+		}
+		synchronized (spillLock) {
+			closeSpill();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * com.db.awmd.challenge.service.NotificationService#notifyAboutTransfer(com.db.
+	 * awmd.challenge.domain.Account, java.lang.String)
+	 * 
+	 * Queues the notification; it is delivered by a dispatcher thread
+	 */
+	@Override
+	public void notifyAboutTransfer(Account account, String transferDescription) {
+		Notification notification = new Notification(account.getAccountId(), account.getBalanceMinorUnits(),
+				transferDescription, System.nanoTime());
+		BlockingQueue<Notification> queue = queueFor(notification.accountId);
+		published.incrementAndGet();
+		if (!spilling && queue.offer(notification)) {
+			return;
+		}
+		if (spilling) {
+			spill(notification);
+			return;
+		}
+		switch (properties.getOverflowPolicy()) {
+		case BLOCK:
+			try {
+				queue.put(notification);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				dropped.incrementAndGet();
+			}
+			break;
+		case SPILL:
+			spill(notification);
+			break;
+		default:
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Number of notifications waiting in the dispatcher queues
+	 * 
+	 * @return
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (BlockingQueue<Notification> queue : queues) {
+			depth += queue.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * Age of the oldest queued notification in nanoseconds, 0 when idle
+	 * 
+	 * @return
+	 */
+	public long getLagNanos() {
+		long now = System.nanoTime();
+		long lag = 0;
+		for (BlockingQueue<Notification> queue : queues) {
+			Notification oldest = queue.peek();
+			if (oldest != null) {
+				lag = Math.max(lag, now - oldest.enqueuedNanos);
+			}
+		}
+		return lag;
+	}
+
+	public long getPublishedCount() {
+		return published.get();
+	}
+
+	public long getDispatchedCount() {
+		return dispatched.get();
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public long getSpilledCount() {
+		return spilled.get();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("accounts.notifications.queue.depth", this, AsyncNotificationService::getQueueDepth)
+				.description("Notifications waiting in the dispatcher queues").register(registry);
+		Gauge.builder("accounts.notifications.lag", this, service -> service.getLagNanos() / 1e9)
+				.description("Age of the oldest queued notification").baseUnit("seconds").register(registry);
+		FunctionCounter.builder("accounts.notifications", published, AtomicLong::get).tag("outcome", "published")
+				.description("Notifications of committed transfers").register(registry);
+		FunctionCounter.builder("accounts.notifications", dispatched, AtomicLong::get).tag("outcome", "dispatched")
+				.description("Notifications of committed transfers").register(registry);
+		FunctionCounter.builder("accounts.notifications", dropped, AtomicLong::get).tag("outcome", "dropped")
+				.description("Notifications of committed transfers").register(registry);
+		FunctionCounter.builder("accounts.notifications", spilled, AtomicLong::get).tag("outcome", "spilled")
+				.description("Notifications of committed transfers").register(registry);
+	}
+
+	private BlockingQueue<Notification> queueFor(String accountId) {
+		int h = accountId.hashCode();
+		return queues.get(((h ^ (h >>> 16)) & Integer.MAX_VALUE) % queues.size());
+	}
+
+	/**
+	 * Drains the queue in batches and delivers one notification per account
+	 * and batch
+	 * 
+	 * @param queue
+	 */
+	private void dispatchLoop(BlockingQueue<Notification> queue) {
+		List<Notification> batch = new ArrayList<>(properties.getBatchSize());
+		Map<String, Notification> coalesced = new LinkedHashMap<>();
+		while (running || !queue.isEmpty()) {
+			try {
+				Notification first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+			} catch (InterruptedException ie) {
+				if (!running) {
+					queue.drainTo(batch);
+				}
+			}
+			queue.drainTo(batch, properties.getBatchSize() - batch.size());
+
+			for (Notification notification : batch) {
+				coalesced.merge(notification.accountId, notification, Notification::coalesce);
+			}
+			for (Notification notification : coalesced.values()) {
+				deliver(notification);
+			}
+			batch.clear();
+			coalesced.clear();
+		}
+	}
+
+	private void deliver(Notification notification) {
+		Account account = new Account(notification.accountId);
+		account.setBalanceMinorUnits(notification.balance);
+		String description = notification.count == 1 ? notification.descriptions
+				: notification.count + " transfers:" + notification.descriptions;
+		try {
+			delegate.notifyAboutTransfer(account, description);
+		} catch (RuntimeException re) {
+			log.warn("Notification to owner of {} failed", notification.accountId, re);
+		}
+		dispatched.addAndGet(notification.count);
+	}
+
+	private void spill(Notification notification) {
+		synchronized (spillLock) {
+			try {
+				if (spillOutput == null) {
+					Path directory = Paths.get(properties.getSpillDirectory());
+					Files.createDirectories(directory);
+					spillOutput = new DataOutputStream(new BufferedOutputStream(
+							new FileOutputStream(directory.resolve(SPILL_FILE).toFile(), true)));
+				}
+				spillOutput.writeUTF(notification.accountId);
+				spillOutput.writeLong(notification.balance);
+				spillOutput.writeUTF(notification.descriptions);
+				spillOutput.flush();
+				spilled.incrementAndGet();
+				spilling = true;
+			} catch (IOException ioe) {
+				log.error("Could not spill notification for {}, dropping it", notification.accountId, ioe);
+				dropped.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Puts spilled notifications back on the dispatcher queues once they are
+	 * less than half full, waiting for room rather than delivering from this
+	 * thread. Notifications are spilled until the file is drained, so the
+	 * replayed ones keep their place ahead of any sent after them.
+	 */
+	private void replaySpill() {
+		if (getQueueDepth() > properties.getQueueCapacity() / 2) {
+			return;
+		}
+		Path directory = Paths.get(properties.getSpillDirectory());
+		Path draining = directory.resolve(SPILL_FILE + ".replay");
+		try {
+			if (!Files.exists(draining)) {
+				synchronized (spillLock) {
+					closeSpill();
+					if (!Files.exists(directory.resolve(SPILL_FILE))) {
+						spilling = false;
+						return;
+					}
+					Files.move(directory.resolve(SPILL_FILE), draining, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			try (InputStream file = Files.newInputStream(draining);
+					DataInputStream input = new DataInputStream(new BufferedInputStream(file))) {
+				while (true) {
+					String accountId;
+					try {
+						accountId = input.readUTF();
+					} catch (EOFException eof) {
+						break;
+					}
+					Notification notification = new Notification(accountId, input.readLong(), input.readUTF(),
+							System.nanoTime());
+					queueFor(accountId).put(notification);
+				}
+			}
+			Files.delete(draining);
+			synchronized (spillLock) {
+				if (spillOutput == null && !Files.exists(directory.resolve(SPILL_FILE))) {
+					spilling = false;
+				}
+			}
+		} catch (IOException ioe) {
+			log.error("Could not replay spilled notifications from {}", draining, ioe);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void closeSpill() {
+		if (spillOutput != null) {
+			try {
+				spillOutput.close();
+			} catch (IOException ioe) {
+				log.warn("Could not close notification spill file", ioe);
+			}
+			spillOutput = null;
+		}
+	}
+
+	/**
+	 * A queued notification; coalescing merges later notifications of the same
+	 * account into the first one
+	 */
+	private static final class Notification {
+
+		final String accountId;
+
+		final long enqueuedNanos;
+
+		long balance;
+
+		int count = 1;
+
+		String descriptions;
+
+		Notification(String accountId, long balance, String description, long enqueuedNanos) {
+			this.accountId = accountId;
+			this.balance = balance;
+			this.descriptions = description;
+			this.enqueuedNanos = enqueuedNanos;
+		}
+
+		Notification coalesce(Notification later) {
+			balance = later.balance;
+			count += later.count;
+			descriptions = descriptions + "," + later.descriptions;
+			return this;
+		}
+	}
+}
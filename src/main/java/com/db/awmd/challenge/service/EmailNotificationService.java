@@ -1,5 +1,7 @@
 package com.db.awmd.challenge.service;
 
+import org.springframework.stereotype.Service;
+
 import com.db.awmd.challenge.domain.Account;
 
 import lombok.extern.slf4j.Slf4j;
@@ -11,6 +13,7 @@ import lombok.extern.slf4j.Slf4j;
  *
  */
 @Slf4j
+@Service
 public class EmailNotificationService implements NotificationService {
 
 	@Override
@@ -1,8 +1,22 @@
 package com.db.awmd.challenge.web;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -11,15 +25,33 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchTransferMode;
+import com.db.awmd.challenge.domain.Money;
 import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
 import com.db.awmd.challenge.exception.ApplicationException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.service.AccountsImporter;
+import com.db.awmd.challenge.service.AccountsImporter.Format;
 import com.db.awmd.challenge.service.AccountsService;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -33,11 +65,23 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class AccountsController {
 
+	private static final int MAX_PAGE_SIZE = 1000;
+
 	private final AccountsService accountsService;
 
+	private final ObjectMapper objectMapper;
+
+	private final Validator validator;
+
+	private final AccountsImporter accountsImporter;
+
 	@Autowired
-	public AccountsController(AccountsService accountsService) {
+	public AccountsController(AccountsService accountsService, ObjectMapper objectMapper, Validator validator,
+			AccountsImporter accountsImporter) {
 		this.accountsService = accountsService;
+		this.accountsImporter = accountsImporter;
+		this.objectMapper = objectMapper;
+		this.validator = validator;
 	}
 
 	/**
@@ -54,41 +98,287 @@ public class AccountsController {
 			this.accountsService.createAccount(account);
 		} catch (DuplicateAccountIdException daie) {
 			return new ResponseEntity<>(daie.getMessage(), HttpStatus.BAD_REQUEST);
+		} catch (ApplicationException ae) {
+			return new ResponseEntity<>(ae.getMessage(), HttpStatus.BAD_REQUEST);
 		}
 
 		return new ResponseEntity<>(HttpStatus.CREATED);
 	}
 
 	/**
-	 * This method is used to retrieve account from memory
+	 * This method is used to list accounts a page at a time, in the order
+	 * they were created. The nextCursor of a page fetches the next one.
+	 * 
+	 * @param cursor
+	 * @param limit
+	 * @return
+	 */
+	@GetMapping
+	public ResponseEntity<Object> listAccounts(@RequestParam(required = false) String cursor,
+			@RequestParam(defaultValue = "100") int limit) {
+		if (limit < 1 || limit > MAX_PAGE_SIZE) {
+			return new ResponseEntity<>("Limit must be between 1 and " + MAX_PAGE_SIZE, HttpStatus.BAD_REQUEST);
+		}
+		try {
+			return new ResponseEntity<>(this.accountsService.listAccounts(cursor, limit), HttpStatus.OK);
+		} catch (ApplicationException ae) {
+			return new ResponseEntity<>(ae.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * This method streams a consistent snapshot of all accounts as newline
+	 * delimited JSON. The first line is the snapshot marker, the commit
+	 * sequence up to which transfers are reflected; the last line repeats it
+	 * with the number of accounts and their total balance, so a consumer can
+	 * tell a complete export from a cut off one.
+	 * 
+	 * @return
+	 */
+	@GetMapping(path = "/export", produces = AccountsImporter.APPLICATION_NDJSON)
+	public StreamingResponseBody exportAccounts() {
+		return output -> {
+			try (JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+				// lines are separated by writeLine, not by the default space between root values
+				generator.setRootValueSeparator(null);
+				long[] snapshot = new long[2];
+				long exported = this.accountsService.exportAccounts(sequence -> {
+					snapshot[0] = sequence;
+					writeLine(generator, new ExportMarker(sequence, Instant.now().toString(), null, null));
+				}, account -> {
+					snapshot[1] += account.getBalanceMinorUnits();
+					writeLine(generator, account);
+				});
+				writeLine(generator, new ExportMarker(snapshot[0], null, exported, Money.toDecimal(snapshot[1])));
+			}
+		};
+	}
+
+	/**
+	 * This method is used to create accounts in bulk from a CSV or newline
+	 * delimited JSON body, which is streamed rather than read at once. Rows
+	 * that are malformed, invalid or duplicate are listed in the result
+	 * without stopping the import.
+	 * 
+	 * @param body
+	 * @param contentType
+	 * @return
+	 * @throws IOException
+	 */
+	@PostMapping(path = "/import", consumes = { AccountsImporter.TEXT_CSV, AccountsImporter.APPLICATION_NDJSON })
+	public ResponseEntity<Object> importAccounts(InputStream body,
+			@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType) throws IOException {
+		Format format = MediaType.parseMediaType(AccountsImporter.TEXT_CSV)
+				.includes(MediaType.parseMediaType(contentType)) ? Format.CSV : Format.NDJSON;
+		try {
+			return new ResponseEntity<>(this.accountsImporter.importAccounts(body, format), HttpStatus.OK);
+		} catch (ApplicationException ae) {
+			return new ResponseEntity<>(ae.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * This method is used to retrieve account from memory. The account is sent
+	 * with an ETag of its version; a request whose If-None-Match still matches
+	 * gets 304 Not Modified without a body.
 	 * 
 	 * @param accountId
+	 * @param request
 	 * @return
 	 */
 	@GetMapping(path = "/{accountId}")
-	public Account getAccount(@PathVariable String accountId) {
-		log.info("Retrieving account for id {}", accountId);
-		return this.accountsService.getAccount(accountId);
+	public Account getAccount(@PathVariable String accountId, WebRequest request) {
+		log.debug("Retrieving account for id {}", accountId);
+		Account account = this.accountsService.getAccount(accountId);
+		if (account != null && request.checkNotModified(eTagOf(account))) {
+			return null;
+		}
+		return account;
+	}
+
+	/**
+	 * This method is used to retrieve the statement of an account: its
+	 * committed transfers from the from instant, inclusive, to the to instant,
+	 * exclusive, oldest first. Both are ISO-8601 instants and may be left out.
+	 * 
+	 * @param accountId
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	@GetMapping(path = "/{accountId}/transactions")
+	public ResponseEntity<Object> getTransactions(@PathVariable String accountId,
+			@RequestParam(required = false) String from, @RequestParam(required = false) String to) {
+		if (this.accountsService.getAccount(accountId) == null) {
+			return new ResponseEntity<>("Account id " + accountId + " not found", HttpStatus.NOT_FOUND);
+		}
+		long fromMillis;
+		long toMillis;
+		try {
+			fromMillis = from == null ? 0 : Instant.parse(from).toEpochMilli();
+			toMillis = to == null ? Long.MAX_VALUE : Instant.parse(to).toEpochMilli();
+		} catch (DateTimeParseException | ArithmeticException e) {
+			return new ResponseEntity<>("from and to must be ISO-8601 instants", HttpStatus.BAD_REQUEST);
+		}
+		return new ResponseEntity<>(this.accountsService.getTransactions(accountId, fromMillis, toMillis),
+				HttpStatus.OK);
 	}
 
 	/**
-	 * This method is used to transfer money from one account to another
+	 * This method is used to transfer money from one account to another. A
+	 * transfer over a rate limit is answered with 429.
 	 * 
 	 * @param transferRequest
+	 * @param request
+	 *          connection the caller is rate limited by
 	 * @return
 	 */
 	@PutMapping(consumes = MediaType.APPLICATION_JSON_VALUE, path = "/transfer")
-	public ResponseEntity<Object> transferMoney(@RequestBody @Valid TransferRequest transferRequest) {
-		log.info("transferMoney account {}", transferRequest);
+	public ResponseEntity<Object> transferMoney(@RequestBody @Valid TransferRequest transferRequest,
+			HttpServletRequest request) {
+		log.debug("transferMoney account {}", transferRequest);
 
 		try {
+			transferRequest.setClientId(clientOf(request));
 			this.accountsService.transferMoney(transferRequest);
 
 		} catch (ApplicationException daie) {
-			return new ResponseEntity<>(daie.getMessage(), HttpStatus.BAD_REQUEST);
+			return new ResponseEntity<>(daie.getMessage(), statusOf(daie));
 		}
 
 		return new ResponseEntity<>(HttpStatus.OK);
 	}
 
+	/**
+	 * This method is used to apply a batch of transfers. The body is a JSON
+	 * array of transfers which is read incrementally; a malformed transfer
+	 * rejects the whole batch. Business failures are reported per transfer,
+	 * and each transfer counts against the rate limits on its own.
+	 * 
+	 * @param body
+	 * @param mode
+	 * @param request
+	 *          connection the caller is rate limited by
+	 * @return
+	 * @throws IOException
+	 */
+	@PutMapping(consumes = MediaType.APPLICATION_JSON_VALUE, path = "/transfers/batch")
+	public ResponseEntity<Object> transferMoneyBatch(InputStream body,
+			@RequestParam(defaultValue = "BEST_EFFORT") BatchTransferMode mode, HttpServletRequest request)
+			throws IOException {
+		List<TransferResult> results;
+		try {
+			List<TransferRequest> transferRequests = readTransferRequests(body);
+			String clientId = clientOf(request);
+			for (TransferRequest transferRequest : transferRequests) {
+				transferRequest.setClientId(clientId);
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("transferMoneyBatch of {} transfers in {} mode", transferRequests.size(), mode);
+			}
+			results = this.accountsService.transferMoneyBatch(transferRequests, mode);
+		} catch (ApplicationException ae) {
+			return new ResponseEntity<>(ae.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+
+		boolean rolledBack = mode == BatchTransferMode.ATOMIC
+				&& results.stream().anyMatch(result -> result.getStatus() != TransferStatus.COMMITTED);
+		return new ResponseEntity<>(results, rolledBack ? HttpStatus.BAD_REQUEST : HttpStatus.OK);
+	}
+
+	/**
+	 * This method streams the transfers of a JSON array one at a time and
+	 * validates each of them
+	 * 
+	 * @param body
+	 * @return
+	 * @throws IOException
+	 */
+	private List<TransferRequest> readTransferRequests(InputStream body) throws IOException {
+		List<TransferRequest> transferRequests = new ArrayList<>();
+		try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new ApplicationException("Batch must be a JSON array of transfers");
+			}
+			for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+				int index = transferRequests.size();
+				if (token == null) {
+					throw new ApplicationException("Batch ends after " + index + " transfers without closing the array");
+				}
+				TransferRequest transferRequest;
+				try {
+					transferRequest = objectMapper.readValue(parser, TransferRequest.class);
+				} catch (JsonProcessingException jpe) {
+					throw new ApplicationException("Transfer " + index + " is malformed: " + jpe.getOriginalMessage());
+				}
+				Set<ConstraintViolation<TransferRequest>> violations = validator.validate(transferRequest);
+				if (!violations.isEmpty()) {
+					ConstraintViolation<TransferRequest> violation = violations.iterator().next();
+					throw new ApplicationException(
+							"Transfer " + index + " is invalid: " + violation.getPropertyPath() + " " + violation.getMessage());
+				}
+				transferRequests.add(transferRequest);
+			}
+		} catch (JsonProcessingException jpe) {
+			throw new ApplicationException("Batch is malformed: " + jpe.getOriginalMessage());
+		}
+		return transferRequests;
+	}
+
+	private static void writeLine(JsonGenerator generator, Object value) {
+		try {
+			generator.writeObject(value);
+			generator.writeRaw('\n');
+		} catch (IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 * First and last line of an export
+	 */
+	@Data
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	static class ExportMarker {
+
+		private final long snapshot;
+
+		private final String takenAt;
+
+		private final Long accounts;
+
+		private final BigDecimal totalBalance;
+	}
+
+	/**
+	 * The version alone would repeat once an account is cleared and created
+	 * again, the balance makes the tag match the representation
+	 */
+	private static String eTagOf(Account account) {
+		return account.getVersion() + "-" + account.getBalanceMinorUnits();
+	}
+
+	/**
+	 * The caller a transfer is rate limited for: the authenticated user if
+	 * there is one, otherwise the address of the connection. Nothing the
+	 * caller sends can pick it.
+	 */
+	static String clientOf(HttpServletRequest request) {
+		return request.getUserPrincipal() != null ? request.getUserPrincipal().getName() : request.getRemoteAddr();
+	}
+
+	/**
+	 * 429 for a transfer over a rate limit, 503 for one whose outcome is
+	 * unknown because a node did not answer, 400 for any other rejection
+	 */
+	static HttpStatus statusOf(ApplicationException rejection) {
+		switch (rejection.getReason()) {
+		case RATE_LIMITED:
+			return HttpStatus.TOO_MANY_REQUESTS;
+		case UNAVAILABLE:
+			return HttpStatus.SERVICE_UNAVAILABLE;
+		default:
+			return HttpStatus.BAD_REQUEST;
+		}
+	}
 }
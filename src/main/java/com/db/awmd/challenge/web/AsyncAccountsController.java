@@ -0,0 +1,95 @@
+package com.db.awmd.challenge.web;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.Valid;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.service.AsyncAccountsService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * @author Dhananjay Jadhav
+ * 
+ *         Non blocking variant of {@link AccountsController}. Handlers return
+ *         a CompletableFuture, so the servlet thread goes back to the
+ *         connector as soon as the write is queued and the response is sent
+ *         from the thread completing it (Servlet 3 async). Responses match the
+ *         blocking endpoints, plus 503 when the write queue is full.
+ *
+ */
+@RestController
+@RequestMapping("/v1/async/accounts")
+@Slf4j
+public class AsyncAccountsController {
+
+	private final AsyncAccountsService asyncAccountsService;
+
+	@Autowired
+	public AsyncAccountsController(AsyncAccountsService asyncAccountsService) {
+		this.asyncAccountsService = asyncAccountsService;
+	}
+
+	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+	public CompletableFuture<ResponseEntity<Object>> createAccount(@RequestBody @Valid Account account) {
+		log.debug("Creating account {}", account);
+		return this.asyncAccountsService.createAccount(account).handle((created, failure) -> respond(failure,
+				HttpStatus.CREATED));
+	}
+
+	@GetMapping(path = "/{accountId}")
+	public CompletableFuture<Account> getAccount(@PathVariable String accountId) {
+		log.debug("Retrieving account for id {}", accountId);
+		return this.asyncAccountsService.getAccount(accountId);
+	}
+
+	@PutMapping(consumes = MediaType.APPLICATION_JSON_VALUE, path = "/transfer")
+	public CompletableFuture<ResponseEntity<Object>> transferMoney(@RequestBody @Valid TransferRequest transferRequest,
+			HttpServletRequest request) {
+		log.debug("transferMoney account {}", transferRequest);
+		transferRequest.setClientId(AccountsController.clientOf(request));
+		return this.asyncAccountsService.transferMoney(transferRequest).handle((transferred, failure) -> respond(
+				failure, HttpStatus.OK));
+	}
+
+	/**
+	 * Maps the outcome of a write to the response of the blocking endpoint;
+	 * unexpected failures propagate to the default error handling
+	 */
+	private static ResponseEntity<Object> respond(Throwable failure, HttpStatus success) {
+		if (failure == null) {
+			return new ResponseEntity<>(success);
+		}
+		Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause()
+				: failure;
+		if (cause instanceof ApplicationException) {
+			return new ResponseEntity<>(cause.getMessage(), AccountsController.statusOf((ApplicationException) cause));
+		}
+		if (cause instanceof DuplicateAccountIdException) {
+			return new ResponseEntity<>(cause.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+		if (cause instanceof RejectedExecutionException) {
+			return new ResponseEntity<>("Too many pending requests, retry later", HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		throw new CompletionException(cause);
+	}
+}
@@ -1,14 +1,20 @@
 package com.db.awmd.challenge;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -19,9 +25,13 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.web.context.WebApplicationContext;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.metrics.AccountsMetrics;
 import com.db.awmd.challenge.service.AccountsService;
 
 /**
@@ -40,6 +50,9 @@ public class AccountsControllerTest {
 	@Autowired
 	private AccountsService accountsService;
 
+	@Autowired
+	private AccountsMetrics accountsMetrics;
+
 	@Autowired
 	private WebApplicationContext webApplicationContext;
 
@@ -110,6 +123,27 @@ public class AccountsControllerTest {
 				.andExpect(content().string("{\"accountId\":\"" + uniqueAccountId + "\",\"balance\":123.45}"));
 	}
 
+	@Test
+	public void getAccountIsConditionalOnItsVersion() throws Exception {
+		this.accountsService.createAccount(new Account("Id-1", new BigDecimal(100)));
+		this.accountsService.createAccount(new Account("Id-2", new BigDecimal(100)));
+
+		String eTag = this.mockMvc.perform(get("/v1/accounts/Id-1")).andExpect(status().isOk())
+				.andExpect(header().string("ETag", "\"0-10000\"")).andReturn().getResponse().getHeader("ETag");
+		this.mockMvc.perform(get("/v1/accounts/Id-1").header("If-None-Match", eTag))
+				.andExpect(status().isNotModified()).andExpect(content().string(""));
+
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom("Id-1");
+		transferRequest.setAccountTo("Id-2");
+		transferRequest.setAmount(BigDecimal.ONE);
+		this.accountsService.transferMoney(transferRequest);
+
+		this.mockMvc.perform(get("/v1/accounts/Id-1").header("If-None-Match", eTag)).andExpect(status().isOk())
+				.andExpect(header().string("ETag", "\"1-9900\""))
+				.andExpect(content().string("{\"accountId\":\"Id-1\",\"balance\":99.00}"));
+	}
+
 	@Test
 	public void transferMoneyOk() throws Exception {
 
@@ -126,6 +160,23 @@ public class AccountsControllerTest {
 
 	}
 
+	@Test
+	public void transferMoneyRetriedWithIdempotencyKey() throws Exception {
+		this.accountsService.createAccount(new Account("Id-1", new BigDecimal(1000)));
+		this.accountsService.createAccount(new Account("Id-2", new BigDecimal(1000)));
+		String transfer = "{\"accountFrom\":\"Id-1\",\"accountTo\":\"Id-2\",\"amount\":%s,\"idempotencyKey\":\"k-1\"}";
+
+		for (int attempt = 0; attempt < 3; attempt++) {
+			this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+					.content(String.format(transfer, "20"))).andExpect(status().isOk());
+		}
+		this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+				.content(String.format(transfer, "30"))).andExpect(status().isBadRequest());
+
+		assertThat(this.accountsService.getAccount("Id-1").getBalance()).isEqualByComparingTo("980");
+		assertThat(this.accountsService.getAccount("Id-2").getBalance()).isEqualByComparingTo("1020");
+	}
+
 	@Test
 	public void transferMoneyFromAccountIdNotExist() throws Exception {
 
@@ -203,4 +254,204 @@ public class AccountsControllerTest {
 
 	}
 
+	@Test
+	public void transferMoneyBatchBestEffort() throws Exception {
+		this.accountsService.createAccount(new Account("1", new BigDecimal(100)));
+		this.accountsService.createAccount(new Account("2", new BigDecimal(100)));
+
+		this.mockMvc
+				.perform(put("/v1/accounts/transfers/batch").contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":30},"
+								+ "{\"accountFrom\":\"1\",\"accountTo\":\"3\",\"amount\":10},"
+								+ "{\"accountFrom\":\"2\",\"accountTo\":\"1\",\"amount\":5}]"))
+				.andExpect(status().isOk()).andExpect(jsonPath("$[0].status").value("COMMITTED"))
+				.andExpect(jsonPath("$[1].status").value("REJECTED"))
+				.andExpect(jsonPath("$[2].status").value("COMMITTED"));
+
+		assertThat(accountsService.getAccount("1").getBalance()).isEqualByComparingTo("75");
+		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("125");
+	}
+
+	@Test
+	public void transferMoneyBatchAtomicRollsBack() throws Exception {
+		this.accountsService.createAccount(new Account("1", new BigDecimal(100)));
+		this.accountsService.createAccount(new Account("2", new BigDecimal(100)));
+
+		this.mockMvc
+				.perform(put("/v1/accounts/transfers/batch?mode=ATOMIC").contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":30},"
+								+ "{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":80}]"))
+				.andExpect(status().isBadRequest()).andExpect(jsonPath("$[0].status").value("ROLLED_BACK"))
+				.andExpect(jsonPath("$[1].status").value("REJECTED"));
+
+		assertThat(accountsService.getAccount("1").getBalance()).isEqualByComparingTo("100");
+		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("100");
+	}
+
+	@Test
+	public void transferMoneyBatchRetriedWithIdempotencyKeys() throws Exception {
+		this.accountsService.createAccount(new Account("1", new BigDecimal(100)));
+		this.accountsService.createAccount(new Account("2", new BigDecimal(100)));
+		String batch = "[{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":30,\"idempotencyKey\":\"k-1\"},"
+				+ "{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":80,\"idempotencyKey\":\"k-2\"},"
+				+ "{\"accountFrom\":\"2\",\"accountTo\":\"1\",\"amount\":5}]";
+
+		for (int attempt = 0; attempt < 3; attempt++) {
+			this.mockMvc
+					.perform(put("/v1/accounts/transfers/batch").contentType(MediaType.APPLICATION_JSON).content(batch))
+					.andExpect(status().isOk()).andExpect(jsonPath("$[0].status").value("COMMITTED"))
+					.andExpect(jsonPath("$[1].status").value("REJECTED"))
+					.andExpect(jsonPath("$[1].message").value("Account id 1 balance is less than 80"))
+					.andExpect(jsonPath("$[2].status").value("COMMITTED"));
+		}
+
+		// only the transfer without a key ran again
+		assertThat(accountsService.getAccount("1").getBalance()).isEqualByComparingTo("85");
+		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("115");
+	}
+
+	@Test
+	public void transferMoneyBatchMalformedItem() throws Exception {
+		this.mockMvc
+				.perform(put("/v1/accounts/transfers/batch").contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"accountFrom\":\"1\",\"amount\":30}]"))
+				.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	public void importAccountsFromCsv() throws Exception {
+		this.accountsService.createAccount(new Account("2", new BigDecimal(100)));
+
+		this.mockMvc
+				.perform(post("/v1/accounts/import").contentType("text/csv")
+						.content("accountId,balance\n1,10.50\n2,20\n3,-1\n4\n5,7\n"))
+				.andExpect(status().isOk()).andExpect(jsonPath("$.created").value(2))
+				.andExpect(jsonPath("$.rejected").value(3)).andExpect(jsonPath("$.errors[0].row").value(3))
+				.andExpect(jsonPath("$.errors[0].message").value("Account id 2 already exists!"))
+				.andExpect(jsonPath("$.errors[1].row").value(4)).andExpect(jsonPath("$.errors[2].row").value(5));
+
+		assertThat(accountsService.getAccount("1").getBalance()).isEqualByComparingTo("10.50");
+		assertThat(accountsService.getAccount("2").getBalance()).isEqualByComparingTo("100");
+		assertThat(accountsService.getAccount("5").getBalance()).isEqualByComparingTo("7");
+	}
+
+	@Test
+	public void importAccountsFromNdjson() throws Exception {
+		this.mockMvc
+				.perform(post("/v1/accounts/import").contentType("application/x-ndjson")
+						.content("{\"accountId\":\"1\",\"balance\":10}\n{\"accountId\":\"2\"\n"
+								+ "{\"balance\":5,\"accountId\":\"3\"}\n"))
+				.andExpect(status().isOk()).andExpect(jsonPath("$.created").value(2))
+				.andExpect(jsonPath("$.errors[0].row").value(2));
+
+		assertThat(accountsService.getAccount("3").getBalance()).isEqualByComparingTo("5");
+	}
+
+	@Test
+	public void listAccountsByCursor() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			this.accountsService.createAccount(new Account("Id-" + i, new BigDecimal(10)));
+		}
+
+		this.mockMvc.perform(get("/v1/accounts?limit=2")).andExpect(status().isOk())
+				.andExpect(jsonPath("$.accounts[1].accountId").value("Id-1"))
+				.andExpect(jsonPath("$.nextCursor").value("2"));
+		this.mockMvc.perform(get("/v1/accounts?cursor=2&limit=2")).andExpect(status().isOk())
+				.andExpect(jsonPath("$.accounts[0].accountId").value("Id-2"))
+				.andExpect(jsonPath("$.nextCursor").doesNotExist());
+		this.mockMvc.perform(get("/v1/accounts?cursor=x")).andExpect(status().isBadRequest());
+		this.mockMvc.perform(get("/v1/accounts?limit=0")).andExpect(status().isBadRequest());
+	}
+
+	@Test
+	public void exportAccountsWithSnapshotMarker() throws Exception {
+		this.accountsService.createAccount(new Account("Id-1", new BigDecimal(10)));
+		this.accountsService.createAccount(new Account("Id-2", new BigDecimal("2.50")));
+
+		MvcResult export = this.mockMvc.perform(get("/v1/accounts/export")).andExpect(request().asyncStarted())
+				.andReturn();
+		export.getAsyncResult();
+		String[] lines = export.getResponse().getContentAsString().split("\n");
+
+		assertThat(lines).hasSize(4);
+		assertThat(lines[0]).startsWith("{\"snapshot\":").contains("takenAt");
+		assertThat(lines[1]).isEqualTo("{\"accountId\":\"Id-1\",\"balance\":10.00}");
+		assertThat(lines[3]).endsWith("\"accounts\":2,\"totalBalance\":12.50}");
+	}
+
+	@Test
+	public void transactionsOfAnAccountByTimeRange() throws Exception {
+		// the history outlives clearAccounts, so these ids are not used elsewhere
+		this.accountsService.createAccount(new Account("Statement-1", new BigDecimal(100)));
+		this.accountsService.createAccount(new Account("Statement-2", new BigDecimal(100)));
+		String before = Instant.now().minusSeconds(1).toString();
+		for (int amount = 1; amount <= 3; amount++) {
+			TransferRequest transferRequest = new TransferRequest();
+			transferRequest.setAccountFrom("Statement-1");
+			transferRequest.setAccountTo("Statement-2");
+			transferRequest.setAmount(new BigDecimal(amount));
+			this.accountsService.transferMoney(transferRequest);
+		}
+
+		this.mockMvc.perform(get("/v1/accounts/Statement-1/transactions?from=" + before)).andExpect(status().isOk())
+				.andExpect(jsonPath("$.length()").value(3))
+				.andExpect(jsonPath("$[0].counterparty").value("Statement-2"))
+				.andExpect(jsonPath("$[2].amount").value(-3));
+		this.mockMvc.perform(get("/v1/accounts/Statement-2/transactions?to=" + before)).andExpect(status().isOk())
+				.andExpect(content().string("[]"));
+		this.mockMvc.perform(get("/v1/accounts/Statement-2/transactions?from=yesterday"))
+				.andExpect(status().isBadRequest());
+		this.mockMvc.perform(get("/v1/accounts/Statement-3/transactions")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void asyncEndpointsAnswerLikeBlockingOnes() throws Exception {
+		MvcResult created = this.mockMvc.perform(post("/v1/async/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"1\",\"balance\":10}")).andExpect(request().asyncStarted()).andReturn();
+		this.mockMvc.perform(asyncDispatch(created)).andExpect(status().isCreated());
+		this.accountsService.createAccount(new Account("2", new BigDecimal(10)));
+
+		MvcResult transferred = this.mockMvc.perform(put("/v1/async/accounts/transfer")
+				.contentType(MediaType.APPLICATION_JSON).content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":4}"))
+				.andReturn();
+		this.mockMvc.perform(asyncDispatch(transferred)).andExpect(status().isOk());
+		MvcResult rejected = this.mockMvc.perform(put("/v1/async/accounts/transfer")
+				.contentType(MediaType.APPLICATION_JSON).content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":40}"))
+				.andReturn();
+		this.mockMvc.perform(asyncDispatch(rejected)).andExpect(status().isBadRequest())
+				.andExpect(content().string("Account id 1 balance is less than 40"));
+
+		MvcResult read = this.mockMvc.perform(get("/v1/async/accounts/2")).andReturn();
+		this.mockMvc.perform(asyncDispatch(read)).andExpect(status().isOk())
+				.andExpect(content().string("{\"accountId\":\"2\",\"balance\":14.00}"));
+	}
+
+	@Test
+	public void metricsArePublished() throws Exception {
+		long committed = accountsMetrics.committedCount();
+		long rejected = accountsMetrics.rejectionCount(RejectionReason.INSUFFICIENT_BALANCE);
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"1\",\"balance\":10}")).andExpect(status().isCreated());
+		this.mockMvc.perform(post("/v1/accounts").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountId\":\"2\",\"balance\":10}")).andExpect(status().isCreated());
+		this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":5}")).andExpect(status().isOk());
+		this.mockMvc.perform(put("/v1/accounts/transfer").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"accountFrom\":\"1\",\"accountTo\":\"2\",\"amount\":50}"))
+				.andExpect(status().isBadRequest());
+		this.mockMvc.perform(put("/v1/accounts/transfers/batch").contentType(MediaType.APPLICATION_JSON)
+				.content("[{\"accountFrom\":\"2\",\"accountTo\":\"1\",\"amount\":5},"
+						+ "{\"accountFrom\":\"2\",\"accountTo\":\"1\",\"amount\":50}]"))
+				.andExpect(status().isOk());
+
+		assertThat(accountsMetrics.committedCount()).isEqualTo(committed + 2);
+		assertThat(accountsMetrics.rejectionCount(RejectionReason.INSUFFICIENT_BALANCE)).isEqualTo(rejected + 2);
+		this.mockMvc.perform(get("/prometheus")).andExpect(status().isOk())
+				.andExpect(content().string(containsString("accounts_transfer_latency_seconds_count{outcome=\"committed\",}")))
+				.andExpect(content().string(containsString("accounts_transfer_rejections_total{reason=\"insufficient_balance\",}")))
+				.andExpect(content().string(containsString("accounts_lock_wait_percentile_seconds{quantile=\"0.99\",}")))
+				.andExpect(content().string(containsString("accounts_count 2.0")))
+				.andExpect(content().string(containsString("accounts_balance_total 20.0")));
+	}
+
 }
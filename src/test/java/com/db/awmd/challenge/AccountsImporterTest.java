@@ -0,0 +1,103 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.config.ImportProperties;
+import com.db.awmd.challenge.domain.ImportResult;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsImporter;
+import com.db.awmd.challenge.service.AccountsImporter.Format;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Bulk account import tests
+ *
+ */
+public class AccountsImporterTest {
+
+	private final AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory((account, description) -> {
+	});
+
+	@Test
+	public void importsAcrossBatchesAndReportsDuplicates() throws IOException {
+		StringBuilder csv = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			csv.append("Id-").append(i % 900).append(',').append(i).append(".5\n");
+		}
+		ImportResult result = importer(7, 3, 1000).importAccounts(input(csv), Format.CSV);
+
+		assertThat(result.getCreated()).isEqualTo(900);
+		assertThat(result.getRejected()).isEqualTo(100);
+		assertThat(result.getErrors()).hasSize(100);
+		assertThat(result.getErrors().stream().allMatch(error -> error.getMessage().endsWith("already exists!")))
+				.isTrue();
+		assertThat(repository.countAccounts()).isEqualTo(900);
+		long total = 0;
+		for (int i = 0; i < 900; i++) {
+			total += repository.getAccount("Id-" + i).getBalanceMinorUnits();
+		}
+		assertThat(repository.totalBalanceMinorUnits()).isEqualTo(total);
+	}
+
+	@Test
+	public void parsesQuotedIdsAndDecimalForms() throws IOException {
+		String csv = "\"accountId\",\"balance\"\n\"a,\"\"b\"\"\",12.5\nc,1e2\nd,0.001\ne,\n\"f,3\n";
+		ImportResult result = importer(2, 1, 10).importAccounts(input(csv), Format.CSV);
+
+		assertThat(repository.getAccount("a,\"b\"").getBalanceMinorUnits()).isEqualTo(12_50);
+		assertThat(repository.getAccount("c").getBalanceMinorUnits()).isEqualTo(100_00);
+		assertThat(result.getCreated()).isEqualTo(2);
+		assertThat(result.getErrors()).extracting("row").containsExactly(4L, 5L, 6L);
+	}
+
+	@Test
+	public void readsAnOptionalCurrency() throws IOException {
+		String csv = "a,10,EUR\nb,5,USD\nc,1,eur\nd,2\n";
+		ImportResult result = importer(2, 1, 10).importAccounts(input(csv), Format.CSV);
+		String ndjson = "{\"accountId\":\"e\",\"balance\":3,\"currency\":\"EUR\"}\n"
+				+ "{\"accountId\":\"f\",\"balance\":4,\"currency\":\"JPY\"}\n";
+		ImportResult jsonResult = importer(2, 1, 10).importAccounts(input(ndjson), Format.NDJSON);
+
+		assertThat(repository.getAccount("a").getCurrency()).isEqualTo("EUR");
+		assertThat(repository.getAccount("d").getCurrency()).isNull();
+		assertThat(repository.getAccount("e").getCurrency()).isEqualTo("EUR");
+		assertThat(result.getCreated()).isEqualTo(2);
+		assertThat(result.getErrors()).extracting("row").containsExactly(2L, 3L);
+		assertThat(result.getErrors()).extracting("message").containsExactly("Currency USD has no FX rate",
+				"Currency must be an ISO 4217 code.");
+		assertThat(jsonResult.getCreated()).isEqualTo(1);
+		assertThat(jsonResult.getErrors()).extracting("message").containsExactly("Currency JPY has no FX rate");
+	}
+
+	@Test
+	public void reportedErrorsAreCapped() throws IOException {
+		StringBuilder ndjson = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			ndjson.append("{\"accountId\":\"Id-").append(i).append("\",\"balance\":-1}\n");
+		}
+		ImportResult result = importer(16, 2, 10).importAccounts(input(ndjson), Format.NDJSON);
+
+		assertThat(result.getRejected()).isEqualTo(50);
+		assertThat(result.getErrors()).hasSize(10);
+		assertThat(result.isErrorsTruncated()).isTrue();
+	}
+
+	private AccountsImporter importer(int batchSize, int parallelism, int maxReportedErrors) {
+		ImportProperties properties = new ImportProperties();
+		properties.setBatchSize(batchSize);
+		properties.setParallelism(parallelism);
+		properties.setMaxReportedErrors(maxReportedErrors);
+		return new AccountsImporter(repository, properties);
+	}
+
+	private static ByteArrayInputStream input(CharSequence text) {
+		return new ByteArrayInputStream(text.toString().getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,377 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.config.HotAccountProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountPage;
+import com.db.awmd.challenge.domain.BatchTransferMode;
+import com.db.awmd.challenge.domain.Money;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.domain.TransferStatus;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsRepositoryOffHeap;
+import com.db.awmd.challenge.repository.AccountsRepositoryOptimistic;
+import com.db.awmd.challenge.repository.AccountsRepositorySharded;
+import com.db.awmd.challenge.service.EmailNotificationService;
+import com.db.awmd.challenge.service.NotificationService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Multi threaded stress tests run against every repository engine.
+ *         Money must be conserved no matter how transfers interleave.
+ *
+ */
+public class AccountsRepositoryConcurrencyTest {
+
+	private static final int TRANSFERS_PER_THREAD = 2000;
+
+	private static final BigDecimal INITIAL_BALANCE = new BigDecimal(1000);
+
+	private static Map<String, Supplier<AccountsRepository>> engines() {
+		Map<String, Supplier<AccountsRepository>> engines = new LinkedHashMap<>();
+		NotificationService notificationService = new EmailNotificationService();
+		engines.put("locking", () -> new AccountsRepositoryInMemory(notificationService));
+		engines.put("locking-4-stripes", () -> new AccountsRepositoryInMemory(notificationService, 4));
+		engines.put("locking-hot-accounts", () -> new AccountsRepositoryInMemory(notificationService, 4, hotAccounts()));
+		engines.put("optimistic", () -> new AccountsRepositoryOptimistic(notificationService));
+		engines.put("offheap", () -> new AccountsRepositoryOffHeap(notificationService, 4, 2));
+		engines.put("sharded", () -> new AccountsRepositorySharded(notificationService, 2, 64));
+		return engines;
+	}
+
+	/**
+	 * Every thread moves money back and forth within its own pair, so no
+	 * transfer may be refused or lost; the throughput of this pattern is
+	 * measured by the disjoint pattern of AccountsRepositoryBenchmark
+	 */
+	@Test
+	public void disjointTransfersAreNeitherLostNorRefused() throws Exception {
+		for (Supplier<AccountsRepository> engine : engines().values()) {
+			for (int threads = 1; threads <= 8; threads <<= 1) {
+				disjointTransfers(engine.get(), threads);
+			}
+		}
+	}
+
+	private void disjointTransfers(AccountsRepository repository, int threads) throws Exception {
+		createAccounts(repository, threads * 2);
+
+		runConcurrently(threads, thread -> {
+			String first = String.valueOf(thread * 2);
+			String second = String.valueOf(thread * 2 + 1);
+			for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+				transfer(repository, i % 2 == 0 ? first : second, i % 2 == 0 ? second : first, BigDecimal.ONE);
+			}
+		});
+
+		for (int i = 0; i < threads * 2; i++) {
+			Account account = repository.getAccount(String.valueOf(i));
+			assertThat(account.getBalance()).isEqualByComparingTo(INITIAL_BALANCE);
+			assertThat(account.getVersion()).isEqualTo(TRANSFERS_PER_THREAD);
+		}
+		assertThat(repository.totalBalanceMinorUnits())
+				.isEqualTo(Money.toMinorUnits(INITIAL_BALANCE.multiply(new BigDecimal(threads * 2))));
+	}
+
+	@Test
+	public void randomTransfersDoNotDeadlockAndConserveBalance() throws Exception {
+		for (Supplier<AccountsRepository> engine : engines().values()) {
+			randomTransfers(engine.get(), 16);
+		}
+	}
+
+	@Test
+	public void hotAccountTransfersConserveBalance() throws Exception {
+		for (Supplier<AccountsRepository> engine : engines().values()) {
+			randomTransfers(engine.get(), 2);
+		}
+	}
+
+	private void randomTransfers(AccountsRepository repository, int accounts) throws Exception {
+		int threads = 8;
+		createAccounts(repository, accounts);
+
+		runConcurrently(threads, thread -> {
+			Random random = new Random(thread);
+			for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+				int from = random.nextInt(accounts);
+				int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+				try {
+					transfer(repository, String.valueOf(from), String.valueOf(to), new BigDecimal(random.nextInt(50)));
+				} catch (ApplicationException insufficientBalance) {
+					// expected once an account has been drained
+				}
+			}
+		});
+
+		assertThat(totalBalance(repository, accounts))
+				.isEqualByComparingTo(INITIAL_BALANCE.multiply(new BigDecimal(accounts)));
+	}
+
+	@Test
+	public void concurrentCreatesAreAllStoredOnce() throws Exception {
+		for (Supplier<AccountsRepository> engine : engines().values()) {
+			AccountsRepository repository = engine.get();
+			int threads = 4;
+			int perThread = 2500;
+			runConcurrently(threads, thread -> {
+				for (int i = 0; i < perThread; i++) {
+					repository.createAccount(new Account("ACC-" + thread + "-" + i, new BigDecimal(i)));
+				}
+			});
+
+			for (int thread = 0; thread < threads; thread++) {
+				for (int i = 0; i < perThread; i++) {
+					assertThat(repository.getAccount("ACC-" + thread + "-" + i).getBalance())
+							.isEqualByComparingTo(new BigDecimal(i));
+				}
+			}
+			assertThat(repository.getAccount("ACC-missing")).isNull();
+			try {
+				repository.createAccount(new Account("ACC-0-0"));
+				fail("Should have failed when adding duplicate account");
+			} catch (DuplicateAccountIdException expected) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void atomicBatchesRollBackTogether() throws Exception {
+		for (Map.Entry<String, Supplier<AccountsRepository>> engine : engines().entrySet()) {
+			if (engine.getKey().equals("optimistic") || engine.getKey().equals("sharded")) {
+				continue;
+			}
+			AccountsRepository repository = engine.getValue().get();
+			createAccounts(repository, 3);
+			List<TransferRequest> batch = new ArrayList<>();
+			batch.add(transferRequest("0", "1", new BigDecimal(600)));
+			batch.add(transferRequest("1", "2", new BigDecimal(1600)));
+			batch.add(transferRequest("2", "0", new BigDecimal(3000)));
+
+			List<TransferResult> results = repository.transferMoneyBatch(batch, BatchTransferMode.ATOMIC);
+
+			assertThat(results).extracting(TransferResult::getStatus).containsExactly(TransferStatus.ROLLED_BACK,
+					TransferStatus.ROLLED_BACK, TransferStatus.REJECTED);
+			for (int i = 0; i < 3; i++) {
+				assertThat(repository.getAccount(String.valueOf(i)).getBalance()).isEqualByComparingTo(INITIAL_BALANCE);
+			}
+		}
+	}
+
+	@Test
+	public void failedTransfersLeaveBalancesUntouched() throws Exception {
+		for (Map.Entry<String, Supplier<AccountsRepository>> engine : engines().entrySet()) {
+			AccountsRepository repository = engine.getValue().get();
+			createAccounts(repository, 8);
+			for (int i = 0; i < 8; i++) {
+				String from = String.valueOf(i);
+				try {
+					repository.transferMoney(transferRequest(from, "missing", BigDecimal.ONE));
+					fail(engine.getKey() + " should have failed when the target does not exist");
+				} catch (ApplicationException expected) {
+					assertThat(expected.getMessage()).isEqualTo("Account id missing not found");
+				}
+				try {
+					repository.transferMoney(transferRequest(from, String.valueOf((i + 1) % 8), new BigDecimal(1001)));
+					fail(engine.getKey() + " should have failed when the balance is too low");
+				} catch (ApplicationException expected) {
+					assertThat(expected.getMessage()).contains("balance is less than");
+				}
+			}
+			assertThat(totalBalance(repository, 8)).isEqualByComparingTo(INITIAL_BALANCE.multiply(new BigDecimal(8)));
+			for (int i = 0; i < 8; i++) {
+				assertThat(repository.getAccount(String.valueOf(i)).getBalance()).isEqualByComparingTo(INITIAL_BALANCE);
+			}
+		}
+	}
+
+	@Test
+	public void overflowingCreditLeavesTheSourceUntouched() throws Exception {
+		for (Map.Entry<String, Supplier<AccountsRepository>> engine : engines().entrySet()) {
+			AccountsRepository repository = engine.getValue().get();
+			createAccounts(repository, 8);
+			repository.createAccount(new Account("full", Money.toDecimal(Long.MAX_VALUE - 50)));
+			for (int i = 0; i < 8; i++) {
+				try {
+					repository.transferMoney(transferRequest(String.valueOf(i), "full", BigDecimal.ONE));
+					fail(engine.getKey() + " should have failed when the target balance overflows");
+				} catch (ApplicationException expected) {
+					assertThat(expected.getReason()).isEqualTo(RejectionReason.BALANCE_OVERFLOW);
+				}
+			}
+			assertThat(totalBalance(repository, 8)).isEqualByComparingTo(INITIAL_BALANCE.multiply(new BigDecimal(8)));
+			assertThat(repository.getAccount("full").getBalanceMinorUnits()).isEqualTo(Long.MAX_VALUE - 50);
+		}
+	}
+
+	@Test
+	public void readsAreDetachedVersionedCopies() throws Exception {
+		for (Map.Entry<String, Supplier<AccountsRepository>> engine : engines().entrySet()) {
+			AccountsRepository repository = engine.getValue().get();
+			createAccounts(repository, 2);
+			Account before = repository.getAccount("0");
+
+			transfer(repository, "0", "1", BigDecimal.ONE);
+
+			Account after = repository.getAccount("0");
+			assertThat(before.getBalance()).as(engine.getKey()).isEqualByComparingTo(INITIAL_BALANCE);
+			assertThat(after.getBalance()).as(engine.getKey()).isEqualByComparingTo(new BigDecimal(999));
+			assertThat(after.getVersion()).as(engine.getKey()).isGreaterThan(before.getVersion());
+		}
+	}
+
+	@Test
+	public void exportsAreConsistentWhileTransfersRun() throws Exception {
+		int accounts = 64;
+		for (String engine : new String[] { "locking", "locking-4-stripes", "locking-hot-accounts" }) {
+			AccountsRepository repository = engines().get(engine).get();
+			createAccounts(repository, accounts);
+			AtomicBoolean exporting = new AtomicBoolean(true);
+			runConcurrently(4, thread -> {
+				if (thread == 0) {
+					try {
+						for (int i = 0; i < 200; i++) {
+							long[] total = new long[1];
+							long exported = repository.exportAccounts(sequence -> {
+							}, account -> total[0] += account.getBalanceMinorUnits());
+							assertThat(exported).as(engine).isEqualTo(accounts);
+							assertThat(total[0]).as(engine).isEqualTo(accounts * INITIAL_BALANCE.longValue() * 100);
+						}
+					} finally {
+						exporting.set(false);
+					}
+					return;
+				}
+				Random random = new Random(thread);
+				while (exporting.get()) {
+					int from = random.nextInt(accounts);
+					int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+					try {
+						transfer(repository, String.valueOf(from), String.valueOf(to), new BigDecimal(random.nextInt(50)));
+					} catch (ApplicationException insufficientBalance) {
+						// expected once an account has been drained
+					}
+				}
+			});
+		}
+	}
+
+	@Test
+	public void hotAccountIsNeverOverdrawn() throws Exception {
+		AccountsRepository repository = engines().get("locking-hot-accounts").get();
+		createAccounts(repository, 9);
+		AtomicInteger withdrawn = new AtomicInteger();
+
+		// the home slots run dry long before the account does, so most of it is borrowed
+		runConcurrently(8, thread -> {
+			String to = String.valueOf(thread + 1);
+			for (int i = 0; i < 200; i++) {
+				try {
+					transfer(repository, "0", to, BigDecimal.ONE);
+					withdrawn.incrementAndGet();
+				} catch (ApplicationException insufficientBalance) {
+					// expected once the hot account has been drained
+				}
+			}
+		});
+
+		assertThat(withdrawn.get()).isEqualTo(INITIAL_BALANCE.intValue());
+		assertThat(repository.getAccount("0").getBalance()).isEqualByComparingTo(BigDecimal.ZERO);
+		assertThat(totalBalance(repository, 9)).isEqualByComparingTo(INITIAL_BALANCE.multiply(new BigDecimal(9)));
+	}
+
+	@Test
+	public void pagesFollowCreationOrder() {
+		AccountsRepository repository = engines().get("locking").get();
+		createAccounts(repository, 5);
+
+		AccountPage first = repository.listAccounts(null, 2);
+		AccountPage last = repository.listAccounts(repository.listAccounts(first.getNextCursor(), 2).getNextCursor(), 2);
+		assertThat(first.getAccounts()).extracting("accountId").containsExactly("0", "1");
+		assertThat(last.getAccounts()).extracting("accountId").containsExactly("4");
+		assertThat(last.getNextCursor()).isNull();
+	}
+
+	private static HotAccountProperties hotAccounts() {
+		HotAccountProperties hotAccounts = new HotAccountProperties();
+		hotAccounts.setAccountIds(Arrays.asList("0", "1"));
+		hotAccounts.setSlots(4);
+		return hotAccounts;
+	}
+
+	private interface Worker {
+		void run(int thread) throws Exception;
+	}
+
+	private static void runConcurrently(int threads, Worker worker) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				futures.add(executor.submit((Callable<Void>) () -> {
+					worker.run(thread);
+					return null;
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get(60, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void createAccounts(AccountsRepository repository, int count) {
+		for (int i = 0; i < count; i++) {
+			repository.createAccount(new Account(String.valueOf(i), INITIAL_BALANCE));
+		}
+	}
+
+	private static void transfer(AccountsRepository repository, String from, String to, BigDecimal amount) {
+		repository.transferMoney(transferRequest(from, to, amount));
+	}
+
+	private static TransferRequest transferRequest(String from, String to, BigDecimal amount) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(from);
+		transferRequest.setAccountTo(to);
+		transferRequest.setAmount(amount);
+		return transferRequest;
+	}
+
+	private static BigDecimal totalBalance(AccountsRepository repository, int count) {
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < count; i++) {
+			total = total.add(repository.getAccount(String.valueOf(i)).getBalance());
+		}
+		return total;
+	}
+}
@@ -101,6 +101,30 @@ public class AccountsServiceTest {
 		}
 	}
 
+	@Test
+	public void transferMoneyWholeBalance() throws Exception {
+		Account fromAccount = new Account("Id7", new BigDecimal("10.25"));
+		this.accountsService.createAccount(fromAccount);
+
+		Account toAccount = new Account("Id8", new BigDecimal("0.75"));
+		this.accountsService.createAccount(toAccount);
+
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(fromAccount.getAccountId());
+		transferRequest.setAccountTo(toAccount.getAccountId());
+		transferRequest.setAmount(new BigDecimal("10.25"));
+		this.accountsService.transferMoney(transferRequest);
+
+		assertThat(this.accountsService.getAccount("Id7").getBalance()).isEqualByComparingTo("0");
+		assertThat(this.accountsService.getAccount("Id8").getBalance()).isEqualByComparingTo("11");
+	}
+
+	@Test(expected = ApplicationException.class)
+	public void transferMoneyTooManyDecimals() throws Exception {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAmount(new BigDecimal("0.001"));
+	}
+
 	@Test
 	public void transferMoneyNoFromAccount() throws Exception {
 
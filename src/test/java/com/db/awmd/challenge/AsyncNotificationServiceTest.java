@@ -0,0 +1,123 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.db.awmd.challenge.config.NotificationProperties;
+import com.db.awmd.challenge.config.NotificationProperties.OverflowPolicy;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AsyncNotificationService;
+import com.db.awmd.challenge.service.NotificationService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Asynchronous notification dispatcher tests
+ *
+ */
+public class AsyncNotificationServiceTest {
+
+	@Rule
+	public TemporaryFolder spillDirectory = new TemporaryFolder();
+
+	@Test
+	public void everyNotificationIsDeliveredAndCoalesced() throws Exception {
+		AtomicInteger deliveries = new AtomicInteger();
+		AsyncNotificationService service = start(properties(OverflowPolicy.BLOCK, 8),
+				(account, description) -> deliveries.incrementAndGet());
+
+		for (int i = 0; i < 1000; i++) {
+			service.notifyAboutTransfer(new Account("Id-" + (i % 10)), " deposit sucess");
+		}
+		service.stop();
+
+		assertThat(service.getDispatchedCount()).isEqualTo(1000);
+		assertThat(deliveries.get()).isBetween(10, 1000);
+		assertThat(service.getQueueDepth()).isZero();
+	}
+
+	@Test
+	public void dropPolicyDiscardsWhenQueueIsFull() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AsyncNotificationService service = start(properties(OverflowPolicy.DROP, 1), blockingUntil(release));
+
+		for (int i = 0; i < 10; i++) {
+			service.notifyAboutTransfer(new Account("Id-1"), " withdraw sucess");
+		}
+		release.countDown();
+		service.stop();
+
+		assertThat(service.getDroppedCount()).isGreaterThanOrEqualTo(8);
+		assertThat(service.getDispatchedCount() + service.getDroppedCount()).isEqualTo(10);
+	}
+
+	@Test
+	public void spillPolicyReplaysOverflowInOrderFromTheDispatcher() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> deliveries = new CopyOnWriteArrayList<>();
+		NotificationService blocking = blockingUntil(release);
+		AsyncNotificationService service = start(properties(OverflowPolicy.SPILL, 1), (account, description) -> {
+			blocking.notifyAboutTransfer(account, description);
+			deliveries.add(Thread.currentThread().getName() + " " + description);
+		});
+
+		for (int i = 0; i < 10; i++) {
+			service.notifyAboutTransfer(new Account("Id-1"), " withdraw " + i);
+		}
+		assertThat(service.getSpilledCount()).isGreaterThanOrEqualTo(8);
+		release.countDown();
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (service.getDispatchedCount() < 10 && System.nanoTime() < deadline) {
+			Thread.sleep(50);
+		}
+		service.stop();
+
+		assertThat(service.getDispatchedCount()).isEqualTo(10);
+		assertThat(service.getDroppedCount()).isZero();
+		for (String delivery : deliveries) {
+			assertThat(delivery).startsWith("notification-dispatcher-");
+		}
+		String delivered = String.join(",", deliveries);
+		int previous = -1;
+		for (int i = 0; i < 10; i++) {
+			int position = delivered.indexOf(" withdraw " + i);
+			assertThat(position).isGreaterThan(previous);
+			previous = position;
+		}
+	}
+
+	private NotificationProperties properties(OverflowPolicy policy, int capacity) {
+		NotificationProperties properties = new NotificationProperties();
+		properties.setOverflowPolicy(policy);
+		properties.setQueueCapacity(capacity);
+		properties.setDispatchers(1);
+		properties.setSpillDirectory(spillDirectory.getRoot().getAbsolutePath());
+		return properties;
+	}
+
+	private static AsyncNotificationService start(NotificationProperties properties, NotificationService delegate) {
+		AsyncNotificationService service = new AsyncNotificationService(delegate, properties);
+		service.start();
+		return service;
+	}
+
+	private static NotificationService blockingUntil(CountDownLatch release) {
+		return (account, description) -> {
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		};
+	}
+}
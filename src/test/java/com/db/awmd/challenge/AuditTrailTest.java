@@ -0,0 +1,101 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.db.awmd.challenge.audit.AuditTrail;
+import com.db.awmd.challenge.config.AuditProperties;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.RejectionReason;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Transfer audit trail tests
+ *
+ */
+public class AuditTrailTest {
+
+	private final Logger logger = (Logger) LoggerFactory.getLogger(AuditTrail.LOGGER);
+
+	private final ListAppender<ILoggingEvent> appender = new ListAppender<>();
+
+	@Before
+	public void attachAppender() {
+		appender.start();
+		logger.addAppender(appender);
+	}
+
+	@After
+	public void detachAppender() {
+		logger.detachAppender(appender);
+	}
+
+	@Test
+	public void eventsAreWrittenInOrderThroughAFullRing() throws Exception {
+		AuditProperties properties = new AuditProperties();
+		properties.setRingCapacity(4);
+		AuditTrail auditTrail = new AuditTrail(properties);
+		auditTrail.start();
+
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < 4; p++) {
+			String accountFrom = "Id-" + p;
+			Thread producer = new Thread(() -> {
+				for (int i = 1; i <= 250; i++) {
+					auditTrail.transferCommitted(transferRequest(accountFrom, "Id-X", i));
+				}
+			});
+			producers.add(producer);
+			producer.start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		auditTrail.stop();
+
+		assertThat(auditTrail.written()).isEqualTo(1000);
+		assertThat(appender.list).hasSize(1000);
+		int[] last = new int[4];
+		for (ILoggingEvent event : appender.list) {
+			String line = event.getFormattedMessage();
+			assertThat(line).contains(" COMMITTED from=Id-");
+			int producer = line.charAt(line.indexOf("from=Id-") + 8) - '0';
+			int amount = new BigDecimal(line.substring(line.indexOf("amount=") + 7)).intValueExact();
+			assertThat(amount).isEqualTo(last[producer] + 1);
+			last[producer] = amount;
+		}
+	}
+
+	@Test
+	public void rejectedTransferCarriesItsReason() throws Exception {
+		AuditTrail auditTrail = new AuditTrail(new AuditProperties());
+		auditTrail.start();
+		auditTrail.transferRejected(transferRequest("Id-1", "Id-2", 5), RejectionReason.INSUFFICIENT_BALANCE);
+		auditTrail.stop();
+
+		assertThat(appender.list).hasSize(1);
+		assertThat(appender.list.get(0).getFormattedMessage())
+				.endsWith(" REJECTED from=Id-1 to=Id-2 amount=5.00 reason=insufficient_balance");
+	}
+
+	private static TransferRequest transferRequest(String accountFrom, String accountTo, int amount) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(accountFrom);
+		transferRequest.setAccountTo(accountTo);
+		transferRequest.setAmount(BigDecimal.valueOf(amount));
+		return transferRequest;
+	}
+}
@@ -0,0 +1,112 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.config.ReconciliationProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.BalanceReconciler;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Total balance counter and background reconciliation tests
+ *
+ */
+public class BalanceReconcilerTest {
+
+	private final AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory((account, description) -> {
+	});
+
+	private final BalanceReconciler reconciler = new BalanceReconciler(repository, properties(3));
+
+	private final Map<String, Account> created = new HashMap<>();
+
+	@Test
+	public void totalBalanceFollowsCreateAndClear() {
+		createAccounts(10);
+		assertThat(repository.totalBalanceMinorUnits()).isEqualTo(10 * 100_00);
+
+		repository.clearAccounts();
+		assertThat(repository.totalBalanceMinorUnits()).isZero();
+		repository.createAccount(new Account("Id-1", new BigDecimal(5)));
+		assertThat(repository.totalBalanceMinorUnits()).isEqualTo(5_00);
+	}
+
+	@Test
+	public void discrepancyIsReportedOnceConfirmed() {
+		createAccounts(4);
+		assertThat(reconciler.reconcile()).isTrue();
+
+		// a balance changed behind the repository's back
+		created.get("Id-2").setBalance(new BigDecimal(101));
+		assertThat(reconciler.reconcile()).isTrue();
+		assertThat(reconciler.reconcile()).isTrue();
+		assertThat(reconciler.violations()).isZero();
+		assertThat(reconciler.reconcile()).isTrue();
+		assertThat(reconciler.violations()).isEqualTo(1);
+		assertThat(reconciler.discrepancyMinorUnits()).isEqualTo(1_00);
+
+		reconciler.reconcile();
+		assertThat(reconciler.violations()).isEqualTo(1);
+
+		created.get("Id-2").setBalance(new BigDecimal(100));
+		reconciler.reconcile();
+		assertThat(reconciler.discrepancyMinorUnits()).isZero();
+	}
+
+	@Test
+	public void concurrentTransfersRaiseNoViolation() throws Exception {
+		int accounts = 16;
+		createAccounts(accounts);
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			int seed = t;
+			Thread worker = new Thread(() -> {
+				for (int i = 0; i < 20_000; i++) {
+					TransferRequest transferRequest = new TransferRequest();
+					transferRequest.setAccountFrom("Id-" + (i + seed) % accounts);
+					transferRequest.setAccountTo("Id-" + (i + seed + 1) % accounts);
+					transferRequest.setAmount(BigDecimal.ONE);
+					repository.transferMoney(transferRequest);
+				}
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		while (workers.stream().anyMatch(Thread::isAlive)) {
+			reconciler.reconcile();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		assertThat(reconciler.reconcile()).isTrue();
+		assertThat(reconciler.violations()).isZero();
+		assertThat(reconciler.discrepancyMinorUnits()).isZero();
+	}
+
+	private void createAccounts(int count) {
+		for (int i = 0; i < count; i++) {
+			Account account = new Account("Id-" + i, new BigDecimal(100));
+			repository.createAccount(account);
+			created.put(account.getAccountId(), account);
+		}
+	}
+
+	private static ReconciliationProperties properties(int confirmations) {
+		ReconciliationProperties properties = new ReconciliationProperties();
+		properties.setIntervalMillis(0);
+		properties.setConfirmations(confirmations);
+		return properties;
+	}
+}
@@ -0,0 +1,130 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.db.awmd.challenge.binary.BinaryProtocol;
+import com.db.awmd.challenge.binary.BinaryTransferServer;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Binary transfer port tests, through a socket on localhost
+ *
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "accounts.binary.port=0")
+@ActiveProfiles("binary")
+public class BinaryTransferServerTest {
+
+	@Autowired
+	private AccountsService accountsService;
+
+	@Autowired
+	private BinaryTransferServer server;
+
+	private Socket socket;
+
+	private DataOutputStream out;
+
+	private DataInputStream in;
+
+	@Before
+	public void connect() throws Exception {
+		accountsService.getAccountsRepository().clearAccounts();
+		accountsService.createAccount(new Account("Binary-1", new BigDecimal(100)));
+		accountsService.createAccount(new Account("Binary-2", new BigDecimal(100)));
+		socket = new Socket("localhost", server.port());
+		out = new DataOutputStream(socket.getOutputStream());
+		in = new DataInputStream(socket.getInputStream());
+	}
+
+	@After
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	@Test
+	public void pipelinedTransfersAreAnsweredInOrder() throws Exception {
+		send(1, BinaryProtocol.REGISTER, request -> BinaryProtocol.putString(request, "Binary-1"));
+		send(2, BinaryProtocol.REGISTER, request -> BinaryProtocol.putString(request, "Binary-2"));
+		int first = reply(1, BinaryProtocol.OK).getInt();
+		int second = reply(2, BinaryProtocol.OK).getInt();
+
+		for (int i = 0; i < 10; i++) {
+			int from = i % 2 == 0 ? first : second;
+			int to = from == first ? second : first;
+			send(100 + i, BinaryProtocol.TRANSFER, request -> request.putInt(from).putInt(to).putLong(250));
+		}
+		send(200, BinaryProtocol.TRANSFER, request -> request.putInt(first).putInt(second).putLong(1025));
+		send(201, BinaryProtocol.BALANCE, request -> request.putInt(first));
+		for (int i = 0; i < 10; i++) {
+			reply(100 + i, BinaryProtocol.OK);
+		}
+		reply(200, BinaryProtocol.OK);
+		ByteBuffer balance = reply(201, BinaryProtocol.OK);
+		assertThat(balance.getLong()).isEqualTo(8975);
+		assertThat(balance.getLong()).isEqualTo(11);
+
+		assertThat(accountsService.getAccount("Binary-2").getBalance()).isEqualByComparingTo("110.25");
+	}
+
+	@Test
+	public void rejectionsCarryTheMessage() throws Exception {
+		send(1, BinaryProtocol.REGISTER, request -> BinaryProtocol.putString(request, "Binary-1"));
+		send(2, BinaryProtocol.REGISTER, request -> BinaryProtocol.putString(request, "Binary-missing"));
+		int handle = reply(1, BinaryProtocol.OK).getInt();
+		reply(2, BinaryProtocol.NOT_FOUND);
+
+		send(3, BinaryProtocol.TRANSFER, request -> request.putInt(handle).putInt(handle + 1000).putLong(1));
+		assertThat(BinaryProtocol.getString(reply(3, BinaryProtocol.REJECTED)))
+				.isEqualTo("Account handle " + (handle + 1000) + " is not registered");
+
+		send(4, BinaryProtocol.REGISTER, request -> BinaryProtocol.putString(request, "Binary-2"));
+		int other = reply(4, BinaryProtocol.OK).getInt();
+		send(5, BinaryProtocol.TRANSFER, request -> request.putInt(handle).putInt(other).putLong(10001));
+		assertThat(BinaryProtocol.getString(reply(5, BinaryProtocol.REJECTED)))
+				.isEqualTo("Account id Binary-1 balance is less than 100.01");
+		assertThat(accountsService.getAccount("Binary-1").getBalance()).isEqualByComparingTo("100");
+	}
+
+	private void send(long correlationId, byte operation, Consumer<ByteBuffer> arguments) throws IOException {
+		ByteBuffer request = ByteBuffer.allocate(256);
+		request.position(4);
+		request.putLong(correlationId).put(operation);
+		arguments.accept(request);
+		request.putInt(0, request.position() - 4);
+		out.write(request.array(), 0, request.position());
+		out.flush();
+	}
+
+	/**
+	 * @return the result of the reply, after checking its id and status
+	 */
+	private ByteBuffer reply(long correlationId, byte status) throws IOException {
+		byte[] reply = new byte[in.readInt()];
+		in.readFully(reply);
+		ByteBuffer buffer = ByteBuffer.wrap(reply);
+		assertThat(buffer.getLong()).isEqualTo(correlationId);
+		assertThat(buffer.get()).isEqualTo(status);
+		return buffer;
+	}
+}
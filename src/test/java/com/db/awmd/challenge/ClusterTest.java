@@ -0,0 +1,176 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.db.awmd.challenge.cluster.ClusterAccountsRepository;
+import com.db.awmd.challenge.cluster.NodeUnavailableException;
+import com.db.awmd.challenge.config.ClusterProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.RejectionReason;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Cluster tests with three nodes in one JVM, talking over localhost
+ *
+ */
+public class ClusterTest {
+
+	private static final int NODES = 3;
+
+	private static final int ACCOUNTS = 30;
+
+	private final List<ClusterAccountsRepository> nodes = new ArrayList<>();
+
+	@Before
+	public void startNodes() throws Exception {
+		List<String> addresses = new ArrayList<>();
+		for (int i = 0; i < NODES; i++) {
+			addresses.add("localhost:" + freePort());
+		}
+		for (int i = 0; i < NODES; i++) {
+			ClusterProperties properties = new ClusterProperties();
+			properties.setNodes(addresses);
+			properties.setNodeIndex(i);
+			properties.setTimeoutMillis(500);
+			properties.setReservationTimeoutMillis(2000);
+			ClusterAccountsRepository node = new ClusterAccountsRepository((account, description) -> {
+			}, properties);
+			node.start();
+			nodes.add(node);
+		}
+		for (int i = 0; i < ACCOUNTS; i++) {
+			nodes.get(i % NODES).createAccount(new Account("Id-" + i, new BigDecimal(100)));
+		}
+	}
+
+	@After
+	public void stopNodes() throws Exception {
+		for (ClusterAccountsRepository node : nodes) {
+			node.close();
+		}
+	}
+
+	@Test
+	public void everyNodeSeesTheAccountsOfAllNodes() throws Exception {
+		for (ClusterAccountsRepository node : nodes) {
+			assertThat(node.countAccounts()).isEqualTo(ACCOUNTS);
+			assertThat(node.totalBalanceMinorUnits()).isEqualTo(ACCOUNTS * 10_000L);
+			for (int i = 0; i < ACCOUNTS; i++) {
+				assertThat(node.getAccount("Id-" + i).getBalance()).isEqualByComparingTo("100");
+			}
+			assertThat(node.getAccount("Id-missing")).isNull();
+		}
+		try {
+			nodes.get(2).createAccount(new Account("Id-0"));
+			fail("Account ids are unique across the cluster");
+		} catch (DuplicateAccountIdException daie) {
+			assertThat(daie.getMessage()).isEqualTo("Account id Id-0 already exists!");
+		}
+	}
+
+	@Test
+	public void transfersBetweenAnyAccountsFromAnyNode() throws Exception {
+		for (int i = 0; i < ACCOUNTS; i++) {
+			nodes.get(i % NODES).transferMoney(transfer("Id-" + i, "Id-" + (i + 1) % ACCOUNTS, "10"));
+		}
+		nodes.get(1).transferMoney(transfer("Id-3", "Id-17", "40.50"));
+
+		assertThat(nodes.get(0).getAccount("Id-3").getBalance()).isEqualByComparingTo("59.50");
+		assertThat(nodes.get(2).getAccount("Id-17").getBalance()).isEqualByComparingTo("140.50");
+		assertThat(nodes.get(1).getAccount("Id-4").getBalance()).isEqualByComparingTo("100");
+		assertThat(nodes.get(0).totalBalanceMinorUnits()).isEqualTo(ACCOUNTS * 10_000L);
+		// a credit is settled once its target confirms it forgot the transfer
+		long deadline = System.currentTimeMillis() + 5_000;
+		for (ClusterAccountsRepository node : nodes) {
+			while (node.unresolvedTransfers() > 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertThat(node.unresolvedTransfers()).isZero();
+		}
+	}
+
+	@Test
+	public void rejectedTransfersLeaveTheBalances() throws Exception {
+		for (int i = 1; i < ACCOUNTS; i++) {
+			try {
+				nodes.get(0).transferMoney(transfer("Id-0", "Id-" + i, "100.01"));
+				fail("Balance of Id-0 is too low");
+			} catch (ApplicationException ae) {
+				assertThat(ae.getMessage()).isEqualTo("Account id Id-0 balance is less than 100.01");
+			}
+			try {
+				nodes.get(1).transferMoney(transfer("Id-" + i, "Id-missing", "1"));
+				fail("Id-missing does not exist");
+			} catch (ApplicationException ae) {
+				assertThat(ae.getMessage()).isEqualTo("Account id Id-missing not found");
+			}
+		}
+		for (int i = 0; i < ACCOUNTS; i++) {
+			assertThat(nodes.get(2).getAccount("Id-" + i).getBalance()).isEqualByComparingTo("100");
+		}
+		assertThat(nodes.get(2).totalBalanceMinorUnits()).isEqualTo(ACCOUNTS * 10_000L);
+	}
+
+	@Test
+	public void transfersToAStoppedNodeFailAndAreRefunded() throws Exception {
+		nodes.remove(2).close();
+		ClusterAccountsRepository node = nodes.get(0);
+		List<String> reachable = new ArrayList<>();
+		List<String> unreachable = new ArrayList<>();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			try {
+				node.getAccount("Id-" + i);
+				reachable.add("Id-" + i);
+			} catch (NodeUnavailableException nue) {
+				unreachable.add("Id-" + i);
+			}
+		}
+		assertThat(reachable).isNotEmpty();
+		assertThat(unreachable).isNotEmpty();
+
+		for (String accountFrom : reachable) {
+			try {
+				node.transferMoney(transfer(accountFrom, unreachable.get(0), "10"));
+				fail("Owner of " + unreachable.get(0) + " is stopped");
+			} catch (NodeUnavailableException nue) {
+				assertThat(nue.getMessage()).contains("unreachable");
+				assertThat(nue.getReason()).isEqualTo(RejectionReason.UNAVAILABLE);
+			}
+		}
+		// the aborts are not waited for
+		Thread.sleep(200);
+		for (String accountId : reachable) {
+			assertThat(nodes.get(1).getAccount(accountId).getBalance()).isEqualByComparingTo("100");
+		}
+		assertThat(node.unresolvedTransfers()).isZero();
+	}
+
+	private static TransferRequest transfer(String accountFrom, String accountTo, String amount) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(accountFrom);
+		transferRequest.setAccountTo(accountTo);
+		transferRequest.setAmount(new BigDecimal(amount));
+		return transferRequest;
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.db.awmd.challenge.config.FxProperties;
+import com.db.awmd.challenge.config.HotAccountProperties;
+import com.db.awmd.challenge.config.ReconciliationProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.fx.FxRates;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.BalanceReconciler;
+import com.db.awmd.challenge.service.EmailNotificationService;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         FX rate table reload and cross currency transfer tests
+ *
+ */
+public class FxRatesTest {
+
+	private Path rateFile;
+
+	private FxRates fxRates;
+
+	@Before
+	public void loadRates() throws IOException {
+		rateFile = Files.createTempFile("fx-rates", ".csv");
+		writeRates("currency,rate", "USD,1.25", "JPY,160");
+		FxProperties properties = new FxProperties();
+		properties.setRateFile(rateFile.toString());
+		properties.setRefreshIntervalMillis(0);
+		fxRates = new FxRates(properties);
+		fxRates.start();
+	}
+
+	@After
+	public void deleteRates() throws IOException {
+		fxRates.stop();
+		Files.delete(rateFile);
+	}
+
+	@Test
+	public void reloadSwapsInTheNextEpoch() throws IOException {
+		int usd = fxRates.indexOf("USD");
+		int jpy = fxRates.indexOf("JPY");
+		assertThat(fxRates.epoch()).isEqualTo(1);
+		assertThat(fxRates.convert(10_000, FxRates.BASE, usd)).isEqualTo(12_500);
+		assertThat(fxRates.convert(12_500, usd, FxRates.BASE)).isEqualTo(10_000);
+		assertThat(fxRates.convert(100, usd, jpy)).isEqualTo(12_800);
+
+		writeRates("USD,1.10", "GBP,0.85");
+		assertThat(fxRates.reload()).isTrue();
+		assertThat(fxRates.epoch()).isEqualTo(2);
+		assertThat(fxRates.indexOf("USD")).isEqualTo(usd);
+		assertThat(fxRates.convert(10_000, FxRates.BASE, usd)).isEqualTo(11_000);
+		assertThat(fxRates.convert(10_000, FxRates.BASE, fxRates.indexOf("GBP"))).isEqualTo(8_500);
+		try {
+			fxRates.convert(100, usd, jpy);
+			fail("JPY has no rate in this epoch");
+		} catch (ApplicationException ae) {
+			assertThat(ae.getMessage()).isEqualTo("No FX rate from USD to JPY");
+		}
+
+		writeRates("USD,-1");
+		assertThat(fxRates.reload()).isFalse();
+		assertThat(fxRates.epoch()).isEqualTo(2);
+		assertThat(fxRates.convert(10_000, FxRates.BASE, usd)).isEqualTo(11_000);
+	}
+
+	@Test
+	public void crossCurrencyTransferCreditsTheConvertedAmount() {
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(new EmailNotificationService(), 4,
+				new HotAccountProperties(), fxRates);
+		repository.createAccount(new Account("Id-EUR", new BigDecimal("1000.00")));
+		Account usd = new Account("Id-USD", new BigDecimal("1000.00"));
+		usd.setCurrency("USD");
+		repository.createAccount(usd);
+
+		TransferRequest toUsd = transferRequest("Id-EUR", "Id-USD", "100.00", null);
+		TransferRequest toEur = transferRequest("Id-USD", "Id-EUR", "12.50", "USD");
+		repository.transferMoney(toUsd);
+		repository.transferMoney(toEur);
+		assertThat(toUsd.getCreditMinorUnits()).isEqualTo(12_500);
+		assertThat(toEur.getCreditMinorUnits()).isEqualTo(1_000);
+		assertThat(repository.getAccount("Id-EUR").getBalance()).isEqualByComparingTo("910.00");
+		assertThat(repository.getAccount("Id-USD").getBalance()).isEqualByComparingTo("1112.50");
+		assertThat(repository.getAccount("Id-USD").getCurrency()).isEqualTo("USD");
+		assertThat(repository.totalBalanceMinorUnits("EUR")).isEqualTo(91_000);
+		assertThat(repository.totalBalanceMinorUnits("USD")).isEqualTo(111_250);
+		// 1112.50 USD is 890.00 EUR
+		assertThat(repository.totalBalanceMinorUnits()).isEqualTo(180_000);
+		BalanceReconciler reconciler = new BalanceReconciler(repository, new ReconciliationProperties());
+		assertThat(reconciler.reconcile()).isTrue();
+		assertThat(reconciler.discrepancyMinorUnits()).isZero();
+
+		try {
+			repository.transferMoney(transferRequest("Id-EUR", "Id-USD", "1.00", "USD"));
+			fail("The amount must be in the currency of accountFrom");
+		} catch (ApplicationException ae) {
+			assertThat(ae.getMessage()).isEqualTo("Transfer currency USD is not the currency EUR of account Id-EUR");
+		}
+		Account chf = new Account("Id-CHF", BigDecimal.ONE);
+		chf.setCurrency("CHF");
+		try {
+			repository.createAccount(chf);
+			fail("CHF has no rate");
+		} catch (ApplicationException ae) {
+			assertThat(ae.getMessage()).isEqualTo("Currency CHF has no FX rate");
+		}
+	}
+
+	private void writeRates(String... lines) throws IOException {
+		Files.write(rateFile, Arrays.asList(lines), StandardCharsets.UTF_8);
+	}
+
+	private static TransferRequest transferRequest(String from, String to, String amount, String currency) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(from);
+		transferRequest.setAccountTo(to);
+		transferRequest.setAmount(new BigDecimal(amount));
+		transferRequest.setCurrency(currency);
+		return transferRequest;
+	}
+}
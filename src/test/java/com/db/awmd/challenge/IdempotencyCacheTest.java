@@ -0,0 +1,140 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.config.IdempotencyProperties;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.repository.IdempotencyCache;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Idempotency key cache tests
+ *
+ */
+public class IdempotencyCacheTest {
+
+	private final AtomicInteger runs = new AtomicInteger();
+
+	@Test
+	public void committedTransferRunsOnce() {
+		IdempotencyCache cache = cache(1024, 60_000);
+		for (int i = 0; i < 3; i++) {
+			cache.execute(transferRequest("Id-1", "k-1", 10), runs::incrementAndGet);
+		}
+		cache.execute(transferRequest("Id-2", "k-1", 10), runs::incrementAndGet);
+
+		assertThat(runs.get()).isEqualTo(2);
+		assertThat(cache.replays()).isEqualTo(2);
+	}
+
+	@Test
+	public void rejectionIsReplayedButRetryableReasonsAreRetried() {
+		IdempotencyCache cache = cache(1024, 60_000);
+		for (int i = 0; i < 2; i++) {
+			assertRejected(cache, transferRequest("Id-1", "k-1", 10), RejectionReason.INSUFFICIENT_BALANCE,
+					"Account id Id-1 balance is less than 10");
+			assertRejected(cache, transferRequest("Id-1", "k-2", 10), RejectionReason.CONTENTION,
+					"aborted after 5 attempts due to contention");
+			assertRejected(cache, transferRequest("Id-1", "k-3", 10), RejectionReason.UNAVAILABLE,
+					"Node localhost:1 did not answer within 500 ms");
+			assertRejected(cache, transferRequest("Id-1", "k-4", 10), RejectionReason.RATE_LIMITED,
+					"Client client-1 is over its rate limit of 100 per 1000 ms");
+		}
+		assertThat(runs.get()).isEqualTo(7);
+	}
+
+	@Test
+	public void keyReusedForAnotherTransferIsRefused() {
+		IdempotencyCache cache = cache(1024, 60_000);
+		cache.execute(transferRequest("Id-1", "k-1", 10), runs::incrementAndGet);
+		assertRejected(cache, transferRequest("Id-1", "k-1", 11), null);
+		assertThat(runs.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void retryWhileFirstAttemptRunsIsRefused() throws Exception {
+		IdempotencyCache cache = cache(1024, 60_000);
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread first = new Thread(() -> cache.execute(transferRequest("Id-1", "k-1", 10), () -> {
+			running.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		first.start();
+		running.await();
+
+		assertRejected(cache, transferRequest("Id-1", "k-1", 10), "is still in progress");
+		release.countDown();
+		first.join();
+		cache.execute(transferRequest("Id-1", "k-1", 10), runs::incrementAndGet);
+		assertThat(runs.get()).isZero();
+	}
+
+	@Test
+	public void expiredAndEvictedKeysRunAgain() throws Exception {
+		IdempotencyCache expiring = cache(1024, 1);
+		expiring.execute(transferRequest("Id-1", "k-1", 10), runs::incrementAndGet);
+		Thread.sleep(5);
+		expiring.execute(transferRequest("Id-1", "k-1", 10), runs::incrementAndGet);
+		assertThat(runs.get()).isEqualTo(2);
+
+		IdempotencyCache small = cache(16, 60_000);
+		for (int i = 0; i < 64 * 16 * 2; i++) {
+			small.execute(transferRequest("Id-1", "k-" + i, 10), () -> {
+			});
+		}
+		assertThat(small.evictions()).isGreaterThan(0);
+		small.execute(transferRequest("Id-1", "k-" + (64 * 16 * 2 - 1), 10), runs::incrementAndGet);
+		assertThat(runs.get()).isEqualTo(2);
+	}
+
+	private void assertRejected(IdempotencyCache cache, TransferRequest transferRequest, String message) {
+		assertRejected(cache, transferRequest, RejectionReason.OTHER, message);
+	}
+
+	private void assertRejected(IdempotencyCache cache, TransferRequest transferRequest, RejectionReason reason,
+			String message) {
+		try {
+			cache.execute(transferRequest, () -> {
+				runs.incrementAndGet();
+				throw new ApplicationException(reason, message);
+			});
+			fail("Transfer should have been rejected");
+		} catch (ApplicationException ae) {
+			if (message != null) {
+				assertThat(ae.getMessage()).contains(message);
+				assertThat(ae.getReason()).isEqualTo(reason);
+			}
+		}
+	}
+
+	private static IdempotencyCache cache(int capacity, long timeToLiveMillis) {
+		IdempotencyProperties properties = new IdempotencyProperties();
+		properties.setCapacity(capacity);
+		properties.setTimeToLiveMillis(timeToLiveMillis);
+		return new IdempotencyCache(properties);
+	}
+
+	private static TransferRequest transferRequest(String accountFrom, String idempotencyKey, int amount) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(accountFrom);
+		transferRequest.setAccountTo("Id-9");
+		transferRequest.setAmount(BigDecimal.valueOf(amount));
+		transferRequest.setIdempotencyKey(idempotencyKey);
+		return transferRequest;
+	}
+}
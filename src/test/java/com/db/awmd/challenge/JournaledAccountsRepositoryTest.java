@@ -0,0 +1,205 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.db.awmd.challenge.config.JournalProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchTransferMode;
+import com.db.awmd.challenge.domain.DurabilityLevel;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.JournaledAccountsRepository;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Write ahead journal and snapshot tests. Each test closes the
+ *         repository and recovers a new one from the same journal directory.
+ *
+ */
+public class JournaledAccountsRepositoryTest {
+
+	@Rule
+	public TemporaryFolder journalDirectory = new TemporaryFolder();
+
+	private JournaledAccountsRepository repository;
+
+	@Before
+	public void open() throws IOException {
+		repository = recover();
+	}
+
+	@After
+	public void close() {
+		repository.close();
+	}
+
+	@Test
+	public void transfersSurviveRestart() throws Exception {
+		repository.createAccount(new Account("Id-1", new BigDecimal("1000")));
+		repository.createAccount(new Account("Id-2", new BigDecimal("500.50")));
+		repository.transferMoney(transferRequest("Id-1", "Id-2", "100.25", DurabilityLevel.FSYNC));
+		repository.transferMoney(transferRequest("Id-2", "Id-1", "0.50", DurabilityLevel.BUFFERED));
+		repository.transferMoneyBatch(Arrays.asList(transferRequest("Id-1", "Id-2", "10", null),
+				transferRequest("Id-2", "Id-1", "5000", null)), BatchTransferMode.BEST_EFFORT);
+
+		restart();
+
+		assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("890.25");
+		assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("610.25");
+	}
+
+	@Test
+	public void clearIsReplayed() throws Exception {
+		repository.createAccount(new Account("Id-1", new BigDecimal("1000")));
+		repository.clearAccounts();
+		repository.createAccount(new Account("Id-2", new BigDecimal("10")));
+
+		restart();
+
+		assertThat(repository.getAccount("Id-1")).isNull();
+		assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("10");
+	}
+
+	@Test(expected = DuplicateAccountIdException.class)
+	public void duplicateAccountIsNotJournaled() throws Exception {
+		repository.createAccount(new Account("Id-1", new BigDecimal("1000")));
+		restart();
+		repository.createAccount(new Account("Id-1", new BigDecimal("1")));
+	}
+
+	@Test
+	public void transferTheJournalRefusesIsUndone() throws Exception {
+		// either id fits a record on its own, a transfer naming both does not
+		String from = String.join("", Collections.nCopies(20000, "F"));
+		String to = String.join("", Collections.nCopies(20000, "T"));
+		repository.createAccount(new Account(from, new BigDecimal("1000")));
+		repository.createAccount(new Account(to, new BigDecimal("0")));
+
+		try {
+			repository.transferMoney(transferRequest(from, to, "1", DurabilityLevel.FSYNC));
+			fail("The journal took a transfer larger than a segment");
+		} catch (ApplicationException ae) {
+			assertThat(ae.getMessage()).contains("does not fit a segment");
+		}
+		assertThat(repository.getAccount(from).getBalance()).isEqualByComparingTo("1000");
+		assertThat(repository.getAccount(to).getBalance()).isEqualByComparingTo("0");
+		assertThat(repository.getAccount(to).getVersion()).isZero();
+
+		restart();
+		assertThat(repository.getAccount(from).getBalance()).isEqualByComparingTo("1000");
+		assertThat(repository.getAccount(to).getBalance()).isEqualByComparingTo("0");
+	}
+
+	@Test
+	public void tornTailIsDiscarded() throws Exception {
+		repository.createAccount(new Account("Id-1", new BigDecimal("1000")));
+		repository.createAccount(new Account("Id-2", new BigDecimal("0")));
+		repository.transferMoney(transferRequest("Id-1", "Id-2", "1", DurabilityLevel.FSYNC));
+		repository.close();
+
+		File segment = journalDirectory.getRoot().listFiles()[0];
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			long end = 0;
+			int length;
+			while ((length = readInt(file, end)) > 0) {
+				end += 8 + length;
+			}
+			// a record whose header reached the disk but whose payload did not
+			file.seek(end);
+			file.writeInt(32);
+			file.writeInt(0xCAFE);
+		}
+
+		repository = recover();
+		repository.transferMoney(transferRequest("Id-1", "Id-2", "2", DurabilityLevel.FSYNC));
+		restart();
+
+		assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("997");
+		assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("3");
+	}
+
+	@Test
+	public void snapshotReplacesJournalWrittenBeforeIt() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			repository.createAccount(new Account("Id-" + i, new BigDecimal("1000")));
+		}
+		for (int i = 0; i < 5000; i++) {
+			repository.transferMoney(transferRequest("Id-" + i % 100, "Id-" + (i + 1) % 100, "1", null));
+		}
+		assertThat(repository.snapshot()).isEqualTo(100);
+		assertThat(repository.snapshot()).isEqualTo(-1);
+		assertThat(journalDirectory.getRoot().list()).hasSize(2);
+
+		repository.transferMoney(transferRequest("Id-0", "Id-1", "500", null));
+		repository.createAccount(new Account("Id-100", new BigDecimal("1")));
+		restart();
+		assertThat(repository.snapshot()).isEqualTo(101);
+		repository.transferMoney(transferRequest("Id-100", "Id-0", "1", null));
+		restart();
+
+		assertThat(repository.getAccount("Id-0").getBalance()).isEqualByComparingTo("501");
+		assertThat(repository.getAccount("Id-1").getBalance()).isEqualByComparingTo("1500");
+		assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("1000");
+		assertThat(repository.getAccount("Id-100").getBalance()).isEqualByComparingTo("0");
+	}
+
+	@Test
+	public void clearAfterSnapshotIsReplayed() throws Exception {
+		repository.createAccount(new Account("Id-1", new BigDecimal("1000")));
+		repository.snapshot();
+		repository.clearAccounts();
+		repository.createAccount(new Account("Id-2", new BigDecimal("10")));
+		repository.snapshot();
+		restart();
+
+		assertThat(repository.getAccount("Id-1")).isNull();
+		assertThat(repository.getAccount("Id-2").getBalance()).isEqualByComparingTo("10");
+	}
+
+	private void restart() throws IOException {
+		repository.close();
+		repository = recover();
+	}
+
+	private JournaledAccountsRepository recover() throws IOException {
+		JournalProperties properties = new JournalProperties();
+		properties.setDirectory(journalDirectory.getRoot().getAbsolutePath());
+		properties.setSegmentSize(64 * 1024);
+		JournaledAccountsRepository recovered = new JournaledAccountsRepository(
+				new AccountsRepositoryInMemory((account, description) -> {
+				}), properties);
+		recovered.recover();
+		return recovered;
+	}
+
+	private static int readInt(RandomAccessFile file, long position) throws IOException {
+		file.seek(position);
+		return file.readInt();
+	}
+
+	private static TransferRequest transferRequest(String from, String to, String amount, DurabilityLevel durability) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(from);
+		transferRequest.setAccountTo(to);
+		transferRequest.setAmount(new BigDecimal(amount));
+		transferRequest.setDurability(durability);
+		return transferRequest;
+	}
+}
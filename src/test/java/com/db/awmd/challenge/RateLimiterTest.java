@@ -0,0 +1,152 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.db.awmd.challenge.config.RateLimitProperties;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.exception.RejectionReason;
+import com.db.awmd.challenge.ratelimit.RateLimiter;
+import com.db.awmd.challenge.ratelimit.RateLimiter.Outcome;
+import com.db.awmd.challenge.ratelimit.TransferRateLimiter;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Rate limiter tests on a simulated clock
+ *
+ */
+public class RateLimiterTest {
+
+	private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+	private static final long TICK = TimeUnit.MILLISECONDS.toNanos(10);
+
+	@Test
+	public void transfersRefillOverTheWindow() throws Exception {
+		RateLimiter limiter = new RateLimiter(10, 0, WINDOW, 64, TICK);
+		long now = TimeUnit.HOURS.toNanos(1);
+		for (int i = 0; i < 10; i++) {
+			assertThat(limiter.tryAcquire("Id-1", 1, now)).isEqualTo(Outcome.ALLOWED);
+		}
+		assertThat(limiter.tryAcquire("Id-1", 1, now)).isEqualTo(Outcome.COUNT_EXCEEDED);
+		assertThat(limiter.tryAcquire("Id-2", 1, now)).isEqualTo(Outcome.ALLOWED);
+
+		// one transfer every tenth of the window
+		assertThat(limiter.tryAcquire("Id-1", 1, now + WINDOW / 10 - 1)).isEqualTo(Outcome.COUNT_EXCEEDED);
+		assertThat(limiter.tryAcquire("Id-1", 1, now + WINDOW / 10)).isEqualTo(Outcome.ALLOWED);
+		assertThat(limiter.tryAcquire("Id-1", 1, now + WINDOW / 10)).isEqualTo(Outcome.COUNT_EXCEEDED);
+
+		limiter.release("Id-1", 1, now + WINDOW / 10);
+		assertThat(limiter.tryAcquire("Id-1", 1, now + WINDOW / 10)).isEqualTo(Outcome.ALLOWED);
+	}
+
+	@Test
+	public void releasedKeysFullAgainAreDropped() throws Exception {
+		RateLimiter limiter = new RateLimiter(10, 100_00, WINDOW, 64, TICK);
+		long now = TimeUnit.HOURS.toNanos(1);
+		assertThat(limiter.tryAcquire("Id-made-up", 50_00, now)).isEqualTo(Outcome.ALLOWED);
+		assertThat(limiter.size()).isEqualTo(1);
+		limiter.release("Id-made-up", 50_00, now);
+		assertThat(limiter.size()).isZero();
+	}
+
+	@Test
+	public void amountIsLimitedPerWindow() throws Exception {
+		RateLimiter limiter = new RateLimiter(0, 100_00, WINDOW, 64, TICK);
+		long now = 0;
+		assertThat(limiter.tryAcquire("Id-1", 60_00, now)).isEqualTo(Outcome.ALLOWED);
+		assertThat(limiter.tryAcquire("Id-1", 50_00, now)).isEqualTo(Outcome.AMOUNT_EXCEEDED);
+		assertThat(limiter.tryAcquire("Id-1", 40_00, now)).isEqualTo(Outcome.ALLOWED);
+		assertThat(limiter.tryAcquire("Id-1", 10_00, now + WINDOW / 10)).isEqualTo(Outcome.ALLOWED);
+		assertThat(limiter.tryAcquire("Id-1", 100_01, now + 10 * WINDOW)).isEqualTo(Outcome.AMOUNT_EXCEEDED);
+	}
+
+	@Test
+	public void idleKeysAreDropped() throws Exception {
+		RateLimiter limiter = new RateLimiter(5, 0, WINDOW, 16, TICK);
+		long now = TimeUnit.DAYS.toNanos(1);
+		for (int i = 0; i < 1000; i++) {
+			limiter.tryAcquire("Id-" + i, 1, now + i * TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		assertThat(limiter.size()).isEqualTo(1000);
+
+		long later = now + TimeUnit.MILLISECONDS.toNanos(150);
+		for (long t = now; t <= later; t += TICK) {
+			limiter.sweep(t);
+		}
+		assertThat(limiter.size()).isEqualTo(1000);
+
+		// each key is full again a fifth of the window after its transfer
+		long end = now + TimeUnit.MILLISECONDS.toNanos(1300);
+		for (long t = later; t <= end; t += TICK) {
+			limiter.sweep(t);
+		}
+		assertThat(limiter.size()).isZero();
+		for (int i = 0; i < 5; i++) {
+			assertThat(limiter.tryAcquire("Id-0", 1, end)).isEqualTo(Outcome.ALLOWED);
+		}
+		assertThat(limiter.tryAcquire("Id-0", 1, end)).isEqualTo(Outcome.COUNT_EXCEEDED);
+	}
+
+	@Test
+	public void clientRejectionGivesBackTheAccountTransfer() throws Exception {
+		RateLimitProperties properties = new RateLimitProperties();
+		properties.setAccountTransfers(3);
+		properties.setClientTransfers(2);
+		properties.setWindowMillis(60_000);
+		TransferRateLimiter limiter = new TransferRateLimiter(properties);
+
+		limiter.check(transfer("Id-1", "gateway"));
+		limiter.check(transfer("Id-1", "gateway"));
+		try {
+			limiter.check(transfer("Id-1", "gateway"));
+			fail("The gateway is over its limit");
+		} catch (ApplicationException ae) {
+			assertThat(ae.getMessage()).isEqualTo("Client gateway is over its rate limit of 2 transfers per 60000 ms");
+			assertThat(ae.getReason()).isEqualTo(RejectionReason.RATE_LIMITED);
+		}
+		limiter.check(transfer("Id-1", null));
+		try {
+			limiter.check(transfer("Id-1", null));
+			fail("Id-1 is over its limit");
+		} catch (ApplicationException ae) {
+			assertThat(ae.getMessage()).isEqualTo("Account id Id-1 is over its rate limit of 3 transfers per 60000 ms");
+		}
+	}
+
+	@Test
+	public void rejectedTransferGivesBackBothLimits() throws Exception {
+		RateLimitProperties properties = new RateLimitProperties();
+		properties.setAccountTransfers(1);
+		properties.setClientTransfers(1);
+		properties.setWindowMillis(60_000);
+		TransferRateLimiter limiter = new TransferRateLimiter(properties);
+
+		TransferRequest rejected = transfer("Id-1", "10.0.0.1");
+		limiter.check(rejected);
+		limiter.release(rejected);
+		limiter.check(transfer("Id-1", "10.0.0.1"));
+		try {
+			limiter.check(transfer("Id-1", "10.0.0.1"));
+			fail("Id-1 is over its limit");
+		} catch (ApplicationException ae) {
+			assertThat(ae.getReason()).isEqualTo(RejectionReason.RATE_LIMITED);
+		}
+	}
+
+	private static TransferRequest transfer(String accountFrom, String clientId) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(accountFrom);
+		transferRequest.setAccountTo("Id-2");
+		transferRequest.setAmount(BigDecimal.ONE);
+		transferRequest.setClientId(clientId);
+		return transferRequest;
+	}
+}
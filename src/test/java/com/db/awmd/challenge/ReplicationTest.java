@@ -0,0 +1,162 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.db.awmd.challenge.config.JournalProperties;
+import com.db.awmd.challenge.config.ReplicationProperties;
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchTransferMode;
+import com.db.awmd.challenge.domain.DurabilityLevel;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.ApplicationException;
+import com.db.awmd.challenge.replication.ReplicationFollower;
+import com.db.awmd.challenge.replication.ReplicationPrimary;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.JournaledAccountsRepository;
+import com.db.awmd.challenge.repository.ReplicaAccountsRepository;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Journal shipping tests with a primary and its followers in one JVM,
+ *         connected over localhost
+ *
+ */
+public class ReplicationTest {
+
+	private static final int ACCOUNTS = 50;
+
+	@Rule
+	public TemporaryFolder journalDirectory = new TemporaryFolder();
+
+	private JournaledAccountsRepository primary;
+
+	private ReplicationPrimary replicationPrimary;
+
+	private final List<ReplicationFollower> followers = new ArrayList<>();
+
+	@Before
+	public void startPrimary() throws Exception {
+		JournalProperties journalProperties = new JournalProperties();
+		journalProperties.setDirectory(journalDirectory.getRoot().getAbsolutePath());
+		journalProperties.setSegmentSize(64 * 1024);
+		journalProperties.setDurability(DurabilityLevel.BUFFERED);
+		journalProperties.setSnapshotIntervalMillis(0);
+		primary = new JournaledAccountsRepository(new AccountsRepositoryInMemory((account, description) -> {
+		}), journalProperties);
+		primary.recover();
+
+		ReplicationProperties properties = new ReplicationProperties();
+		properties.setPort(0);
+		properties.setMaxFrameBytes(4096);
+		replicationPrimary = new ReplicationPrimary(primary, properties);
+		replicationPrimary.start();
+	}
+
+	@After
+	public void stop() throws Exception {
+		for (ReplicationFollower follower : followers) {
+			follower.stop();
+		}
+		replicationPrimary.stop();
+		primary.close();
+	}
+
+	@Test
+	public void followersApplyTheShippedJournal() throws Exception {
+		ReplicaAccountsRepository first = follow();
+		ReplicaAccountsRepository second = follow();
+		for (int i = 0; i < ACCOUNTS; i++) {
+			primary.createAccount(new Account("Id-" + i, new BigDecimal("1000")));
+		}
+		// enough records to seal several segments
+		for (int i = 0; i < 10_000; i++) {
+			primary.transferMoney(transferRequest("Id-" + i % ACCOUNTS, "Id-" + (i * 7 + 1) % ACCOUNTS, "1.25"));
+		}
+		List<TransferRequest> batch = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			batch.add(transferRequest("Id-" + i % ACCOUNTS, "Id-" + (i + 3) % ACCOUNTS, "0.01"));
+		}
+		primary.transferMoneyBatch(batch, BatchTransferMode.ATOMIC);
+
+		awaitReplicated(first);
+		awaitReplicated(second);
+		assertThat(replicationPrimary.getLag().count()).isGreaterThan(0);
+		try {
+			first.transferMoney(transferRequest("Id-0", "Id-1", "1"));
+			fail("Followers are read only");
+		} catch (ApplicationException ae) {
+			assertThat(ae.getMessage()).contains("read only follower");
+		}
+	}
+
+	@Test
+	public void lateFollowerStartsFromTheSnapshot() throws Exception {
+		for (int i = 0; i < ACCOUNTS; i++) {
+			primary.createAccount(new Account("Id-" + i, new BigDecimal("1000")));
+		}
+		for (int i = 0; i < 5_000; i++) {
+			primary.transferMoney(transferRequest("Id-" + i % ACCOUNTS, "Id-" + (i + 1) % ACCOUNTS, "2"));
+		}
+		assertThat(primary.snapshot()).isEqualTo(ACCOUNTS);
+		primary.transferMoney(transferRequest("Id-0", "Id-1", "500"));
+
+		ReplicaAccountsRepository late = follow();
+		awaitReplicated(late);
+
+		primary.clearAccounts();
+		primary.createAccount(new Account("Id-X", new BigDecimal("7")));
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (late.countAccounts() != 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(late.getAccount("Id-0")).isNull();
+		assertThat(late.getAccount("Id-X").getBalance()).isEqualByComparingTo("7");
+	}
+
+	private ReplicaAccountsRepository follow() {
+		ReplicationProperties properties = new ReplicationProperties();
+		properties.setPrimaryPort(replicationPrimary.port());
+		properties.setMaxFrameBytes(4096);
+		ReplicaAccountsRepository replica = new ReplicaAccountsRepository();
+		ReplicationFollower follower = new ReplicationFollower(replica, properties);
+		follower.start();
+		followers.add(follower);
+		return replica;
+	}
+
+	private void awaitReplicated(ReplicaAccountsRepository replica) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (replica.appliedPosition() != primary.getJournal().appendedPosition()
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(replica.appliedPosition()).isEqualTo(primary.getJournal().appendedPosition());
+		assertThat(replica.countAccounts()).isEqualTo(primary.countAccounts());
+		assertThat(replica.totalBalanceMinorUnits()).isEqualTo(primary.totalBalanceMinorUnits());
+		for (int i = 0; i < ACCOUNTS; i++) {
+			Account account = primary.getAccount("Id-" + i);
+			assertThat(replica.getAccount("Id-" + i).getBalance()).as(account.getAccountId())
+					.isEqualByComparingTo(account.getBalance());
+		}
+	}
+
+	private static TransferRequest transferRequest(String from, String to, String amount) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(from);
+		transferRequest.setAccountTo(to);
+		transferRequest.setAmount(new BigDecimal(amount));
+		return transferRequest;
+	}
+}
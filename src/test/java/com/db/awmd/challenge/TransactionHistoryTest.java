@@ -0,0 +1,106 @@
+package com.db.awmd.challenge;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.db.awmd.challenge.config.HistoryProperties;
+import com.db.awmd.challenge.domain.Transaction;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.history.TransactionHistory;
+
+/**
+ * @author Dhananjay Jadhav
+ *
+ *         Transaction history range query and spill tests
+ *
+ */
+public class TransactionHistoryTest {
+
+	private Path directory;
+
+	private TransactionHistory history;
+
+	@Before
+	public void startHistory() throws IOException {
+		directory = Files.createTempDirectory("history");
+		HistoryProperties properties = new HistoryProperties();
+		properties.setDirectory(directory.toString());
+		properties.setMaxResidentEntries(256);
+		properties.setMaxChunkEntries(64);
+		history = new TransactionHistory(properties);
+		history.start();
+	}
+
+	@After
+	public void stopHistory() throws IOException {
+		history.stop();
+		Files.delete(directory);
+	}
+
+	@Test
+	public void rangeIsAnsweredFromMemoryAndSpilledChunks() throws Exception {
+		// ten entries per millisecond for both accounts, far more than stay resident
+		for (int i = 0; i < 10_000; i++) {
+			history.transferCommitted(transferRequest("Id-1", "Id-2", i), 1_000 + i / 10);
+		}
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (history.residentEntries() > 256 + 2 * 64 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(history.residentEntries()).isLessThanOrEqualTo(256 + 2 * 64);
+
+		List<Transaction> oldest = history.transactions("Id-1", 1_000, 1_002);
+		assertThat(oldest).hasSize(20);
+		assertThat(oldest.get(0).getAmount()).isEqualByComparingTo("-0.00");
+		assertThat(oldest.get(19).getAmount()).isEqualByComparingTo("-0.19");
+		assertThat(oldest.get(0).getTimestamp()).isEqualTo("1970-01-01T00:00:01Z");
+
+		List<Transaction> newest = history.transactions("Id-2", 1_995, Long.MAX_VALUE);
+		assertThat(newest).hasSize(50);
+		assertThat(newest.get(49).getAmount()).isEqualByComparingTo("99.99");
+		assertThat(newest.get(49).getCounterparty()).isEqualTo("Id-1");
+
+		assertThat(history.transactions("Id-1", 0, Long.MAX_VALUE)).hasSize(10_000);
+		assertThat(history.transactions("Id-1", 500, 1_000)).isEmpty();
+		assertThat(history.transactions("Id-3", 0, Long.MAX_VALUE)).isEmpty();
+	}
+
+	@Test
+	public void timestampsNeverGoBack() {
+		history.transferCommitted(transferRequest("Id-1", "Id-2", 1), 2_000);
+		history.transferCommitted(transferRequest("Id-1", "Id-2", 2), 1_000);
+
+		List<Transaction> transactions = history.transactions("Id-1", 2_000, 2_001);
+		assertThat(transactions).extracting(Transaction::getTimestamp).containsExactly("1970-01-01T00:00:02Z",
+				"1970-01-01T00:00:02Z");
+	}
+
+	@Test
+	public void creditedAccountGetsTheConvertedAmount() {
+		TransferRequest transferRequest = transferRequest("Id-EUR", "Id-USD", 100_00);
+		transferRequest.setCreditMinorUnits(125_00);
+		history.transferCommitted(transferRequest, 1_000);
+
+		assertThat(history.transactions("Id-EUR", 0, Long.MAX_VALUE)).extracting(Transaction::getAmount)
+				.containsExactly(new BigDecimal("-100.00"));
+		assertThat(history.transactions("Id-USD", 0, Long.MAX_VALUE)).extracting(Transaction::getAmount)
+				.containsExactly(new BigDecimal("125.00"));
+	}
+
+	private static TransferRequest transferRequest(String from, String to, long amountMinorUnits) {
+		TransferRequest transferRequest = new TransferRequest();
+		transferRequest.setAccountFrom(from);
+		transferRequest.setAccountTo(to);
+		transferRequest.setAmount(BigDecimal.valueOf(amountMinorUnits, 2));
+		return transferRequest;
+	}
+}